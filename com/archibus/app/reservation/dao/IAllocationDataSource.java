@@ -1,6 +1,6 @@
 package com.archibus.app.reservation.dao;
 
-import java.util.List;
+import java.util.*;
 
 import com.archibus.app.reservation.domain.*;
 import com.archibus.core.dao.IDao;
@@ -46,6 +46,25 @@ public interface IAllocationDataSource<T extends IAllocation> extends IDao<T> {
      */
     void cancel(final T allocation) throws ReservationException;
     
+    /**
+     * Cancel all given allocations, using set-based updates. Cancellation costs are computed for
+     * each allocation. The current user must be allowed to cancel them, which can be checked via
+     * getReservationsNotCancellable.
+     * 
+     * @param allocations the allocations to cancel, as loaded from the database
+     * @throws ReservationException the reservation exception
+     */
+    void cancelAll(final List<T> allocations) throws ReservationException;
+    
+    /**
+     * Check which of the given allocations cannot be cancelled by the current user, without
+     * querying each allocation again.
+     * 
+     * @param allocations the allocations to check, as loaded from the database
+     * @return the reservation ids of the allocations that cannot be cancelled
+     */
+    Set<Integer> getReservationsNotCancellable(final List<T> allocations);
+    
     /**
      * Calculate total cost.
      * 
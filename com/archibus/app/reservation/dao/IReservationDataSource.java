@@ -30,6 +30,17 @@ public interface IReservationDataSource<T extends AbstractReservation> extends I
      */
     void canBeCancelledByCurrentUser(final T reservation) throws ReservationException;
 
+    /**
+     * Check which of the given reservations can be cancelled by the current user. Applies the same
+     * checks as canBeCancelledByCurrentUser, but on the reservations and allocations as loaded.
+     *
+     * @param reservations the reservations to check, as loaded from the database
+     * @param failures list to add the reservations to that cannot be cancelled
+     * @return the reservations that can be cancelled
+     */
+    List<T> filterCancellableByCurrentUser(final List<T> reservations,
+            final List<? super T> failures);
+
     /**
      * Get room reservations by parent id.
      *
@@ -62,6 +73,17 @@ public interface IReservationDataSource<T extends AbstractReservation> extends I
      */
     void cancel(final T reservation, final String comments) throws ReservationException;
 
+    /**
+     * Cancel all given reservations and their allocations, using set-based updates. The current
+     * user must be allowed to cancel them, which can be checked via
+     * filterCancellableByCurrentUser.
+     *
+     * @param reservations the reservations to cancel, as loaded from the database
+     * @param comments the cancellation comments
+     * @throws ReservationException reservation exception
+     */
+    void cancelAll(final List<T> reservations, final String comments) throws ReservationException;
+
     /**
      * Mark the given reservation as recurring in the database without updating any other fields.
      *
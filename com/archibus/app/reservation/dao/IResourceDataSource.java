@@ -118,6 +118,21 @@ public interface IResourceDataSource extends IDao<Resource> {
      */
     int getNumberOfReservedResources(final TimePeriod timePeriod, final String resourceId,
             final Integer reserveId, boolean includePreAndPostBlocks);
+
+    /**
+     * Get the peak number of reserved units of the given limited resources in each of the given
+     * time periods. All overlapping resource reservations are loaded in a single query.
+     *
+     * @param resourceIds resource ids
+     * @param timePeriods complete time periods, must not overlap
+     * @param reserveIds reservation id to ignore for each time period (entries can be null)
+     * @param includePreAndPostBlocks include pre- and post-blocks as reserved time
+     *
+     * @return for each resource id, the peak number of reserved units in each time period
+     */
+    Map<String, int[]> getPeakReservedResources(final Collection<String> resourceIds,
+            final List<TimePeriod> timePeriods, final List<Integer> reserveIds,
+            boolean includePreAndPostBlocks);
     
     /**
      * Convert objects to records.
@@ -51,6 +51,18 @@ public interface IRoomAllocationDataSource extends IAllocationDataSource<RoomAll
      */
     List<RoomAllocation> getAllocatedRooms(final Date startDate,
             final RoomArrangement roomArrangement, final Integer[] reservationIds);
+
+    /**
+     * Get the active room allocations in the rooms of the given room arrangements between the
+     * given dates, for all configurations of those rooms.
+     *
+     * @param startDate the first date
+     * @param endDate the last date
+     * @param roomArrangements the room arrangements whose rooms to get allocations for
+     * @return list of allocated rooms
+     */
+    List<RoomAllocation> getAllocatedRooms(final Date startDate, final Date endDate,
+            final List<RoomArrangement> roomArrangements);
             
     /**
      * Add the room allocations to a list of reservations.
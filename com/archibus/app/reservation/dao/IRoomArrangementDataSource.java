@@ -1,6 +1,6 @@
 package com.archibus.app.reservation.dao;
 
-import java.util.List;
+import java.util.*;
 
 import com.archibus.app.reservation.domain.*;
 import com.archibus.core.dao.IDao;
@@ -63,6 +63,24 @@ public interface IRoomArrangementDataSource extends IDao<RoomArrangement> {
             final String rmId, final String arrangeTypeId, final TimePeriod timePeriod,
             final Integer numberAttendees, final List<String> fixedResourceStandards);
 
+    /**
+     * Determine for each of the given room arrangements for which occurrences it is not available.
+     * Each occurrence is checked like findAvailableRooms without allowing conflicts, with the given
+     * room arrangements as the only candidates. The room arrangements must meet the criteria that
+     * do not depend on the date, e.g. as returned by findAvailableRooms for the first occurrence.
+     * Uses a fixed number of queries regardless of the number of occurrences.
+     *
+     * @param roomArrangements the candidate room arrangements
+     * @param occurrences the occurrences in local time of the building, with the reservation ids
+     *            to ignore for each occurrence
+     * @param localTimeZone the time zone of the building
+     * @param allDayEvent true for all day events, false for regular reservations
+     * @return for each room arrangement, the indexes of the occurrences it is not available for
+     */
+    Map<RoomArrangement, BitSet> findConflictingOccurrences(
+            final List<RoomArrangement> roomArrangements, final List<RoomReservation> occurrences,
+            final String localTimeZone, final boolean allDayEvent);
+
     /**
      * Gets the room arrangement.
      *
@@ -76,4 +94,13 @@ public interface IRoomArrangementDataSource extends IDao<RoomArrangement> {
     RoomArrangement get(final String blId, final String flId, final String rmId,
             final String configId, final String arrangeTypeId);
 
+    /**
+     * Get the room arrangements with the given primary keys using a single query.
+     *
+     * @param primaryKeys room arrangements containing only the primary key values
+     * @return the room arrangements found, mapped by primary key
+     */
+    Map<RoomArrangement, RoomArrangement> getRoomArrangements(
+            final Set<RoomArrangement> primaryKeys);
+
 }
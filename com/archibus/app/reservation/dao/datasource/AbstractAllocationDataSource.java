@@ -3,10 +3,9 @@ package com.archibus.app.reservation.dao.datasource;
 import java.sql.Time;
 import java.util.*;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.IAllocationDataSource;
 import com.archibus.app.reservation.domain.*;
-import com.archibus.app.reservation.util.DataSourceUtils;
+import com.archibus.app.reservation.util.*;
 import com.archibus.context.*;
 import com.archibus.datasource.*;
 import com.archibus.datasource.data.DataRecord;
@@ -72,10 +71,9 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
         dataSource.setApplyVpaRestrictions(false);
 
         // get local time using the building location
-        final Date localCurrentDate = TimePeriod
-            .clearTime(LocalDateTimeUtil.currentLocalDate(null, null, null, allocation.getBlId()));
-        final Time localCurrentTime =
-                LocalDateTimeUtil.currentLocalTime(null, null, null, allocation.getBlId());
+        final Date localCurrentDate =
+                TimePeriod.clearTime(TimeZoneConverter.getCurrentLocalDate(allocation.getBlId()));
+        final Time localCurrentTime = TimeZoneConverter.getCurrentLocalTime(allocation.getBlId());
 
         // check if reservation can be modified status
         dataSource
@@ -98,22 +96,39 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
                 allocation.getRmId());
         }
 
-        final long daysDifference = DataSourceUtils.getDaysDifference(allocation, localCurrentDate);
-
-        // make sure the days before announcing / canceling is respected
-        if (aheadDays != null && daysDifference < aheadDays) {
+        if (!isTimeAheadRespected(allocation, aheadDays, aheadTime, localCurrentDate,
+            localCurrentTime)) {
             throw new ReservableNotAvailableException(reservable, allocation.getReserveId(),
                 errorMessage, clazz, allocation.getBlId(), allocation.getFlId(),
                 allocation.getRmId());
         }
+    }
+
+    /**
+     * Check whether the days and time before announcing / cancelling are respected.
+     *
+     * @param allocation the allocation to check
+     * @param aheadDays minimum number of days before the allocation to allow changes
+     * @param aheadTime minimum time before the allocation to allow changes
+     * @param localCurrentDate the current date in the building of the allocation
+     * @param localCurrentTime the current time in the building of the allocation
+     * @return true if the time ahead is OK, false otherwise
+     */
+    private static boolean isTimeAheadRespected(final AbstractAllocation allocation,
+            final Integer aheadDays, final Time aheadTime, final Date localCurrentDate,
+            final Time localCurrentTime) {
+        final long daysDifference = DataSourceUtils.getDaysDifference(allocation, localCurrentDate);
+
+        // make sure the days before announcing / canceling is respected
+        boolean respected = aheadDays == null || daysDifference >= aheadDays;
 
         // make sure the announce / cancel time is respected
-        if (aheadDays != null && aheadTime != null && daysDifference == aheadDays.longValue()
+        if (respected && aheadDays != null && aheadTime != null
+                && daysDifference == aheadDays.longValue()
                 && localCurrentTime.toString().compareTo(aheadTime.toString()) > 0) {
-            throw new ReservableNotAvailableException(reservable, allocation.getReserveId(),
-                errorMessage, clazz, allocation.getBlId(), allocation.getFlId(),
-                allocation.getRmId());
+            respected = false;
         }
+        return respected;
     }
 
     /**
@@ -236,6 +251,82 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
         super.update(allocation);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The status and time ahead are checked on the given allocations, which must be loaded from the
+     * database. The reservable of each room or resource is retrieved only once.
+     */
+    @Override
+    public Set<Integer> getReservationsNotCancellable(final List<T> allocations) {
+        final List<String> allowedStatuses =
+                Arrays.asList(Constants.STATUS_AWAITING_APP_OR_CONFIRMED.split(","));
+        final Map<String, IReservable> reservables = new HashMap<String, IReservable>();
+        final Set<Integer> reserveIds = new HashSet<Integer>();
+        for (final T allocation : allocations) {
+            final IReservable reservable = this.getReservable(allocation, reservables);
+
+            // get local time using the building location
+            final String blId = allocation.getBlId();
+            final Date localCurrentDate =
+                    TimePeriod.clearTime(TimeZoneConverter.getCurrentLocalDate(blId));
+            final Time localCurrentTime = TimeZoneConverter.getCurrentLocalTime(blId);
+            final Date startDate = TimePeriod.clearTime(allocation.getStartDate());
+
+            // same conditions as checkStatusAndTimeAhead, without querying the database
+            final boolean cancellable = allowedStatuses.contains(allocation.getStatus())
+                    && !startDate.before(localCurrentDate)
+                    && (startDate.after(localCurrentDate) || allocation.getStartTime().toString()
+                        .compareTo(localCurrentTime.toString()) > 0)
+                    && isTimeAheadRespected(allocation, reservable.getCancelDays(),
+                        reservable.getCancelTime(), localCurrentDate, localCurrentTime);
+            if (!cancellable) {
+                reserveIds.add(allocation.getReserveId());
+            }
+        }
+        return reserveIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The allocations are updated with one statement per distinct cancellation cost, instead of
+     * one statement per allocation.
+     */
+    @Override
+    public void cancelAll(final List<T> allocations) throws ReservationException {
+        final String employeeId = ContextStore.get().getUser().getEmployee().getId();
+        final Date currentDate = Utility.currentDate();
+
+        // compute the cancellation costs in one pass, retrieving each reservable only once
+        final Map<String, IReservable> reservables = new HashMap<String, IReservable>();
+        final Map<Double, List<Integer>> idsByCost = new LinkedHashMap<Double, List<Integer>>();
+        for (final T allocation : allocations) {
+            allocation.setStatus(Constants.STATUS_CANCELLED);
+            allocation.setLastModifiedBy(employeeId);
+            this.calculateCancellationCost(allocation,
+                this.getReservable(allocation, reservables));
+            allocation.setCancelledDate(currentDate);
+            allocation.setLastModifiedDate(currentDate);
+
+            List<Integer> ids = idsByCost.get(allocation.getCost());
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                idsByCost.put(allocation.getCost(), ids);
+            }
+            ids.add(allocation.getId());
+        }
+
+        this.checkSetContext();
+        for (final Map.Entry<Double, List<Integer>> entry : idsByCost.entrySet()) {
+            final DataSource dataSource = this.createCopy();
+            final String setClause = DataSourceUtils.prepareCancelUpdate(dataSource,
+                this.getCostFieldName(), entry.getKey(), employeeId, currentDate);
+            DataSourceUtils.executeUpdateForIds(dataSource, this.tableName, setClause,
+                this.idFieldName, entry.getValue());
+        }
+    }
+
     /**
      * Get the reservable that corresponds to the given allocation.
      *
@@ -244,6 +335,40 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
      */
     protected abstract IReservable getReservable(T allocation);
 
+    /**
+     * Get the key that identifies the reservable of the given allocation.
+     *
+     * @param allocation the allocation
+     * @return the reservable key
+     */
+    protected abstract String getReservableKey(T allocation);
+
+    /**
+     * Get the name of the cost field of the allocation table.
+     *
+     * @return the cost field name
+     */
+    protected abstract String getCostFieldName();
+
+    /**
+     * Get the reservable that corresponds to the given allocation, retrieving it only once for
+     * all allocations of the same room or resource.
+     *
+     * @param allocation the allocation
+     * @param reservables the reservables already retrieved, by reservable key
+     * @return the reservable object
+     */
+    private IReservable getReservable(final T allocation,
+            final Map<String, IReservable> reservables) {
+        final String key = this.getReservableKey(allocation);
+        IReservable reservable = reservables.get(key);
+        if (reservable == null) {
+            reservable = this.getReservable(allocation);
+            reservables.put(key, reservable);
+        }
+        return reservable;
+    }
+
     /**
      * Calculate the cancellation cost.
      *
@@ -251,15 +376,24 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
      */
     @Override
     public void calculateCancellationCost(final T allocation) {
-        final IReservable reservable = this.getReservable(allocation);
+        this.calculateCancellationCost(allocation, this.getReservable(allocation));
+    }
+
+    /**
+     * Calculate the cancellation cost using the given reservable.
+     *
+     * @param allocation the allocation to calculate the cost for
+     * @param reservable the reservable room/resource this allocation refers to
+     */
+    private void calculateCancellationCost(final T allocation, final IReservable reservable) {
         final Integer cancelDays = reservable.getCancelDays();
         final Time cancelTime = reservable.getCancelTime();
         final String blId = allocation.getBlId();
 
         // get local time using the building location
         final Date localCurrentDate =
-                TimePeriod.clearTime(LocalDateTimeUtil.currentLocalDate(null, null, null, blId));
-        final Time localCurrentTime = LocalDateTimeUtil.currentLocalTime(null, null, null, blId);
+                TimePeriod.clearTime(TimeZoneConverter.getCurrentLocalDate(blId));
+        final Time localCurrentTime = TimeZoneConverter.getCurrentLocalTime(blId);
         final long daysDifference = DataSourceUtils.getDaysDifference(allocation, localCurrentDate);
 
         boolean lateCancellation = false;
@@ -313,7 +447,8 @@ public abstract class AbstractAllocationDataSource<T extends AbstractAllocation>
 
         if (startDate != null) {
             final String fieldName;
-            if (SchemaUtils.fieldExistsInSchema(this.tableName, Constants.DATE_END_FIELD_NAME)) {
+            if (ReservationSchemaCapabilities.get().hasField(this.tableName,
+                Constants.DATE_END_FIELD_NAME)) {
                 fieldName = Constants.DATE_END_FIELD_NAME;
             } else {
                 fieldName = Constants.DATE_START_FIELD_NAME;
@@ -4,7 +4,7 @@ import java.sql.Time;
 import java.util.*;
 
 import com.archibus.app.reservation.domain.*;
-import com.archibus.app.reservation.util.DataSourceUtils;
+import com.archibus.app.reservation.util.*;
 import com.archibus.context.*;
 import com.archibus.datasource.*;
 import com.archibus.datasource.restriction.Restrictions;
@@ -24,6 +24,9 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
     /** Day start field name. */
     private static final String DAY_START = "day_start";
 
+    /** Parameter name for the number of days between today and the reservation date. */
+    private static final String DAYS_DIFFERENCE = "daysDifference";
+
     /**
      * Constructor.
      *
@@ -63,12 +66,19 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
                 && !user.isMemberOfGroup(Constants.RESERVATION_MANAGER)) {
 
             final int daysDifference = getDaysDifference(timePeriod, localCurrentDate);
-            dataSrc.addParameter("daysDifference", daysDifference, DATA_TYPE_INTEGER);
+            dataSrc.addParameter(DAYS_DIFFERENCE, daysDifference, DATA_TYPE_INTEGER);
             dataSrc.addParameter("localCurrentTime", localCurrentTime, DATA_TYPE_TIME);
-            dataSrc.addRestriction(Restrictions
-                .sql(this.tableName + ".announce_days < ${parameters['daysDifference']} OR ("
-                        + this.tableName + ".announce_days = ${parameters['daysDifference']} AND "
-                        + this.tableName + ".announce_time > ${parameters['localCurrentTime']}) "));
+
+            final String key =
+                    RestrictionTemplateCache.createKey(dataSrc, "announce", this.tableName);
+            String restriction = RestrictionTemplateCache.get(key);
+            if (restriction == null) {
+                restriction = RestrictionTemplateCache.put(key, this.tableName
+                        + ".announce_days < ${parameters['daysDifference']} OR (" + this.tableName
+                        + ".announce_days = ${parameters['daysDifference']} AND " + this.tableName
+                        + ".announce_time > ${parameters['localCurrentTime']}) ");
+            }
+            dataSrc.addRestriction(Restrictions.sql(restriction));
         }
     }
 
@@ -89,8 +99,17 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
         if (!user.isMemberOfGroup(Constants.RESERVATION_SERVICE_DESK)
                 && !user.isMemberOfGroup(Constants.RESERVATION_MANAGER)
                 && !user.isMemberOfGroup(Constants.RESERVATION_ASSISTANT)) {
-            dataSrc.addRestriction(Restrictions.gte(this.tableName, "max_days_ahead",
-                getDaysDifference(timePeriod, localCurrentDate)));
+            // bind the number of days as a parameter, so the query text doesn't change daily
+            dataSrc.addParameter(DAYS_DIFFERENCE, getDaysDifference(timePeriod, localCurrentDate),
+                DATA_TYPE_INTEGER);
+            final String key =
+                    RestrictionTemplateCache.createKey(dataSrc, "maxDaysAhead", this.tableName);
+            String restriction = RestrictionTemplateCache.get(key);
+            if (restriction == null) {
+                restriction = RestrictionTemplateCache.put(key,
+                    this.tableName + ".max_days_ahead >= ${parameters['daysDifference']}");
+            }
+            dataSrc.addRestriction(Restrictions.sql(restriction));
         }
     }
 
@@ -108,23 +127,26 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
             return;
         }
 
-        if (allowPartialAvailability) {
-            // The reservation must end after the day_start or begin before the day_start.
-            dataSrc.addRestriction(Restrictions
-                .sql(" ${parameters['endTime']} > " + DataSourceUtils.generateDateAddSql(dataSrc,
-                    this.tableName, DAY_START, Constants.PRE_BLOCK_FIELD_NAME, true)));
-            dataSrc.addRestriction(Restrictions
-                .sql(" ${parameters['startTime']} < " + DataSourceUtils.generateDateAddSql(dataSrc,
-                    this.tableName, DAY_END, Constants.POST_BLOCK_FIELD_NAME, false)));
-        } else {
-            // The reservation must begin and end within the time frame [day_start, day_end].
-            dataSrc.addRestriction(Restrictions
-                .sql(" ${parameters['startTime']} >= " + DataSourceUtils.generateDateAddSql(dataSrc,
-                    this.tableName, DAY_START, Constants.PRE_BLOCK_FIELD_NAME, true)));
-            dataSrc.addRestriction(Restrictions
-                .sql(" ${parameters['endTime']} <= " + DataSourceUtils.generateDateAddSql(dataSrc,
-                    this.tableName, DAY_END, Constants.POST_BLOCK_FIELD_NAME, false)));
+        final String key = RestrictionTemplateCache.createKey(dataSrc, "dayStartEnd",
+            this.tableName, allowPartialAvailability);
+        String restriction = RestrictionTemplateCache.get(key);
+        if (restriction == null) {
+            final String dayStart = DataSourceUtils.generateDateAddSql(dataSrc, this.tableName,
+                DAY_START, Constants.PRE_BLOCK_FIELD_NAME, true);
+            final String dayEnd = DataSourceUtils.generateDateAddSql(dataSrc, this.tableName,
+                DAY_END, Constants.POST_BLOCK_FIELD_NAME, false);
+            if (allowPartialAvailability) {
+                // The reservation must end after the day_start or begin before the day_start.
+                restriction = " ${parameters['endTime']} > " + dayStart
+                        + " AND ${parameters['startTime']} < " + dayEnd;
+            } else {
+                // The reservation must begin and end within the time frame [day_start, day_end].
+                restriction = " ${parameters['startTime']} >= " + dayStart
+                        + " AND ${parameters['endTime']} <= " + dayEnd;
+            }
+            RestrictionTemplateCache.put(key, restriction);
         }
+        dataSrc.addRestriction(Restrictions.sql(restriction));
     }
 
     /**
@@ -140,15 +162,27 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
         if (!user.isMemberOfGroup(Constants.RESERVATION_SERVICE_DESK)
                 && !user.isMemberOfGroup(Constants.RESERVATION_MANAGER)) {
 
-            String restriction = "( " + this.tableName + ".available_for_group IS NULL ";
             int groupIndex = 0;
             for (final String group : user.getGroups()) {
-                final String parameterName = Constants.GROUP_PARAMETER_NAME + (++groupIndex);
-                dataSrc.addParameter(parameterName, group, DataSource.DATA_TYPE_TEXT);
-                restriction += " OR " + this.tableName + ".available_for_group LIKE ${parameters['"
-                        + parameterName + "']} ";
+                dataSrc.addParameter(Constants.GROUP_PARAMETER_NAME + (++groupIndex), group,
+                    DataSource.DATA_TYPE_TEXT);
+            }
+
+            // the restriction text only depends on the number of groups
+            final String key =
+                    RestrictionTemplateCache.createKey(dataSrc, "security", this.tableName,
+                        groupIndex);
+            String restriction = RestrictionTemplateCache.get(key);
+            if (restriction == null) {
+                final StringBuilder builder = new StringBuilder("( ").append(this.tableName)
+                    .append(".available_for_group IS NULL ");
+                for (int index = 1; index <= groupIndex; ++index) {
+                    builder.append(" OR ").append(this.tableName)
+                        .append(".available_for_group LIKE ${parameters['")
+                        .append(Constants.GROUP_PARAMETER_NAME).append(index).append("']} ");
+                }
+                restriction = RestrictionTemplateCache.put(key, builder.append(')').toString());
             }
-            restriction += ")";
             dataSrc.addRestriction(Restrictions.sql(restriction));
         }
     }
@@ -234,7 +268,7 @@ public abstract class AbstractReservableDataSource<T> extends ObjectDataSourceIm
         final TimeZone serverTimeZone = TimeZone.getDefault();
 
         if (StringUtil.notNullOrEmpty(reservationTimeZoneId)) {
-            reservationTimeZone = TimeZone.getTimeZone(reservationTimeZoneId);
+            reservationTimeZone = TimeZoneCache.getTimeZone(reservationTimeZoneId);
         } else {
             reservationTimeZone = TimeZone.getDefault();
         }
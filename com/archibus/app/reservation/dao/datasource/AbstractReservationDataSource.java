@@ -26,6 +26,12 @@ import com.archibus.utility.Utility;
 public abstract class AbstractReservationDataSource<T extends AbstractReservation>
         extends ObjectDataSourceImpl<T> implements IReservationDataSource<T> {
 
+    /** Cost field of the reservation table. */
+    private static final String COST_FIELD = "cost_res";
+
+    /** Parameter name for the cancellation comments. */
+    private static final String COMMENTS_PARAMETER = "comments";
+
     /**
      * Datasource for resource allocations.
      *
@@ -79,6 +85,131 @@ public abstract class AbstractReservationDataSource<T extends AbstractReservatio
         reservation.setLastModifiedDate(Utility.currentDate());
 
         // KB 3054114 Record any Reservation Cancellation Comments in the database
+        appendComments(reservation, comments);
+
+        super.update(reservation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The reservations are updated with one statement per distinct cost, instead of one statement
+     * per reservation.
+     */
+    @Override
+    public void cancelAll(final List<T> reservations, final String comments)
+            throws ReservationException {
+        // First cancel all active resource allocations. This updates their cost as well.
+        final List<ResourceAllocation> activeResourceAllocations =
+                new ArrayList<ResourceAllocation>();
+        for (final T reservation : reservations) {
+            activeResourceAllocations
+                .addAll(ReservationUtils.getActiveResourceAllocations(reservation));
+        }
+        this.resourceAllocationDataSource.cancelAll(activeResourceAllocations);
+
+        final String employeeId = ContextStore.get().getUser().getEmployee().getId();
+        final Date currentDate = Utility.currentDate();
+        final boolean addComments = StringUtils.isNotBlank(comments);
+
+        // group the reservations by the values to store
+        final Map<List<Object>, List<Integer>> idsByValues =
+                new LinkedHashMap<List<Object>, List<Integer>>();
+        for (final T reservation : reservations) {
+            reservation.setStatus(Constants.STATUS_CANCELLED);
+            // Compute the new total cost, including late cancellation costs.
+            reservation.calculateTotalCost();
+            reservation.setLastModifiedBy(employeeId);
+            reservation.setCancelledDate(currentDate);
+            reservation.setLastModifiedDate(currentDate);
+            appendComments(reservation, comments);
+
+            final List<Object> values = addComments
+                    ? Arrays.<Object> asList(reservation.getCost(), reservation.getComments())
+                    : Arrays.<Object> asList(reservation.getCost());
+            List<Integer> ids = idsByValues.get(values);
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                idsByValues.put(values, ids);
+            }
+            ids.add(reservation.getReserveId());
+        }
+
+        this.checkSetContext();
+        for (final Map.Entry<List<Object>, List<Integer>> entry : idsByValues.entrySet()) {
+            final DataSource dataSource = this.createCopy();
+            String setClause = DataSourceUtils.prepareCancelUpdate(dataSource, COST_FIELD,
+                (Double) entry.getKey().get(0), employeeId, currentDate);
+            if (addComments) {
+                dataSource.addParameter(COMMENTS_PARAMETER, entry.getKey().get(1),
+                    DataSource.DATA_TYPE_TEXT);
+                setClause += ", comments = ${parameters['" + COMMENTS_PARAMETER + "']}";
+            }
+            DataSourceUtils.executeUpdateForIds(dataSource, this.tableName, setClause,
+                Constants.RES_ID, entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The status and start date are checked on the given reservations, which must be loaded from
+     * the database. The allocations of all reservations are checked together.
+     */
+    @Override
+    public List<T> filterCancellableByCurrentUser(final List<T> reservations,
+            final List<? super T> failures) {
+        final User user = ContextStore.get().getUser();
+        if (user.isMemberOfGroup(Constants.RESERVATION_SERVICE_DESK)
+                || user.isMemberOfGroup(Constants.RESERVATION_MANAGER)) {
+            return new ArrayList<T>(reservations);
+        }
+
+        final List<String> allowedStatuses =
+                Arrays.asList(Constants.STATUS_AWAITING_APP_OR_CONFIRMED_OR_CONFLICT.split(","));
+        final Date currentDate = TimePeriod.clearTime(Utility.currentDate());
+        final Set<Integer> notCancellable = this.getAllocationsNotCancellable(reservations);
+
+        final List<T> cancellable = new ArrayList<T>(reservations.size());
+        for (final T reservation : reservations) {
+            // same conditions as checkCancelling, without querying the database
+            if (allowedStatuses.contains(reservation.getStatus())
+                    && !TimePeriod.clearTime(reservation.getStartDate()).before(currentDate)
+                    && !notCancellable.contains(reservation.getReserveId())) {
+                cancellable.add(reservation);
+            } else {
+                failures.add(reservation);
+            }
+        }
+        return cancellable;
+    }
+
+    /**
+     * Check which of the given reservations have allocations that cannot be cancelled by the
+     * current user.
+     *
+     * @param reservations the reservations to check
+     * @return the ids of the reservations that cannot be cancelled
+     */
+    protected Set<Integer> getAllocationsNotCancellable(final List<T> reservations) {
+        final List<ResourceAllocation> activeResourceAllocations =
+                new ArrayList<ResourceAllocation>();
+        for (final T reservation : reservations) {
+            activeResourceAllocations
+                .addAll(ReservationUtils.getActiveResourceAllocations(reservation));
+        }
+        return this.resourceAllocationDataSource
+            .getReservationsNotCancellable(activeResourceAllocations);
+    }
+
+    /**
+     * Append the cancellation comments to the comments of the reservation.
+     *
+     * @param reservation the reservation
+     * @param comments the cancellation comments
+     */
+    private static void appendComments(final AbstractReservation reservation,
+            final String comments) {
         if (StringUtils.isNotBlank(comments)) {
             final String prevComments = reservation.getComments();
             if (StringUtils.isNotBlank(prevComments)) {
@@ -87,8 +218,6 @@ public abstract class AbstractReservationDataSource<T extends AbstractReservatio
                 reservation.setComments(comments);
             }
         }
-
-        super.update(reservation);
     }
 
     /**
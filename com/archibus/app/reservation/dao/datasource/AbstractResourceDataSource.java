@@ -3,15 +3,12 @@ package com.archibus.app.reservation.dao.datasource;
 import java.sql.Time;
 import java.util.*;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.IResourceDataSource;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.*;
 import com.archibus.datasource.*;
 import com.archibus.datasource.data.DataRecord;
 import com.archibus.datasource.restriction.Restrictions;
-import com.archibus.model.view.datasource.ClauseDef.*;
-import com.archibus.model.view.datasource.ParsedRestrictionDef;
 
 /**
  * DataSource for Resources.
@@ -27,9 +24,6 @@ public abstract class AbstractResourceDataSource extends AbstractReservableDataS
     /** Field for quantity. */
     private static final String QUANTITY = "quantity";
 
-    /** Resource reservations table name. */
-    private static final String RESERVE_RS_TABLE = "reserve_rs";
-
     /**
      * Default Constructor.
      */
@@ -199,119 +193,53 @@ public abstract class AbstractResourceDataSource extends AbstractReservableDataS
     @Override
     public int getNumberOfReservedResources(final TimePeriod timePeriod, final String resourceId,
             final Integer reserveId, final boolean includePreAndPostBlocks) {
-        final DataSourceGroupingImpl dataSource = new DataSourceGroupingImpl();
-        dataSource.setApplyVpaRestrictions(false);
-
-        // Join the reserve_rs and resources tables.
-        dataSource.addTable(RESERVE_RS_TABLE);
-        dataSource.addTable(this.tableName, DataSource.ROLE_STANDARD);
-
-        // Define the calculated total number of reserved resources, grouped by resource_id.
-        dataSource.addCalculatedField(this.tableName, "total", DataSource.DATA_TYPE_INTEGER,
-            DataSourceGroupingImpl.FORMULA_SUM, RESERVE_RS_TABLE + Constants.DOT + QUANTITY);
-        dataSource.addGroupByField(this.tableName, Constants.RESOURCE_ID_FIELD,
-            DataSource.DATA_TYPE_TEXT);
-
-        // Ignore cancelled and rejected reservations.
-        dataSource.addRestriction(
-            Restrictions.notIn(RESERVE_RS_TABLE, Constants.STATUS, "Cancelled,Rejected"));
-
-        if (reserveId != null) {
-            // Ignore the resources reserved for the given reservation.
-            dataSource
-                .addRestriction(Restrictions.ne(RESERVE_RS_TABLE, Constants.RES_ID, reserveId));
-        }
-
-        // Get the count for a particular resource and time period.
-        /*
-         * Note the query doesn't check whether all reservations within the time period overlap.
-         * E.g. when looking for a limited resource for a full day, this query will return 2
-         * instances reserved if reserved 1x in the morning and 1x in the afternoon.
-         */
-        dataSource.addRestriction(
-            Restrictions.eq(RESERVE_RS_TABLE, Constants.RESOURCE_ID_FIELD, resourceId));
-
-        DataRecord record = null;
+        int reserved = 0;
         // Count the existing reservations that overlap the given time period.
         if (timePeriod.isComplete()) {
-            if (includePreAndPostBlocks) {
-                dataSource.addParameter("startDate", timePeriod.getStartDate(),
-                    DataSource.DATA_TYPE_DATE);
-                dataSource.addParameter("startTime", timePeriod.getStartTime(),
-                    DataSource.DATA_TYPE_TIME);
-                dataSource.addParameter("endDate", timePeriod.getEndDate(),
-                    DataSource.DATA_TYPE_DATE);
-                dataSource.addParameter("endTime", timePeriod.getEndTime(),
-                    DataSource.DATA_TYPE_TIME);
-                dataSource.addRestriction(
-                    Restrictions.sql(getOverlappingReservationRestriction(dataSource)));
-                record = dataSource.getRecord();
-            } else {
-                record = calculateRealOverlap(dataSource, timePeriod);
-            }
+            reserved = this
+                .getPeakReservedResources(Collections.singletonList(resourceId),
+                    Collections.singletonList(timePeriod), Collections.singletonList(reserveId),
+                    includePreAndPostBlocks)
+                .get(resourceId)[0];
         }
+        return reserved;
+    }
 
-        return (record == null) ? 0 : record.getInt(this.tableName + ".total");
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, int[]> getPeakReservedResources(final Collection<String> resourceIds,
+            final List<TimePeriod> timePeriods, final List<Integer> reserveIds,
+            final boolean includePreAndPostBlocks) {
+        return ResourceOccupancyCalculator.calculate(resourceIds, timePeriods, reserveIds,
+            includePreAndPostBlocks);
     }
 
     /**
-     * Calculate the reserved count for the given time period with strict overlap (i.e. without pre-
-     * and post-blocks).
+     * Get Overlapping Reservation Restriction.
      *
-     * @param dataSource the grouping data source configured for calculation
-     * @param timePeriod the time period to check
-     * @return the calculated record
+     * @param dataSource dataSource
+     * @return sql restriction
      */
-    private static DataRecord calculateRealOverlap(final DataSourceGroupingImpl dataSource,
-            final TimePeriod timePeriod) {
-        DataRecord result = null;
-        if (SchemaUtils.fieldExistsInSchema(RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME)) {
-            // only count reservations that really overlap with the given time period
-
-            dataSource.addRestriction(Restrictions.lte(RESERVE_RS_TABLE,
-                Constants.DATE_START_FIELD_NAME, timePeriod.getEndDate()));
-            dataSource.addRestriction(Restrictions.gte(RESERVE_RS_TABLE,
-                Constants.DATE_END_FIELD_NAME, timePeriod.getStartDate()));
-
-            final ParsedRestrictionDef restriction = new ParsedRestrictionDef();
-            restriction.addClause(RESERVE_RS_TABLE, Constants.DATE_START_FIELD_NAME,
-                timePeriod.getEndDate(), Operation.LT, RelativeOperation.AND_BRACKET);
-            restriction.addClause(RESERVE_RS_TABLE, Constants.DATE_START_FIELD_NAME,
-                timePeriod.getEndDate(), Operation.EQUALS, RelativeOperation.OR);
-            restriction.addClause(RESERVE_RS_TABLE, Constants.TIME_START_FIELD_NAME,
-                timePeriod.getEndTime(), Operation.LT, RelativeOperation.AND_BRACKET);
-
-            restriction.addClause(RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME,
-                timePeriod.getStartDate(), Operation.GT, RelativeOperation.AND_BRACKET);
-            restriction.addClause(RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME,
-                timePeriod.getStartDate(), Operation.EQUALS, RelativeOperation.OR);
-            restriction.addClause(RESERVE_RS_TABLE, Constants.TIME_END_FIELD_NAME,
-                timePeriod.getStartTime(), Operation.GT, RelativeOperation.AND_BRACKET);
-
-            final List<DataRecord> records = dataSource.getRecords(restriction);
-            if (!records.isEmpty()) {
-                result = records.get(0);
-            }
-        } else {
-            // only count reservations that really overlap with the given time period
-            dataSource.addRestriction(
-                Restrictions.eq(RESERVE_RS_TABLE, "date_start", timePeriod.getStartDate()));
-            dataSource.addRestriction(
-                Restrictions.gt(RESERVE_RS_TABLE, "time_end", timePeriod.getStartTime()));
-            dataSource.addRestriction(
-                Restrictions.lt(RESERVE_RS_TABLE, "time_start", timePeriod.getEndTime()));
-            result = dataSource.getRecord();
+    private static String getOverlappingReservationRestriction(final DataSource dataSource) {
+        final String key =
+                RestrictionTemplateCache.createKey(dataSource, "overlappingResourceReservation");
+        String template = RestrictionTemplateCache.get(key);
+        if (template == null) {
+            template = RestrictionTemplateCache.put(key,
+                buildOverlappingReservationRestriction(dataSource));
         }
-        return result;
+        return template;
     }
 
     /**
-     * Get Overlapping Reservation Restriction.
+     * Build the overlapping reservation restriction for the dialect of the data source.
      *
      * @param dataSource dataSource
      * @return sql restriction
      */
-    private static String getOverlappingReservationRestriction(final DataSource dataSource) {
+    private static String buildOverlappingReservationRestriction(final DataSource dataSource) {
         final String startTimeCheck;
         final String endTimeCheck;
         if (dataSource.isOracle()) {
@@ -332,7 +260,7 @@ public abstract class AbstractResourceDataSource extends AbstractReservableDataS
         }
 
         String sql;
-        if (SchemaUtils.fieldExistsInSchema(Constants.RESOURCES_TABLE,
+        if (ReservationSchemaCapabilities.get().hasField(Constants.RESOURCES_TABLE,
             Constants.DATE_END_FIELD_NAME)) {
             // Continuous reservations are supported.
             sql = " reserve_rs.date_start <= ${parameters['endDate']} "
@@ -0,0 +1,149 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.concurrent.*;
+
+import com.archibus.app.common.util.SchemaUtils;
+
+/**
+ * Snapshot of the optional schema features used by the Reservations Application, such as
+ * continuous reservations (date_end) and recurring reservation editing (occurrence_index).
+ * <p>
+ * The known optional fields are resolved once, when the snapshot is first used. Other fields are
+ * resolved on first request and added to the snapshot. Call reload() after modifying the schema
+ * of the reservation tables, which also discards the cached restriction templates that depend on
+ * the schema. Administrators can call it through the reloadSchemaCapabilities workflow rule of
+ * ReservationsCommonHandler.
+ * <p>
+ * This class is thread-safe. A snapshot is never modified after it is resolved, except for adding
+ * fields that were not resolved yet.
+ *
+ * @since 24.3
+ */
+public final class ReservationSchemaCapabilities {
+
+    /** Separator between table and field name in the keys. */
+    private static final char KEY_SEPARATOR = '.';
+
+    /** Optional fields resolved when the snapshot is created, as table and field name pairs. */
+    private static final String[][] KNOWN_FIELDS = {
+            { Constants.RESERVE_RM_TABLE, Constants.DATE_END_FIELD_NAME },
+            { Constants.RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME },
+            { Constants.RESOURCES_TABLE, Constants.DATE_END_FIELD_NAME },
+            { Constants.RESERVE_TABLE_NAME, Constants.OCCURRENCE_INDEX_FIELD },
+            { Constants.RESERVE_TABLE_NAME, "outlook_unique_id" },
+            { Constants.RESERVE_TABLE_NAME, Constants.RES_CONFERENCE },
+            { Constants.RESERVE_RM_TABLE, "verified" },
+            { Constants.RESERVE_RM_TABLE, "attendees_in_room" },
+            { "rm_config", Constants.EXCLUDED_CONFIG_FIELD },
+            { Constants.BUILDING_TABLE, "timezone_id" } };
+
+    /** The current snapshot, null if not resolved yet. */
+    private static volatile ReservationSchemaCapabilities current;
+
+    /** Whether each resolved field exists, by table.field key. */
+    private final ConcurrentMap<String, Boolean> fields = new ConcurrentHashMap<String, Boolean>();
+
+    /** Whether reserve_rm.date_end exists. */
+    private final boolean continuousRoomReservations;
+
+    /** Whether reserve_rs.date_end exists. */
+    private final boolean continuousResourceReservations;
+
+    /** Whether reserve.occurrence_index exists. */
+    private final boolean occurrenceIndex;
+
+    /**
+     * Resolve a snapshot of the current schema.
+     */
+    private ReservationSchemaCapabilities() {
+        for (final String[] field : KNOWN_FIELDS) {
+            this.hasField(field[0], field[1]);
+        }
+        this.continuousRoomReservations =
+                this.hasField(Constants.RESERVE_RM_TABLE, Constants.DATE_END_FIELD_NAME);
+        this.continuousResourceReservations =
+                this.hasField(Constants.RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME);
+        this.occurrenceIndex =
+                this.hasField(Constants.RESERVE_TABLE_NAME, Constants.OCCURRENCE_INDEX_FIELD);
+    }
+
+    /**
+     * Get the current snapshot, resolving it if this is the first use.
+     *
+     * @return the schema capabilities
+     */
+    public static ReservationSchemaCapabilities get() {
+        ReservationSchemaCapabilities capabilities = current;
+        if (capabilities == null) {
+            synchronized (ReservationSchemaCapabilities.class) {
+                capabilities = current;
+                if (capabilities == null) {
+                    capabilities = new ReservationSchemaCapabilities();
+                    current = capabilities;
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Resolve the schema capabilities again and discard the restriction templates built for the
+     * previous schema.
+     *
+     * @return the new schema capabilities
+     */
+    public static ReservationSchemaCapabilities reload() {
+        synchronized (ReservationSchemaCapabilities.class) {
+            current = new ReservationSchemaCapabilities();
+            RestrictionTemplateCache.clear();
+            return current;
+        }
+    }
+
+    /**
+     * Check whether continuous room reservations are supported, i.e. reserve_rm.date_end exists.
+     *
+     * @return true if room reservations can span multiple days
+     */
+    public boolean hasContinuousRoomReservations() {
+        return this.continuousRoomReservations;
+    }
+
+    /**
+     * Check whether continuous resource reservations are supported, i.e. reserve_rs.date_end
+     * exists.
+     *
+     * @return true if resource reservations can span multiple days
+     */
+    public boolean hasContinuousResourceReservations() {
+        return this.continuousResourceReservations;
+    }
+
+    /**
+     * Check whether the occurrence index of recurring reservations is stored, i.e.
+     * reserve.occurrence_index exists.
+     *
+     * @return true if recurring reservations can be edited
+     */
+    public boolean hasOccurrenceIndex() {
+        return this.occurrenceIndex;
+    }
+
+    /**
+     * Check whether a field exists in the schema.
+     *
+     * @param tableName the table name
+     * @param fieldName the field name
+     * @return true if the field exists
+     */
+    public boolean hasField(final String tableName, final String fieldName) {
+        final String key = tableName + KEY_SEPARATOR + fieldName;
+        Boolean exists = this.fields.get(key);
+        if (exists == null) {
+            exists = SchemaUtils.fieldExistsInSchema(tableName, fieldName);
+            this.fields.put(key, exists);
+        }
+        return exists;
+    }
+
+}
@@ -3,7 +3,6 @@ package com.archibus.app.reservation.dao.datasource;
 import java.sql.Time;
 import java.util.*;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.*;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.DataSourceUtils;
@@ -56,6 +55,22 @@ public class ResourceAllocationDataSource extends AbstractAllocationDataSource<R
         return this.resourceDataSource.get(allocation.getResourceId());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getReservableKey(final ResourceAllocation allocation) {
+        return allocation.getResourceId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getCostFieldName() {
+        return "cost_rsres";
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -210,7 +225,7 @@ public class ResourceAllocationDataSource extends AbstractAllocationDataSource<R
         final String timeRestriction = getTimeRestriction(bean, dataSource);
 
         String sql = "INSERT INTO reserve_rs ";
-        if (SchemaUtils.fieldExistsInSchema(this.tableName, Constants.DATE_END_FIELD_NAME)) {
+        if (ReservationSchemaCapabilities.get().hasContinuousResourceReservations()) {
             sql += " (date_start, time_start, date_end, time_end, res_id, resource_id, quantity, bl_id, fl_id, rm_id) "
                     + " SELECT ${parameters['startDate']}, ${parameters['startTime']}, ${parameters['endDate']}, ${parameters['endTime']}, ";
         } else {
@@ -252,8 +267,7 @@ public class ResourceAllocationDataSource extends AbstractAllocationDataSource<R
                 + " rm_id = ${parameters['roomId']}, " + " quantity = ${parameters['quantity']}, "
                 + " date_start = ${parameters['startDate']}, "
                 + " time_start = ${parameters['startTime']}, ";
-        if (SchemaUtils.fieldExistsInSchema(Constants.RESERVE_RS_TABLE,
-            Constants.DATE_END_FIELD_NAME)) {
+        if (ReservationSchemaCapabilities.get().hasContinuousResourceReservations()) {
             sql += " date_end = ${parameters['endDate']}, ";
         }
         sql += " time_end = ${parameters['endTime']} "
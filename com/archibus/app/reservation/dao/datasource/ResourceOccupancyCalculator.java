@@ -0,0 +1,285 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+
+import org.springframework.util.StringUtils;
+
+import com.archibus.app.reservation.domain.TimePeriod;
+import com.archibus.app.reservation.util.ConcurrencySweep;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.datasource.restriction.Restrictions;
+
+/**
+ * Calculates the peak quantity of limited resources in use during one or more time periods.
+ * <p>
+ * All active resource reservations (reserve_rs) of the given resources that overlap the date
+ * window of the time periods are loaded in a single query. For each time period, the peak
+ * quantity reserved at the same time is found by sweeping the sorted start and end times of the
+ * overlapping reservations, so a reservation in the morning and one in the afternoon count as one
+ * resource in use for a full day request.
+ * <p>
+ * Used by AbstractResourceDataSource.
+ *
+ * @since 24.3
+ */
+final class ResourceOccupancyCalculator {
+
+    /** Quantity field name. */
+    private static final String QUANTITY = "quantity";
+
+    /** Statuses of resource reservations that are not counted. */
+    private static final String INACTIVE_STATUSES = "Cancelled,Rejected";
+
+    /** Number of minutes in an hour. */
+    private static final int MINUTES_PER_HOUR = 60;
+
+    /** Number of minutes in a day. */
+    private static final int MINUTES_PER_DAY = 24 * MINUTES_PER_HOUR;
+
+    /** Fields of reserve_rs to load. */
+    private static final String[] RESERVATION_FIELDS = { Constants.RES_ID,
+            Constants.RESOURCE_ID_FIELD, Constants.DATE_START_FIELD_NAME,
+            Constants.TIME_START_FIELD_NAME, Constants.TIME_END_FIELD_NAME, QUANTITY };
+
+    /** Start of each time period in minutes since the epoch. */
+    private final int[] periodStarts;
+
+    /** End of each time period in minutes since the epoch. */
+    private final int[] periodEnds;
+
+    /** Reservation to ignore for each time period, null entries to ignore none. */
+    private final List<Integer> reserveIds;
+
+    /** Whether pre- and post-blocks of the resources count as reserved time. */
+    private final boolean includePreAndPostBlocks;
+
+    /** Time period indexes sorted on start. */
+    private final Integer[] sortedPeriods;
+
+    /** End of each time period in the order of sortedPeriods. */
+    private final int[] sortedPeriodEnds;
+
+    /**
+     * Private constructor: use the static calculate method.
+     *
+     * @param timePeriods the time periods
+     * @param reserveIds reservation to ignore for each time period
+     * @param includePreAndPostBlocks whether pre- and post-blocks count as reserved time
+     */
+    private ResourceOccupancyCalculator(final List<TimePeriod> timePeriods,
+            final List<Integer> reserveIds, final boolean includePreAndPostBlocks) {
+        this.reserveIds = reserveIds;
+        this.includePreAndPostBlocks = includePreAndPostBlocks;
+        this.periodStarts = new int[timePeriods.size()];
+        this.periodEnds = new int[timePeriods.size()];
+        this.sortedPeriods = new Integer[timePeriods.size()];
+        for (int index = 0; index < this.periodStarts.length; ++index) {
+            final TimePeriod timePeriod = timePeriods.get(index);
+            this.periodStarts[index] =
+                    toMinutes(timePeriod.getStartDate(), timePeriod.getStartTime());
+            this.periodEnds[index] = toMinutes(timePeriod.getEndDate(), timePeriod.getEndTime());
+            this.sortedPeriods[index] = index;
+        }
+        Arrays.sort(this.sortedPeriods, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer first, final Integer second) {
+                final int firstStart = ResourceOccupancyCalculator.this.periodStarts[first];
+                final int secondStart = ResourceOccupancyCalculator.this.periodStarts[second];
+                return firstStart < secondStart ? -1 : (firstStart == secondStart ? 0 : 1);
+            }
+        });
+        this.sortedPeriodEnds = new int[this.periodEnds.length];
+        for (int index = 0; index < this.sortedPeriodEnds.length; ++index) {
+            this.sortedPeriodEnds[index] = this.periodEnds[this.sortedPeriods[index]];
+        }
+    }
+
+    /**
+     * Calculate the peak quantity of each resource reserved in each time period.
+     *
+     * @param resourceIds the limited resources to check
+     * @param timePeriods the complete time periods to check, must not overlap
+     * @param reserveIds reservation to ignore for each time period (entries can be null)
+     * @param includePreAndPostBlocks whether pre- and post-blocks count as reserved time
+     * @return for each resource id, the peak quantity reserved in each time period
+     */
+    static Map<String, int[]> calculate(final Collection<String> resourceIds,
+            final List<TimePeriod> timePeriods, final List<Integer> reserveIds,
+            final boolean includePreAndPostBlocks) {
+        final Map<String, ConcurrencySweep[]> sweeps = new HashMap<String, ConcurrencySweep[]>();
+        if (!resourceIds.isEmpty() && !timePeriods.isEmpty()) {
+            final ResourceOccupancyCalculator calculator = new ResourceOccupancyCalculator(
+                timePeriods, reserveIds, includePreAndPostBlocks);
+            calculator.sweep(calculator.loadReservations(resourceIds, timePeriods), sweeps);
+        }
+
+        final Map<String, int[]> peaks = new HashMap<String, int[]>();
+        for (final String resourceId : resourceIds) {
+            final int[] resourcePeaks = new int[timePeriods.size()];
+            final ConcurrencySweep[] resourceSweeps = sweeps.get(resourceId);
+            if (resourceSweeps != null) {
+                for (int index = 0; index < resourcePeaks.length; ++index) {
+                    if (resourceSweeps[index] != null) {
+                        resourcePeaks[index] = resourceSweeps[index].getPeak();
+                    }
+                }
+            }
+            peaks.put(resourceId, resourcePeaks);
+        }
+        return peaks;
+    }
+
+    /**
+     * Add the reserved intervals to the sweep of each time period they overlap.
+     *
+     * @param records the resource reservation records
+     * @param sweeps the sweeps for each time period mapped by resource id, filled as needed
+     */
+    private void sweep(final List<DataRecord> records,
+            final Map<String, ConcurrencySweep[]> sweeps) {
+        final String prefix = Constants.RESERVE_RS_TABLE + Constants.DOT;
+        final String resourcesPrefix = Constants.RESOURCES_TABLE + Constants.DOT;
+        final boolean hasDateEnd = ReservationSchemaCapabilities.get()
+            .hasContinuousResourceReservations();
+        for (final DataRecord record : records) {
+            int preBlock = 0;
+            int postBlock = 0;
+            if (this.includePreAndPostBlocks) {
+                preBlock = record.getInt(resourcesPrefix + Constants.PRE_BLOCK_FIELD_NAME);
+                postBlock = record.getInt(resourcesPrefix + Constants.POST_BLOCK_FIELD_NAME);
+            }
+            final Date startDate = record.getDate(prefix + Constants.DATE_START_FIELD_NAME);
+            Date endDate = null;
+            if (hasDateEnd) {
+                endDate = record.getDate(prefix + Constants.DATE_END_FIELD_NAME);
+            }
+            if (endDate == null) {
+                endDate = startDate;
+            }
+            final int reservedStart = toMinutes(startDate,
+                record.getDate(prefix + Constants.TIME_START_FIELD_NAME)) - preBlock;
+            final int reservedEnd = toMinutes(endDate,
+                record.getDate(prefix + Constants.TIME_END_FIELD_NAME)) + postBlock;
+            final int reserveId = record.getInt(prefix + Constants.RES_ID);
+            final String resourceId = record.getString(prefix + Constants.RESOURCE_ID_FIELD);
+
+            for (int position = this.findFirstEndingOnOrAfter(reservedStart - postBlock);
+                    position < this.sortedPeriods.length
+                            && this.periodStarts[this.sortedPeriods[position]]
+                                    - preBlock < reservedEnd;
+                    ++position) {
+                final int period = this.sortedPeriods[position];
+                final Integer excludedId = this.reserveIds.get(period);
+                if (excludedId != null && excludedId == reserveId) {
+                    continue;
+                }
+                // the requested period also needs the pre- and post-block
+                final int start = Math.max(reservedStart, this.periodStarts[period] - preBlock);
+                final int end = Math.min(reservedEnd, this.periodEnds[period] + postBlock);
+                if (start < end) {
+                    ConcurrencySweep[] resourceSweeps = sweeps.get(resourceId);
+                    if (resourceSweeps == null) {
+                        resourceSweeps = new ConcurrencySweep[this.periodStarts.length];
+                        sweeps.put(resourceId, resourceSweeps);
+                    }
+                    if (resourceSweeps[period] == null) {
+                        resourceSweeps[period] = new ConcurrencySweep();
+                    }
+                    resourceSweeps[period].addInterval(start, end,
+                        record.getInt(prefix + QUANTITY));
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the active reservations of the resources that overlap the date window of all time
+     * periods.
+     *
+     * @param resourceIds the resource ids
+     * @param timePeriods the time periods
+     * @return the reserve_rs records joined with the pre- and post-block of the resource
+     */
+    private List<DataRecord> loadReservations(final Collection<String> resourceIds,
+            final List<TimePeriod> timePeriods) {
+        Date firstDate = null;
+        Date lastDate = null;
+        for (final TimePeriod timePeriod : timePeriods) {
+            if (firstDate == null || timePeriod.getStartDate().before(firstDate)) {
+                firstDate = timePeriod.getStartDate();
+            }
+            if (lastDate == null || timePeriod.getEndDate().after(lastDate)) {
+                lastDate = timePeriod.getEndDate();
+            }
+        }
+
+        final boolean hasDateEnd = ReservationSchemaCapabilities.get()
+            .hasContinuousResourceReservations();
+        final DataSource dataSource = DataSourceFactory.createDataSource();
+        dataSource.setApplyVpaRestrictions(false);
+        dataSource.addTable(Constants.RESERVE_RS_TABLE);
+        dataSource.addTable(Constants.RESOURCES_TABLE, DataSource.ROLE_STANDARD);
+        for (final String field : RESERVATION_FIELDS) {
+            dataSource.addField(Constants.RESERVE_RS_TABLE, field);
+        }
+        if (hasDateEnd) {
+            dataSource.addField(Constants.RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME);
+        }
+        dataSource.addField(Constants.RESOURCES_TABLE, Constants.PRE_BLOCK_FIELD_NAME);
+        dataSource.addField(Constants.RESOURCES_TABLE, Constants.POST_BLOCK_FIELD_NAME);
+
+        dataSource.addRestriction(Restrictions.notIn(Constants.RESERVE_RS_TABLE,
+            Constants.STATUS, INACTIVE_STATUSES));
+        dataSource.addRestriction(Restrictions.in(Constants.RESERVE_RS_TABLE,
+            Constants.RESOURCE_ID_FIELD,
+            StringUtils.collectionToCommaDelimitedString(resourceIds)));
+        dataSource.addRestriction(Restrictions.lte(Constants.RESERVE_RS_TABLE,
+            Constants.DATE_START_FIELD_NAME, lastDate));
+        dataSource.addRestriction(Restrictions.gte(Constants.RESERVE_RS_TABLE,
+            hasDateEnd ? Constants.DATE_END_FIELD_NAME : Constants.DATE_START_FIELD_NAME,
+            firstDate));
+        return dataSource.getRecords();
+    }
+
+    /**
+     * Find the first position in the sorted time periods that ends on or after the given time.
+     *
+     * @param time the time in minutes since the epoch
+     * @return the first matching position, or the number of time periods if there is none
+     */
+    private int findFirstEndingOnOrAfter(final int time) {
+        int low = 0;
+        int high = this.sortedPeriodEnds.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.sortedPeriodEnds[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Combine a date and a time to the number of minutes since the epoch, ignoring time zones.
+     *
+     * @param date the date
+     * @param time the time
+     * @return the number of minutes
+     */
+    private static int toMinutes(final Date date, final Date time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        final Calendar dayCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        dayCalendar.clear();
+        dayCalendar.set(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH),
+            calendar.get(Calendar.DAY_OF_MONTH));
+        calendar.setTime(time);
+        return (int) (dayCalendar.getTimeInMillis() / Constants.ONE_DAY) * MINUTES_PER_DAY
+                + calendar.get(Calendar.HOUR_OF_DAY) * MINUTES_PER_HOUR
+                + calendar.get(Calendar.MINUTE);
+    }
+
+}
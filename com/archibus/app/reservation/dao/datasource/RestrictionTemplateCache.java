@@ -0,0 +1,98 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.concurrent.*;
+
+import com.archibus.datasource.DataSource;
+
+/**
+ * Cache of the SQL restriction templates used by the reservable data sources.
+ * <p>
+ * A template is the parameterized SQL text of a restriction: all values are bound as data source
+ * parameters, so the same text is generated for every search with the same shape. The key of a
+ * template includes the database dialect and everything else that determines its text, such as
+ * the table name, the number of user groups or whether continuous reservations are supported.
+ * Since the templates are identical for each search, the database can reuse its execution plans.
+ * <p>
+ * This class is thread-safe. The templates are cleared by ReservationSchemaCapabilities.reload()
+ * when the schema of the reservation tables is modified.
+ *
+ * @since 24.3
+ */
+final class RestrictionTemplateCache {
+
+    /** Separator for the parts of a template key. */
+    private static final char KEY_SEPARATOR = '|';
+
+    /** Dialect key for Oracle. */
+    private static final String ORACLE = "oracle";
+
+    /** Dialect key for SQL Server. */
+    private static final String SQL_SERVER = "sqlserver";
+
+    /** Dialect key for Sybase. */
+    private static final String SYBASE = "sybase";
+
+    /** The restriction templates by key. */
+    private static final ConcurrentMap<String, String> TEMPLATES =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * Private default constructor: utility class is non-instantiable.
+     */
+    private RestrictionTemplateCache() {
+    }
+
+    /**
+     * Create the key of a template for the dialect of the given data source.
+     *
+     * @param dataSource the data source the restriction is built for
+     * @param name the name of the restriction
+     * @param parts the other values that determine the text of the restriction
+     * @return the template key
+     */
+    static String createKey(final DataSource dataSource, final String name,
+            final Object... parts) {
+        final StringBuilder key = new StringBuilder(name).append(KEY_SEPARATOR);
+        if (dataSource.isOracle()) {
+            key.append(ORACLE);
+        } else if (dataSource.isSqlServer()) {
+            key.append(SQL_SERVER);
+        } else {
+            key.append(SYBASE);
+        }
+        for (final Object part : parts) {
+            key.append(KEY_SEPARATOR).append(part);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get a restriction template.
+     *
+     * @param key the template key
+     * @return the template, or null if it was not built yet
+     */
+    static String get(final String key) {
+        return TEMPLATES.get(key);
+    }
+
+    /**
+     * Store a restriction template.
+     *
+     * @param key the template key
+     * @param template the parameterized restriction
+     * @return the template
+     */
+    static String put(final String key, final String template) {
+        TEMPLATES.put(key, template);
+        return template;
+    }
+
+    /**
+     * Remove all templates, so they are built again on next use.
+     */
+    static void clear() {
+        TEMPLATES.clear();
+    }
+
+}
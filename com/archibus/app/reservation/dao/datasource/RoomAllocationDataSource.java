@@ -5,7 +5,6 @@ import java.util.*;
 
 import org.springframework.util.StringUtils;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.*;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.DataSourceUtils;
@@ -27,6 +26,9 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
     private static final String ROOM_NO_LONGER_AVAILABLE =
             "The room {0}-{1}-{2} is no longer available";
 
+    /** Separator for the parts of a room arrangement key. */
+    private static final char KEY_SEPARATOR = '|';
+
     /** Name of the configuration ID property and data source parameter. */
     private static final String CONFIG_ID_PROPERTY = "configId";
 
@@ -36,6 +38,9 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
     /** roomArrangementDataSource roomArrangementDataSource. */
     private IRoomArrangementDataSource roomArrangementDataSource;
 
+    /** Optional room occupancy index to keep current when allocations change. */
+    private RoomOccupancyIndex roomOccupancyIndex;
+
     /**
      * Instantiates a new room allocation data source.
      */
@@ -83,6 +88,24 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
             allocation.getRmId(), allocation.getConfigId(), allocation.getArrangeTypeId());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getReservableKey(final RoomAllocation allocation) {
+        return allocation.getBlId() + KEY_SEPARATOR + allocation.getFlId() + KEY_SEPARATOR
+                + allocation.getRmId() + KEY_SEPARATOR + allocation.getConfigId()
+                + KEY_SEPARATOR + allocation.getArrangeTypeId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getCostFieldName() {
+        return "cost_rmres";
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -141,7 +164,7 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
         // add the configuration parameter
         dataSource.addParameter(CONFIG_ID_PROPERTY, roomArrangement.getConfigId(),
             DataSource.DATA_TYPE_TEXT);
-        if (SchemaUtils.fieldExistsInSchema(this.tableName, Constants.DATE_END_FIELD_NAME)) {
+        if (ReservationSchemaCapabilities.get().hasContinuousRoomReservations()) {
             dataSource.addRestriction(
                 Restrictions.lte(this.tableName, Constants.DATE_START_FIELD_NAME, startDate));
             dataSource.addRestriction(
@@ -176,6 +199,57 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
         return convertRecordsToObjects(dataSource.getRecords());
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Uses a single query for all rooms.
+     */
+    @Override
+    public List<RoomAllocation> getAllocatedRooms(final Date startDate, final Date endDate,
+            final List<RoomArrangement> roomArrangements) {
+        final List<RoomAllocation> allocations = new ArrayList<RoomAllocation>();
+        if (roomArrangements.isEmpty()) {
+            return allocations;
+        }
+
+        final Set<String> buildingIds = new HashSet<String>();
+        final Set<String> roomIds = new HashSet<String>();
+        final Set<String> roomKeys = new HashSet<String>();
+        for (final RoomArrangement roomArrangement : roomArrangements) {
+            buildingIds.add(roomArrangement.getBlId());
+            roomIds.add(roomArrangement.getRmId());
+            roomKeys.add(RoomOccupancyLoader.createKey(roomArrangement.getBlId(),
+                roomArrangement.getFlId(), roomArrangement.getRmId()));
+        }
+
+        final DataSource dataSource = this.createCopy();
+        dataSource.setApplyVpaRestrictions(false);
+        if (ReservationSchemaCapabilities.get().hasContinuousRoomReservations()) {
+            dataSource.addRestriction(
+                Restrictions.gte(this.tableName, Constants.DATE_END_FIELD_NAME, startDate));
+        } else {
+            dataSource.addRestriction(
+                Restrictions.gte(this.tableName, Constants.DATE_START_FIELD_NAME, startDate));
+        }
+        dataSource.addRestriction(
+            Restrictions.lte(this.tableName, Constants.DATE_START_FIELD_NAME, endDate));
+        dataSource.addRestriction(Restrictions.in(this.tableName, Constants.STATUS,
+            Constants.STATUS_AWAITING_APP_OR_CONFIRMED));
+        // restrict on building and room ids, then keep only the requested rooms
+        dataSource.addRestriction(Restrictions.in(this.tableName, Constants.BL_ID_FIELD_NAME,
+            StringUtils.collectionToCommaDelimitedString(buildingIds)));
+        dataSource.addRestriction(Restrictions.in(this.tableName, Constants.RM_ID_FIELD_NAME,
+            StringUtils.collectionToCommaDelimitedString(roomIds)));
+
+        for (final RoomAllocation allocation : convertRecordsToObjects(dataSource.getRecords())) {
+            if (roomKeys.contains(RoomOccupancyLoader.createKey(allocation.getBlId(),
+                allocation.getFlId(), allocation.getRmId()))) {
+                allocations.add(allocation);
+            }
+        }
+        return allocations;
+    }
+
     /**
      * Calculate the total cost for the allocation.
      *
@@ -216,11 +290,41 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Loads the room allocations of all reservations with one query per batch of reservation ids.
      */
     @Override
     public List<RoomReservation> addRoomAllocations(final List<RoomReservation> reservations) {
+        final Map<Integer, List<RoomAllocation>> allocationsByReservation =
+                new HashMap<Integer, List<RoomAllocation>>();
+        final List<Integer> reservationIds = new ArrayList<Integer>();
         for (final RoomReservation reservation : reservations) {
-            this.addRoomAllocations(reservation);
+            if (reservation.getReserveId() != null
+                    && !allocationsByReservation.containsKey(reservation.getReserveId())) {
+                allocationsByReservation.put(reservation.getReserveId(),
+                    new ArrayList<RoomAllocation>());
+                reservationIds.add(reservation.getReserveId());
+            }
+        }
+
+        for (final List<Integer> chunk : DataSourceUtils.splitForInClause(reservationIds)) {
+            final DataSource dataSource = this.createCopy();
+            dataSource.setApplyVpaRestrictions(false);
+            dataSource.addRestriction(Restrictions.in(this.tableName, Constants.RES_ID,
+                StringUtils.collectionToCommaDelimitedString(chunk)));
+            for (final RoomAllocation allocation : convertRecordsToObjects(
+                dataSource.getRecords())) {
+                allocationsByReservation.get(allocation.getReserveId()).add(allocation);
+            }
+        }
+
+        for (final RoomReservation reservation : reservations) {
+            if (reservation.getReserveId() == null) {
+                this.addRoomAllocations(reservation);
+            } else {
+                this.setRoomAllocations(reservation, new ArrayList<RoomAllocation>(
+                    allocationsByReservation.get(reservation.getReserveId())));
+            }
         }
         return reservations;
     }
@@ -242,8 +346,7 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
                 RoomArrangementDataSourceRestrictionsHelper.buildTimeRestriction(dataSource, bean);
 
         String sql = "INSERT INTO reserve_rm ";
-        if (SchemaUtils.fieldExistsInSchema(Constants.RESERVE_RM_TABLE,
-            Constants.DATE_END_FIELD_NAME)) {
+        if (ReservationSchemaCapabilities.get().hasContinuousRoomReservations()) {
             sql += " (date_start, time_start, date_end, time_end, res_id, bl_id, fl_id, rm_id, config_id, rm_arrange_type_id) "
                     + " SELECT ${parameters['startDate']}, ${parameters['startTime']}, ${parameters['endDate']}, ${parameters['endTime']}, ";
         } else {
@@ -259,6 +362,7 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
         // get the primary key from the database
         this.setPrimaryKey(bean);
         super.update(bean);
+        this.invalidateOccupancy(bean);
         return bean;
     }
 
@@ -285,8 +389,7 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
                 + " rm_arrange_type_id = ${parameters['arrangeTypeId']}, "
                 + " date_start = ${parameters['startDate']}, "
                 + " time_start = ${parameters['startTime']}, ";
-        if (SchemaUtils.fieldExistsInSchema(Constants.RESERVE_RM_TABLE,
-            Constants.DATE_END_FIELD_NAME)) {
+        if (ReservationSchemaCapabilities.get().hasContinuousRoomReservations()) {
             sql += " date_end = ${parameters['endDate']}, ";
         }
         sql += " time_end = ${parameters['endTime']} "
@@ -296,6 +399,45 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
 
         executeSqlForBean(bean, dataSource, sql);
         super.update(bean);
+        this.invalidateOccupancy(bean);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(final RoomAllocation allocation) throws ReservationException {
+        super.cancel(allocation);
+        this.invalidateOccupancy(allocation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The occupancy of the rooms is invalidated again after the transaction completes, like for a
+     * single cancellation.
+     */
+    @Override
+    public void cancelAll(final List<RoomAllocation> allocations) throws ReservationException {
+        super.cancelAll(allocations);
+        for (final RoomAllocation allocation : allocations) {
+            this.invalidateOccupancy(allocation);
+        }
+    }
+
+    /**
+     * Invalidate the occupancy of the room of the given allocation and the room it was in before,
+     * if an occupancy index is used. The index invalidates the rooms again when the transaction
+     * completes, so searches in other threads don't keep the occupancy from before the commit.
+     *
+     * @param allocation the modified room allocation
+     */
+    private void invalidateOccupancy(final RoomAllocation allocation) {
+        if (this.roomOccupancyIndex != null) {
+            this.roomOccupancyIndex.invalidateAllocation(allocation.getId());
+            this.roomOccupancyIndex.invalidateRoom(allocation.getBlId(), allocation.getFlId(),
+                allocation.getRmId());
+        }
     }
 
     /**
@@ -307,6 +449,8 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
      */
     private void executeSqlForBean(final RoomAllocation bean, final DataSourceImpl dataSource,
             final String sql) {
+        // wait for other threads saving this room to commit, if they handle items concurrently
+        RoomSaveLocks.lockRoom(bean.getBlId(), bean.getFlId(), bean.getRmId());
         if (dataSource.isOracle()) {
             /*
              * Explicitly lock the rows in rm_arrange corresponding to this room so no other
@@ -369,16 +513,28 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
      */
     @Override
     public void addRoomAllocations(final RoomReservation reservation) {
-        List<RoomAllocation> roomAllocations = this.getRoomAllocations(reservation);
+        this.setRoomAllocations(reservation, this.getRoomAllocations(reservation));
+    }
 
+    /**
+     * Set the room allocations of a reservation. If no room allocations are found, the
+     * reservation is conflicted, set the backup building id to the building id of the parent
+     * reservation.
+     *
+     * @param reservation the reservation to set the allocations for
+     * @param roomAllocations the room allocations of the reservation
+     */
+    private void setRoomAllocations(final RoomReservation reservation,
+            final List<RoomAllocation> roomAllocations) {
         reservation.setRoomAllocations(roomAllocations);
         if (roomAllocations.isEmpty()
                 && Constants.STATUS_ROOM_CONFLICT.equals(reservation.getStatus())
                 && reservation.getParentId() != null) {
             // get the building id of the parent reservation's room allocation
-            roomAllocations = this.findByParentId(reservation.getParentId());
-            if (!roomAllocations.isEmpty()) {
-                reservation.setBackupBuildingId(roomAllocations.get(0).getBlId());
+            final List<RoomAllocation> parentAllocations =
+                    this.findByParentId(reservation.getParentId());
+            if (!parentAllocations.isEmpty()) {
+                reservation.setBackupBuildingId(parentAllocations.get(0).getBlId());
             }
         }
     }
@@ -415,4 +571,13 @@ public class RoomAllocationDataSource extends AbstractAllocationDataSource<RoomA
         this.roomArrangementDataSource = roomArrangementDataSource;
     }
 
+    /**
+     * Set the room occupancy index to invalidate when room allocations change.
+     *
+     * @param roomOccupancyIndex the room occupancy index
+     */
+    public final void setRoomOccupancyIndex(final RoomOccupancyIndex roomOccupancyIndex) {
+        this.roomOccupancyIndex = roomOccupancyIndex;
+    }
+
 }
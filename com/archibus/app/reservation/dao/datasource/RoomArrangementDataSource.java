@@ -3,6 +3,8 @@ package com.archibus.app.reservation.dao.datasource;
 import java.sql.Time;
 import java.util.*;
 
+import org.springframework.util.StringUtils;
+
 import com.archibus.app.reservation.dao.IRoomArrangementDataSource;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.*;
@@ -20,6 +22,9 @@ import com.archibus.utility.*;
 public class RoomArrangementDataSource extends AbstractReservableDataSource<RoomArrangement>
         implements IRoomArrangementDataSource {
 
+    /** Optional in-memory room occupancy index, replaces the time restriction when set. */
+    private RoomOccupancyIndex roomOccupancyIndex;
+
     /**
      * Instantiates a new room arrangement data source.
      */
@@ -154,7 +159,11 @@ public class RoomArrangementDataSource extends AbstractReservableDataSource<Room
         dataSource.addRestriction(
             Restrictions.eq(Constants.ROOM_TABLE, Constants.RESERVABLE_FIELD_NAME, 1));
 
-        addRestrictions(dataSource, reservation, allDayEvent, externalAllowed, allowConflicts);
+        // check free busy of rooms in the occupancy index instead of the database if possible
+        final boolean useOccupancyIndex = !allowConflicts && this.roomOccupancyIndex != null
+                && this.roomOccupancyIndex.isEnabled();
+        addRestrictions(dataSource, reservation, allDayEvent, externalAllowed,
+            allowConflicts || useOccupancyIndex);
 
         // extra
         addNumberOfAttendeesRestriction(numberAttendees, dataSource);
@@ -174,7 +183,12 @@ public class RoomArrangementDataSource extends AbstractReservableDataSource<Room
         dataSource.addSort(this.tableName, "rm_arrange_type_id", DataSource.SORT_ASC);
         dataSource.addSort(this.tableName, "config_id", DataSource.SORT_ASC);
 
-        return dataSource.getRecords();
+        List<DataRecord> records = dataSource.getRecords();
+        if (useOccupancyIndex) {
+            records = this.roomOccupancyIndex.filterAvailable(records,
+                reservation.getTimePeriod(), reservation.getReservationIdsInConference());
+        }
+        return records;
     }
 
     /**
@@ -206,6 +220,75 @@ public class RoomArrangementDataSource extends AbstractReservableDataSource<Room
             false, false);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Loads the room allocations for the entire date range at once and checks them in memory,
+     * together with the restrictions that depend on the date of each occurrence.
+     */
+    @Override
+    public final Map<RoomArrangement, BitSet> findConflictingOccurrences(
+            final List<RoomArrangement> roomArrangements, final List<RoomReservation> occurrences,
+            final String localTimeZone, final boolean allDayEvent) {
+        final Map<RoomArrangement, BitSet> conflicts = new HashMap<RoomArrangement, BitSet>();
+        final Set<String> buildingIds = new HashSet<String>();
+        for (final RoomArrangement arrangement : roomArrangements) {
+            conflicts.put(arrangement, new BitSet(occurrences.size()));
+            buildingIds.add(arrangement.getBlId());
+        }
+        if (roomArrangements.isEmpty() || occurrences.isEmpty()) {
+            return conflicts;
+        }
+
+        Date firstDate = occurrences.get(0).getStartDate();
+        Date lastDate = occurrences.get(0).getEndDate();
+        for (final RoomReservation occurrence : occurrences) {
+            if (occurrence.getStartDate().before(firstDate)) {
+                firstDate = occurrence.getStartDate();
+            }
+            if (occurrence.getEndDate().after(lastDate)) {
+                lastDate = occurrence.getEndDate();
+            }
+        }
+        final Map<String, List<RoomOccupancyInterval>> intervals =
+                RoomOccupancyLoader.loadBuildings(buildingIds, firstDate, lastDate);
+        final Map<String, RoomOccupancyTree> trees = new HashMap<String, RoomOccupancyTree>();
+        for (final Map.Entry<String, List<RoomOccupancyInterval>> entry : intervals.entrySet()) {
+            trees.put(entry.getKey(), new RoomOccupancyTree(entry.getValue()));
+        }
+
+        final Date localCurrentDate =
+                TimePeriod.clearTime(LocalDateTimeUtil.currentLocalDateForTimeZone(localTimeZone));
+        final Time localCurrentTime =
+                new Time(LocalDateTimeUtil.currentLocalTimeForTimeZone(localTimeZone).getTime());
+
+        for (int index = 0; index < occurrences.size(); ++index) {
+            final TimePeriod timePeriod = occurrences.get(index).getTimePeriod();
+            // no rooms are available for occurrences in the past
+            final boolean inPast = timePeriod.getStartDate().before(localCurrentDate);
+            int daysDifference = 0;
+            RoomOccupancyInterval.Request request = null;
+            if (!inPast) {
+                daysDifference = getDaysDifference(timePeriod, localCurrentDate);
+                if (timePeriod.isComplete()) {
+                    request = new RoomOccupancyInterval.Request(timePeriod.getStartDate(),
+                        timePeriod.getStartTime(), timePeriod.getEndDate(),
+                        timePeriod.getEndTime(),
+                        occurrences.get(index).getReservationIdsInConference());
+                }
+            }
+            for (final RoomArrangement arrangement : roomArrangements) {
+                if (inPast
+                        || !isAvailableOnDate(arrangement, timePeriod, daysDifference,
+                            localCurrentTime, allDayEvent)
+                        || (request != null && hasConflict(trees, arrangement, request))) {
+                    conflicts.get(arrangement).set(index);
+                }
+            }
+        }
+        return conflicts;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -235,6 +318,40 @@ public class RoomArrangementDataSource extends AbstractReservableDataSource<Room
         return arrangement;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<RoomArrangement, RoomArrangement> getRoomArrangements(
+            final Set<RoomArrangement> primaryKeys) {
+        final Map<RoomArrangement, RoomArrangement> arrangements =
+                new HashMap<RoomArrangement, RoomArrangement>();
+        if (!primaryKeys.isEmpty()) {
+            final Set<String> buildingIds = new HashSet<String>();
+            final Set<String> roomIds = new HashSet<String>();
+            for (final RoomArrangement primaryKey : primaryKeys) {
+                buildingIds.add(primaryKey.getBlId());
+                roomIds.add(primaryKey.getRmId());
+            }
+
+            final DataSource dataSource = this.createCopy();
+            dataSource.setApplyVpaRestrictions(false);
+            // restrict on building and room ids, then keep only the requested arrangements
+            dataSource.addRestriction(Restrictions.in(this.tableName, Constants.BL_ID_FIELD_NAME,
+                StringUtils.collectionToCommaDelimitedString(buildingIds)));
+            dataSource.addRestriction(Restrictions.in(this.tableName, Constants.RM_ID_FIELD_NAME,
+                StringUtils.collectionToCommaDelimitedString(roomIds)));
+
+            for (final DataRecord record : dataSource.getRecords()) {
+                final RoomArrangement arrangement = convertRecordToObject(record);
+                if (primaryKeys.contains(arrangement)) {
+                    arrangements.put(arrangement, arrangement);
+                }
+            }
+        }
+        return arrangements;
+    }
+
     /**
      * Adds the number of attendees restriction.
      *
@@ -388,6 +505,89 @@ public class RoomArrangementDataSource extends AbstractReservableDataSource<Room
         return mapping;
     }
 
+    /**
+     * Check the restrictions that depend on the date and time of the reservation for a single room
+     * arrangement, i.e. the announce days, the maximum days ahead and the day start and end.
+     *
+     * @param arrangement the room arrangement
+     * @param timePeriod the requested time period in local time
+     * @param daysDifference number of days between the current date and the requested date
+     * @param localCurrentTime the current local time
+     * @param allDayEvent true for all day events, false for regular reservations
+     * @return true if the room arrangement can be reserved on the requested date
+     */
+    private boolean isAvailableOnDate(final RoomArrangement arrangement,
+            final TimePeriod timePeriod, final int daysDifference, final Time localCurrentTime,
+            final boolean allDayEvent) {
+        // Service Desk and Reservation Manager members ignore announce and max days ahead.
+        final User user = ContextStore.get().getUser();
+        final boolean privileged = user.isMemberOfGroup(Constants.RESERVATION_SERVICE_DESK)
+                || user.isMemberOfGroup(Constants.RESERVATION_MANAGER);
+
+        boolean available = true;
+        if (!privileged) {
+            final Integer announceDays = arrangement.getAnnounceDays();
+            available = announceDays != null && (announceDays < daysDifference
+                    || announceDays == daysDifference && arrangement.getAnnounceTime() != null
+                            && TimePeriod.clearDate(arrangement.getAnnounceTime())
+                                .after(TimePeriod.clearDate(localCurrentTime)));
+        }
+        if (available && !privileged && !user.isMemberOfGroup(Constants.RESERVATION_ASSISTANT)) {
+            available = arrangement.getMaxDaysAhead() != null
+                    && arrangement.getMaxDaysAhead() >= daysDifference;
+        }
+        if (available && !allDayEvent && timePeriod.getStartTime() != null
+                && timePeriod.getEndTime() != null) {
+            available = arrangement.getDayStart() != null && arrangement.getDayEnd() != null;
+            if (available) {
+                final int firstMinute = TimePeriod.toMinutes(arrangement.getDayStart())
+                        + getMinutes(arrangement.getPreBlock());
+                final int lastMinute = TimePeriod.toMinutes(arrangement.getDayEnd())
+                        - getMinutes(arrangement.getPostBlock());
+                available = TimePeriod.toMinutes(timePeriod.getStartTime()) >= firstMinute
+                        && TimePeriod.toMinutes(timePeriod.getEndTime()) <= lastMinute;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Check whether the room arrangement conflicts with the loaded room allocations.
+     *
+     * @param trees the interval trees of the loaded room allocations mapped by room key
+     * @param arrangement the room arrangement
+     * @param request the requested period
+     * @return true if the room arrangement is not free
+     */
+    private static boolean hasConflict(final Map<String, RoomOccupancyTree> trees,
+            final RoomArrangement arrangement, final RoomOccupancyInterval.Request request) {
+        final RoomOccupancyTree tree = trees.get(RoomOccupancyLoader
+            .createKey(arrangement.getBlId(), arrangement.getFlId(), arrangement.getRmId()));
+        return tree != null && tree.hasConflict(request,
+            RoomOccupancyLoader.trim(arrangement.getConfigId()),
+            getMinutes(arrangement.getPreBlock()), getMinutes(arrangement.getPostBlock()));
+    }
+
+    /**
+     * Get a number of minutes, considering null as 0.
+     *
+     * @param minutes the number of minutes, can be null
+     * @return the number of minutes
+     */
+    private static int getMinutes(final Integer minutes) {
+        return minutes == null ? 0 : minutes;
+    }
+
+    /**
+     * Set the room occupancy index to use for checking whether rooms are free. When not set, this
+     * is checked in the availability query.
+     *
+     * @param roomOccupancyIndex the room occupancy index
+     */
+    public void setRoomOccupancyIndex(final RoomOccupancyIndex roomOccupancyIndex) {
+        this.roomOccupancyIndex = roomOccupancyIndex;
+    }
+
     /**
      * Convert a reservation to local time.
      *
@@ -0,0 +1,431 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.Logger;
+import org.springframework.transaction.support.*;
+
+import com.archibus.app.reservation.domain.TimePeriod;
+import com.archibus.datasource.data.DataRecord;
+
+/**
+ * In-memory index of room occupancy. Used by RoomArrangementDataSource to check whether room
+ * arrangements are free in Java, instead of adding the NOT EXISTS subquery on reserve_rm to the
+ * availability query.
+ * <p>
+ * The index holds an interval tree per room (bl_id, fl_id, rm_id) with the active room allocations
+ * (Awaiting App. or Confirmed) that end yesterday or later. The pre- and post-block of the reserved
+ * arrangement and the configurations excluded by the reserved configuration are resolved when the
+ * room is loaded. RoomAllocationDataSource invalidates a room when it saves, updates or cancels an
+ * allocation, so the room is reloaded on the next search. Since a search in another thread could
+ * reload the room before the change is committed, the room is invalidated again when the
+ * transaction completes. Without transaction synchronization, the room is reloaded on every search
+ * during the commit window instead. The entire index is reloaded after the reload interval to pick
+ * up changes made outside of the reservation data sources.
+ * <p>
+ * Reloaded rooms and a reloaded index are built completely before they replace the previous
+ * version, so concurrent searches never see a room without its reservations.
+ * <p>
+ * Single-day searches that don't ignore any reservations, such as the "available now" searches
+ * from the kiosk and mobile apps, check the free/busy of the candidate arrangements in per-day
+ * slot bitmaps. The candidate arrangements are still selected in SQL by
+ * RoomArrangementDataSource, which applies the other restrictions (VPA, announce days, capacity,
+ * fixed resources); only the NOT EXISTS subquery on reserve_rm is replaced. The kiosk and mobile
+ * searches reach the index through RoomArrangementDataSource.findAvailableRooms. The slot size is
+ * the MinutesTimeUnit activity parameter if it divides an hour, otherwise one minute. The
+ * interval tree is only searched when the requested times are not aligned on the slots and the
+ * bitmap shows a blocked slot at the edge of the request.
+ * <p>
+ * Managed by Spring, has singleton scope. Optional: it must be injected in both
+ * RoomArrangementDataSource and RoomAllocationDataSource to be used, otherwise availability is
+ * checked in SQL.
+ *
+ * @since 24.3
+ */
+public class RoomOccupancyIndex {
+
+    /** Default number of minutes after which the entire index is reloaded. */
+    private static final int DEFAULT_RELOAD_MINUTES = 15;
+
+    /** Activity ID of the reservations application. */
+    private static final String ACTIVITY_ID = "AbWorkplaceReservations";
+
+    /** Number of minutes in an hour. */
+    private static final int MINUTES_PER_HOUR = 60;
+
+    /**
+     * Number of millis during which an invalidated room is reloaded on every search, if the change
+     * is made without transaction synchronization.
+     */
+    private static final long COMMIT_WINDOW_MILLIS = 60 * 1000;
+
+    /** The logger. */
+    private final Logger logger = Logger.getLogger(this.getClass());
+
+    /** The loaded occupancy, replaced as a whole when the entire index is reloaded. */
+    private volatile Occupancy occupancy = new Occupancy();
+
+    /**
+     * Rooms to reload before they are used again. A room stays stale until it is reloaded after
+     * the mapped time in millis.
+     */
+    private final ConcurrentMap<String, Long> staleRooms = new ConcurrentHashMap<String, Long>();
+
+    /** Whether the index is used. */
+    private boolean enabled = true;
+
+    /** Number of minutes after which the entire index is reloaded. */
+    private int reloadMinutes = DEFAULT_RELOAD_MINUTES;
+
+    /** Time in millis when the index was last loaded, 0 if it was never loaded. */
+    private volatile long loadedTime;
+
+    /** Number of minutes per slot in the slot bitmaps. */
+    private volatile int slotMinutes = 1;
+
+    /**
+     * Check whether the index is enabled.
+     *
+     * @return true if availability should be checked using the index
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Enable or disable the index.
+     *
+     * @param enabled true to check availability using the index
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Set the number of minutes after which the entire index is reloaded.
+     *
+     * @param reloadMinutes the reload interval in minutes
+     */
+    public void setReloadMinutes(final int reloadMinutes) {
+        this.reloadMinutes = reloadMinutes;
+    }
+
+    /**
+     * Remove the room arrangement records that are not available in the given period. The records
+     * must contain the location, configuration and pre- and post-block of the arrangement.
+     *
+     * @param records the rm_arrange records to filter
+     * @param timePeriod the requested period in local time of the building
+     * @param reservationIds reservations to ignore (can be null)
+     * @return the available room arrangement records, in the original order
+     */
+    public List<DataRecord> filterAvailable(final List<DataRecord> records,
+            final TimePeriod timePeriod, final Integer[] reservationIds) {
+        if (timePeriod == null || !timePeriod.isComplete()) {
+            return records;
+        }
+        this.ensureLoaded();
+
+        final RoomOccupancyInterval.Request request =
+                new RoomOccupancyInterval.Request(timePeriod.getStartDate(),
+                    timePeriod.getStartTime(), timePeriod.getEndDate(), timePeriod.getEndTime(),
+                    reservationIds);
+        final boolean useSlots = request.getStartDay() == request.getEndDay()
+                && request.getStartMinutes() < request.getEndMinutes()
+                && !request.hasExcludedReservations();
+        final String prefix = Constants.RM_ARRANGE_TABLE + Constants.DOT;
+        final List<DataRecord> availableRecords = new ArrayList<DataRecord>(records.size());
+        for (final DataRecord record : records) {
+            final RoomOccupancyTree tree =
+                    this.getRoom(RoomOccupancyLoader.createKey(
+                        record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.FL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.RM_ID_FIELD_NAME)));
+            final String configId = RoomOccupancyLoader
+                .trim(record.getString(prefix + Constants.CONFIG_ID_FIELD_NAME));
+            final int preBlock = record.getInt(prefix + Constants.PRE_BLOCK_FIELD_NAME);
+            final int postBlock = record.getInt(prefix + Constants.POST_BLOCK_FIELD_NAME);
+            final boolean available;
+            if (tree.size() == 0) {
+                available = true;
+            } else if (useSlots) {
+                available = this.isAvailableInSlots(tree, request, configId, preBlock, postBlock);
+            } else {
+                available = !tree.hasConflict(request, configId, preBlock, postBlock);
+            }
+            if (available) {
+                availableRecords.add(record);
+            }
+        }
+        return availableRecords;
+    }
+
+    /**
+     * Check the availability of an arrangement for a single-day request using the slot bitmap of
+     * the requested day. If the request is not aligned on the slots and only the partially
+     * requested slots are blocked, the interval tree decides.
+     *
+     * @param tree the interval tree of the room
+     * @param request the requested period
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @return true if the arrangement is available
+     */
+    private boolean isAvailableInSlots(final RoomOccupancyTree tree,
+            final RoomOccupancyInterval.Request request, final String configId,
+            final int preBlock, final int postBlock) {
+        final int minutes = this.slotMinutes;
+        final BitSet slots =
+                tree.getSlotBitmap(request.getStartDay(), configId, preBlock, postBlock, minutes);
+        final int firstBlockedSlot = slots.nextSetBit(request.getStartMinutes() / minutes);
+        final boolean available;
+        if (firstBlockedSlot < 0
+                || firstBlockedSlot >= (request.getEndMinutes() + minutes - 1) / minutes) {
+            available = true;
+        } else if (request.getStartMinutes() % minutes == 0
+                && request.getEndMinutes() % minutes == 0) {
+            available = false;
+        } else {
+            available = !tree.hasConflict(request, configId, preBlock, postBlock);
+        }
+        return available;
+    }
+
+    /**
+     * Mark a room to be reloaded before it is used again.
+     *
+     * @param blId the building id
+     * @param flId the floor id
+     * @param rmId the room id
+     */
+    public void invalidateRoom(final String blId, final String flId, final String rmId) {
+        this.invalidate(RoomOccupancyLoader.createKey(blId, flId, rmId));
+    }
+
+    /**
+     * Mark the room currently holding the given allocation to be reloaded before it is used again.
+     *
+     * @param allocationId the room allocation id (rmres_id)
+     */
+    public void invalidateAllocation(final Integer allocationId) {
+        if (allocationId != null) {
+            final String roomKey = this.occupancy.allocationRooms.get(allocationId);
+            if (roomKey != null) {
+                this.invalidate(roomKey);
+            }
+        }
+    }
+
+    /**
+     * Mark a room to be reloaded before it is used again, and again after the current transaction
+     * completes.
+     *
+     * @param roomKey the room key
+     */
+    private void invalidate(final String roomKey) {
+        final long now = System.currentTimeMillis();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.markStale(roomKey, now);
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(final int status) {
+                        RoomOccupancyIndex.this.markStale(roomKey, System.currentTimeMillis());
+                    }
+                });
+        } else {
+            this.markStale(roomKey, now + COMMIT_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Mark a room to be reloaded until the given time, keeping a later time if already marked.
+     *
+     * @param roomKey the room key
+     * @param staleUntil time in millis after which a reload makes the room up to date
+     */
+    private void markStale(final String roomKey, final long staleUntil) {
+        Long previous = this.staleRooms.putIfAbsent(roomKey, staleUntil);
+        while (previous != null && previous < staleUntil
+                && !this.staleRooms.replace(roomKey, previous, staleUntil)) {
+            previous = this.staleRooms.putIfAbsent(roomKey, staleUntil);
+        }
+    }
+
+    /**
+     * Reload the entire index on the next search.
+     */
+    public void invalidateAll() {
+        this.loadedTime = 0;
+    }
+
+    /**
+     * Load the index if it was not loaded yet or the reload interval has expired.
+     */
+    private void ensureLoaded() {
+        if (System.currentTimeMillis() - this.loadedTime > this.reloadMinutes
+                * (long) Constants.ONE_MINUTE) {
+            synchronized (this) {
+                if (System.currentTimeMillis() - this.loadedTime > this.reloadMinutes
+                        * (long) Constants.ONE_MINUTE) {
+                    this.load();
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the occupancy of all rooms.
+     */
+    private void load() {
+        final long start = System.currentTimeMillis();
+        this.slotMinutes = getSlotMinutes();
+        final Map<String, List<RoomOccupancyInterval>> intervals =
+                RoomOccupancyLoader.loadAll(getFirstDateToLoad());
+
+        // searches continue on the previous occupancy until the new one is complete
+        final Occupancy loaded = new Occupancy();
+        for (final Map.Entry<String, List<RoomOccupancyInterval>> entry : intervals.entrySet()) {
+            loaded.putRoom(entry.getKey(), new RoomOccupancyTree(entry.getValue()), start);
+        }
+        final Occupancy previous = this.occupancy;
+        this.occupancy = loaded;
+        // keep the rooms that were reloaded after this load started
+        previous.copyRoomsLoadedSince(start, loaded);
+
+        // rooms invalidated while loading are reloaded again on their next use
+        for (final Map.Entry<String, Long> entry : this.staleRooms.entrySet()) {
+            if (entry.getValue() < start) {
+                this.staleRooms.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        this.loadedTime = System.currentTimeMillis();
+        this.logger.debug("Loaded room occupancy index for " + loaded.rooms.size() + " rooms in "
+                + (this.loadedTime - start) + " ms");
+    }
+
+    /**
+     * Get the interval tree for a room, reloading the room first if it was invalidated.
+     *
+     * @param roomKey the room key
+     * @return the interval tree for the room
+     */
+    private RoomOccupancyTree getRoom(final String roomKey) {
+        final Occupancy current = this.occupancy;
+        final Long staleUntil = this.staleRooms.get(roomKey);
+        if (staleUntil != null) {
+            final long start = System.currentTimeMillis();
+            if (staleUntil < start) {
+                this.staleRooms.remove(roomKey, staleUntil);
+            }
+            final String[] location =
+                    roomKey.split("\\" + RoomOccupancyLoader.KEY_SEPARATOR, -1);
+            final List<RoomOccupancyInterval> intervals = RoomOccupancyLoader
+                .loadRoom(location[0], location[1], location[2], getFirstDateToLoad());
+            final RoomOccupancyTree tree =
+                    intervals == null ? RoomOccupancyTree.EMPTY : new RoomOccupancyTree(intervals);
+            current.putRoom(roomKey, tree, start);
+            // the entire index might have been reloaded meanwhile from older data
+            final Occupancy latest = this.occupancy;
+            if (latest != current) {
+                latest.putRoom(roomKey, tree, start);
+            }
+        }
+        final RoomOccupancyTree tree = current.rooms.get(roomKey);
+        return tree == null ? RoomOccupancyTree.EMPTY : tree;
+    }
+
+    /**
+     * Get the number of minutes per slot for the slot bitmaps: the MinutesTimeUnit activity
+     * parameter if it divides an hour, otherwise one minute.
+     *
+     * @return the number of minutes per slot
+     */
+    private static int getSlotMinutes() {
+        final int minutesTimeUnit = com.archibus.service.Configuration
+            .getActivityParameterInt(ACTIVITY_ID, "MinutesTimeUnit", 0);
+        int minutes = 1;
+        if (minutesTimeUnit > 0 && MINUTES_PER_HOUR % minutesTimeUnit == 0) {
+            minutes = minutesTimeUnit;
+        }
+        return minutes;
+    }
+
+    /**
+     * Get the first date of the allocations to load: yesterday, to cover searches in time zones
+     * behind the server.
+     *
+     * @return the first date to load
+     */
+    private static Date getFirstDateToLoad() {
+        final Calendar yesterday = Calendar.getInstance();
+        yesterday.setTime(TimePeriod.clearTime(new Date()));
+        yesterday.add(Calendar.DATE, -1);
+        return yesterday.getTime();
+    }
+
+    /**
+     * The interval trees of the rooms, with the room of each allocation.
+     */
+    private static class Occupancy {
+
+        /** Interval tree per room key. Rooms without active reservations may be missing. */
+        private final ConcurrentMap<String, RoomOccupancyTree> rooms =
+                new ConcurrentHashMap<String, RoomOccupancyTree>();
+
+        /** Room key for each room allocation, used to invalidate moved allocations. */
+        private final ConcurrentMap<Integer, String> allocationRooms =
+                new ConcurrentHashMap<Integer, String>();
+
+        /** Time in millis when the loading of each room started. */
+        private final Map<String, Long> loadTimes = new HashMap<String, Long>();
+
+        /**
+         * Replace the interval tree of a room, unless a more recent load already replaced it.
+         *
+         * @param roomKey the room key
+         * @param tree the interval tree
+         * @param loadTime time in millis when the loading of the tree started
+         */
+        private synchronized void putRoom(final String roomKey, final RoomOccupancyTree tree,
+                final long loadTime) {
+            final Long previousLoadTime = this.loadTimes.get(roomKey);
+            if (previousLoadTime == null || previousLoadTime <= loadTime) {
+                this.loadTimes.put(roomKey, loadTime);
+
+                final RoomOccupancyTree previous = this.rooms.put(roomKey, tree);
+                final List<Integer> allocationIds = tree.getAllocationIds();
+                for (final Integer allocationId : allocationIds) {
+                    this.allocationRooms.put(allocationId, roomKey);
+                }
+                if (previous != null) {
+                    final Set<Integer> currentIds = new HashSet<Integer>(allocationIds);
+                    for (final Integer allocationId : previous.getAllocationIds()) {
+                        if (!currentIds.contains(allocationId)) {
+                            this.allocationRooms.remove(allocationId, roomKey);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copy the rooms loaded at or after the given time to another occupancy.
+         *
+         * @param loadTime time in millis
+         * @param target the occupancy to copy the rooms to
+         */
+        private synchronized void copyRoomsLoadedSince(final long loadTime,
+                final Occupancy target) {
+            for (final Map.Entry<String, Long> entry : this.loadTimes.entrySet()) {
+                if (entry.getValue() >= loadTime) {
+                    target.putRoom(entry.getKey(), this.rooms.get(entry.getKey()),
+                        entry.getValue());
+                }
+            }
+        }
+    }
+
+}
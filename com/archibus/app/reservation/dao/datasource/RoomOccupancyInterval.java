@@ -0,0 +1,244 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+
+import com.archibus.app.reservation.domain.TimePeriod;
+
+/**
+ * Occupied interval of a room, as registered in the room occupancy index. Represents one active
+ * room allocation with the pre- and post-block of the reserved arrangement and the configuration
+ * exclusions of the reserved configuration already applied.
+ * <p>
+ * Dates are stored as yyyymmdd numbers and times as minutes since midnight, so the conflict check
+ * compares dates and times separately exactly like the NOT EXISTS restriction built by
+ * RoomArrangementDataSourceRestrictionsHelper.
+ *
+ * @since 24.3
+ */
+final class RoomOccupancyInterval {
+
+    /** Number of minutes in a day. */
+    static final int MINUTES_PER_DAY = TimePeriod.DAY_MILLISECONDS / TimePeriod.MINUTE_MILLISECONDS;
+
+    /** Identifier of the room allocation (rmres_id). */
+    private final int allocationId;
+
+    /** Identifier of the reservation (res_id). */
+    private final int reservationId;
+
+    /** Start date as yyyymmdd. */
+    private final int startDay;
+
+    /** End date as yyyymmdd. */
+    private final int endDay;
+
+    /** Start time in minutes, minus the pre-block of the reserved arrangement. */
+    private final int blockedStart;
+
+    /** End time in minutes, plus the post-block of the reserved arrangement. */
+    private final int blockedEnd;
+
+    /** Configurations of the room that cannot be reserved while this interval is occupied. */
+    private final Set<String> blockedConfigIds;
+
+    /**
+     * Create an occupied interval.
+     *
+     * @param allocationId the room allocation id
+     * @param reservationId the reservation id
+     * @param startDay start date as yyyymmdd
+     * @param endDay end date as yyyymmdd
+     * @param blockedStart start time in minutes including the pre-block
+     * @param blockedEnd end time in minutes including the post-block
+     * @param blockedConfigIds configurations that conflict with this interval
+     */
+    RoomOccupancyInterval(final int allocationId, final int reservationId, final int startDay,
+            final int endDay, final int blockedStart, final int blockedEnd,
+            final Set<String> blockedConfigIds) {
+        this.allocationId = allocationId;
+        this.reservationId = reservationId;
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.blockedStart = blockedStart;
+        this.blockedEnd = blockedEnd;
+        this.blockedConfigIds = blockedConfigIds;
+    }
+
+    /**
+     * Get the room allocation id.
+     *
+     * @return the room allocation id
+     */
+    int getAllocationId() {
+        return this.allocationId;
+    }
+
+    /**
+     * Get the start date as yyyymmdd.
+     *
+     * @return the start day number
+     */
+    int getStartDay() {
+        return this.startDay;
+    }
+
+    /**
+     * Get the end date as yyyymmdd.
+     *
+     * @return the end day number
+     */
+    int getEndDay() {
+        return this.endDay;
+    }
+
+    /**
+     * Check whether this interval prevents reserving the given arrangement in the given period.
+     *
+     * @param period the requested period
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @return true if the interval conflicts with the request
+     */
+    boolean conflictsWith(final Request period, final String configId, final int preBlock,
+            final int postBlock) {
+        boolean conflict = !period.isExcluded(this.reservationId)
+                && this.blockedConfigIds.contains(configId) && this.startDay <= period.endDay
+                && this.endDay >= period.startDay;
+        if (conflict && this.startDay == period.endDay) {
+            conflict = this.blockedStart - postBlock < period.endMinutes;
+        }
+        if (conflict && this.endDay == period.startDay) {
+            conflict = this.blockedEnd + preBlock > period.startMinutes;
+        }
+        return conflict;
+    }
+
+    /**
+     * Mark the slots of the given day during which this interval prevents reserving the given
+     * arrangement. Reservations excluded by a request are not taken into account.
+     *
+     * @param slots the slot bitmap of the day to update
+     * @param day the day as yyyymmdd
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @param slotMinutes number of minutes per slot
+     */
+    void markSlots(final BitSet slots, final int day, final String configId, final int preBlock,
+            final int postBlock, final int slotMinutes) {
+        if (this.blockedConfigIds.contains(configId) && this.startDay <= day
+                && this.endDay >= day) {
+            int from = 0;
+            if (this.startDay == day) {
+                from = Math.max(this.blockedStart - postBlock, 0);
+            }
+            int until = MINUTES_PER_DAY;
+            if (this.endDay == day) {
+                until = Math.min(this.blockedEnd + preBlock, MINUTES_PER_DAY);
+            }
+            if (from < until) {
+                slots.set(from / slotMinutes, (until + slotMinutes - 1) / slotMinutes);
+            }
+        }
+    }
+
+    /**
+     * A requested period in the local time of the building, prepared for conflict checks.
+     */
+    static final class Request {
+
+        /** Requested start date as yyyymmdd. */
+        private final int startDay;
+
+        /** Requested end date as yyyymmdd. */
+        private final int endDay;
+
+        /** Requested start time in minutes. */
+        private final int startMinutes;
+
+        /** Requested end time in minutes. */
+        private final int endMinutes;
+
+        /** Reservations to ignore, e.g. the reservation being edited. */
+        private final Set<Integer> excludedReservationIds;
+
+        /**
+         * Prepare a request.
+         *
+         * @param startDate the start date
+         * @param startTime the start time
+         * @param endDate the end date
+         * @param endTime the end time
+         * @param reservationIds the reservation ids to ignore (can be null)
+         */
+        Request(final Date startDate, final Date startTime, final Date endDate,
+                final Date endTime, final Integer[] reservationIds) {
+            this.startDay = TimePeriod.toDayNumber(startDate);
+            this.endDay = TimePeriod.toDayNumber(endDate);
+            this.startMinutes = TimePeriod.toMinutes(startTime);
+            this.endMinutes = TimePeriod.toMinutes(endTime);
+            if (reservationIds == null) {
+                this.excludedReservationIds = Collections.emptySet();
+            } else {
+                this.excludedReservationIds = new HashSet<Integer>(Arrays.asList(reservationIds));
+            }
+        }
+
+        /**
+         * Get the requested start date as yyyymmdd.
+         *
+         * @return the start day number
+         */
+        int getStartDay() {
+            return this.startDay;
+        }
+
+        /**
+         * Get the requested end date as yyyymmdd.
+         *
+         * @return the end day number
+         */
+        int getEndDay() {
+            return this.endDay;
+        }
+
+        /**
+         * Get the requested start time in minutes.
+         *
+         * @return the start minutes
+         */
+        int getStartMinutes() {
+            return this.startMinutes;
+        }
+
+        /**
+         * Get the requested end time in minutes.
+         *
+         * @return the end minutes
+         */
+        int getEndMinutes() {
+            return this.endMinutes;
+        }
+
+        /**
+         * Check whether the request ignores any reservations.
+         *
+         * @return true if at least one reservation is ignored
+         */
+        boolean hasExcludedReservations() {
+            return !this.excludedReservationIds.isEmpty();
+        }
+
+        /**
+         * Check whether the given reservation should be ignored.
+         *
+         * @param reservationId the reservation id
+         * @return true if it must be ignored
+         */
+        private boolean isExcluded(final int reservationId) {
+            return this.excludedReservationIds.contains(reservationId);
+        }
+    }
+
+}
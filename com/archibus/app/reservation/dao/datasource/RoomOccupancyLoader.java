@@ -0,0 +1,323 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+
+import org.springframework.util.StringUtils;
+
+import com.archibus.app.reservation.domain.TimePeriod;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.datasource.restriction.Restrictions;
+
+/**
+ * Loads the occupied intervals of rooms from reserve_rm, with the pre- and post-block of the
+ * reserved arrangement (rm_arrange) and the excluded configurations of the reserved configuration
+ * (rm_config) resolved. Uses three queries regardless of the number of rooms or dates.
+ * <p>
+ * Used by RoomOccupancyIndex and RoomArrangementDataSource. The room keys are also used by
+ * RoomTimelineAllocations.
+ *
+ * @since 24.3
+ */
+public final class RoomOccupancyLoader {
+
+    /** Separator used in room and arrangement keys. */
+    static final String KEY_SEPARATOR = "|";
+
+    /** Quote used around configuration ids in rm_config.excluded_config. */
+    private static final String QUOTE = "'";
+
+    /** Fields of reserve_rm to load. */
+    private static final String[] ALLOCATION_FIELDS = { Constants.RMRES_ID_FIELD_NAME,
+            Constants.RES_ID, Constants.BL_ID_FIELD_NAME, Constants.FL_ID_FIELD_NAME,
+            Constants.RM_ID_FIELD_NAME, Constants.CONFIG_ID_FIELD_NAME,
+            Constants.RM_ARRANGE_TYPE_ID_FIELD_NAME, Constants.DATE_START_FIELD_NAME,
+            Constants.TIME_START_FIELD_NAME, Constants.TIME_END_FIELD_NAME };
+
+    /** Fields of rm_arrange to load. */
+    private static final String[] ARRANGEMENT_FIELDS = { Constants.BL_ID_FIELD_NAME,
+            Constants.FL_ID_FIELD_NAME, Constants.RM_ID_FIELD_NAME, Constants.CONFIG_ID_FIELD_NAME,
+            Constants.RM_ARRANGE_TYPE_ID_FIELD_NAME, Constants.PRE_BLOCK_FIELD_NAME,
+            Constants.POST_BLOCK_FIELD_NAME };
+
+    /** Fields of rm_config to load. */
+    private static final String[] CONFIG_FIELDS = { Constants.BL_ID_FIELD_NAME,
+            Constants.FL_ID_FIELD_NAME, Constants.RM_ID_FIELD_NAME, Constants.CONFIG_ID_FIELD_NAME,
+            Constants.EXCLUDED_CONFIG_FIELD };
+
+    /** Buildings to load, null for all buildings. */
+    private final Collection<String> buildingIds;
+
+    /** Floor to load, only used when loading a single room. */
+    private final String floorId;
+
+    /** Room to load, only used when loading a single room. */
+    private final String roomId;
+
+    /**
+     * Private constructor: use the static load methods.
+     *
+     * @param buildingIds buildings to load, null for all buildings
+     * @param floorId floor to load, null for all floors
+     * @param roomId room to load, null for all rooms
+     */
+    private RoomOccupancyLoader(final Collection<String> buildingIds, final String floorId,
+            final String roomId) {
+        this.buildingIds = buildingIds;
+        this.floorId = floorId;
+        this.roomId = roomId;
+    }
+
+    /**
+     * Load the occupied intervals of all rooms ending on or after the given date.
+     *
+     * @param fromDate the first date to load
+     * @return the occupied intervals mapped by room key
+     */
+    static Map<String, List<RoomOccupancyInterval>> loadAll(final Date fromDate) {
+        return new RoomOccupancyLoader(null, null, null).loadIntervals(fromDate, null);
+    }
+
+    /**
+     * Load the occupied intervals of a single room ending on or after the given date.
+     *
+     * @param blId the building id
+     * @param flId the floor id
+     * @param rmId the room id
+     * @param fromDate the first date to load
+     * @return the occupied intervals of the room, null if it has none
+     */
+    static List<RoomOccupancyInterval> loadRoom(final String blId, final String flId,
+            final String rmId, final Date fromDate) {
+        return new RoomOccupancyLoader(Collections.singletonList(blId), flId, rmId)
+            .loadIntervals(fromDate, null).get(createKey(blId, flId, rmId));
+    }
+
+    /**
+     * Load the occupied intervals of all rooms in the given buildings that overlap the given date
+     * range.
+     *
+     * @param buildingIds the building ids
+     * @param fromDate the first date to load
+     * @param toDate the last date to load
+     * @return the occupied intervals mapped by room key
+     */
+    static Map<String, List<RoomOccupancyInterval>> loadBuildings(
+            final Collection<String> buildingIds, final Date fromDate, final Date toDate) {
+        return new RoomOccupancyLoader(buildingIds, null, null).loadIntervals(fromDate, toDate);
+    }
+
+    /**
+     * Create the key identifying a room. The primary key values are trimmed.
+     *
+     * @param blId the building id
+     * @param flId the floor id
+     * @param rmId the room id
+     * @return the room key
+     */
+    public static String createKey(final String blId, final String flId, final String rmId) {
+        return trim(blId) + KEY_SEPARATOR + trim(flId) + KEY_SEPARATOR + trim(rmId);
+    }
+
+    /**
+     * Trim a primary key value, replacing null by an empty string.
+     *
+     * @param value the value
+     * @return the trimmed value
+     */
+    static String trim(final String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * Load the occupied intervals in the given date range.
+     *
+     * @param fromDate the first date to load
+     * @param toDate the last date to load (null for no limit)
+     * @return the occupied intervals mapped by room key
+     */
+    private Map<String, List<RoomOccupancyInterval>> loadIntervals(final Date fromDate,
+            final Date toDate) {
+        final Map<String, int[]> blocks = this.loadBlocks();
+        final Map<String, Map<String, String>> excludedConfigs = this.loadExcludedConfigs();
+
+        final boolean hasDateEnd = ReservationSchemaCapabilities.get()
+            .hasContinuousRoomReservations();
+        final List<String> fields = new ArrayList<String>(Arrays.asList(ALLOCATION_FIELDS));
+        if (hasDateEnd) {
+            fields.add(Constants.DATE_END_FIELD_NAME);
+        }
+        final DataSource dataSource = DataSourceFactory.createDataSourceForFields(
+            Constants.RESERVE_RM_TABLE, fields.toArray(new String[fields.size()]));
+        dataSource.setApplyVpaRestrictions(false);
+        // KB 3041658 remove record limit, a truncated load would show booked rooms as free
+        dataSource.setMaxRecords(0);
+        this.addLocationRestriction(dataSource, Constants.RESERVE_RM_TABLE);
+        dataSource.addRestriction(Restrictions.in(Constants.RESERVE_RM_TABLE, Constants.STATUS,
+            Constants.STATUS_AWAITING_APP_OR_CONFIRMED));
+        dataSource.addRestriction(Restrictions.gte(Constants.RESERVE_RM_TABLE,
+            hasDateEnd ? Constants.DATE_END_FIELD_NAME : Constants.DATE_START_FIELD_NAME,
+            fromDate));
+        if (toDate != null) {
+            dataSource.addRestriction(Restrictions.lte(Constants.RESERVE_RM_TABLE,
+                Constants.DATE_START_FIELD_NAME, toDate));
+        }
+
+        final String prefix = Constants.RESERVE_RM_TABLE + Constants.DOT;
+        final Map<String, List<RoomOccupancyInterval>> intervals =
+                new HashMap<String, List<RoomOccupancyInterval>>();
+        for (final DataRecord record : dataSource.getRecords()) {
+            final String roomKey =
+                    createKey(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.FL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.RM_ID_FIELD_NAME));
+            final String configId = trim(record.getString(prefix + Constants.CONFIG_ID_FIELD_NAME));
+            final Set<String> blockedConfigIds =
+                    resolveBlockedConfigs(excludedConfigs.get(roomKey), configId);
+            if (blockedConfigIds.isEmpty()) {
+                // without a matching rm_config record the allocation never conflicts
+                continue;
+            }
+            int[] arrangementBlocks = blocks.get(roomKey + KEY_SEPARATOR + configId
+                    + KEY_SEPARATOR
+                    + trim(record.getString(prefix + Constants.RM_ARRANGE_TYPE_ID_FIELD_NAME)));
+            if (arrangementBlocks == null) {
+                arrangementBlocks = new int[2];
+            }
+
+            final Date startDate = record.getDate(prefix + Constants.DATE_START_FIELD_NAME);
+            Date endDate = null;
+            if (hasDateEnd) {
+                endDate = record.getDate(prefix + Constants.DATE_END_FIELD_NAME);
+            }
+            if (endDate == null) {
+                endDate = startDate;
+            }
+            final RoomOccupancyInterval interval = new RoomOccupancyInterval(
+                record.getInt(prefix + Constants.RMRES_ID_FIELD_NAME),
+                record.getInt(prefix + Constants.RES_ID),
+                TimePeriod.toDayNumber(startDate),
+                TimePeriod.toDayNumber(endDate),
+                TimePeriod.toMinutes(record.getDate(prefix + Constants.TIME_START_FIELD_NAME))
+                        - arrangementBlocks[0],
+                TimePeriod.toMinutes(record.getDate(prefix + Constants.TIME_END_FIELD_NAME))
+                        + arrangementBlocks[1],
+                blockedConfigIds);
+
+            List<RoomOccupancyInterval> roomIntervals = intervals.get(roomKey);
+            if (roomIntervals == null) {
+                roomIntervals = new ArrayList<RoomOccupancyInterval>();
+                intervals.put(roomKey, roomIntervals);
+            }
+            roomIntervals.add(interval);
+        }
+        return intervals;
+    }
+
+    /**
+     * Load the pre- and post-blocks of the room arrangements.
+     *
+     * @return pre- and post-block mapped by arrangement key
+     */
+    private Map<String, int[]> loadBlocks() {
+        final DataSource dataSource = DataSourceFactory
+            .createDataSourceForFields(Constants.RM_ARRANGE_TABLE, ARRANGEMENT_FIELDS);
+        dataSource.setApplyVpaRestrictions(false);
+        dataSource.setMaxRecords(0);
+        this.addLocationRestriction(dataSource, Constants.RM_ARRANGE_TABLE);
+
+        final String prefix = Constants.RM_ARRANGE_TABLE + Constants.DOT;
+        final Map<String, int[]> blocks = new HashMap<String, int[]>();
+        for (final DataRecord record : dataSource.getRecords()) {
+            blocks.put(
+                createKey(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                    record.getString(prefix + Constants.FL_ID_FIELD_NAME),
+                    record.getString(prefix + Constants.RM_ID_FIELD_NAME))
+                        + KEY_SEPARATOR
+                        + trim(record.getString(prefix + Constants.CONFIG_ID_FIELD_NAME))
+                        + KEY_SEPARATOR
+                        + trim(record.getString(prefix + Constants.RM_ARRANGE_TYPE_ID_FIELD_NAME)),
+                new int[] { record.getInt(prefix + Constants.PRE_BLOCK_FIELD_NAME),
+                        record.getInt(prefix + Constants.POST_BLOCK_FIELD_NAME) });
+        }
+        return blocks;
+    }
+
+    /**
+     * Load the excluded configurations of the room configurations.
+     *
+     * @return for each room key, the excluded_config value mapped by configuration id
+     */
+    private Map<String, Map<String, String>> loadExcludedConfigs() {
+        final DataSource dataSource = DataSourceFactory
+            .createDataSourceForFields(Constants.ROOM_CONFIG_TABLE, CONFIG_FIELDS);
+        dataSource.setApplyVpaRestrictions(false);
+        dataSource.setMaxRecords(0);
+        this.addLocationRestriction(dataSource, Constants.ROOM_CONFIG_TABLE);
+
+        final String prefix = Constants.ROOM_CONFIG_TABLE + Constants.DOT;
+        final Map<String, Map<String, String>> excludedConfigs =
+                new HashMap<String, Map<String, String>>();
+        for (final DataRecord record : dataSource.getRecords()) {
+            final String roomKey =
+                    createKey(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.FL_ID_FIELD_NAME),
+                        record.getString(prefix + Constants.RM_ID_FIELD_NAME));
+            Map<String, String> roomConfigs = excludedConfigs.get(roomKey);
+            if (roomConfigs == null) {
+                roomConfigs = new HashMap<String, String>();
+                excludedConfigs.put(roomKey, roomConfigs);
+            }
+            final String excludedConfig =
+                    record.getString(prefix + Constants.EXCLUDED_CONFIG_FIELD);
+            roomConfigs.put(trim(record.getString(prefix + Constants.CONFIG_ID_FIELD_NAME)),
+                excludedConfig == null ? "" : excludedConfig);
+        }
+        return excludedConfigs;
+    }
+
+    /**
+     * Determine which configurations of a room cannot be reserved while the given configuration is
+     * reserved: the configuration itself and the configurations it excludes.
+     *
+     * @param roomConfigs excluded_config value mapped by configuration id for the room
+     * @param configId the reserved configuration
+     * @return the blocked configurations, empty if the reserved configuration is unknown
+     */
+    private static Set<String> resolveBlockedConfigs(final Map<String, String> roomConfigs,
+            final String configId) {
+        final Set<String> blockedConfigIds = new HashSet<String>();
+        if (roomConfigs != null && roomConfigs.containsKey(configId)) {
+            final String excludedConfig = roomConfigs.get(configId);
+            blockedConfigIds.add(configId);
+            for (final String otherConfigId : roomConfigs.keySet()) {
+                if (excludedConfig.contains(QUOTE + otherConfigId + QUOTE)) {
+                    blockedConfigIds.add(otherConfigId);
+                }
+            }
+        }
+        return blockedConfigIds;
+    }
+
+    /**
+     * Restrict the data source to the buildings or room to load.
+     *
+     * @param dataSource the data source
+     * @param tableName the main table of the data source
+     */
+    private void addLocationRestriction(final DataSource dataSource, final String tableName) {
+        if (this.buildingIds != null) {
+            dataSource.addRestriction(Restrictions.in(tableName, Constants.BL_ID_FIELD_NAME,
+                StringUtils.collectionToCommaDelimitedString(this.buildingIds)));
+        }
+        if (this.floorId != null) {
+            dataSource.addRestriction(
+                Restrictions.eq(tableName, Constants.FL_ID_FIELD_NAME, this.floorId));
+        }
+        if (this.roomId != null) {
+            dataSource.addRestriction(
+                Restrictions.eq(tableName, Constants.RM_ID_FIELD_NAME, this.roomId));
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Immutable interval tree of the occupied intervals of a single room, keyed on the date range of
+ * each interval. The tree is stored implicitly in an array sorted on start date: the middle
+ * element of each range is the root of the sub-tree for that range and is augmented with the
+ * maximum end date in its sub-tree, so sub-trees that end before the requested date can be
+ * skipped.
+ * <p>
+ * For single-day searches the tree also provides a slot bitmap per day and candidate arrangement,
+ * with the pre- and post-blocks and configuration exclusions applied. The bitmaps are computed on
+ * first use and cached with the tree, so they are discarded when the room is reloaded.
+ *
+ * @since 24.3
+ */
+final class RoomOccupancyTree {
+
+    /** Tree for a room without active reservations. */
+    static final RoomOccupancyTree EMPTY =
+            new RoomOccupancyTree(new ArrayList<RoomOccupancyInterval>(0));
+
+    /** Intervals sorted on start date. */
+    private final RoomOccupancyInterval[] intervals;
+
+    /** Maximum number of slot bitmaps cached for a room. */
+    private static final int MAX_SLOT_BITMAPS = 256;
+
+    /** Separator for the slot bitmap keys. */
+    private static final char KEY_SEPARATOR = '|';
+
+    /** Maximum end date in the sub-tree rooted at each index. */
+    private final int[] maxEndDays;
+
+    /** Cached slot bitmaps by day, arrangement and slot size. */
+    private final ConcurrentMap<String, BitSet> slotBitmaps =
+            new ConcurrentHashMap<String, BitSet>();
+
+    /**
+     * Build the tree.
+     *
+     * @param occupiedIntervals the occupied intervals of the room
+     */
+    RoomOccupancyTree(final List<RoomOccupancyInterval> occupiedIntervals) {
+        this.intervals =
+                occupiedIntervals.toArray(new RoomOccupancyInterval[occupiedIntervals.size()]);
+        Arrays.sort(this.intervals, new Comparator<RoomOccupancyInterval>() {
+            @Override
+            public int compare(final RoomOccupancyInterval first,
+                    final RoomOccupancyInterval second) {
+                return first.getStartDay() < second.getStartDay() ? -1
+                        : (first.getStartDay() == second.getStartDay() ? 0 : 1);
+            }
+        });
+        this.maxEndDays = new int[this.intervals.length];
+        this.augment(0, this.intervals.length - 1);
+    }
+
+    /**
+     * Get the number of intervals in the tree.
+     *
+     * @return the number of intervals
+     */
+    int size() {
+        return this.intervals.length;
+    }
+
+    /**
+     * Get the allocation ids of all intervals in the tree.
+     *
+     * @return the room allocation ids
+     */
+    List<Integer> getAllocationIds() {
+        final List<Integer> allocationIds = new ArrayList<Integer>(this.intervals.length);
+        for (final RoomOccupancyInterval interval : this.intervals) {
+            allocationIds.add(interval.getAllocationId());
+        }
+        return allocationIds;
+    }
+
+    /**
+     * Check whether any interval prevents reserving the given arrangement in the given period.
+     *
+     * @param request the requested period
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @return true if at least one interval conflicts
+     */
+    boolean hasConflict(final RoomOccupancyInterval.Request request, final String configId,
+            final int preBlock, final int postBlock) {
+        return this.hasConflict(0, this.intervals.length - 1, request, configId, preBlock,
+            postBlock);
+    }
+
+    /**
+     * Get the slot bitmap of the given day for the candidate arrangement. Each set bit represents
+     * a slot in which at least one interval prevents reserving the arrangement. The returned bitmap
+     * is shared and must not be modified.
+     *
+     * @param day the day as yyyymmdd
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @param slotMinutes number of minutes per slot
+     * @return the slot bitmap
+     */
+    BitSet getSlotBitmap(final int day, final String configId, final int preBlock,
+            final int postBlock, final int slotMinutes) {
+        final String key = new StringBuilder().append(day).append(KEY_SEPARATOR).append(configId)
+            .append(KEY_SEPARATOR).append(preBlock).append(KEY_SEPARATOR).append(postBlock)
+            .append(KEY_SEPARATOR).append(slotMinutes).toString();
+        BitSet slots = this.slotBitmaps.get(key);
+        if (slots == null) {
+            slots = new BitSet(RoomOccupancyInterval.MINUTES_PER_DAY / slotMinutes);
+            this.markSlots(0, this.intervals.length - 1, slots, day, configId, preBlock,
+                postBlock, slotMinutes);
+            if (this.slotBitmaps.size() >= MAX_SLOT_BITMAPS) {
+                this.slotBitmaps.clear();
+            }
+            this.slotBitmaps.put(key, slots);
+        }
+        return slots;
+    }
+
+    /**
+     * Mark the blocked slots for the intervals in the given index range that overlap the day.
+     *
+     * @param low first index of the range
+     * @param high last index of the range
+     * @param slots the slot bitmap to update
+     * @param day the day as yyyymmdd
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @param slotMinutes number of minutes per slot
+     */
+    private void markSlots(final int low, final int high, final BitSet slots, final int day,
+            final String configId, final int preBlock, final int postBlock,
+            final int slotMinutes) {
+        if (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (this.maxEndDays[mid] >= day) {
+                this.markSlots(low, mid - 1, slots, day, configId, preBlock, postBlock,
+                    slotMinutes);
+                if (this.intervals[mid].getStartDay() <= day) {
+                    this.intervals[mid].markSlots(slots, day, configId, preBlock, postBlock,
+                        slotMinutes);
+                    this.markSlots(mid + 1, high, slots, day, configId, preBlock, postBlock,
+                        slotMinutes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Search the sub-tree for the given index range.
+     *
+     * @param low first index of the range
+     * @param high last index of the range
+     * @param request the requested period
+     * @param configId configuration of the candidate arrangement
+     * @param preBlock pre-block of the candidate arrangement
+     * @param postBlock post-block of the candidate arrangement
+     * @return true if at least one interval in the range conflicts
+     */
+    private boolean hasConflict(final int low, final int high,
+            final RoomOccupancyInterval.Request request, final String configId,
+            final int preBlock, final int postBlock) {
+        boolean conflict = false;
+        if (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (this.maxEndDays[mid] >= request.getStartDay()) {
+                conflict = this.hasConflict(low, mid - 1, request, configId, preBlock, postBlock);
+                if (!conflict && this.intervals[mid].getStartDay() <= request.getEndDay()) {
+                    conflict = this.intervals[mid].conflictsWith(request, configId, preBlock,
+                        postBlock)
+                            || this.hasConflict(mid + 1, high, request, configId, preBlock,
+                                postBlock);
+                }
+            }
+        }
+        return conflict;
+    }
+
+    /**
+     * Compute the maximum end dates for the sub-tree in the given index range.
+     *
+     * @param low first index of the range
+     * @param high last index of the range
+     * @return the maximum end date in the range
+     */
+    private int augment(final int low, final int high) {
+        int maxEndDay = Integer.MIN_VALUE;
+        if (low <= high) {
+            final int mid = (low + high) >>> 1;
+            maxEndDay = Math.max(this.intervals[mid].getEndDay(),
+                Math.max(this.augment(low, mid - 1), this.augment(mid + 1, high)));
+            this.maxEndDays[mid] = maxEndDay;
+        }
+        return maxEndDay;
+    }
+
+}
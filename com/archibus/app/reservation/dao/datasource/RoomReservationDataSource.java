@@ -2,7 +2,6 @@ package com.archibus.app.reservation.dao.datasource;
 
 import java.util.*;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.*;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.*;
@@ -100,8 +99,8 @@ public class RoomReservationDataSource extends AbstractReservationDataSource<Roo
             restriction.addClause(this.tableName, Constants.RES_CONFERENCE, conferenceId,
                 Operation.EQUALS);
         }
-        if (occurrenceIndex != null && SchemaUtils.fieldExistsInSchema(this.tableName,
-            Constants.OCCURRENCE_INDEX_FIELD)) {
+        if (occurrenceIndex != null && ReservationSchemaCapabilities.get()
+            .hasField(this.tableName, Constants.OCCURRENCE_INDEX_FIELD)) {
             restriction.addClause(this.tableName, Constants.OCCURRENCE_INDEX_FIELD, occurrenceIndex,
                 Operation.EQUALS);
         }
@@ -288,6 +287,44 @@ public class RoomReservationDataSource extends AbstractReservationDataSource<Roo
         super.cancel(unmodifiedReservation, comments);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancelAll(final List<RoomReservation> reservations, final String comments)
+            throws ReservationException {
+        // First cancel the room allocations, this updates their cost as well.
+        this.roomAllocationDataSource.cancelAll(getRoomAllocations(reservations));
+        // Then call the super method.
+        super.cancelAll(reservations, comments);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Set<Integer> getAllocationsNotCancellable(final List<RoomReservation> reservations) {
+        final Set<Integer> reserveIds = super.getAllocationsNotCancellable(reservations);
+        reserveIds.addAll(this.roomAllocationDataSource
+            .getReservationsNotCancellable(getRoomAllocations(reservations)));
+        return reserveIds;
+    }
+
+    /**
+     * Get the room allocations of all given reservations.
+     *
+     * @param reservations the room reservations
+     * @return the room allocations
+     */
+    private static List<RoomAllocation> getRoomAllocations(
+            final List<RoomReservation> reservations) {
+        final List<RoomAllocation> roomAllocations = new ArrayList<RoomAllocation>();
+        for (final RoomReservation reservation : reservations) {
+            roomAllocations.addAll(reservation.getRoomAllocations());
+        }
+        return roomAllocations;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,112 @@
+package com.archibus.app.reservation.dao.datasource;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.archibus.app.reservation.domain.ReservationException;
+
+/**
+ * Room-level locks for saving room allocations from concurrent threads on this server. A thread
+ * takes part by opening a lock scope. Each room it saves an allocation for is then locked until
+ * the thread releases the scope, which must happen after its transaction completes. A second
+ * thread saving an allocation for a locked room waits, so both can't pass the availability check
+ * of the save statement before either one is committed. Threads without a lock scope don't lock
+ * rooms.
+ * <p>
+ * Used by RoomAllocationDataSource. The Exchange item dispatcher opens a scope around each item it
+ * handles concurrently. On Oracle, RoomAllocationDataSource also locks the room in the database.
+ *
+ * @since 24.3
+ */
+public final class RoomSaveLocks {
+
+    /**
+     * Number of seconds to wait for a room lock. The save fails after that time, which also breaks
+     * a deadlock between threads saving the same rooms in a different order.
+     */
+    private static final long LOCK_TIMEOUT_SECONDS = 60;
+
+    /** Error message when a room lock is not obtained in time. */
+    // @translatable
+    private static final String ROOM_LOCKED =
+            "The room {0}-{1}-{2} is being reserved by another request";
+
+    /** Lock per room key. */
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    /** Locks held by the current thread, null if it has no lock scope. */
+    private static final ThreadLocal<List<ReentrantLock>> HELD_LOCKS =
+            new ThreadLocal<List<ReentrantLock>>();
+
+    /**
+     * Private default constructor: utility class is non-instantiable.
+     */
+    private RoomSaveLocks() {
+    }
+
+    /**
+     * Open a lock scope for the current thread. The rooms of allocations saved by the thread stay
+     * locked until the scope is released.
+     */
+    public static void openScope() {
+        if (HELD_LOCKS.get() == null) {
+            HELD_LOCKS.set(new ArrayList<ReentrantLock>());
+        }
+    }
+
+    /**
+     * Release the lock scope of the current thread and all rooms locked in it. Call this after the
+     * transaction of the thread has completed.
+     */
+    public static void releaseScope() {
+        final List<ReentrantLock> heldLocks = HELD_LOCKS.get();
+        HELD_LOCKS.remove();
+        if (heldLocks != null) {
+            for (final ReentrantLock lock : heldLocks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Lock a room for the lock scope of the current thread, waiting while another thread holds it.
+     * Does nothing if the thread has no lock scope.
+     *
+     * @param blId the building id
+     * @param flId the floor id
+     * @param rmId the room id
+     * @throws ReservationException when the room is not unlocked in time
+     */
+    static void lockRoom(final String blId, final String flId, final String rmId)
+            throws ReservationException {
+        final List<ReentrantLock> heldLocks = HELD_LOCKS.get();
+        if (heldLocks == null) {
+            return;
+        }
+        final String roomKey = RoomOccupancyLoader.createKey(blId, flId, rmId);
+        ReentrantLock lock = LOCKS.get(roomKey);
+        if (lock == null) {
+            final ReentrantLock newLock = new ReentrantLock();
+            lock = LOCKS.putIfAbsent(roomKey, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        if (!lock.isHeldByCurrentThread()) {
+            boolean locked = false;
+            try {
+                locked = lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            if (!locked) {
+                throw new ReservationException(ROOM_LOCKED, RoomSaveLocks.class, blId, flId,
+                    rmId);
+            }
+            heldLocks.add(lock);
+        }
+    }
+
+}
@@ -33,6 +33,15 @@ public class TimePeriod {
     /** day in milliseconds. */
     public static final int DAY_MILLISECONDS = 24 * 60 * 60 * 1000;
 
+    /** Number of minutes in an hour. */
+    private static final int MINUTES_PER_HOUR = 60;
+
+    /** Multiplier for the year in a day number. */
+    private static final int YEAR_MULTIPLIER = 10000;
+
+    /** Multiplier for the month in a day number. */
+    private static final int MONTH_MULTIPLIER = 100;
+
     /** Base prime number used for the hashCode method. */
     private static final int HASHCODE_PRIME = 31;
 
@@ -333,6 +342,34 @@ public class TimePeriod {
         return result;
     }
 
+    /**
+     * Convert the time part of a date to minutes since midnight.
+     *
+     * @param time the time
+     * @return the number of minutes
+     */
+    public static int toMinutes(final Date time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(time);
+        return calendar.get(Calendar.HOUR_OF_DAY) * MINUTES_PER_HOUR
+                + calendar.get(Calendar.MINUTE);
+    }
+
+    /**
+     * Convert the date part of a date to a yyyymmdd number, which can be compared to other day
+     * numbers without converting dates.
+     *
+     * @param date the date
+     * @return the day number
+     */
+    public static int toDayNumber(final Date date) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return calendar.get(Calendar.YEAR) * YEAR_MULTIPLIER
+                + (calendar.get(Calendar.MONTH) + 1) * MONTH_MULTIPLIER
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
     /**
      * Serialize a date/time to a time string.
      *
@@ -1,6 +1,9 @@
 package com.archibus.app.reservation.exchange.service;
 
 import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.archibus.app.reservation.exchange.domain.AutodiscoverResult;
 import com.archibus.app.reservation.exchange.util.AutodiscoverCache;
@@ -8,43 +11,118 @@ import com.archibus.app.reservation.exchange.util.AutodiscoverCache;
 /**
  * Caching service for determining Exchange Web Services endpoint per mailbox. This should be
  * configured as a singleton bean. This implementation is thread-safe.
- * 
+ *
  * @author Yorik Gerlo
  */
 public class AutodiscoverCachingService {
-    
+
     /**
-     * The number of milliseconds after which a cached auto-discover result is considered for
-     * removal.
+     * The number of milliseconds after which a cached auto-discover result is removed.
      */
     private static final long REMOVE_MILLIS = 36 * 60 * 60 * 1000;
-    
-    /** The auto discover cache in a map that automatically removes old elements. */
-    private final AutodiscoverCache cache = new AutodiscoverCache(REMOVE_MILLIS);
-    
+
+    /** The maximum number of mailboxes to keep in the cache. */
+    private static final int MAX_SIZE = 10000;
+
+    /** The auto discover cache, which automatically removes old elements. */
+    private final AutodiscoverCache cache = new AutodiscoverCache(MAX_SIZE, REMOVE_MILLIS);
+
+    /** The mailboxes for which an auto-discover refresh is running. */
+    private final Set<String> refreshing =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Number of auto-discover refreshes started in the background. */
+    private final AtomicLong refreshes = new AtomicLong();
+
     /**
      * Get a cached result for the given email.
-     * 
+     *
      * @param email the email to get the result for
      * @return the cached result, or null if not found
      */
     public AutodiscoverResult get(final String email) {
-        synchronized (this) {
-            return (AutodiscoverResult) cache.get(email);
-        }
+        return this.cache.get(email);
     }
-    
+
     /**
      * Store an auto-discover result in the cache.
-     * 
+     *
      * @param email the email
      * @param url the URI pointing to the Exchange Web Service
+     * @return the cached result
      */
-    public void put(final String email, final URI url) {
+    public AutodiscoverResult put(final String email, final URI url) {
         final AutodiscoverResult result = new AutodiscoverResult(url);
-        synchronized (this) {
-            cache.put(email, result);
+        this.cache.put(email, result);
+        return result;
+    }
+
+    /**
+     * Register the start of a background refresh for the given email.
+     *
+     * @param email the email
+     * @return true if registered, false if a refresh is already running for this email
+     */
+    public boolean startRefresh(final String email) {
+        final boolean started = this.refreshing.add(email);
+        if (started) {
+            this.refreshes.incrementAndGet();
         }
+        return started;
+    }
+
+    /**
+     * Register the end of a background refresh for the given email.
+     *
+     * @param email the email
+     */
+    public void endRefresh(final String email) {
+        this.refreshing.remove(email);
     }
-    
+
+    /**
+     * Get the number of mailboxes in the cache.
+     *
+     * @return the cache size
+     */
+    public int getSize() {
+        return this.cache.size();
+    }
+
+    /**
+     * Get the number of lookups that found a cached result.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return this.cache.getHits();
+    }
+
+    /**
+     * Get the number of lookups that didn't find a cached result.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return this.cache.getMisses();
+    }
+
+    /**
+     * Get the number of results removed because they timed out or the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return this.cache.getEvictions();
+    }
+
+    /**
+     * Get the number of auto-discover refreshes started in the background.
+     *
+     * @return the number of refreshes
+     */
+    public long getRefreshes() {
+        return this.refreshes.get();
+    }
+
 }
@@ -3,6 +3,7 @@ package com.archibus.app.reservation.exchange.service;
 import java.net.URI;
 
 import com.archibus.app.reservation.exchange.domain.*;
+import com.archibus.context.ContextStore;
 import com.archibus.utility.StringUtil;
 
 import microsoft.exchange.webservices.data.*;
@@ -27,6 +28,18 @@ class AutodiscoverExchangeServiceHelper extends ExchangeServiceHelper
     /** The number of milliseconds after which an auto-discover result is considered expired. */
     private static final long EXPIRE_MILLIS = 24 * 60 * 60 * 1000;
 
+    /**
+     * The number of milliseconds after which a result indicating no endpoint is available is
+     * considered expired.
+     */
+    private static final long NEGATIVE_EXPIRE_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The number of milliseconds after which an auto-discover result is refreshed in the
+     * background, before it expires.
+     */
+    private static final long REFRESH_MILLIS = 20 * 60 * 60 * 1000;
+
     /** Timeout for auto-discover requests in milliseconds. */
     private static final int AUTO_DISCOVER_TIMEOUT = 5 * 1000;
 
@@ -74,12 +87,14 @@ class AutodiscoverExchangeServiceHelper extends ExchangeServiceHelper
             exchangeService.setUrl(url);
             final AutodiscoverResult cachedResult = this.autodiscoverCache.get(email);
             // avoid verifying twice in succession
-            if (!cachedResult.isVerified()) {
+            if (cachedResult == null || !cachedResult.isVerified()) {
                 exchangeService = this.verifyEndpoint(exchangeService);
                 // verification was successful if an exchange service is returned for the same
                 // mailbox
-                cachedResult
-                    .setVerified(email.equals(exchangeService.getImpersonatedUserId().getId()));
+                if (cachedResult != null) {
+                    cachedResult.setVerified(
+                        email.equals(exchangeService.getImpersonatedUserId().getId()));
+                }
             }
         }
         return exchangeService;
@@ -141,8 +156,7 @@ class AutodiscoverExchangeServiceHelper extends ExchangeServiceHelper
         // Check autodiscover cache.
         final AutodiscoverResult cachedResult = this.autodiscoverCache.get(email);
         try {
-            if (cachedResult == null || System.currentTimeMillis()
-                    - cachedResult.getDateFound().getTime() >= EXPIRE_MILLIS) {
+            if (cachedResult == null || isExpired(cachedResult)) {
                 // 1. No cached URL found. Run auto-discover now, throw errors, cache on success.
                 // 2. Cached is URL expired. Run auto-discover, on error try old value, cache on
                 // success.
@@ -155,7 +169,11 @@ class AutodiscoverExchangeServiceHelper extends ExchangeServiceHelper
                         + "]. Fall back to organizer account");
             } else {
                 // 4. Cache is valid and indicates an URL to connect to. Try this URL via EWS.
+                // Refresh it in the background if it expires soon.
                 url = verifyCachedResult(email, cachedResult);
+                if (getAge(cachedResult) >= REFRESH_MILLIS) {
+                    this.startRefresh(email);
+                }
             }
         } catch (final AutodiscoverException exception) {
             // Fall back to the cached URL for this mailbox. Note the cached URL could be null
@@ -173,6 +191,75 @@ class AutodiscoverExchangeServiceHelper extends ExchangeServiceHelper
         return url;
     }
 
+    /**
+     * Run auto-discover for the given mailbox and update the cached result. Called by the
+     * background refresh job. If auto-discover fails, the cached result is retained until it
+     * expires.
+     *
+     * @param email the mailbox to refresh
+     */
+    void refreshAutodiscoveredUrl(final String email) {
+        try {
+            final AutodiscoverResult previous = this.autodiscoverCache.get(email);
+            final URI url = this.runAutodiscover(email);
+            final AutodiscoverResult result = this.autodiscoverCache.put(email, url);
+            // no need to verify again if the URL didn't change
+            result.setVerified(previous != null && previous.isVerified()
+                    && url != null && url.equals(previous.getUrl()));
+        } catch (final AutodiscoverException exception) {
+            this.logger.warn("Background refresh of auto-discover URL failed for [" + email
+                    + CLOSING_BRACKET, exception);
+        } finally {
+            this.autodiscoverCache.endRefresh(email);
+        }
+    }
+
+    /**
+     * Start a background refresh of the auto-discover result for the given mailbox, unless one
+     * is already running.
+     *
+     * @param email the mailbox to refresh
+     */
+    private void startRefresh(final String email) {
+        if (this.autodiscoverCache.startRefresh(email)) {
+            try {
+                ContextStore.get().getJobManager()
+                    .startJob(new AutodiscoverRefreshJob(this, email));
+            } catch (final RuntimeException exception) {
+                this.autodiscoverCache.endRefresh(email);
+                this.logger.warn("Could not start auto-discover refresh for [" + email
+                        + CLOSING_BRACKET, exception);
+            }
+        }
+    }
+
+    /**
+     * Check whether the cached result is expired. Results indicating no endpoint is available
+     * expire sooner, so a mailbox that was temporarily unavailable is discovered again.
+     *
+     * @param cachedResult the cached result
+     * @return true if auto-discover must run again
+     */
+    private static boolean isExpired(final AutodiscoverResult cachedResult) {
+        final long expireMillis;
+        if (cachedResult.getUrl() == null) {
+            expireMillis = NEGATIVE_EXPIRE_MILLIS;
+        } else {
+            expireMillis = EXPIRE_MILLIS;
+        }
+        return getAge(cachedResult) >= expireMillis;
+    }
+
+    /**
+     * Get the age of the cached result.
+     *
+     * @param cachedResult the cached result
+     * @return the number of milliseconds since the result was found
+     */
+    private static long getAge(final AutodiscoverResult cachedResult) {
+        return System.currentTimeMillis() - cachedResult.getDateFound().getTime();
+    }
+
     /**
      * Verify whether connecting to a cached URL works. If it fails, run auto-discover again to
      * detect a mailbox move.
@@ -0,0 +1,38 @@
+package com.archibus.app.reservation.exchange.service;
+
+import com.archibus.jobmanager.JobBase;
+
+/**
+ * Job that refreshes the cached auto-discover result for a mailbox in the background, so the
+ * request that found the result close to expiry doesn't have to wait for auto-discover.
+ *
+ * @since 24.3
+ */
+class AutodiscoverRefreshJob extends JobBase {
+
+    /** The helper that runs auto-discover and updates the cache. */
+    private final AutodiscoverExchangeServiceHelper serviceHelper;
+
+    /** The mailbox to refresh. */
+    private final String email;
+
+    /**
+     * Create a new auto-discover refresh job.
+     *
+     * @param serviceHelper the helper that runs auto-discover and updates the cache
+     * @param email the mailbox to refresh
+     */
+    AutodiscoverRefreshJob(final AutodiscoverExchangeServiceHelper serviceHelper,
+            final String email) {
+        super();
+        this.serviceHelper = serviceHelper;
+        this.email = email;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        this.serviceHelper.refreshAutodiscoveredUrl(this.email);
+    }
+
+}
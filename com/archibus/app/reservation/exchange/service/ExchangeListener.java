@@ -1,8 +1,11 @@
 package com.archibus.app.reservation.exchange.service;
 
+import java.util.*;
+
 import org.apache.log4j.Logger;
 
 import com.archibus.app.reservation.domain.CalendarException;
+import com.archibus.app.reservation.util.JobExecutor;
 import com.archibus.utility.ExceptionBase;
 
 import microsoft.exchange.webservices.data.*;
@@ -17,8 +20,8 @@ import microsoft.exchange.webservices.data.*;
  */
 public class ExchangeListener {
 
-    /** Number of milliseconds to wait before retrying if the subscription cannot be renewed. */
-    private static final int RETRY_MILLIS = 60 * 1000 * 5;
+    /** Number of items to retrieve from Exchange at once. */
+    private static final int PAGE_SIZE = 512;
 
     /** This helper provides the connection with Exchange. */
     private ExchangeServiceHelper serviceHelper;
@@ -29,6 +32,15 @@ public class ExchangeListener {
     /** Indicates whether the listener should be enabled after initialization. */
     private boolean enableListener;
 
+    /**
+     * The executor for handling items concurrently, each with its own context. Null to handle
+     * items one by one.
+     */
+    private JobExecutor itemExecutor;
+
+    /** Maximum number of items waiting to be handled by the item executor. */
+    private int maxQueuedItems = PAGE_SIZE;
+
     /**
      * The signalling object used to wake up the WFR service when an event is received from
      * Exchange.
@@ -44,64 +56,86 @@ public class ExchangeListener {
     /** Indicates whether the listener should stop. */
     private boolean stopRequested;
 
+    /**
+     * Indicates whether all resource folders should be scanned, because items might have arrived
+     * without a notification.
+     */
+    private boolean catchUpRequested;
+
+    /** Ids of the new items received from Exchange and not processed yet, by unique id. */
+    private final Map<String, ItemId> receivedItemIds = new LinkedHashMap<String, ItemId>();
+
+    /** Manages the streaming subscriptions, one per resource folder. */
+    private StreamingSubscriptionManager subscriptionManager;
+
     /** The logger. */
     private final Logger logger = Logger.getLogger(this.getClass());
 
     /**
      * First handle all pending events, then start the Exchange streaming notification listener.
+     * Process the new items reported by Exchange until requested to stop. Scan all resource
+     * folders again after (re)starting a subscription, to handle intermediate arrivals.
      */
     public void run() {
         if (this.enableListener && !this.stopRequested) {
             this.logger.info("Starting Exchange listener");
             this.correctExchangeVersion();
 
-            // Start a streaming subscription.
-            this.reStartListener();
-
-            while (!this.stopRequested) {
-                // Read the inbox again to handle intermediate arrivals.
-                try {
-                    final ExchangeService exchangeService = this.serviceHelper
-                        .initializeService(this.serviceHelper.getResourceAccount());
-                    for (final String resourceFolder: this.serviceHelper.getResourceFolders()){
-                        final WellKnownFolderName wellKnownFolderName = this.serviceHelper.getWellKnownFolderName(resourceFolder);
-                        processResourceFolder(exchangeService, wellKnownFolderName);
-                    }
-                } catch (final ExceptionBase exception) {
-                    this.logger.warn("Processing inbox items failed. Waiting for next signal.",
-                        exception);
-                }
+            // Start the streaming subscriptions and read the resource folders.
+            this.subscriptionManager = new StreamingSubscriptionManager(this);
+            this.requestCatchUp();
+            this.subscriptionManager.startAll();
 
-                // Now wait for a signal from the notification handler before checking again.
-                waitForSignal();
+            try {
+                while (!this.stopRequested) {
+                    final long retryMillis = this.subscriptionManager.restartFailed();
+                    this.processReceivedItems();
+
+                    // Now wait for a signal from the notification handler before checking again.
+                    waitForSignal(retryMillis);
+                }
+            } finally {
+                this.subscriptionManager.stopAll();
             }
         }
     }
 
     /**
-     * Start a new subscription.
+     * Process the items received since the previous call, or scan all resource folders if a catch
+     * up was requested.
      */
-    void reStartListener() {
-        boolean started = false;
-        do {
-            try {
-                if (this.enableListener && !this.stopRequested) {
-                    final ExchangeService exchangeService = this.serviceHelper
-                        .initializeService(this.serviceHelper.getResourceAccount());
-                    new StreamingNotificationHandler(this, exchangeService);
-                    signalEventReceived();
-                }
-                started = true;
-            } catch (final CalendarException exception) {
-                this.logger.warn("Could not (re)start the listener. Try again in 5 minutes",
-                    exception);
-                try {
-                    Thread.sleep(RETRY_MILLIS);
-                } catch (final InterruptedException interrupt) {
-                    this.logger.warn("Interrupted while waiting to (re)start listener", interrupt);
+    private void processReceivedItems() {
+        boolean catchUp;
+        List<ItemId> itemIds;
+        synchronized (this.signal) {
+            catchUp = this.catchUpRequested;
+            this.catchUpRequested = false;
+            itemIds = new ArrayList<ItemId>(this.receivedItemIds.values());
+            this.receivedItemIds.clear();
+        }
+
+        try {
+            if (catchUp || !itemIds.isEmpty()) {
+                final ExchangeService exchangeService = this.serviceHelper
+                    .initializeService(this.serviceHelper.getResourceAccount());
+                if (catchUp) {
+                    // the scan includes the received items
+                    for (final String resourceFolder : this.serviceHelper.getResourceFolders()) {
+                        processResourceFolder(exchangeService,
+                            this.serviceHelper.getWellKnownFolderName(resourceFolder));
+                    }
+                } else {
+                    processItems(exchangeService, itemIds);
                 }
             }
-        } while (!started);
+        } catch (final ExceptionBase exception) {
+            this.logger.warn("Processing inbox items failed. Waiting for next signal.",
+                exception);
+            // the received items might not be processed: scan the folders next time
+            synchronized (this.signal) {
+                this.catchUpRequested = true;
+            }
+        }
     }
 
     /**
@@ -114,6 +148,33 @@ public class ExchangeListener {
         }
     }
 
+    /**
+     * Register new items received from Exchange and signal the listener to process them.
+     *
+     * @param itemIds the ids of the new items
+     */
+    void itemsReceived(final List<ItemId> itemIds) {
+        synchronized (this.signal) {
+            for (final ItemId itemId : itemIds) {
+                this.receivedItemIds.put(itemId.getUniqueId(), itemId);
+            }
+            this.wasSignalled = true;
+            this.signal.notifyAll();
+        }
+    }
+
+    /**
+     * Request to scan all resource folders, because items might have arrived without a
+     * notification, and signal the listener.
+     */
+    void requestCatchUp() {
+        synchronized (this.signal) {
+            this.catchUpRequested = true;
+            this.wasSignalled = true;
+            this.signal.notifyAll();
+        }
+    }
+
     /**
      * Signal that an event was received from Exchange.
      */
@@ -125,13 +186,24 @@ public class ExchangeListener {
     }
 
     /**
-     * Wait until a signal is received or until the current thread is interrupted.
+     * Wait until a signal is received, the timeout expires or the current thread is interrupted.
+     *
+     * @param timeoutMillis maximum number of milliseconds to wait, 0 to wait without timeout
      */
-    private void waitForSignal() {
+    private void waitForSignal(final long timeoutMillis) {
         try {
             synchronized (this.signal) {
+                final long endTime = System.currentTimeMillis() + timeoutMillis;
                 while (!(this.wasSignalled || this.stopRequested)) {
-                    this.signal.wait();
+                    if (timeoutMillis == 0) {
+                        this.signal.wait();
+                    } else {
+                        final long remaining = endTime - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        this.signal.wait(remaining);
+                    }
                 }
                 this.wasSignalled = false;
             }
@@ -162,6 +234,25 @@ public class ExchangeListener {
         this.itemHandler = itemHandler;
     }
 
+    /**
+     * Set the executor for handling items concurrently. Items of the same meeting are still handled
+     * in the order they were received. Each item runs as a job with its own context.
+     *
+     * @param itemExecutor the executor, null to handle items one by one
+     */
+    public void setItemExecutor(final JobExecutor itemExecutor) {
+        this.itemExecutor = itemExecutor;
+    }
+
+    /**
+     * Set the maximum number of items waiting to be handled by the item executor.
+     *
+     * @param maxQueuedItems the maximum number of queued items
+     */
+    public void setMaxQueuedItems(final int maxQueuedItems) {
+        this.maxQueuedItems = maxQueuedItems;
+    }
+
     /**
      * Set the new Exchange service helper.
      *
@@ -182,19 +273,22 @@ public class ExchangeListener {
 
     /**
      * Process all items in the inbox. Those items should be meeting invitations or cancellations;
-     * other types of items are ignored.
+     * other types of items are ignored. If an item executor is set, the items of each page are
+     * handled concurrently, ordered per meeting.
      *
      * @param exchangeService the service connected to Exchange
      * @param folderName folder name
      */
     void processResourceFolder(final ExchangeService exchangeService, final WellKnownFolderName folderName) {
+        final ItemDispatcher dispatcher =
+                new ItemDispatcher(this.itemHandler, this.itemExecutor, this.maxQueuedItems);
         Integer offset = 0;
         try {
             do {
-                final ItemView itemView = new ItemView(512, offset);
+                final ItemView itemView = new ItemView(PAGE_SIZE, offset);
                 itemView.getOrderBy().add(EmailMessageSchema.DateTimeReceived,
                     SortDirection.Ascending);
-                itemView.setPropertySet(PropertySet.IdOnly);
+                itemView.setPropertySet(this.getItemPropertySet());
                 final FindItemsResults<Item> results =
                         exchangeService.findItems(folderName, itemView);
                 this.logger.debug("Processing " + results.getTotalCount()
@@ -202,24 +296,113 @@ public class ExchangeListener {
                 for (final Item item : results.getItems()) {
                     // If an error occurs handling an individual item, then the Job should ignore
                     // this item and continue.
-                    try {
-                        // The itemHandler is wrapped in a proxy for transaction management via
-                        // Spring.
-                        this.itemHandler.handleItem(item);
-                    } catch (final ExceptionBase exception) {
-                        // Rollback occurs in the interceptors of ItemHanderlImpl.
-                        this.logger.warn("Error handling Exchange Item.", exception);
-                    }
+                    dispatcher.dispatch(item, getOrderingKey(item));
                 }
+                // handled items are removed from the folder, so finish the page before the next
+                dispatcher.awaitCompletion();
                 offset = results.getNextPageOffset();
             } while (offset != null);
+        } catch (final InterruptedException exception) {
+            // restore the interrupt status for the job running the listener
+            Thread.currentThread().interrupt();
+            throw new CalendarException("Interrupted while processing inbox items.", exception,
+                ExchangeListener.class, this.serviceHelper.getAdminService());
             // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: third-party API
             // method throws a checked Exception, which needs to be wrapped in ExceptionBase.
         } catch (final Exception exception) {
             // CHECKSTYLE:ON
             throw new CalendarException("Error processing inbox items.", exception,
                 ExchangeListener.class, this.serviceHelper.getAdminService());
+        } finally {
+            dispatcher.logStatistics();
+        }
+    }
+
+    /**
+     * Process the new items with the given ids. Items that are no longer available, e.g. because
+     * they were handled by a previous scan, are skipped. If an item executor is set, the items are
+     * handled concurrently, ordered per meeting.
+     *
+     * @param exchangeService the service connected to Exchange
+     * @param itemIds the ids of the items to process, in the order they were received
+     */
+    void processItems(final ExchangeService exchangeService, final List<ItemId> itemIds) {
+        final ItemDispatcher dispatcher =
+                new ItemDispatcher(this.itemHandler, this.itemExecutor, this.maxQueuedItems);
+        try {
+            final PropertySet propertySet = this.getItemPropertySet();
+            for (int start = 0; start < itemIds.size(); start += PAGE_SIZE) {
+                final ServiceResponseCollection<GetItemResponse> responses =
+                        exchangeService.bindToItems(
+                            itemIds.subList(start, Math.min(start + PAGE_SIZE, itemIds.size())),
+                            propertySet);
+                for (final GetItemResponse response : responses) {
+                    if (response.getResult() == ServiceResult.Success) {
+                        final Item item = response.getItem();
+                        dispatcher.dispatch(item, getOrderingKey(item));
+                    } else {
+                        this.logger.debug("Skipping Exchange item that is no longer available: "
+                                + response.getErrorMessage());
+                    }
+                }
+            }
+            dispatcher.awaitCompletion();
+        } catch (final InterruptedException exception) {
+            // restore the interrupt status for the job running the listener
+            Thread.currentThread().interrupt();
+            throw new CalendarException("Interrupted while processing inbox items.", exception,
+                ExchangeListener.class, this.serviceHelper.getAdminService());
+            // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: third-party API
+            // method throws a checked Exception, which needs to be wrapped in ExceptionBase.
+        } catch (final Exception exception) {
+            // CHECKSTYLE:ON
+            throw new CalendarException("Error processing inbox items.", exception,
+                ExchangeListener.class, this.serviceHelper.getAdminService());
+        } finally {
+            dispatcher.logStatistics();
+        }
+    }
+
+    /**
+     * Get the properties to load for processing items.
+     *
+     * @return the property set
+     */
+    private PropertySet getItemPropertySet() {
+        PropertySet propertySet;
+        if (this.itemExecutor == null) {
+            propertySet = PropertySet.IdOnly;
+        } else {
+            // include the meeting uid to keep updates of the same meeting in order
+            propertySet = new PropertySet(BasePropertySet.IdOnly, MeetingMessageSchema.ICalUid);
+        }
+        return propertySet;
+    }
+
+    /**
+     * Get the key for ordering the processing of an item: the iCalendar uid for meeting messages,
+     * the item id for other items.
+     *
+     * @param item the item
+     * @return the ordering key
+     */
+    private static String getOrderingKey(final Item item) {
+        String orderingKey = null;
+        try {
+            if (item instanceof MeetingMessage) {
+                orderingKey = ((MeetingMessage) item).getICalUid();
+            }
+            if (orderingKey == null) {
+                orderingKey = item.getId().getUniqueId();
+            }
+            // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: third-party API
+            // method throws a checked Exception.
+        } catch (final Exception exception) {
+            // CHECKSTYLE:ON
+            // property not loaded, process the item on its own
+            orderingKey = String.valueOf(System.identityHashCode(item));
         }
+        return orderingKey;
     }
 
     /**
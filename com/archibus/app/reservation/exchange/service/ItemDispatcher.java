@@ -0,0 +1,201 @@
+package com.archibus.app.reservation.exchange.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.archibus.app.reservation.dao.datasource.RoomSaveLocks;
+import com.archibus.utility.ExceptionBase;
+
+import microsoft.exchange.webservices.data.Item;
+
+/**
+ * Dispatches Exchange items to the item handler via an executor. Items with the same ordering key
+ * (e.g. the iCalendar uid of the meeting) are handled one after the other in the order they were
+ * dispatched, items with different keys are handled concurrently. The number of dispatched items
+ * that are not handled yet is limited, so the caller blocks when the queue is full.
+ * <p>
+ * The executor must run each item with its own ARCHIBUS context, since the item handler sets the
+ * user of the context to the meeting organizer. Items of different meetings can update the same
+ * room, so the rooms saved while handling an item stay locked until the item's transaction has
+ * completed (see RoomSaveLocks).
+ * <p>
+ * Without an executor, each item is handled immediately on the calling thread.
+ *
+ * @since 24.3
+ */
+class ItemDispatcher {
+
+    /** Number of milliseconds in a second. */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /** The logger. */
+    private final Logger logger = Logger.getLogger(this.getClass());
+
+    /** The item handler that processes the items. */
+    private final ItemHandler itemHandler;
+
+    /** The executor running the item handler, null to handle the items on the calling thread. */
+    private final Executor executor;
+
+    /** Limits the number of dispatched items that are not handled yet. */
+    private final Semaphore queueSlots;
+
+    /** Items waiting for an earlier item with the same ordering key, by ordering key. */
+    private final Map<String, Queue<Item>> activeKeys = new HashMap<String, Queue<Item>>();
+
+    /** Number of dispatched items not handled yet. */
+    private int pendingItems;
+
+    /** Highest number of pending items since the dispatcher was created. */
+    private int maxPendingItems;
+
+    /** Number of items handled. */
+    private final AtomicLong handledItems = new AtomicLong();
+
+    /** Number of items that could not be handled. */
+    private final AtomicLong failedItems = new AtomicLong();
+
+    /** Time in millis when the dispatcher was created. */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param itemHandler the item handler that processes the items
+     * @param executor the executor to run the item handler with a separate context for each
+     *            item, null to handle the items on the calling thread
+     * @param maxQueuedItems maximum number of dispatched items that are not handled yet
+     */
+    ItemDispatcher(final ItemHandler itemHandler, final Executor executor,
+            final int maxQueuedItems) {
+        this.itemHandler = itemHandler;
+        this.executor = executor;
+        this.queueSlots = new Semaphore(Math.max(maxQueuedItems, 1));
+    }
+
+    /**
+     * Dispatch an item to the item handler. Blocks while the queue is full.
+     *
+     * @param item the item to handle
+     * @param orderingKey items with the same key are handled in the order they are dispatched
+     * @throws InterruptedException when interrupted while waiting for a free slot in the queue
+     */
+    void dispatch(final Item item, final String orderingKey) throws InterruptedException {
+        if (this.executor == null) {
+            this.handle(item);
+            return;
+        }
+
+        this.queueSlots.acquire();
+        synchronized (this.activeKeys) {
+            ++this.pendingItems;
+            this.maxPendingItems = Math.max(this.maxPendingItems, this.pendingItems);
+            final Queue<Item> waitingItems = this.activeKeys.get(orderingKey);
+            if (waitingItems != null) {
+                // an earlier item with the same key is being handled, run after it
+                waitingItems.add(item);
+                return;
+            }
+            this.activeKeys.put(orderingKey, new LinkedList<Item>());
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ItemDispatcher.this.handleInOrder(item, orderingKey);
+                }
+            });
+        } catch (final RejectedExecutionException exception) {
+            this.logger.warn("Executor rejected Exchange item, handling it directly.", exception);
+            this.handleInOrder(item, orderingKey);
+        }
+    }
+
+    /**
+     * Wait until all dispatched items are handled.
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    void awaitCompletion() throws InterruptedException {
+        synchronized (this.activeKeys) {
+            while (this.pendingItems > 0) {
+                this.activeKeys.wait();
+            }
+        }
+    }
+
+    /**
+     * Log the throughput and queue depth of the dispatcher.
+     */
+    void logStatistics() {
+        final long handled = this.handledItems.get();
+        final double seconds =
+                Math.max(System.currentTimeMillis() - this.startTime, 1) / MILLIS_PER_SECOND;
+        int maxQueueDepth = 0;
+        synchronized (this.activeKeys) {
+            maxQueueDepth = this.maxPendingItems;
+        }
+        this.logger.debug(String.format(
+            "Handled %d Exchange items (%d failed) at %.1f items per second, max. queue depth %d",
+            handled, this.failedItems.get(), handled / seconds, maxQueueDepth));
+    }
+
+    /**
+     * Handle an item, then the items with the same ordering key dispatched meanwhile.
+     *
+     * @param firstItem the first item to handle
+     * @param orderingKey the ordering key of the item
+     */
+    private void handleInOrder(final Item firstItem, final String orderingKey) {
+        Item item = firstItem;
+        while (item != null) {
+            try {
+                this.handle(item);
+            } finally {
+                this.queueSlots.release();
+                synchronized (this.activeKeys) {
+                    --this.pendingItems;
+                    item = this.activeKeys.get(orderingKey).poll();
+                    if (item == null) {
+                        this.activeKeys.remove(orderingKey);
+                    }
+                    this.activeKeys.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle a single item. If an error occurs handling the item, then the item is ignored.
+     *
+     * @param item the item to handle
+     */
+    private void handle(final Item item) {
+        if (this.executor != null) {
+            RoomSaveLocks.openScope();
+        }
+        try {
+            // The itemHandler is wrapped in a proxy for transaction management via Spring.
+            this.itemHandler.handleItem(item);
+            this.handledItems.incrementAndGet();
+        } catch (final ExceptionBase exception) {
+            // Rollback occurs in the interceptors of ItemHanderlImpl.
+            this.failedItems.incrementAndGet();
+            this.logger.warn("Error handling Exchange Item.", exception);
+        } catch (final RuntimeException exception) {
+            if (this.executor == null) {
+                // keep the behaviour of sequential processing: stop processing the folder
+                throw exception;
+            }
+            this.failedItems.incrementAndGet();
+            this.logger.warn("Error handling Exchange Item.", exception);
+        } finally {
+            // the transaction is completed by the proxy, so other items can save these rooms
+            RoomSaveLocks.releaseScope();
+        }
+    }
+
+}
@@ -22,6 +22,15 @@ public class MeetingRequestHandler extends MeetingItemHandler {
     /** Error message that indicates something went wrong handling a meeting request. */
     private static final String ITEM_ERROR = "Error handling meeting request";
 
+    /** Number of requests to Exchange for retrieving all occurrences of a recurring meeting. */
+    private static final int OCCURRENCE_REQUESTS = 2;
+
+    /**
+     * Number of requests to Exchange for every recurring meeting request: accepting the request
+     * and loading the properties of the master appointment.
+     */
+    private static final int MASTER_REQUESTS = 2;
+
     /** The meeting request properties helper. */
     private MeetingRequestPropertiesHelper meetingRequestPropertiesHelper;
 
@@ -267,34 +276,45 @@ public class MeetingRequestHandler extends MeetingItemHandler {
             final Date today = TimePeriod
                 .clearTime(LocalDateTimeUtil.currentLocalDateForTimeZone(Constants.TIMEZONE_UTC));
             boolean accept = lastOccurrenceDate != null;
+            int exchangeRequests = MASTER_REQUESTS;
+
+            List<Appointment> occurrences = null;
+            if (accept) {
+                occurrences = this.findOccurrences(master, iCalUid, lastOccurrenceDate);
+                exchangeRequests += OCCURRENCE_REQUESTS;
+            }
 
             int occurrenceIndex = 0;
-            Date occurrenceStart = null;
-            while (accept && !lastOccurrenceDate.equals(occurrenceStart)) {
-                ++occurrenceIndex;
-                final Appointment occurrence = this.getOccurrence(master, occurrenceIndex);
+            if (occurrences != null
+                    && matchesAllReservations(occurrences, reservationsByDate, today)) {
+                // check that each reservation corresponds to its meeting occurrence
+                for (final Appointment occurrence : occurrences) {
+                    this.checkOccurrence(occurrence, reservationsByDate, today, master);
+                }
+                occurrenceIndex = occurrences.size();
+            } else {
                 /*
-                 * Skip cancelled occurrences. If reservations exist for those occurrences they will
-                 * be detected after the loop.
+                 * Bind to each occurrence by index, to report the exact occurrence that doesn't
+                 * match or if the occurrences could not be retrieved at once.
                  */
-                if (occurrence != null) {
-                    occurrenceStart = occurrence.getStart();
-                    final List<RoomReservation> reservationsOnDate =
-                            reservationsByDate.remove(TimePeriod.clearTime(occurrenceStart));
-                    if (reservationsOnDate == null) {
-                        // ignore occurrences without reservation if they are in the past
-                        accept = occurrenceStart.before(today);
-                    } else if (occurrenceStart.before(today)) {
-                        this.logger.debug("Not checking equivalence for an occurrence in the past");
-                    } else {
-                        // check that each reservation corresponds to the meeting occurrence, update
-                        // if required
-                        for (final RoomReservation reservation : reservationsOnDate) {
-                            this.checkEquivalence(occurrence, reservation, master);
-                        }
+                Date occurrenceStart = null;
+                while (accept && !lastOccurrenceDate.equals(occurrenceStart)) {
+                    ++occurrenceIndex;
+                    ++exchangeRequests;
+                    final Appointment occurrence = this.getOccurrence(master, occurrenceIndex);
+                    /*
+                     * Skip cancelled occurrences. If reservations exist for those occurrences they
+                     * will be detected after the loop.
+                     */
+                    if (occurrence != null) {
+                        occurrenceStart = occurrence.getStart();
+                        accept = this.checkOccurrence(occurrence, reservationsByDate, today,
+                            master);
                     }
                 }
             }
+            this.logger.info("Verified recurring meeting request " + iCalUid + " using "
+                    + exchangeRequests + " requests to Exchange");
 
             // we have checked all occurrences or accept is false
             applyResultToRecurringMeetingRequest(master, accept, reservationsByDate,
@@ -308,6 +328,128 @@ public class MeetingRequestHandler extends MeetingItemHandler {
         }
     }
 
+    /**
+     * Check the reservations on the date of a meeting occurrence. Reservations on past dates are
+     * not checked.
+     *
+     * @param occurrence the meeting occurrence
+     * @param reservationsByDate the reservations not yet matched to an occurrence, by date; the
+     *            reservations on the occurrence date are removed
+     * @param today the current date in UTC
+     * @param master the master appointment of the recurrence series
+     * @return false if the occurrence is not in the past and has no reservations, true otherwise
+     * @throws ServiceLocalException when the occurrence start is not available
+     */
+    private boolean checkOccurrence(final Appointment occurrence,
+            final Map<Date, List<RoomReservation>> reservationsByDate, final Date today,
+            final Appointment master) throws ServiceLocalException {
+        boolean accept = true;
+        final Date occurrenceStart = occurrence.getStart();
+        final List<RoomReservation> reservationsOnDate =
+                reservationsByDate.remove(TimePeriod.clearTime(occurrenceStart));
+        if (reservationsOnDate == null) {
+            // ignore occurrences without reservation if they are in the past
+            accept = occurrenceStart.before(today);
+        } else if (occurrenceStart.before(today)) {
+            this.logger.debug("Not checking equivalence for an occurrence in the past");
+        } else {
+            // check that each reservation corresponds to the meeting occurrence, update
+            // if required
+            for (final RoomReservation reservation : reservationsOnDate) {
+                this.checkEquivalence(occurrence, reservation, master);
+            }
+        }
+        return accept;
+    }
+
+    /**
+     * Check whether the occurrences match the reservations one to one by date, ignoring
+     * occurrences without reservation in the past. Does not modify the reservations.
+     *
+     * @param occurrences the meeting occurrences, ordered by occurrence index
+     * @param reservationsByDate the reservations by date
+     * @param today the current date in UTC
+     * @return true if each reservation date has an occurrence and each future occurrence has
+     *         reservations
+     * @throws ServiceLocalException when the occurrence start is not available
+     */
+    private static boolean matchesAllReservations(final List<Appointment> occurrences,
+            final Map<Date, List<RoomReservation>> reservationsByDate, final Date today)
+            throws ServiceLocalException {
+        final Set<Date> matchedDates = new HashSet<Date>();
+        boolean matches = true;
+        for (final Appointment occurrence : occurrences) {
+            final Date occurrenceDate = TimePeriod.clearTime(occurrence.getStart());
+            if (reservationsByDate.containsKey(occurrenceDate)
+                    && matchedDates.add(occurrenceDate)) {
+                continue;
+            }
+            if (!occurrence.getStart().before(today)) {
+                matches = false;
+                break;
+            }
+        }
+        return matches && matchedDates.size() == reservationsByDate.size();
+    }
+
+    /**
+     * Get all occurrences of a recurring meeting up to its last occurrence with a fixed number of
+     * requests to Exchange: a calendar view over the series and one request to load the
+     * properties of the occurrences found. Cancelled occurrences are not included.
+     *
+     * @param master the recurrence master appointment
+     * @param iCalUid unique id of the recurring meeting in Exchange
+     * @param lastOccurrenceStart start date/time of the last occurrence
+     * @return the occurrences ordered by their original start, or null if they could not be
+     *         retrieved at once
+     */
+    private List<Appointment> findOccurrences(final Appointment master, final String iCalUid,
+            final Date lastOccurrenceStart) {
+        List<Appointment> occurrences = null;
+        try {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(lastOccurrenceStart);
+            calendar.add(Calendar.DATE, 1);
+            final FindItemsResults<Appointment> results =
+                    master.getService().findAppointments(WellKnownFolderName.Calendar,
+                        new CalendarView(master.getStart(), calendar.getTime()));
+            if (results.isMoreAvailable()) {
+                return null;
+            }
+
+            final List<Item> items = new ArrayList<Item>();
+            for (final Appointment appointment : results.getItems()) {
+                if (iCalUid.equals(appointment.getICalUid())) {
+                    items.add(appointment);
+                }
+            }
+            if (!items.isEmpty()) {
+                master.getService().loadPropertiesForItems(items, this.appointmentBinder
+                    .getAppointmentPropertiesHelper().getExtendedAppointmentPropertySet());
+            }
+
+            // order by original start, which corresponds to the occurrence index
+            final SortedMap<Date, Appointment> occurrencesByOriginalStart =
+                    new TreeMap<Date, Appointment>();
+            for (final Item item : items) {
+                final Appointment occurrence = (Appointment) item;
+                final Date originalStart = occurrence.getICalRecurrenceId() == null
+                        ? occurrence.getStart() : occurrence.getICalRecurrenceId();
+                if (occurrencesByOriginalStart.put(originalStart, occurrence) != null) {
+                    return null;
+                }
+            }
+            occurrences = new ArrayList<Appointment>(occurrencesByOriginalStart.values());
+            // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: third-party API
+            // method throws a checked Exception.
+        } catch (final Exception exception) {
+            // CHECKSTYLE:ON
+            this.logger.debug("Unable to retrieve all occurrences, binding to each occurrence",
+                exception);
+        }
+        return occurrences;
+    }
+
     /**
      * Get the occurrence with given index from the master appointment. Returns null if the
      * occurrence is cancelled.
@@ -10,39 +10,54 @@ import microsoft.exchange.webservices.data.*;
 import microsoft.exchange.webservices.data.StreamingSubscriptionConnection.*;
 
 /**
- * A notification handler instance receives notifications from Exchange 2010 or later.
+ * A notification handler instance receives notifications from Exchange 2010 or later, for a
+ * single resource folder. The ids of the new items are forwarded to the Exchange listener.
  */
 class StreamingNotificationHandler
         implements INotificationEventDelegate, ISubscriptionErrorDelegate {
 
     /**
-     * Duration of the subscription in minutes. After this time the error delegate will be called,
-     * from which the subscription is restarted.
+     * Duration of the connection in minutes. After this time the connection is closed and the
+     * error delegate is called, from which the connection is reopened.
      */
     private static final int SUBSCRIPTION_DURATION = 30;
 
     /** The Exchange listener Spring bean. */
     private final ExchangeListener exchangeListener;
 
+    /** The subscription manager to notify when the subscription fails. */
+    private final StreamingSubscriptionManager subscriptionManager;
+
+    /** The resource folder of the subscription. */
+    private final String resourceFolder;
+
     /** The connection that runs the subscription. */
     private final StreamingSubscriptionConnection connection;
 
     /** The subscription being handled by this instance. */
     private final StreamingSubscription subscription;
 
+    /** Indicates whether streaming was stopped on request. */
+    private volatile boolean stopped;
+
     /** The logger. */
     private final Logger logger = Logger.getLogger(this.getClass());
 
     /**
      * Create a new notification handler to receive notifications from Exchange.
      *
-     * @param exchangeService the Exchange Service that manages the streaming connection
      * @param exchangeListener the listener that needs to be notified when a notification arrives
      *            from Exchange
+     * @param subscriptionManager the subscription manager to notify when the subscription fails
+     * @param exchangeService the Exchange Service that manages the streaming connection
+     * @param resourceFolder the resource folder to subscribe to
      */
-    public StreamingNotificationHandler(final ExchangeListener exchangeListener,
-            final ExchangeService exchangeService) {
+    StreamingNotificationHandler(final ExchangeListener exchangeListener,
+            final StreamingSubscriptionManager subscriptionManager,
+            final ExchangeService exchangeService, final String resourceFolder) {
         this.exchangeListener = exchangeListener;
+        this.subscriptionManager = subscriptionManager;
+        this.resourceFolder = resourceFolder;
 
         try {
             this.connection =
@@ -52,10 +67,8 @@ class StreamingNotificationHandler
             this.connection.addOnDisconnect(this);
 
             final List<FolderId> folders = new ArrayList<FolderId>();
-            final String[] resourceFolders = this.exchangeListener.getServiceHelper().getResourceFolders();
-            for (final String resourceFolder: resourceFolders) {
-                folders.add(new FolderId(this.exchangeListener.getServiceHelper().getWellKnownFolderName(resourceFolder)));
-            }
+            folders.add(new FolderId(
+                this.exchangeListener.getServiceHelper().getWellKnownFolderName(resourceFolder)));
             this.subscription =
                     exchangeService.subscribeToStreamingNotifications(folders, EventType.NewMail);
             this.connection.addSubscription(this.subscription);
@@ -74,6 +87,7 @@ class StreamingNotificationHandler
      * Stop receiving events and close the streaming connection.
      */
     public void stopStreaming() {
+        this.stopped = true;
         try {
             if (this.connection.getIsOpen()) {
                 this.subscription.unsubscribe();
@@ -95,17 +109,17 @@ class StreamingNotificationHandler
      */
     @Override
     public void notificationEventDelegate(final Object sender, final NotificationEventArgs events) {
-        /*
-         * Since we do not use any of the specific event info, only forward the signal once if any
-         * number of item events is received.
-         */
+        // Forward the ids of the new items at once, so only those items are processed.
+        final List<ItemId> itemIds = new ArrayList<ItemId>();
         for (final NotificationEvent notificationEvent : events.getEvents()) {
             if (notificationEvent instanceof ItemEvent) {
                 this.logger.debug(" - " + notificationEvent.getEventType().toString());
-                this.exchangeListener.signalEventReceived();
-                break;
+                itemIds.add(((ItemEvent) notificationEvent).getItemId());
             }
         }
+        if (!itemIds.isEmpty()) {
+            this.exchangeListener.itemsReceived(itemIds);
+        }
     }
 
     /**
@@ -114,10 +128,34 @@ class StreamingNotificationHandler
     @Override
     public void subscriptionErrorDelegate(final Object sender,
             final SubscriptionErrorEventArgs args) {
-        // When an error occurs, stop receiving events, then start a new subscription.
-        this.connection.removeNotificationEvent(this);
-        this.exchangeListener.reStartListener();
+        if (this.stopped) {
+            return;
+        }
+        boolean reopened = false;
+        if (args.getException() == null) {
+            // The connection was closed after its duration: reopen it for the same subscription,
+            // so no events are missed.
+            try {
+                this.connection.open();
+                reopened = true;
+                // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: third-party API
+                // method throws a checked Exception.
+            } catch (final Exception exception) {
+                // CHECKSTYLE:ON
+                this.logger.warn("Could not reopen the Exchange streaming connection for folder ["
+                        + this.resourceFolder + "]",
+                    exception);
+            }
+        } else {
+            this.logger.warn("Exchange subscription error for folder [" + this.resourceFolder
+                    + "]",
+                args.getException());
+        }
+        if (!reopened) {
+            // Stop receiving events, then let the listener start a new subscription.
+            this.connection.removeNotificationEvent(this);
+            this.subscriptionManager.subscriptionFailed(this.resourceFolder, this);
+        }
     }
-    
 
 }
\ No newline at end of file
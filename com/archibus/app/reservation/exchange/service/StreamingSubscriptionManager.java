@@ -0,0 +1,158 @@
+package com.archibus.app.reservation.exchange.service;
+
+import java.util.*;
+
+import org.apache.log4j.Logger;
+
+import com.archibus.app.reservation.domain.CalendarException;
+
+import microsoft.exchange.webservices.data.ExchangeService;
+
+/**
+ * Manages the streaming subscriptions of the Exchange listener: one streaming connection per
+ * resource folder, so a failing subscription doesn't interrupt the notifications for the other
+ * folders.
+ * <p>
+ * A failed subscription is restarted by the listener thread, waiting longer after each failed
+ * attempt. Each time a subscription starts, the listener is asked to catch up by scanning the
+ * resource folders, to handle the items that arrived while no subscription was active. Handled
+ * items are removed from the folders, so the folder contents serve as the watermark.
+ *
+ * @since 24.3
+ */
+class StreamingSubscriptionManager {
+
+    /** Number of milliseconds to wait before the first retry if a subscription cannot start. */
+    private static final long MIN_RETRY_MILLIS = 5 * 1000;
+
+    /** Maximum number of milliseconds to wait before retrying to start a subscription. */
+    private static final long MAX_RETRY_MILLIS = 5 * 60 * 1000;
+
+    /** Number of milliseconds in a second. */
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /** The logger. */
+    private final Logger logger = Logger.getLogger(this.getClass());
+
+    /** The Exchange listener receiving the notifications. */
+    private final ExchangeListener exchangeListener;
+
+    /** The active notification handlers by resource folder. */
+    private final Map<String, StreamingNotificationHandler> handlers =
+            new HashMap<String, StreamingNotificationHandler>();
+
+    /** Time in millis of the next attempt to start the subscription, by resource folder. */
+    private final Map<String, Long> retryTimes = new HashMap<String, Long>();
+
+    /** Delay in millis before the next retry, by resource folder. */
+    private final Map<String, Long> retryDelays = new HashMap<String, Long>();
+
+    /**
+     * Create a subscription manager.
+     *
+     * @param exchangeListener the Exchange listener receiving the notifications
+     */
+    StreamingSubscriptionManager(final ExchangeListener exchangeListener) {
+        this.exchangeListener = exchangeListener;
+    }
+
+    /**
+     * Start a subscription for each resource folder. Subscriptions that cannot start are retried
+     * later via restartFailed.
+     */
+    synchronized void startAll() {
+        final long now = System.currentTimeMillis();
+        for (final String resourceFolder : this.exchangeListener.getServiceHelper()
+            .getResourceFolders()) {
+            this.retryTimes.put(resourceFolder, now);
+        }
+        this.restartFailed();
+    }
+
+    /**
+     * Restart the failed subscriptions that are due for a retry.
+     *
+     * @return number of milliseconds until the next retry, or 0 if all subscriptions are active
+     */
+    synchronized long restartFailed() {
+        final long now = System.currentTimeMillis();
+        long nextRetry = 0;
+        for (final String resourceFolder : new ArrayList<String>(this.retryTimes.keySet())) {
+            if (!this.start(resourceFolder)) {
+                final long waitMillis = Math.max(this.retryTimes.get(resourceFolder) - now, 1);
+                nextRetry = nextRetry == 0 ? waitMillis : Math.min(nextRetry, waitMillis);
+            }
+        }
+        return nextRetry;
+    }
+
+    /**
+     * Register that the subscription of a notification handler has failed. The listener thread
+     * restarts it.
+     *
+     * @param resourceFolder the resource folder of the subscription
+     * @param handler the notification handler that failed
+     */
+    synchronized void subscriptionFailed(final String resourceFolder,
+            final StreamingNotificationHandler handler) {
+        if (this.handlers.get(resourceFolder) == handler) {
+            this.handlers.remove(resourceFolder);
+            this.retryTimes.put(resourceFolder, System.currentTimeMillis());
+            this.exchangeListener.signalEventReceived();
+        }
+    }
+
+    /**
+     * Stop all subscriptions.
+     */
+    synchronized void stopAll() {
+        for (final StreamingNotificationHandler handler : this.handlers.values()) {
+            try {
+                handler.stopStreaming();
+            } catch (final CalendarException exception) {
+                this.logger.debug("Error stopping Exchange subscription", exception);
+            }
+        }
+        this.handlers.clear();
+        this.retryTimes.clear();
+        this.retryDelays.clear();
+    }
+
+    /**
+     * Start the subscription for a resource folder if it's due. On failure, schedule the next
+     * attempt.
+     *
+     * @param resourceFolder the resource folder
+     * @return true if the subscription was started, false if it's not due or failed to start
+     */
+    private boolean start(final String resourceFolder) {
+        final long now = System.currentTimeMillis();
+        if (this.retryTimes.get(resourceFolder) > now) {
+            return false;
+        }
+        boolean started = false;
+        try {
+            final ExchangeServiceHelper serviceHelper = this.exchangeListener.getServiceHelper();
+            final ExchangeService exchangeService =
+                    serviceHelper.initializeService(serviceHelper.getResourceAccount());
+            this.handlers.put(resourceFolder, new StreamingNotificationHandler(
+                this.exchangeListener, this, exchangeService, resourceFolder));
+            this.retryTimes.remove(resourceFolder);
+            this.retryDelays.remove(resourceFolder);
+            // handle the items that arrived while not subscribed
+            this.exchangeListener.requestCatchUp();
+            started = true;
+        } catch (final CalendarException exception) {
+            final Long previousDelay = this.retryDelays.get(resourceFolder);
+            final long delay = previousDelay == null ? MIN_RETRY_MILLIS
+                    : Math.min(previousDelay * 2, MAX_RETRY_MILLIS);
+            this.retryDelays.put(resourceFolder, delay);
+            this.retryTimes.put(resourceFolder, now + delay);
+            this.logger.warn("Could not (re)start the listener for folder [" + resourceFolder
+                    + "]. Try again in " + delay / MILLIS_PER_SECOND + " seconds",
+                exception);
+        }
+        return started;
+    }
+
+}
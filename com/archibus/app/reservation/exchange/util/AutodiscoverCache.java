@@ -1,56 +1,195 @@
 package com.archibus.app.reservation.exchange.util;
 
-import java.util.LinkedHashMap;
+import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.archibus.app.reservation.exchange.domain.AutodiscoverResult;
 
 /**
- * Linked hash map that removes old elements automatically when a new element is added.
- * 
- * This implementation is not synchronized.
- * 
+ * Bounded cache of auto-discover results by email address. Elements are removed when they are
+ * older than the timeout, and the oldest elements are removed when the cache grows beyond its
+ * maximum size.
+ *
+ * This implementation is thread-safe. Lookups don't lock, only eviction is serialized.
+ *
  * @author Yorik Gerlo
  */
-public class AutodiscoverCache extends LinkedHashMap<String, AutodiscoverResult> {
-    
-    /** Generated serial version id. */
-    private static final long serialVersionUID = -8858164811141198353L;
-    
+public class AutodiscoverCache {
+
     /** Initial capacity for the cache. */
     private static final int INITIAL_CAPACITY = 1000;
-    
-    /** Cache load factor. */
-    private static final float LOAD_FACTOR = 0.75f;
-    
-    /** The timeout in millis after which an element may be removed. */
+
+    /** Percentage of the maximum size to retain when removing the oldest elements. */
+    private static final int EVICTION_TARGET_PERCENT = 90;
+
+    /** Percent divisor. */
+    private static final int PERCENT = 100;
+
+    /** The cached results by email address. */
+    private final ConcurrentMap<String, AutodiscoverResult> results =
+            new ConcurrentHashMap<String, AutodiscoverResult>(INITIAL_CAPACITY);
+
+    /** Lock to ensure only one thread removes elements at a time. */
+    private final Object evictionLock = new Object();
+
+    /** The maximum number of elements. */
+    private final int maxSize;
+
+    /** The timeout in millis after which an element is removed. */
     private final long removeTimeout;
-    
+
+    /** Number of lookups that found a result. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that didn't find a result. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of elements removed because they timed out or the cache was full. */
+    private final AtomicLong evictions = new AtomicLong();
+
     /**
-     * Constructor. Sets up the cache to use access order instead of the default ordering.
-     * 
-     * @param removeTimeout the timeout in millis after which an element may be removed
+     * Constructor.
+     *
+     * @param maxSize the maximum number of elements
+     * @param removeTimeout the timeout in millis after which an element is removed
      */
-    public AutodiscoverCache(final long removeTimeout) {
-        super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    public AutodiscoverCache(final int maxSize, final long removeTimeout) {
+        this.maxSize = maxSize;
         this.removeTimeout = removeTimeout;
     }
-    
+
+    /**
+     * Get the result for the given email address.
+     *
+     * @param email the email address
+     * @return the result, or null if not found or timed out
+     */
+    public AutodiscoverResult get(final String email) {
+        AutodiscoverResult result = this.results.get(email);
+        if (result != null && this.isTimedOut(result, System.currentTimeMillis())) {
+            if (this.results.remove(email, result)) {
+                this.evictions.incrementAndGet();
+            }
+            result = null;
+        }
+        if (result == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Store the result for the given email address, replacing the previous result.
+     *
+     * @param email the email address
+     * @param result the result
+     */
+    public void put(final String email, final AutodiscoverResult result) {
+        this.results.put(email, result);
+        if (this.results.size() > this.maxSize) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Get the number of elements in the cache.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        return this.results.size();
+    }
+
     /**
-     * Determine whether an element should be removed to replace a newly added element.
-     * 
-     * @param eldest the eldest element which is up for removal
-     * @return true if it can be removed, false to retain it
+     * Get the number of lookups that found a result.
+     *
+     * @return the number of hits
      */
-    @Override
-    protected boolean removeEldestEntry(final Entry<String, AutodiscoverResult> eldest) {
-        final AutodiscoverResult result = eldest.getValue();
-        boolean remove = true;
-        if (result != null
-                && System.currentTimeMillis() - result.getDateFound().getTime() < removeTimeout) {
-            remove = false;
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that didn't find a result.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the number of elements removed because they timed out or the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Remove the timed out elements. If the cache is still too large, remove the oldest elements
+     * until it is below the maximum size again.
+     */
+    private void evict() {
+        synchronized (this.evictionLock) {
+            if (this.results.size() <= this.maxSize) {
+                // another thread has removed elements in the meantime
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final List<Entry<String, AutodiscoverResult>> entries =
+                    new ArrayList<Entry<String, AutodiscoverResult>>(this.results.size());
+            for (final Entry<String, AutodiscoverResult> entry : this.results.entrySet()) {
+                if (this.isTimedOut(entry.getValue(), now)) {
+                    this.remove(entry);
+                } else {
+                    entries.add(entry);
+                }
+            }
+
+            final int targetSize = this.maxSize * EVICTION_TARGET_PERCENT / PERCENT;
+            if (this.results.size() > targetSize) {
+                Collections.sort(entries, new Comparator<Entry<String, AutodiscoverResult>>() {
+                    @Override
+                    public int compare(final Entry<String, AutodiscoverResult> first,
+                            final Entry<String, AutodiscoverResult> second) {
+                        return first.getValue().getDateFound()
+                            .compareTo(second.getValue().getDateFound());
+                    }
+                });
+                final Iterator<Entry<String, AutodiscoverResult>> iterator = entries.iterator();
+                while (this.results.size() > targetSize && iterator.hasNext()) {
+                    this.remove(iterator.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the element, unless it has been replaced in the meantime.
+     *
+     * @param entry the element to remove
+     */
+    private void remove(final Entry<String, AutodiscoverResult> entry) {
+        if (this.results.remove(entry.getKey(), entry.getValue())) {
+            this.evictions.incrementAndGet();
         }
-        return remove;
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Check whether the result has timed out.
+     *
+     * @param result the result
+     * @param now the current time in millis
+     * @return true if it should be removed
+     */
+    private boolean isTimedOut(final AutodiscoverResult result, final long now) {
+        return now - result.getDateFound().getTime() >= this.removeTimeout;
+    }
+
+}
@@ -50,6 +50,9 @@ public final class IcsModel {
     /** The recurrence identifier for a single recurring meeting occurrence. */
     private Date recurrenceId;
 
+    /** The ICS sequence number. */
+    private int sequence;
+
     /**
      * The default constructor.
      *
@@ -236,4 +239,22 @@ public final class IcsModel {
         return this.recurrenceId;
     }
 
+    /**
+     * Set the ICS sequence number.
+     *
+     * @param sequence the sequence number
+     */
+    public void setSequence(final int sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Get the ICS sequence number.
+     *
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
 }
@@ -74,6 +74,9 @@ public class CalendarMessageService {
 
         final Map<String, Object> dataModel = DataModelHelper.prepareDataModel(messages, emailModel,
                 reservation, message, this.timeZoneCache);
+        // resolve the ICS sequence numbers for all attachments at once
+        final IcsSequenceNumbers sequenceNumbers =
+                new IcsSequenceNumbers(reservation, originalReserv);
 
         if (emailModel.isChange() && originalReserv != null
                 && reservation.getRecurringDateModified() == 1
@@ -85,7 +88,7 @@ public class CalendarMessageService {
             final Map<String, Object> cancelDataModel = DataModelHelper.prepareDataModel(messages,
                     emailModel, originalReserv, message, this.timeZoneCache);
             final IcsModel cancelIcsModel = setupIcsModel(messages, cancelModel, cancelDataModel,
-                    originalReserv, originalReserv);
+                    originalReserv, originalReserv, sequenceNumbers);
 
             /* LBNL Pankaj
             IcsAttachmentHelper.addIcsToAttachments(context, cancelIcsModel, attendees,
@@ -99,7 +102,7 @@ public class CalendarMessageService {
 
         }
         this.generateIcsAttachments(reservation, originalReserv, message, attendees, messages,
-                emailModel, dataModel);
+                emailModel, dataModel, sequenceNumbers);
 
         final IcsMessage emailMessage = createEmailMessage(allRecurrences, locale, dataModel);
         // send the email
@@ -160,7 +163,7 @@ public class CalendarMessageService {
                 originalReserv, message, this.timeZoneCache);
 
         this.generateIcsAttachments(originalReserv, originalReserv, message, removedAttendees, messages,
-                emailModel, dataModel);
+                emailModel, dataModel, new IcsSequenceNumbers(originalReserv));
 
         final IcsMessage emailMessage = createEmailMessage(allRecurrences, locale, dataModel);
         // send the email
@@ -191,16 +194,19 @@ public class CalendarMessageService {
      * @param messages localized messages to use
      * @param emailModel the email model specifying what action the email reports
      * @param dataModel the data model containing reservation information to include in the ICS
+     * @param sequenceNumbers the ICS sequence numbers for the message
      */
     private void generateIcsAttachments(final RoomReservation reservation,
                                         final RoomReservation originalReserv, final String message, final String[] attendees,
                                         final Map<String, String> messages, final EmailModel emailModel,
-                                        final Map<String, Object> dataModel) {
-        final IcsModel icsModel =
-                setupIcsModel(messages, emailModel, dataModel, reservation, originalReserv);
+                                        final Map<String, Object> dataModel,
+                                        final IcsSequenceNumbers sequenceNumbers) {
+        final IcsModel icsModel = setupIcsModel(messages, emailModel, dataModel, reservation,
+                originalReserv, sequenceNumbers);
 
         if (emailModel.isCancel() && emailModel.isAllRecurrences()) {
-            addCancelledExceptionsIcs(reservation, message, attendees, messages, emailModel);
+            addCancelledExceptionsIcs(reservation, message, attendees, messages, emailModel,
+                    sequenceNumbers);
         }
         final String startDate = (String) dataModel.get(IcsConstants.DATE_START);
 
@@ -218,7 +224,8 @@ public class CalendarMessageService {
                  * Check if any of the occurrences don't match the series. Add a separate ICS for
                  * them.
                  */
-                addModifiedExceptionsIcs(reservation, message, attendees, messages, emailModel);
+                addModifiedExceptionsIcs(reservation, message, attendees, messages, emailModel,
+                        sequenceNumbers);
             }
         }
     }
@@ -250,8 +257,8 @@ public class CalendarMessageService {
 
         final Map<String, Object> dataModel = DataModelHelper.prepareDataModel(messages, emailModel,
                 reservation, message, this.timeZoneCache);
-        final IcsModel icsModel =
-                setupIcsModel(messages, emailModel, dataModel, reservation, reservation);
+        final IcsModel icsModel = setupIcsModel(messages, emailModel, dataModel, reservation,
+                reservation, new IcsSequenceNumbers(reservation));
 
         final String startDate = (String) dataModel.get(IcsConstants.DATE_START);
         IcsAttachmentHelper.addIcsToAttachments(context, icsModel, attendees, startDate,
@@ -289,10 +296,12 @@ public class CalendarMessageService {
      * @param attendees the attendees to notify
      * @param messages localized messages to use in the ics file
      * @param emailModel the email model
+     * @param sequenceNumbers the ICS sequence numbers for the message
      */
     private void addCancelledExceptionsIcs(final RoomReservation reservation, final String message,
                                            final String[] attendees, final Map<String, String> messages,
-                                           final EmailModel emailModel) {
+                                           final EmailModel emailModel,
+                                           final IcsSequenceNumbers sequenceNumbers) {
 
         final EventHandlerContext context = ContextStore.get().getEventHandlerContext();
         final EmailModel exceptionModel =
@@ -304,7 +313,7 @@ public class CalendarMessageService {
                 final Map<String, Object> exDataModel = DataModelHelper.prepareDataModel(messages,
                         exceptionModel, cancelledRes, message, this.timeZoneCache);
                 final IcsModel exIcsModel = setupIcsModel(messages, exceptionModel, exDataModel,
-                        cancelledRes, cancelledRes);
+                        cancelledRes, cancelledRes, sequenceNumbers);
                 IcsAttachmentHelper.addIcsToAttachments(context, exIcsModel, attendees,
                         (String) exDataModel.get(IcsConstants.DATE_START), emailModel.getAttachments(),
                         false);
@@ -323,10 +332,12 @@ public class CalendarMessageService {
      * @param attendees the attendees to notify
      * @param messages localized messages to use in the ics file
      * @param emailModel the email model
+     * @param sequenceNumbers the ICS sequence numbers for the message
      */
     private void addModifiedExceptionsIcs(final RoomReservation reservation, final String message,
                                           final String[] attendees, final Map<String, String> messages,
-                                          final EmailModel emailModel) {
+                                          final EmailModel emailModel,
+                                          final IcsSequenceNumbers sequenceNumbers) {
 
         final EventHandlerContext context = ContextStore.get().getEventHandlerContext();
         final EmailModel exceptionModel =
@@ -338,7 +349,7 @@ public class CalendarMessageService {
                 final Map<String, Object> exDataModel = DataModelHelper.prepareDataModel(messages,
                         exceptionModel, occurrence, message, this.timeZoneCache);
                 final IcsModel exIcsModel = setupIcsModel(messages, exceptionModel, exDataModel,
-                        occurrence, occurrence);
+                        occurrence, occurrence, sequenceNumbers);
                 IcsAttachmentHelper.addIcsToAttachments(context, exIcsModel, attendees,
                         (String) exDataModel.get(IcsConstants.DATE_START), emailModel.getAttachments(),
                         false);
@@ -429,11 +440,13 @@ public class CalendarMessageService {
      * @param dataModel the email data model
      * @param reservation the meeting reservation
      * @param originalReserv the original meeting reservation, if applicable
+     * @param sequenceNumbers the ICS sequence numbers for the message
      * @return the ICS email model
      */
     private IcsModel setupIcsModel(final Map<String, String> messages, final EmailModel emailModel,
                                    final Map<String, Object> dataModel, final RoomReservation reservation,
-                                   final RoomReservation originalReserv) {
+                                   final RoomReservation originalReserv,
+                                   final IcsSequenceNumbers sequenceNumbers) {
 
         final String uid = IcsAttachmentHelper.generateUid(emailModel, reservation);
         final Map<String, Object> icsDataModel =
@@ -454,6 +467,9 @@ public class CalendarMessageService {
         } else {
             model = createIcsModel(emailModel, reservation, originalReserv, uid, ics, location);
         }
+        if (model != null) {
+            model.setSequence(sequenceNumbers.getSequence(uid));
+        }
         return model;
     }
 
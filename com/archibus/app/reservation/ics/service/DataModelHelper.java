@@ -17,12 +17,6 @@ import com.archibus.datasource.restriction.Restrictions;
 import com.archibus.datasource.data.DataRecord;
 import com.archibus.utility.StringUtil;
 
-
-
-
-
-import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
-
 /**
  * Copyright (C) ARCHIBUS, Inc. All rights reserved.
  */
@@ -413,8 +407,7 @@ public final class DataModelHelper {
      * @return the offset
      */
     private static int getOffset(final String timezone, final long datetime) {
-        final TimeZone timeZone =
-                TimeZoneRegistryFactory.getInstance().createRegistry().getTimeZone(timezone);
+        final TimeZone timeZone = IcsTimeZoneCache.getTimeZone(timezone);
         if (timeZone == null) {
             // @translatable
             throw new CalendarException("Unknown time zone [{0}] - cannot determine offset",
@@ -5,10 +5,12 @@ import java.util.*;
 import javax.mail.*;
 import javax.mail.internet.*;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import com.archibus.app.reservation.domain.TimePeriod;
 import com.archibus.app.reservation.ics.domain.IcsMessage;
+import com.archibus.app.reservation.ics.service.MailDispatcher.QueuedMessage;
 import com.archibus.config.MailPreferences;
 import com.archibus.jobmanager.JobBase;
 import com.archibus.model.mail.service.MailLoggerDatabaseImpl;
@@ -17,6 +19,9 @@ import com.archibus.utility.*;
 /**
  * Provides email sending job implementation.
  * <p>
+ * Sends the messages queued in the mail dispatcher over a single SMTP connection, which is kept
+ * open until the queue is empty. Sending is retried with an increasing delay when the connection
+ * fails. The sent messages are logged in afm_notifications_log in batches.
  *
  * @author PROCOS
  * @since 23.2
@@ -24,91 +29,267 @@ import com.archibus.utility.*;
  */
 public class EmailJob extends JobBase {
 
-    /**
-     * The email message to be sent.
-     */
-    private final IcsMessage message;
+    /** Maximum number of attempts to send a message with attachments. */
+    private static final int MAX_ATTEMPTS = 3;
 
-    /**
-     * The attachment MimeBodyPart array.
-     */
-    private final List<MimeBodyPart> attachments;
+    /** Delay before the first retry in milliseconds, doubled for each next retry. */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /** Number of sent messages to log in afm_notifications_log at once. */
+    private static final int LOG_BATCH_SIZE = 50;
+
+    /** Random generator for the retry delays, shared by all email jobs. */
+    private static final Random RANDOM = new Random();
 
     /** The logger. */
     private final Logger logger = Logger.getLogger(EmailJob.class);
 
-    /** Email preferences. */
-    private final MailPreferences mailPreferences;
+    /** The dispatcher providing the messages to send. */
+    private final MailDispatcher dispatcher;
+
+    /** The sent messages not logged yet. */
+    private final List<MailMessage> messagesToLog = new ArrayList<MailMessage>();
+
+    /** The connected transport, null if not connected. */
+    private Transport transport;
+
+    /** The mail session for building and sending the messages, null if not created yet. */
+    private Session mailSession;
+
+    /** The mail preferences of the mail session. */
+    private MailPreferences sessionPreferences;
+
+    /** The mail preferences of the connected transport. */
+    private MailPreferences connectedPreferences;
 
     /**
      * Creates a new Email Job.
      *
-     * @param theAttachments the attachments to include, if any
-     * @param theMessage the message to send
-     * @param mailPreferences email preferences
+     * @param dispatcher the dispatcher providing the messages to send
      */
-    public EmailJob(final IcsMessage theMessage, final List<MimeBodyPart> theAttachments,
-            final MailPreferences mailPreferences) {
+    public EmailJob(final MailDispatcher dispatcher) {
         super();
-        this.message = theMessage;
-        this.attachments = theAttachments;
-        this.mailPreferences = mailPreferences;
+        this.dispatcher = dispatcher;
     }
 
     /**
-     * The runner method to send the email with or without attachments.
+     * The runner method to send the queued emails with or without attachments.
      */
     @Override
     public final void run() {
         try {
-            sendEmailWithAttachments();
+            QueuedMessage message = this.dispatcher.next();
+            while (message != null) {
+                try {
+                    this.send(message);
+                } catch (final RuntimeException exception) {
+                    // continue with the other messages in the queue
+                    this.logger.error("Could not send email", exception);
+                }
+                message = this.dispatcher.next();
+            }
+        } finally {
+            this.finish();
+            this.dispatcher.logStatistics();
+        }
+    }
+
+    /**
+     * Send a message with attachments. If that fails, send it without attachments.
+     *
+     * @param message the message to send
+     */
+    void send(final QueuedMessage message) {
+        try {
+            this.sendEmailWithAttachments(message);
         } catch (final MessagingException e) {
             this.logger.error("Could not send email with attachment - try without", e);
-            sendEmailWithoutAttachments();
+            this.dispatcher.recordFallback();
+            sendEmailWithoutAttachments(message);
         }
     }
 
+    /**
+     * Close the connection and log the sent messages that are not logged yet.
+     */
+    void finish() {
+        this.disconnect();
+        this.logSentMessages();
+    }
+
     /**
      * Auxiliary method to send the email without attachments. Uses the standard mail sender
      * functionality.
+     *
+     * @param message the message to send
      */
-    private void sendEmailWithoutAttachments() {
-        final MailMessage email = EmailBuilder.buildMailMessage(this.message, this.mailPreferences);
+    private static void sendEmailWithoutAttachments(final QueuedMessage message) {
+        final MailMessage email =
+                EmailBuilder.buildMailMessage(message.getMessage(), message.getMailPreferences());
         final MailSender mailSender = new MailSender();
         mailSender.send(email);
     }
 
     /**
-     * Auxiliary method to send the email with attachments. Adds the message in the notifications
-     * log.
+     * Auxiliary method to send the email with attachments. Retries when connecting or sending
+     * fails, except if the recipients are rejected. Errors building the message, such as an invalid
+     * address, are not retried. Adds the message to the batch for the notifications log.
      *
+     * @param message the message to send
      * @throws MessagingException the messaging exception
      */
-    private void sendEmailWithAttachments() throws MessagingException {
-        final Session mailSession = EmailBuilder.buildMailSession(this.mailPreferences);
-
-        final String subject = this.message.getSubject();
-        final String body = this.message.getBody();
-
-        final MimeMessage mimeMessage = new MimeMessage(mailSession);
-        mimeMessage.setSubject(IcsAttachmentHelper.sanitizeCrlf(subject));
-        mimeMessage.setFrom(new InternetAddress(this.message.getMailFrom()));
-        for (final String emailAddress : this.message.getMailTo()) {
-            addAsToRecipients(mimeMessage, emailAddress);
+    private void sendEmailWithAttachments(final QueuedMessage message)
+            throws MessagingException {
+        final MimeMessage mimeMessage =
+                buildMimeMessage(message, this.getMailSession(message.getMailPreferences()));
+        int attempt = 1;
+        while (true) {
+            try {
+                this.connect(message.getMailPreferences());
+                final long start = System.nanoTime();
+                this.transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+                this.dispatcher.recordSent(System.nanoTime() - start);
+                break;
+            } catch (final SendFailedException exception) {
+                throw exception;
+            } catch (final MessagingException exception) {
+                // the connection might be broken: reconnect for the next attempt
+                this.disconnect();
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw exception;
+                }
+                this.logger.warn("Sending email failed, retrying", exception);
+                waitBeforeRetry(attempt);
+                ++attempt;
+            }
         }
-        mimeMessage.setContent(EmailBuilder.buildMultipartMessage(body, this.attachments));
-        mimeMessage.setSentDate(new Date());
-
-        Transport.send(mimeMessage);
 
         // log to table afm_notifications_log
         final MailMessage messageToLog =
-                EmailBuilder.buildMailMessage(this.message, this.mailPreferences);
+                EmailBuilder.buildMailMessage(message.getMessage(), message.getMailPreferences());
         final Date dateSent = new Date();
         messageToLog.setDateSent(dateSent);
         messageToLog.setTimeSent(TimePeriod.clearDate(dateSent));
         messageToLog.setStatus("SENT");
-        new MailLoggerDatabaseImpl().logMessage(messageToLog);
+        this.messagesToLog.add(messageToLog);
+        if (this.messagesToLog.size() >= LOG_BATCH_SIZE) {
+            this.logSentMessages();
+        }
+    }
+
+    /**
+     * Build the MIME message to send.
+     *
+     * @param message the queued message
+     * @param session the mail session
+     * @return the MIME message
+     * @throws MessagingException when building the message fails
+     */
+    private static MimeMessage buildMimeMessage(final QueuedMessage message,
+            final Session session) throws MessagingException {
+        final IcsMessage icsMessage = message.getMessage();
+        final MimeMessage mimeMessage = new MimeMessage(session);
+        mimeMessage.setSubject(IcsAttachmentHelper.sanitizeCrlf(icsMessage.getSubject()));
+        mimeMessage.setFrom(new InternetAddress(icsMessage.getMailFrom()));
+        for (final String emailAddress : icsMessage.getMailTo()) {
+            addAsToRecipients(mimeMessage, emailAddress);
+        }
+        mimeMessage.setContent(
+            EmailBuilder.buildMultipartMessage(icsMessage.getBody(), message.getAttachments()));
+        mimeMessage.setSentDate(new Date());
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
+
+    /**
+     * Connect to the mail server of the given preferences, unless already connected to it.
+     *
+     * @param mailPreferences the mail preferences
+     * @throws MessagingException when connecting fails
+     */
+    private void connect(final MailPreferences mailPreferences) throws MessagingException {
+        if (this.transport != null && this.transport.isConnected()
+                && isSameServer(this.connectedPreferences, mailPreferences)) {
+            return;
+        }
+        this.disconnect();
+        final Transport newTransport = this.getMailSession(mailPreferences).getTransport();
+        newTransport.connect();
+        this.transport = newTransport;
+        this.connectedPreferences = mailPreferences;
+    }
+
+    /**
+     * Get the mail session for the given preferences, creating a new one unless the current
+     * session is for the same mail server.
+     *
+     * @param mailPreferences the mail preferences
+     * @return the mail session
+     */
+    private Session getMailSession(final MailPreferences mailPreferences) {
+        if (this.mailSession == null || !isSameServer(this.sessionPreferences, mailPreferences)) {
+            this.mailSession = EmailBuilder.buildMailSession(mailPreferences);
+            this.sessionPreferences = mailPreferences;
+        }
+        return this.mailSession;
+    }
+
+    /**
+     * Close the connection to the mail server, if connected.
+     */
+    private void disconnect() {
+        if (this.transport != null) {
+            try {
+                this.transport.close();
+            } catch (final MessagingException exception) {
+                this.logger.debug("Error closing mail connection", exception);
+            }
+            this.transport = null;
+            this.connectedPreferences = null;
+        }
+    }
+
+    /**
+     * Log the sent messages in afm_notifications_log.
+     */
+    private void logSentMessages() {
+        if (!this.messagesToLog.isEmpty()) {
+            final MailLoggerDatabaseImpl mailLogger = new MailLoggerDatabaseImpl();
+            for (final MailMessage messageToLog : this.messagesToLog) {
+                mailLogger.logMessage(messageToLog);
+            }
+            this.messagesToLog.clear();
+        }
+    }
+
+    /**
+     * Wait before retrying to send a message. The delay doubles with each attempt and includes a
+     * random part, so concurrent email jobs don't retry at the same time.
+     *
+     * @param attempt the number of the failed attempt
+     */
+    private static void waitBeforeRetry(final int attempt) {
+        final long delay = RETRY_DELAY_MILLIS << (attempt - 1);
+        try {
+            Thread.sleep(delay + RANDOM.nextInt((int) delay));
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check whether both mail preferences refer to the same mail server and account.
+     *
+     * @param first the first mail preferences
+     * @param second the second mail preferences
+     * @return true if host, port and user name are the same
+     */
+    private static boolean isSameServer(final MailPreferences first,
+            final MailPreferences second) {
+        return first != null && second != null
+                && ObjectUtils.equals(first.getHostName(), second.getHostName())
+                && ObjectUtils.equals(first.getHostPort(), second.getHostPort())
+                && ObjectUtils.equals(first.getHostUsername(), second.getHostUsername());
     }
 
     /**
@@ -118,8 +299,8 @@ public class EmailJob extends JobBase {
      * @param emailAddress the email address
      * @throws MessagingException the messaging exception
      */
-    private void addAsToRecipients(final MimeMessage mimeMessage, final String emailAddress)
-            throws MessagingException {
+    private static void addAsToRecipients(final MimeMessage mimeMessage,
+            final String emailAddress) throws MessagingException {
         mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO,
             new InternetAddress(emailAddress));
     }
@@ -1,14 +1,9 @@
 package com.archibus.app.reservation.ics.service;
 
 import java.util.Date;
-import java.util.List;
 
 import com.archibus.app.reservation.ics.domain.*;
 import com.archibus.app.reservation.util.TimeZoneConverter;
-import com.archibus.datasource.DataSource;
-import com.archibus.datasource.DataSourceFactory;
-import com.archibus.datasource.data.DataRecord;
-import com.archibus.datasource.restriction.Restrictions;
 
 import net.fortuna.ical4j.model.*;
 import net.fortuna.ical4j.model.component.*;
@@ -29,6 +24,9 @@ import net.fortuna.ical4j.util.CompatibilityHints;
  */
 public final class IcsCalendarBuilder {
 
+    /** The product identifier, the same for all ICS calendars. */
+    private static final ProdId PRODUCT_ID = new ProdId("-//Events Calendar//iCal4j 2.0//EN");
+
     /**
      * Private default constructor: utility class is non-instantiable.
      */
@@ -53,9 +51,8 @@ public final class IcsCalendarBuilder {
         final String tzone = model.getLocationModel().getTimezone();
         final EmailModel emailModel = model.getEmailModel();
 
-        // timezone information
-        final net.fortuna.ical4j.model.TimeZone timezone =
-                TimeZoneRegistryFactory.getInstance().createRegistry().getTimeZone(tzone);
+        // timezone information, shared by all attachments
+        final net.fortuna.ical4j.model.TimeZone timezone = IcsTimeZoneCache.getTimeZone(tzone);
 
 
           
@@ -73,30 +70,9 @@ public final class IcsCalendarBuilder {
 
         
         //Added by Pankaj@LBNL
-        // Get the latest revision number of the reservation or the parent reservation (in case of recurring one)
-        int intRevision=0;
-      
-        String strWhere=" (res_id = '" + model.getUid() +"' OR res_parent='" + model.getUid() +"') " ;
-               strWhere += " and (lbl_revision_number =(select max(b.lbl_revision_number) from reserve b where ";
-               strWhere += " (b.res_id = '" + model.getUid() +"' OR b.res_parent='" + model.getUid() +"')))" ;
-                               
-               DataSource ds = DataSourceFactory.createDataSource();
-               ds.addTable("reserve");
-               ds.addField("lbl_revision_number");
-               ds.addSort("reserve","lbl_revision_number", DataSource.SORT_DESC);
-               ds.addRestriction(Restrictions.sql(strWhere));
-             	 List <DataRecord> records=ds.getRecords();
-
-   
-               for (DataRecord record : records) {
-            	   intRevision=record.getInt("reserve.lbl_revision_number");
-            	   break;
-                 }
-         
-          intRevision++;
-          ds=null;
-        
-        final int sequenceNumber;
+        // The latest revision number of the reservation or the parent reservation (in case of
+        // recurring one) plus one, resolved when the message is built.
+        final int sequenceNumber = model.getSequence();
         /*  Commented by Pankaj@LBNL     
             if (emailModel.isCancel()) {
          
@@ -110,7 +86,6 @@ public final class IcsCalendarBuilder {
             sequenceNumber = 0;  
             
         }*/
-        sequenceNumber=intRevision; // Added by Pankaj@LBNL
 
         // Pankaj@ LBNL added property
         propertyList.add(net.fortuna.ical4j.model.property.Transp.TRANSPARENT);
@@ -154,7 +129,7 @@ public final class IcsCalendarBuilder {
         final Calendar icsCalendar = new Calendar();
 
         final PropertyList<Property> icsPropertyList = icsCalendar.getProperties();
-        icsPropertyList.add(new ProdId("-//Events Calendar//iCal4j 2.0//EN"));
+        icsPropertyList.add(PRODUCT_ID);
         icsPropertyList.add(net.fortuna.ical4j.model.property.CalScale.GREGORIAN);
         icsPropertyList.add(net.fortuna.ical4j.model.property.Version.VERSION_2_0);
         icsPropertyList.add(method);
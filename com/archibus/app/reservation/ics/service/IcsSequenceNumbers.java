@@ -0,0 +1,131 @@
+package com.archibus.app.reservation.ics.service;
+
+import java.util.*;
+
+import org.springframework.util.StringUtils;
+
+import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.domain.RoomReservation;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.datasource.restriction.Restrictions;
+
+/**
+ * Copyright (C) ARCHIBUS, Inc. All rights reserved.
+ */
+/**
+ * Provides the ICS sequence numbers for the attachments of a single email message, based on the
+ * LBNL revision number of the reservations.
+ * <p>
+ * The sequence number for an ICS uid is the highest revision number of the reservation with that
+ * id and its occurrences, plus one. The revision numbers of the reservations and series involved
+ * in the message are loaded in a single query when the message is built, so generating the
+ * attachments doesn't require any database access.
+ *
+ * @since 24.3
+ */
+final class IcsSequenceNumbers {
+
+    /** LBNL revision number field. */
+    private static final String REVISION_NUMBER_FIELD = "lbl_revision_number";
+
+    /** Fields to load from the reserve table. */
+    private static final String[] FIELDS =
+            { Constants.RES_ID, Constants.RES_PARENT, REVISION_NUMBER_FIELD };
+
+    /** Highest revision number by reservation id, for the ids that were loaded. */
+    private final Map<Integer, Integer> revisionNumbers = new HashMap<Integer, Integer>();
+
+    /**
+     * Load the revision numbers for the reservations involved in a message.
+     *
+     * @param reservations the reservations involved, null entries are ignored
+     */
+    IcsSequenceNumbers(final RoomReservation... reservations) {
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (final RoomReservation reservation : reservations) {
+            if (reservation != null) {
+                addId(ids, reservation.getReserveId());
+                addId(ids, reservation.getParentId());
+                addId(ids, reservation.getConferenceId());
+            }
+        }
+        this.loadRevisionNumbers(ids);
+    }
+
+    /**
+     * Get the sequence number for the given ICS uid.
+     *
+     * @param uid the ICS uid
+     * @return the sequence number
+     */
+    int getSequence(final String uid) {
+        Integer reservationId = null;
+        try {
+            reservationId = Integer.valueOf(uid);
+        } catch (final NumberFormatException exception) {
+            // uid of a single occurrence, which doesn't match a reservation id
+            return 1;
+        }
+        if (!this.revisionNumbers.containsKey(reservationId)) {
+            // not involved in the message: load it on its own
+            this.loadRevisionNumbers(Collections.singleton(reservationId));
+        }
+        return this.revisionNumbers.get(reservationId) + 1;
+    }
+
+    /**
+     * Load the highest revision number of each reservation and its occurrences.
+     *
+     * @param ids the reservation ids
+     */
+    private void loadRevisionNumbers(final Set<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (final Integer id : ids) {
+            this.revisionNumbers.put(id, 0);
+        }
+
+        final String idList = StringUtils.collectionToCommaDelimitedString(ids);
+        final DataSource dataSource = DataSourceFactory
+            .createDataSourceForFields(Constants.RESERVE_TABLE_NAME, FIELDS);
+        dataSource.addRestriction(Restrictions.or(
+            Restrictions.in(Constants.RESERVE_TABLE_NAME, Constants.RES_ID, idList),
+            Restrictions.in(Constants.RESERVE_TABLE_NAME, Constants.RES_PARENT, idList)));
+
+        final String prefix = Constants.RESERVE_TABLE_NAME + Constants.DOT;
+        for (final DataRecord record : dataSource.getRecords()) {
+            final int revisionNumber = record.getInt(prefix + REVISION_NUMBER_FIELD);
+            this.updateRevisionNumber(record.getInt(prefix + Constants.RES_ID), revisionNumber);
+            this.updateRevisionNumber(record.getInt(prefix + Constants.RES_PARENT),
+                revisionNumber);
+        }
+    }
+
+    /**
+     * Update the highest revision number of a loaded reservation id.
+     *
+     * @param id the reservation id
+     * @param revisionNumber the revision number of a reservation with this id or parent id
+     */
+    private void updateRevisionNumber(final int id, final int revisionNumber) {
+        final Integer current = this.revisionNumbers.get(id);
+        if (current != null && revisionNumber > current) {
+            this.revisionNumbers.put(id, revisionNumber);
+        }
+    }
+
+    /**
+     * Add a reservation id to the set if it is defined.
+     *
+     * @param ids the set of ids
+     * @param id the id to add (can be null)
+     */
+    private static void addId(final Set<Integer> ids, final Integer id) {
+        if (id != null && id > 0) {
+            ids.add(id);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.archibus.app.reservation.ics.service;
+
+import java.util.concurrent.*;
+
+import net.fortuna.ical4j.model.*;
+
+/**
+ * Copyright (C) ARCHIBUS, Inc. All rights reserved.
+ */
+/**
+ * Utility class. Provides the ical4j time zones for building ICS attachments.
+ * <p>
+ * A single time zone registry is shared by all requests, so the time zone definitions are loaded
+ * and parsed only once per process. Each time zone, including its VTIMEZONE component, is built
+ * once and reused for all attachments. The cached components must not be modified.
+ *
+ * @since 24.3
+ */
+final class IcsTimeZoneCache {
+
+    /** The time zone registry shared by all requests. */
+    private static final TimeZoneRegistry REGISTRY =
+            TimeZoneRegistryFactory.getInstance().createRegistry();
+
+    /** The time zones by id. */
+    private static final ConcurrentMap<String, TimeZone> TIME_ZONES =
+            new ConcurrentHashMap<String, TimeZone>();
+
+    /**
+     * Private default constructor: utility class is non-instantiable.
+     */
+    private IcsTimeZoneCache() {
+    }
+
+    /**
+     * Get the time zone with the given id.
+     *
+     * @param timeZoneId the time zone id
+     * @return the time zone, or null if the time zone is unknown
+     */
+    static TimeZone getTimeZone(final String timeZoneId) {
+        TimeZone timeZone = TIME_ZONES.get(timeZoneId);
+        if (timeZone == null) {
+            timeZone = REGISTRY.getTimeZone(timeZoneId);
+            if (timeZone != null) {
+                final TimeZone existing = TIME_ZONES.putIfAbsent(timeZoneId, timeZone);
+                if (existing != null) {
+                    timeZone = existing;
+                }
+            }
+        }
+        return timeZone;
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.archibus.app.reservation.ics.service;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.mail.internet.MimeBodyPart;
+
+import org.apache.log4j.Logger;
+
+import com.archibus.app.reservation.ics.domain.IcsMessage;
+import com.archibus.config.MailPreferences;
+import com.archibus.context.ContextStore;
+
+/**
+ * Copyright (C) ARCHIBUS, Inc. All rights reserved.
+ */
+/**
+ * Queues reservation emails and sends them via a limited number of email jobs.
+ * <p>
+ * Each email job keeps its SMTP connection open while there are messages in the queue, so a burst
+ * of messages (e.g. when editing or cancelling a large recurring series) doesn't open a new
+ * connection for every message. Additional jobs are started while the queue grows, up to a
+ * maximum. When the queue is full, the caller waits for a free slot.
+ * <p>
+ * Used by MessageHelper. Provides the queue depth and send latency for monitoring.
+ *
+ * @since 24.3
+ */
+public final class MailDispatcher {
+
+    /** Maximum number of messages waiting in the queue. */
+    private static final int QUEUE_CAPACITY = 1000;
+
+    /** Maximum number of email jobs sending concurrently, i.e. the number of SMTP connections. */
+    private static final int MAX_SENDERS = 4;
+
+    /** Number of seconds to wait for a free slot when the queue is full. */
+    private static final long QUEUE_TIMEOUT_SECONDS = 60;
+
+    /** Number of milliseconds an idle email job waits for new messages before it stops. */
+    private static final long KEEP_ALIVE_MILLIS = 2000;
+
+    /** Number of nanoseconds in a millisecond. */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /** The dispatcher shared by all requests. */
+    private static final MailDispatcher INSTANCE = new MailDispatcher();
+
+    /** The logger. */
+    private final Logger logger = Logger.getLogger(MailDispatcher.class);
+
+    /** The messages waiting to be sent. */
+    private final BlockingQueue<QueuedMessage> queue =
+            new LinkedBlockingQueue<QueuedMessage>(QUEUE_CAPACITY);
+
+    /** Number of email jobs started and not finished. */
+    private final AtomicInteger activeSenders = new AtomicInteger();
+
+    /** Highest number of messages in the queue. */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /** Number of messages sent with attachments. */
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    /** Number of messages that could only be sent without attachments. */
+    private final AtomicLong fallbackMessages = new AtomicLong();
+
+    /** Total time spent sending the messages with attachments, in nanoseconds. */
+    private final AtomicLong totalSendNanos = new AtomicLong();
+
+    /**
+     * Private constructor: use getInstance.
+     */
+    private MailDispatcher() {
+    }
+
+    /**
+     * Get the dispatcher.
+     *
+     * @return the dispatcher shared by all requests
+     */
+    public static MailDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue a message for sending. Waits while the queue is full. If no slot becomes available
+     * in time, the message is sent on the calling thread.
+     *
+     * @param message the email message
+     * @param attachments the attachments to include
+     * @param mailPreferences the mail preferences
+     */
+    void dispatch(final IcsMessage message, final List<MimeBodyPart> attachments,
+            final MailPreferences mailPreferences) {
+        final QueuedMessage queuedMessage =
+                new QueuedMessage(message, attachments, mailPreferences);
+        boolean queued = this.queue.offer(queuedMessage);
+        if (!queued) {
+            this.startSenderIfRequired();
+            try {
+                queued = this.queue.offer(queuedMessage, QUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (queued) {
+            final int depth = this.queue.size();
+            int max = this.maxQueueDepth.get();
+            while (depth > max && !this.maxQueueDepth.compareAndSet(max, depth)) {
+                max = this.maxQueueDepth.get();
+            }
+            this.startSenderIfRequired();
+        } else {
+            this.logger.warn("Mail queue is full, sending message directly.");
+            final EmailJob emailJob = new EmailJob(this);
+            emailJob.send(queuedMessage);
+            emailJob.finish();
+        }
+    }
+
+    /**
+     * Get the number of messages waiting to be sent.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Get the highest number of messages that were waiting to be sent.
+     *
+     * @return the maximum queue depth
+     */
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Get the number of messages sent with attachments.
+     *
+     * @return the number of messages sent
+     */
+    public long getSentMessages() {
+        return this.sentMessages.get();
+    }
+
+    /**
+     * Get the number of messages that could only be sent without attachments.
+     *
+     * @return the number of messages sent without attachments
+     */
+    public long getFallbackMessages() {
+        return this.fallbackMessages.get();
+    }
+
+    /**
+     * Get the average time to send a message with attachments over an open connection.
+     *
+     * @return the average send latency in milliseconds
+     */
+    public double getAverageSendMillis() {
+        final long sent = this.sentMessages.get();
+        return sent == 0 ? 0 : this.totalSendNanos.get() / NANOS_PER_MILLI / sent;
+    }
+
+    /**
+     * Get the next message to send, waiting a short while for new messages. Called by the email
+     * jobs. When returning null, the email job is no longer counted as active and must stop.
+     *
+     * @return the next message, or null if the queue remains empty
+     */
+    QueuedMessage next() {
+        QueuedMessage message = null;
+        while (message == null) {
+            try {
+                message = this.queue.poll(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                message = this.queue.poll();
+            }
+            if (message == null) {
+                this.activeSenders.decrementAndGet();
+                // a message might have been queued after the poll timed out
+                if (this.queue.isEmpty() || !this.acquireSender()) {
+                    break;
+                }
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Register a message sent with attachments.
+     *
+     * @param sendNanos time to send the message in nanoseconds
+     */
+    void recordSent(final long sendNanos) {
+        this.sentMessages.incrementAndGet();
+        this.totalSendNanos.addAndGet(sendNanos);
+    }
+
+    /**
+     * Register a message that could only be sent without attachments.
+     */
+    void recordFallback() {
+        this.fallbackMessages.incrementAndGet();
+    }
+
+    /**
+     * Log the queue depth and send latency.
+     */
+    void logStatistics() {
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug(String.format(
+                "Mail queue depth %d (max. %d), %d messages sent at %.1f ms average, %d sent "
+                        + "without attachments",
+                this.getQueueDepth(), this.getMaxQueueDepth(), this.getSentMessages(),
+                this.getAverageSendMillis(), this.getFallbackMessages()));
+        }
+    }
+
+    /**
+     * Start an email job if none is active, or if the queue holds more messages than there are
+     * active jobs and the maximum is not reached.
+     */
+    private void startSenderIfRequired() {
+        final int active = this.activeSenders.get();
+        if ((active == 0 || this.queue.size() > active) && this.acquireSender()) {
+            try {
+                ContextStore.get().getJobManager().startJob(new EmailJob(this));
+            } catch (final RuntimeException exception) {
+                this.activeSenders.decrementAndGet();
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Register an additional active email job if the maximum is not reached.
+     *
+     * @return true if registered, false if the maximum number of email jobs is active
+     */
+    private boolean acquireSender() {
+        int active = this.activeSenders.get();
+        while (active < MAX_SENDERS) {
+            if (this.activeSenders.compareAndSet(active, active + 1)) {
+                return true;
+            }
+            active = this.activeSenders.get();
+        }
+        return false;
+    }
+
+    /**
+     * A message waiting in the queue.
+     */
+    static final class QueuedMessage {
+
+        /** The email message. */
+        private final IcsMessage message;
+
+        /** The attachments to include. */
+        private final List<MimeBodyPart> attachments;
+
+        /** The mail preferences. */
+        private final MailPreferences mailPreferences;
+
+        /**
+         * Create a queued message.
+         *
+         * @param message the email message
+         * @param attachments the attachments to include
+         * @param mailPreferences the mail preferences
+         */
+        QueuedMessage(final IcsMessage message, final List<MimeBodyPart> attachments,
+                final MailPreferences mailPreferences) {
+            this.message = message;
+            this.attachments = attachments;
+            this.mailPreferences = mailPreferences;
+        }
+
+        /**
+         * Get the email message.
+         *
+         * @return the email message
+         */
+        IcsMessage getMessage() {
+            return this.message;
+        }
+
+        /**
+         * Get the attachments.
+         *
+         * @return the attachments to include
+         */
+        List<MimeBodyPart> getAttachments() {
+            return this.attachments;
+        }
+
+        /**
+         * Get the mail preferences.
+         *
+         * @return the mail preferences
+         */
+        MailPreferences getMailPreferences() {
+            return this.mailPreferences;
+        }
+    }
+
+}
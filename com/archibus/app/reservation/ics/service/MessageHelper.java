@@ -7,8 +7,6 @@ import javax.mail.internet.MimeBodyPart;
 
 import com.archibus.app.reservation.ics.domain.IcsMessage;
 import com.archibus.config.MailPreferences;
-import com.archibus.context.ContextStore;
-import com.archibus.jobmanager.JobManager;
 
 import freemarker.core.Environment;
 import freemarker.template.*;
@@ -25,7 +23,7 @@ public final class MessageHelper {
     }
 
     /**
-     * Sends the email message.
+     * Sends the email message. The message is queued and sent by an email job.
      *
      * @param attachments the attachments to include
      * @param emailMessage the email message
@@ -33,10 +31,7 @@ public final class MessageHelper {
      */
     public static void sendMessage(final List<MimeBodyPart> attachments,
             final IcsMessage emailMessage, final MailPreferences mailPreferences) {
-
-        final EmailJob emailJob = new EmailJob(emailMessage, attachments, mailPreferences);
-        final JobManager.ThreadSafe jobManager = ContextStore.get().getJobManager();
-        jobManager.startJob(emailJob);
+        MailDispatcher.getInstance().dispatch(emailMessage, attachments, mailPreferences);
     }
 
     /**
@@ -144,7 +144,8 @@ public class CancelReservationService extends AdminServiceContainer {
     }
 
     /**
-     * Cancel recurring room reservation.
+     * Cancel recurring room reservation. All occurrences are checked and cancelled together, using
+     * set-based updates.
      *
      * @param reservation the reservation
      * @param cancelledReservations the cancelled reservations
@@ -162,21 +163,18 @@ public class CancelReservationService extends AdminServiceContainer {
         final List<RoomReservation> reservations =
                 this.roomReservationDataSource.getByParentId(parentId, startDate, null, true);
 
-        for (final RoomReservation roomReservation : reservations) {
-            try {
-                this.roomReservationDataSource.canBeCancelledByCurrentUser(roomReservation);
-            } catch (final ReservationException exception) {
-                // this one can't be cancelled, so skip and report
-                failures.add(roomReservation);
-                continue;
-            }
-            this.cancelReservation(roomReservation, comments);
-            cancelledReservations.add(roomReservation);
-        }
+        // the ones that can't be cancelled are skipped and reported
+        final List<RoomReservation> cancellable =
+                this.roomReservationDataSource.filterCancellableByCurrentUser(reservations,
+                    failures);
+        this.roomReservationDataSource.cancelAll(cancellable, comments);
+        this.workRequestService.cancelWorkRequests(cancellable);
+        cancelledReservations.addAll(cancellable);
     }
 
     /**
-     * Cancel recurring resource reservation.
+     * Cancel recurring resource reservation. All occurrences are checked and cancelled together,
+     * using set-based updates.
      *
      * @param reservation the reservation
      * @param cancelledReservations the cancelled reservations
@@ -194,17 +192,13 @@ public class CancelReservationService extends AdminServiceContainer {
         final List<ResourceReservation> reservations =
                 this.resourceReservationDataSource.getByParentId(parentId, startDate, null, true);
 
-        for (final ResourceReservation resourceReservation : reservations) {
-            try {
-                this.resourceReservationDataSource.canBeCancelledByCurrentUser(resourceReservation);
-            } catch (final ReservationException exception) {
-                // this one can't be cancelled, so skip and report
-                failures.add(resourceReservation);
-                continue;
-            }
-            this.cancelReservation(resourceReservation, comments);
-            cancelledReservations.add(resourceReservation);
-        }
+        // the ones that can't be cancelled are skipped and reported
+        final List<ResourceReservation> cancellable =
+                this.resourceReservationDataSource.filterCancellableByCurrentUser(reservations,
+                    failures);
+        this.resourceReservationDataSource.cancelAll(cancellable, comments);
+        this.workRequestService.cancelWorkRequests(cancellable);
+        cancelledReservations.addAll(cancellable);
     }
 
     /**
@@ -0,0 +1,115 @@
+package com.archibus.app.reservation.service;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Bounded cache of expanded recurrence date lists, shared by all requests. Used by
+ * RecurrenceService to avoid parsing and expanding the same recurrence pattern repeatedly while
+ * saving or searching for a recurring reservation.
+ * <p>
+ * Date lists are copied when stored and when retrieved, so callers can modify the lists and dates
+ * they receive. All methods are thread-safe.
+ *
+ * @since 24.3
+ */
+final class RecurrenceDateCache {
+
+    /** Separator used in cache keys. */
+    private static final String KEY_SEPARATOR = "|";
+
+    /** Cache load factor. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** The cached date lists by key, in access order. */
+    private final Map<String, List<Date>> dateLists;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxEntries maximum number of date lists to keep, the least recently used date list is
+     *            removed when adding more
+     */
+    RecurrenceDateCache(final int maxEntries) {
+        this.dateLists = new LinkedHashMap<String, List<Date>>(maxEntries, LOAD_FACTOR, true) {
+
+            /** Generated serial version id. */
+            private static final long serialVersionUID = 3104632870235128614L;
+
+            @Override
+            protected boolean removeEldestEntry(final Entry<String, List<Date>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a copy of the cached date list for the given pattern.
+     *
+     * @param startDate the start date
+     * @param endDate the end date (can be null)
+     * @param recurrenceRule the recurrence rule
+     * @param maxOccurrences the maximum number of occurrences the list was cropped to
+     * @return copy of the date list, or null if it is not cached
+     */
+    List<Date> get(final Date startDate, final Date endDate, final String recurrenceRule,
+            final int maxOccurrences) {
+        final List<Date> dateList;
+        synchronized (this.dateLists) {
+            dateList =
+                    this.dateLists.get(createKey(startDate, endDate, recurrenceRule, maxOccurrences));
+        }
+        return dateList == null ? null : copy(dateList);
+    }
+
+    /**
+     * Store a copy of the date list for the given pattern.
+     *
+     * @param startDate the start date
+     * @param endDate the end date (can be null)
+     * @param recurrenceRule the recurrence rule
+     * @param maxOccurrences the maximum number of occurrences the list was cropped to
+     * @param dateList the date list to store
+     */
+    void put(final Date startDate, final Date endDate, final String recurrenceRule,
+            final int maxOccurrences, final List<Date> dateList) {
+        final List<Date> storedList = Collections.unmodifiableList(copy(dateList));
+        synchronized (this.dateLists) {
+            this.dateLists.put(createKey(startDate, endDate, recurrenceRule, maxOccurrences),
+                storedList);
+        }
+    }
+
+    /**
+     * Create the cache key. White space between the elements of the rule is ignored.
+     *
+     * @param startDate the start date
+     * @param endDate the end date (can be null)
+     * @param recurrenceRule the recurrence rule
+     * @param maxOccurrences the maximum number of occurrences
+     * @return the key
+     */
+    private static String createKey(final Date startDate, final Date endDate,
+            final String recurrenceRule, final int maxOccurrences) {
+        final String normalizedRule =
+                recurrenceRule == null ? "" : recurrenceRule.trim().replaceAll(">\\s+<", "><");
+        return startDate.getTime() + KEY_SEPARATOR
+                + (endDate == null ? "" : String.valueOf(endDate.getTime())) + KEY_SEPARATOR
+                + maxOccurrences + KEY_SEPARATOR + normalizedRule;
+    }
+
+    /**
+     * Copy a date list including its dates.
+     *
+     * @param dateList the date list
+     * @return the copy
+     */
+    private static List<Date> copy(final List<Date> dateList) {
+        final List<Date> copy = new ArrayList<Date>(dateList.size());
+        for (final Date date : dateList) {
+            copy.add((Date) date.clone());
+        }
+        return copy;
+    }
+
+}
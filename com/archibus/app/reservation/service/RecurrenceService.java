@@ -37,6 +37,13 @@ public class RecurrenceService extends AdminServiceContainer {
     /** Number of days in a week. */
     private static final int DAYS_IN_WEEK = 7;
 
+    /** Maximum number of expanded date lists to keep in the cache. */
+    private static final int MAX_CACHED_DATE_LISTS = 256;
+
+    /** Cache of expanded date lists, shared by all requests. */
+    private static final RecurrenceDateCache DATE_LIST_CACHE =
+            new RecurrenceDateCache(MAX_CACHED_DATE_LISTS);
+
     /** The room reservation data source. */
     private ConferenceCallReservationDataSource reservationDataSource;
 
@@ -201,7 +208,8 @@ public class RecurrenceService extends AdminServiceContainer {
     }
 
     /**
-     * Gets the date list.
+     * Gets the date list. Expanded date lists are cached, the returned list is a copy that can be
+     * modified.
      *
      * @param startDate the start date
      * @param endDate the end date
@@ -210,11 +218,23 @@ public class RecurrenceService extends AdminServiceContainer {
      */
     public static List<Date> getDateList(final Date startDate, final Date endDate,
             final String recurrenceRule) {
-        final RecurringScheduleService recurringScheduleService = newRecurringScheduleService();
-
-        final List<Date> dateList =
-                recurringScheduleService.getDatesList(startDate, endDate, recurrenceRule);
-        return cropDateList(dateList);
+        final int maxOccurrences = getMaxOccurrences();
+        List<Date> dateList = null;
+        if (startDate != null) {
+            dateList = DATE_LIST_CACHE.get(startDate, endDate, recurrenceRule, maxOccurrences);
+        }
+        if (dateList == null) {
+            final RecurringScheduleService recurringScheduleService =
+                    newRecurringScheduleService();
+            dateList = cropDateList(
+                recurringScheduleService.getDatesList(startDate, endDate, recurrenceRule),
+                maxOccurrences);
+            if (startDate != null) {
+                DATE_LIST_CACHE.put(startDate, endDate, recurrenceRule, maxOccurrences,
+                    dateList);
+            }
+        }
+        return dateList;
     }
 
     /**
@@ -224,7 +244,17 @@ public class RecurrenceService extends AdminServiceContainer {
      * @return the cropped list of dates
      */
     private static List<Date> cropDateList(final List<Date> dateList) {
-        final int maxOccurrences = getMaxOccurrences();
+        return cropDateList(dateList, getMaxOccurrences());
+    }
+
+    /**
+     * Crop the date list for the given maximum number of occurrences.
+     *
+     * @param dateList the list of dates
+     * @param maxOccurrences the maximum number of occurrences
+     * @return the cropped list of dates
+     */
+    private static List<Date> cropDateList(final List<Date> dateList, final int maxOccurrences) {
         List<Date> result;
         if (dateList.size() > maxOccurrences) {
             result = dateList.subList(0, maxOccurrences);
@@ -283,11 +313,8 @@ public class RecurrenceService extends AdminServiceContainer {
             final Date occurrenceDate = TimePeriod.clearTime(originalDates.get(occurrenceIndex));
             Date calculatedDate = TimePeriod.clearTime(calculatedDates.get(occurrenceIndex - 1));
             while (calculatedDate.after(occurrenceDate)) {
-                RecurrenceService.moveBackwardsOneInterval(recurrence);
-
                 calculatedDates =
-                        RecurrenceService.getDateList(recurrence.getStartDate(), null,
-                            recurrence.toString());
+                        RecurrenceService.moveBackwardsOneInterval(recurrence, calculatedDates);
                 calculatedDate = TimePeriod.clearTime(calculatedDates.get(occurrenceIndex - 1));
             }
 
@@ -312,6 +339,36 @@ public class RecurrenceService extends AdminServiceContainer {
         return calculatedDates;
     }
 
+    /**
+     * Move the recurrence pattern start date backwards by one interval of the recurrence pattern
+     * and get the date list of the moved pattern. Only the dates in the added interval are
+     * calculated, the other dates are taken from the current date list. If the pattern doesn't
+     * have a fixed number of occurrences, the complete date list is calculated again.
+     *
+     * @param recurrence the recurrence pattern to move
+     * @param dateList the date list of the recurrence pattern before moving, without end date
+     * @return the date list of the moved recurrence pattern, without end date
+     */
+    public static List<Date> moveBackwardsOneInterval(final Recurrence recurrence,
+            final List<Date> dateList) {
+        final Date previousStartDate = recurrence.getStartDate();
+        moveBackwardsOneInterval(recurrence);
+        final Integer numberOfOccurrences = recurrence.getNumberOfOccurrences();
+        if (numberOfOccurrences == null || numberOfOccurrences <= 0) {
+            return getDateList(recurrence.getStartDate(), null, recurrence.toString());
+        }
+
+        // the moved pattern has the same dates from the previous start date onwards
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(previousStartDate);
+        calendar.add(Calendar.DATE, -1);
+        final List<Date> movedDates = getDateList(recurrence.getStartDate(), calendar.getTime(),
+            recurrence.toString());
+        movedDates.addAll(dateList);
+        return cropDateList(movedDates,
+            Math.min(numberOfOccurrences, getMaxOccurrences()));
+    }
+
     /**
      * Move the recurrence pattern start date backwards by one interval of the recurrence pattern.
      *
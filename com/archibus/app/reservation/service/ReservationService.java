@@ -171,10 +171,10 @@ public class ReservationService extends AdminServiceContainer implements IReserv
             // Loop through the pattern to further restrict the list of available arrangements.
             final AbstractIntervalPattern pattern = (AbstractIntervalPattern) recurrence;
             final FindAvailableRoomsOccurrenceAction action =
-                    new FindAvailableRoomsOccurrenceAction(reservation, numberOfAttendees,
-                        fixedResourceStandards, allDayEvent, existingOccurrences, roomArrangements,
-                        this.roomArrangementDataSource);
+                    new FindAvailableRoomsOccurrenceAction(reservation, allDayEvent,
+                        existingOccurrences, roomArrangements, this.roomArrangementDataSource);
             pattern.loopThroughRepeats(action);
+            action.checkOccurrences();
 
             // total number of occurrences = first occurrence + number of visited occurrences
             roomArrangements = ReservationConflictsHelper.processAvailableRoomResults(
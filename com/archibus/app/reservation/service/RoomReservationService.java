@@ -4,9 +4,6 @@ import java.awt.*;
 import java.text.ParseException;
 import java.util.*;
 
-import com.archibus.datasource.DataSource;
-import com.archibus.datasource.DataSourceFactory;
-import com.archibus.datasource.restriction.Restrictions;
 import com.archibus.model.view.datasource.AbstractRestrictionDef;
 import org.json.JSONObject;
 
@@ -365,149 +362,35 @@ public class RoomReservationService extends RoomReservationWfrBase {
     }
 
     /**
-     * Calculate total cost of the reservation.
-     *
-     * The total cost per reservation is calculated and multiplied by the number of occurrences.
+     * Calculate the available attendee capacity of a shared room arrangement for a new
+     * reservation. For a recurring reservation the minimum over all occurrences is returned.
      *
      * LBNL / BER
      **/
 
     public int calculateAvailableCapacityStr(String pmBlId, String pmFlId, String pmRmId, String pmConfigId, String pmRmArrangeId, String pmDateStart, String pmDateEnd, String pmTimeStart, String pmTimeEnd, String recurXml) throws ParseException {
-        SimpleDateFormat displayFormat = new SimpleDateFormat("HH:mm:ss");
         SimpleDateFormat parseFormat = new SimpleDateFormat("hh:mm a");
-
         Date startTime = parseFormat.parse(pmTimeStart);
-        String fPmTimeStart = displayFormat.format(startTime);
-
         Date endTime = parseFormat.parse(pmTimeEnd);
-        String fPmTimeEnd = displayFormat.format(endTime);
-
-        String[] occurrenceList = parseRecurrenceXml(recurXml, pmDateStart, pmDateEnd);
-        boolean recurrence = occurrenceList.length>0;
-
-        DataSource dsc = DataSourceFactory.createDataSource();
-        dsc.addTable("rm_arrange");
-        dsc.addField("max_capacity");
-
-        String capacityRest = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +"' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId  + "'";
-
-        DataRecord mCapacityRec = dsc.getRecord(capacityRest);
-        int maxCapacity = mCapacityRec.getInt("rm_arrange.max_capacity");
-        // System.out.println(maxCapacity);
-        int sumAttendees = 0;
-
-        // System.out.println(pmDateStart);
-        // System.out.println("' AND  date_start <= to_date('" + pmDateEnd + "','MM/DD/YYYY')");
-        // System.out.println(fPmTimeEnd);
-        // System.out.println(" AND time_end > to_date('12-30-1899 "+ fPmTimeStart +"','MM-DD-YYYY HH24:MI:SS')");
-
-        String overlap = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +
-                "' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId +
-                "' AND  date_start <= to_date('" + pmDateStart + "','MM/DD/YYYY')"+ " AND date_end >= to_date('"+ pmDateStart +
-                "','MM/DD/YYYY')" + " AND  time_start < to_date('12-30-1899 "+ fPmTimeEnd +"','MM-DD-YYYY HH24:MI:SS')" +
-                " AND time_end > to_date('12-30-1899 "+ fPmTimeStart +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'";
-
-        DataSource ds = DataSourceFactory.createDataSource();
-        ds.addTable("reserve_rm");
-        ds.addField("bl_id");
-        ds.addField("fl_id");
-        ds.addField("rm_id");
-        ds.addField("config_id");
-        ds.addField("rm_arrange_type_id");
-        ds.addField("date_start");
-        ds.addField("date_end");
-        ds.addField("time_start");
-        ds.addField("time_end");
-        ds.addField("status");
-        ds.addField("attendees_in_room");
-
-        // System.out.println("ds created");
-        // System.out.println("restrictions created");
-
-        ds.addRestriction(Restrictions.sql(overlap));
-        List<DataRecord> concurrentRecs = ds.getRecords();
-
-        // System.out.println("restriction works");
-        // System.out.println(ds.getRestrictions());
-        // System.out.println(concurrentRecs);
-
-        String overlap2;
-
-        List<DataRecord> concurrentRes2;
-
-        int tempSum;
-
-        for (DataRecord d:concurrentRecs) {
-            tempSum = 0;
-            tempSum = d.getInt("reserve_rm.attendees_in_room");
-
-            System.out.println(d.toString());
-            System.out.println(d.getInt("reserve_rm.attendees_in_room"));
-
-            for(DataRecord y:concurrentRecs){
-                if(d.equals(y));
-                else{
-                    if(y.getDate("reserve_rm.time_start").compareTo(d.getDate("reserve_rm.time_end")) >= 0 || y.getDate("reserve_rm.time_end").compareTo(d.getDate("reserve_rm.time_start")) <= 0);
-                    else tempSum+=y.getInt("reserve_rm.attendees_in_room");
-                }
 
-            }
+        RoomCapacityCalculator calculator = new RoomCapacityCalculator(pmBlId, pmFlId, pmRmId,
+                pmConfigId, pmRmArrangeId, startTime, endTime);
 
-            if(sumAttendees<tempSum)sumAttendees=tempSum;
+        String[] occurrenceList = parseRecurrenceXml(recurXml, pmDateStart, pmDateEnd);
+        if (occurrenceList.length > 0) {
+            addOccurrences(calculator, occurrenceList, occurrenceList.length, null);
+        } else {
+            Date date = parseOccurrenceDate(pmDateStart);
+            calculator.addOccurrence(date, date, null);
         }
 
-        // System.out.println(sumAttendees);
-
-        int minSpace = Integer.MAX_VALUE;
-        if(recurrence){
-            for(String reccurDate : occurrenceList){
-                DataSource recdsc = DataSourceFactory.createDataSource();
-                recdsc.addTable("rm_arrange");
-                recdsc.addField("max_capacity");
-
-                String recCapacityRest = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +"' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId  + "'";
-
-                DataRecord recmCapacityRec = recdsc.getRecord(recCapacityRest);
-                int recMaxCapacity = recmCapacityRec.getInt("rm_arrange.max_capacity");
-                int recSumAttendees = 0;
-
-                String recoverlap = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +
-                        "' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId +
-                        "' AND  date_start <= to_date('" + reccurDate + "','MM/DD/YYYY')"+ " AND date_end >= to_date('"+ reccurDate +
-                        "','MM/DD/YYYY')" + " AND  time_start < to_date('12-30-1899 "+ fPmTimeEnd +"','MM-DD-YYYY HH24:MI:SS')" +
-                        " AND time_end > to_date('12-30-1899 "+ fPmTimeStart +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'";
-
-                DataSource recds = DataSourceFactory.createDataSource();
-                recds.addTable("reserve_rm");
-                recds.addField("bl_id");
-                recds.addField("fl_id");
-                recds.addField("rm_id");
-                recds.addField("config_id");
-                recds.addField("rm_arrange_type_id");
-                recds.addField("date_start");
-                recds.addField("date_end");
-                recds.addField("time_start");
-                recds.addField("time_end");
-                recds.addField("status");
-                recds.addField("attendees_in_room");
-
-                recds.addRestriction(Restrictions.sql(recoverlap));
-                List<DataRecord> recConcurrentRecs = recds.getRecords();
-
-                for (DataRecord d:recConcurrentRecs) {
-                    recSumAttendees+=d.getInt("reserve_rm.attendees_in_room");
-                }
-                if (recMaxCapacity-recSumAttendees<minSpace) minSpace = recMaxCapacity-recSumAttendees;
-            }
-        }
-        int availCap = recurrence ? minSpace : maxCapacity-sumAttendees;
+        int availCap = calculator.getMinimum(calculator.calculate());
         return availCap>0 ? availCap : 0;
     }
 
     /**
-     * Calculate total cost of the reservation.
-     *
-     * The total cost per reservation is calculated and multiplied by the number of occurrences.
+     * Calculate the available attendee capacity of a shared room arrangement for a new
+     * reservation. For a recurring reservation the minimum over all occurrences is returned.
      *
      * LBNL / BER
      **/
@@ -519,350 +402,124 @@ public class RoomReservationService extends RoomReservationWfrBase {
         roomReservation.addRoomAllocation(this.roomAllocationDataSource.convertRecordToObject(roomAllocation));
         RoomAllocation roomA = roomReservation.getRoomAllocations().get(0);
 
-        DataSource dsc = DataSourceFactory.createDataSource();
-        dsc.addTable("rm_arrange");
-
-        dsc.addField("max_capacity");
-
-        // System.out.println("look here right now"); System.out.println(reservation.toString());
-
-
-        String capacityRest = "bl_id = '" + roomA.getBlId() + "' AND fl_id = '" + roomA.getFlId() +"' AND rm_id = '" + roomA.getRmId() +"' AND config_id = '" + roomA.getConfigId() +"' AND rm_arrange_type_id = '" + roomA.getRoomArrangement().getArrangeTypeId()  + "'";
-
-        DataRecord mCapacityRec = dsc.getRecord(capacityRest);
-
-        int maxCapacity = mCapacityRec.getInt("rm_arrange.max_capacity");
-
-        // System.out.println(maxCapacity);
-
-        int sumAttendees = 0;
-
-        // System.out.println(roomA.getStartDate().toString());
-        // System.out.println("' AND  date_start >= to_date('" + roomA.getEndDate().toString() + "','MM-DD-YYYY')");
-        // System.out.println(roomA.getEndTime().toString());
-        // System.out.println(" AND time_end <= to_date('12-30-1899 "+ roomA.getStartTime().toString() +"','MM-DD-YYYY HH24:MI:SS')");
-
-        String overlap = "bl_id = '" + roomA.getBlId() + "' AND fl_id = '" + roomA.getFlId() +"' AND rm_id = '" + roomA.getRmId() +
-                "' AND config_id = '" + roomA.getConfigId() +"' AND rm_arrange_type_id = '" + roomA.getRoomArrangement().getArrangeTypeId() +
-                "' AND  date_start <= to_date('" + roomA.getEndDate().toString() + "','YYYY-MM-DD')"+ " AND date_end >= to_date('"+ roomA.getStartDate().toString() +
-                "','YYYY-MM-DD')" + " AND  time_start < to_date('12-30-1899 "+ roomA.getEndTime().toString() +"','MM-DD-YYYY HH24:MI:SS')" +
-                " AND time_end > to_date('12-30-1899 "+ roomA.getStartTime().toString() +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'";
-
-        DataSource ds = DataSourceFactory.createDataSource();
-        ds.addTable("reserve_rm");
-        ds.addField("bl_id");
-        ds.addField("fl_id");
-        ds.addField("rm_id");
-        ds.addField("config_id");
-        ds.addField("rm_arrange_type_id");
-        ds.addField("date_start");
-        ds.addField("date_end");
-        ds.addField("time_start");
-        ds.addField("time_end");
-        ds.addField("status");
-        ds.addField("attendees_in_room");
-
-        // System.out.println("ds created");
-        // System.out.println("restrictions created");
-
-        ds.addRestriction(Restrictions.sql(overlap));
-
-        List<DataRecord> concurrentRecs = ds.getRecords();
-
-        // System.out.println("restriction works");
-        // System.out.println(ds.getRestrictions());
-        // System.out.println(concurrentRecs);
-
-        String overlap2;
-
-        List<DataRecord> concurrentRes2;
-
-        int tempSum;
-
-        for (DataRecord d:concurrentRecs) {
-            tempSum = 0;
-            tempSum = d.getInt("reserve_rm.attendees_in_room");
-
-            System.out.println(d.toString());
-            System.out.println(d.getInt("reserve_rm.attendees_in_room"));
-
-            for(DataRecord y:concurrentRecs){
-                if(d.equals(y));
-                else{
-                    if(y.getDate("reserve_rm.time_start").compareTo(d.getDate("reserve_rm.time_end")) >= 0 || y.getDate("reserve_rm.time_end").compareTo(d.getDate("reserve_rm.time_start")) <= 0);
-                    else tempSum+=y.getInt("reserve_rm.attendees_in_room");
-                }
-
-            }
-
-            if(sumAttendees<tempSum)sumAttendees=tempSum;
-        }
-
-        // System.out.println(sumAttendees);
+        RoomCapacityCalculator calculator = createCapacityCalculator(roomA);
 
         //LBL added rec logic
-
-        String recurXml = reservation.getString("reserve.recurring_rule");
-        String isoDateStart = reservation.getDate("reserve.date_start").toString();
-        String isoDateEnd = reservation.getDate("reserve.date_end").toString();
-
-        String pmDateStart = "";
-        String pmDateEnd = "";
-
-        pmDateStart += isoDateStart.substring(isoDateStart.indexOf("-") + 1, isoDateStart.indexOf("-") + 3) + "/"
-                + isoDateStart.substring(isoDateStart.indexOf("-", isoDateStart.indexOf("-") + 1) + 1) + "/"
-                + isoDateStart.substring(0, isoDateStart.indexOf("-"));
-
-        pmDateEnd += isoDateEnd.substring(isoDateEnd.indexOf("-") + 1, isoDateEnd.indexOf("-") + 3) + "/"
-                + isoDateEnd.substring(isoDateEnd.indexOf("-", isoDateEnd.indexOf("-") + 1) + 1) + "/"
-                + isoDateEnd.substring(0, isoDateEnd.indexOf("-"));
-
-        boolean recurrence = false;
-        String[] occurrenceList = parseRecurrenceXml(recurXml, pmDateStart, pmDateEnd);
-        recurrence = occurrenceList.length>0;
-
-        String pmBlId = roomA.getBlId();
-        String pmFlId = roomA.getFlId();
-        String pmRmId = roomA.getRmId();
-        String pmConfigId = roomA.getConfigId();
-        String pmRmArrangeId = roomA.getRoomArrangement().getArrangeTypeId();
-        String fPmTimeStart = roomA.getStartTime().toString();
-        String fPmTimeEnd = roomA.getEndTime().toString();
-
-        int minSpace = Integer.MAX_VALUE;
-        if(recurrence){
-            for(String reccurDate : occurrenceList){
-                DataSource recdsc = DataSourceFactory.createDataSource();
-                recdsc.addTable("rm_arrange");
-                recdsc.addField("max_capacity");
-
-                String recCapacityRest = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +"' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId  + "'";
-
-                DataRecord recmCapacityRec = recdsc.getRecord(recCapacityRest);
-                int recMaxCapacity = recmCapacityRec.getInt("rm_arrange.max_capacity");
-                int recSumAttendees = 0;
-
-                String recoverlap = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +
-                        "' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId +
-                        "' AND  date_start <= to_date('" + reccurDate + "','MM/DD/YYYY')"+ " AND date_end >= to_date('"+ reccurDate +
-                        "','MM/DD/YYYY')" + " AND  time_start < to_date('12-30-1899 "+ fPmTimeEnd +"','MM-DD-YYYY HH24:MI:SS')" +
-                        " AND time_end > to_date('12-30-1899 "+ fPmTimeStart +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'";
-
-                DataSource recds = DataSourceFactory.createDataSource();
-                recds.addTable("reserve_rm");
-                recds.addField("bl_id");
-                recds.addField("fl_id");
-                recds.addField("rm_id");
-                recds.addField("config_id");
-                recds.addField("rm_arrange_type_id");
-                recds.addField("date_start");
-                recds.addField("date_end");
-                recds.addField("time_start");
-                recds.addField("time_end");
-                recds.addField("status");
-                recds.addField("attendees_in_room");
-
-                recds.addRestriction(Restrictions.sql(recoverlap));
-                List<DataRecord> recConcurrentRecs = recds.getRecords();
-
-                for (DataRecord d:recConcurrentRecs) {
-                    recSumAttendees+=d.getInt("reserve_rm.attendees_in_room");
-                }
-                if (recMaxCapacity-recSumAttendees<minSpace) minSpace = recMaxCapacity-recSumAttendees;
-            }
+        String[] occurrenceList = parseRecurrenceXml(reservation.getString("reserve.recurring_rule"),
+                formatOccurrenceDate(reservation.getDate("reserve.date_start")),
+                formatOccurrenceDate(reservation.getDate("reserve.date_end")));
+        if (occurrenceList.length > 0) {
+            addOccurrences(calculator, occurrenceList, occurrenceList.length, null);
+        } else {
+            calculator.addOccurrence(roomA.getStartDate(), roomA.getEndDate(), null);
         }
-        int availCap = recurrence ? minSpace : maxCapacity-sumAttendees;
-        return availCap;
 
-        //LBL added rec logic
-//        if((maxCapacity-sumAttendees)>0)return maxCapacity-sumAttendees;
-//        else return 0;
+        return calculator.getMinimum(calculator.calculate());
     }
+
     /**
-     * Calculate total cost of the reservation.
-     *
-     * The total cost per reservation is calculated and multiplied by the number of occurrences.
+     * Calculate the available attendee capacity of a shared room arrangement when editing a
+     * reservation, ignoring the reservation being edited. When editing a recurring reservation,
+     * the remaining occurrences are checked and the minimum is returned.
      *
      * LBNL / BER
      **/
     public int calculateAvailableCapacityEdit(final DataRecord reservation, final DataRecord roomAllocation, String res_id) {
-        //  int res_id = Integer.parseInt(reservation.getString("reserve.res_id"));
         int parent_id = reservation.getInt("reserve.res_parent");
+        int reservationId = Integer.parseInt(res_id);
 
-        String recurXml = reservation.getString("reserve.recurring_rule");
-        String isoDateStart = reservation.getDate("reserve.date_start").toString();
-        String isoDateEnd = reservation.getDate("reserve.date_end").toString();
-
-        String pmDateStart = "";
-        String pmDateEnd = "";
-
-        pmDateStart += isoDateStart.substring(isoDateStart.indexOf("-") + 1, isoDateStart.indexOf("-") + 3) + "/"
-                + isoDateStart.substring(isoDateStart.indexOf("-", isoDateStart.indexOf("-") + 1) + 1) + "/"
-                + isoDateStart.substring(0, isoDateStart.indexOf("-"));
-
-        pmDateEnd += isoDateEnd.substring(isoDateEnd.indexOf("-") + 1, isoDateEnd.indexOf("-") + 3) + "/"
-                + isoDateEnd.substring(isoDateEnd.indexOf("-", isoDateEnd.indexOf("-") + 1) + 1) + "/"
-                + isoDateEnd.substring(0, isoDateEnd.indexOf("-"));
-
-        boolean recurrence = false;
-        String[] initOccurrenceList;
-        String[] occurrenceList = new String[0];
-        initOccurrenceList = parseRecurrenceXml(recurXml, pmDateStart, pmDateEnd);
+        String[] initOccurrenceList = parseRecurrenceXml(reservation.getString("reserve.recurring_rule"),
+                formatOccurrenceDate(reservation.getDate("reserve.date_start")),
+                formatOccurrenceDate(reservation.getDate("reserve.date_end")));
+        int occurrenceCount = 0;
         if (initOccurrenceList.length>0) {
-            occurrenceList = new String[initOccurrenceList.length - (Integer.parseInt(res_id) - parent_id)];
-            for (int i = 0; i < occurrenceList.length; i++) occurrenceList[i] = initOccurrenceList[i];
-            recurrence = occurrenceList.length>0;
+            occurrenceCount = initOccurrenceList.length - (reservationId - parent_id);
         }
 
         final RoomReservation roomReservation =
                 this.reservationDataSource.convertRecordToObject(reservation);
-//        // add the room allocation to the reservation
+        // add the room allocation to the reservation
         roomReservation.addRoomAllocation(this.roomAllocationDataSource.convertRecordToObject(roomAllocation));
         RoomAllocation roomA = roomReservation.getRoomAllocations().get(0);
-        String pmBlId = roomA.getBlId();
-        String pmFlId = roomA.getFlId();
-        String pmRmId = roomA.getRmId();
-        String pmConfigId = roomA.getConfigId();
-        String pmRmArrangeId = roomA.getRoomArrangement().getArrangeTypeId();
-        String fPmTimeStart = roomA.getStartTime().toString();
-        String fPmTimeEnd = roomA.getEndTime().toString();
-
-        DataSource dsc = DataSourceFactory.createDataSource();
-
-        dsc.addTable("rm_arrange");
-
-        dsc.addField("max_capacity");
-
-        System.out.println("look here right now");
-
-        System.out.println(reservation.toString());
-
-        String capacityRest = "bl_id = '" + roomA.getBlId() + "' AND fl_id = '" + roomA.getFlId() +"' AND rm_id = '" + roomA.getRmId() +"' AND config_id = '" + roomA.getConfigId() +"' AND rm_arrange_type_id = '" + roomA.getRoomArrangement().getArrangeTypeId()  + "'";
-
-        DataRecord mCapacityRec = dsc.getRecord(capacityRest);
-
-        int maxCapacity = mCapacityRec.getInt("rm_arrange.max_capacity");
-
-        System.out.println(maxCapacity);
-
-        int sumAttendees = 0;
-
-        System.out.println(roomA.getStartDate().toString());
-        System.out.println("' AND  date_start >= to_date('" + roomA.getEndDate().toString() + "','MM-DD-YYYY')");
-
-        System.out.println(roomA.getEndTime().toString());
-        System.out.println(" AND time_end <= to_date('12-30-1899 "+ roomA.getStartTime().toString() +"','MM-DD-YYYY HH24:MI:SS')");
-
-        String overlap = "bl_id = '" + roomA.getBlId() + "' AND fl_id = '" + roomA.getFlId() +"' AND rm_id = '" + roomA.getRmId() +
-                "' AND config_id = '" + roomA.getConfigId() +"' AND rm_arrange_type_id = '" + roomA.getRoomArrangement().getArrangeTypeId() +
-                "' AND  date_start <= to_date('" + roomA.getEndDate().toString() + "','YYYY-MM-DD')"+ " AND date_end >= to_date('"+ roomA.getStartDate().toString() +
-                "','YYYY-MM-DD')" + " AND  time_start < to_date('12-30-1899 "+ roomA.getEndTime().toString() +"','MM-DD-YYYY HH24:MI:SS')" +
-                " AND time_end > to_date('12-30-1899 "+ roomA.getStartTime().toString() +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'"
-                + "AND res_id != '" + res_id +"'";
-
-        DataSource ds = DataSourceFactory.createDataSource();
-        ds.addTable("reserve_rm");
-        ds.addField("bl_id");
-        ds.addField("fl_id");
-        ds.addField("rm_id");
-        ds.addField("config_id");
-        ds.addField("rm_arrange_type_id");
-        ds.addField("date_start");
-        ds.addField("date_end");
-        ds.addField("time_start");
-        ds.addField("time_end");
-        ds.addField("status");
-        ds.addField("attendees_in_room");
 
-        System.out.println("ds created");
-
-        System.out.println("restrictions created");
-
-        ds.addRestriction(Restrictions.sql(overlap));
-
-        List<DataRecord> concurrentRecs = ds.getRecords();
-
-        System.out.println("restriction works");
-
-        System.out.println(ds.getRestrictions());
-
-        System.out.println(concurrentRecs);
-
-        String overlap2;
-
-        List<DataRecord> concurrentRes2;
-
-        int tempSum;
-
-        for (DataRecord d:concurrentRecs) {
-            tempSum = 0;
-            tempSum = d.getInt("reserve_rm.attendees_in_room");
+        RoomCapacityCalculator calculator = createCapacityCalculator(roomA);
+        if (occurrenceCount > 0) {
+            // the edited occurrence and the ones following it have consecutive reservation ids
+            addOccurrences(calculator, initOccurrenceList, occurrenceCount, reservationId);
+        } else {
+            calculator.addOccurrence(roomA.getStartDate(), roomA.getEndDate(), reservationId);
+        }
 
-            System.out.println(d.toString());
-            System.out.println(d.getInt("reserve_rm.attendees_in_room"));
+        int availCap = calculator.getMinimum(calculator.calculate());
+        return availCap>0 ? availCap : 0;
+    }
 
-            for(DataRecord y:concurrentRecs){
-                if(d.equals(y));
-                else{
-                    if(y.getDate("reserve_rm.time_start").compareTo(d.getDate("reserve_rm.time_end")) >= 0 || y.getDate("reserve_rm.time_end").compareTo(d.getDate("reserve_rm.time_start")) <= 0);
-                    else tempSum+=y.getInt("reserve_rm.attendees_in_room");
-                }
+    /**
+     * Create a capacity calculator for the arrangement and time window of a room allocation.
+     *
+     * LBNL / BER
+     *
+     * @param roomAllocation the room allocation
+     * @return the capacity calculator
+     */
+    private static RoomCapacityCalculator createCapacityCalculator(
+            final RoomAllocation roomAllocation) {
+        return new RoomCapacityCalculator(roomAllocation.getBlId(), roomAllocation.getFlId(),
+            roomAllocation.getRmId(), roomAllocation.getConfigId(),
+            roomAllocation.getRoomArrangement().getArrangeTypeId(), roomAllocation.getStartTime(),
+            roomAllocation.getEndTime());
+    }
 
+    /**
+     * Add the first occurrence dates returned by parseRecurrenceXml to the capacity calculator.
+     *
+     * LBNL / BER
+     *
+     * @param calculator the capacity calculator
+     * @param occurrenceList the occurrence dates as MM/DD/YYYY
+     * @param occurrenceCount the number of occurrence dates to add
+     * @param firstReservationId reservation id to ignore for the first occurrence, incremented for
+     *            each following occurrence (null to ignore none)
+     */
+    private static void addOccurrences(final RoomCapacityCalculator calculator,
+            final String[] occurrenceList, final int occurrenceCount,
+            final Integer firstReservationId) {
+        for (int index = 0; index < occurrenceCount; ++index) {
+            if (occurrenceList[index] != null) {
+                final Date date = parseOccurrenceDate(occurrenceList[index]);
+                calculator.addOccurrence(date, date,
+                    firstReservationId == null ? null : firstReservationId + index);
             }
-
-            if(sumAttendees<tempSum)sumAttendees=tempSum;
         }
+    }
 
-        System.out.println(sumAttendees);
-        int minSpace = Integer.MAX_VALUE;
-        if(recurrence){
-            int resCounter = Integer.parseInt(res_id);
-            for(String reccurDate : occurrenceList){
-                if(resCounter > parent_id + initOccurrenceList.length) break;
-                DataSource recdsc = DataSourceFactory.createDataSource();
-                recdsc.addTable("rm_arrange");
-                recdsc.addField("max_capacity");
-
-                String recCapacityRest = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +"' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId  + "'";
-
-                DataRecord recmCapacityRec = recdsc.getRecord(recCapacityRest);
-                int recMaxCapacity = recmCapacityRec.getInt("rm_arrange.max_capacity");
-                int recSumAttendees = 0;
-
-                String recoverlap = "bl_id = '" + pmBlId + "' AND fl_id = '" + pmFlId +"' AND rm_id = '" + pmRmId +
-                        "' AND config_id = '" + pmConfigId +"' AND rm_arrange_type_id = '" + pmRmArrangeId +
-                        "' AND  date_start <= to_date('" + reccurDate + "','MM/DD/YYYY')"+ " AND date_end >= to_date('"+ reccurDate +
-                        "','MM/DD/YYYY')" + " AND  time_start < to_date('12-30-1899 "+ fPmTimeEnd +"','MM-DD-YYYY HH24:MI:SS')" +
-                        " AND time_end > to_date('12-30-1899 "+ fPmTimeStart +"','MM-DD-YYYY HH24:MI:SS')" +  " AND status='Confirmed'"
-                        + "AND res_id != '" + resCounter++ +"'";
-
-                DataSource recds = DataSourceFactory.createDataSource();
-                recds.addTable("reserve_rm");
-                recds.addField("bl_id");
-                recds.addField("fl_id");
-                recds.addField("rm_id");
-                recds.addField("config_id");
-                recds.addField("rm_arrange_type_id");
-                recds.addField("date_start");
-                recds.addField("date_end");
-                recds.addField("time_start");
-                recds.addField("time_end");
-                recds.addField("status");
-                recds.addField("attendees_in_room");
-
-                recds.addRestriction(Restrictions.sql(recoverlap));
-                List<DataRecord> recConcurrentRecs = recds.getRecords();
-
-                for (DataRecord d:recConcurrentRecs) {
-                    recSumAttendees+=d.getInt("reserve_rm.attendees_in_room");
-                }
-                if (recMaxCapacity-recSumAttendees<minSpace) minSpace = recMaxCapacity-recSumAttendees;
-            }
-        }
-        int availCap = recurrence ? minSpace : maxCapacity-sumAttendees;
-        return availCap>0 ? availCap : 0;
-//        if((maxCapacity-sumAttendees)>0)return maxCapacity-sumAttendees;
-//        else return 0;
+    /**
+     * Parse an occurrence date in the MM/DD/YYYY format used by parseRecurrenceXml.
+     *
+     * LBNL / BER
+     *
+     * @param occurrenceDate the occurrence date
+     * @return the date
+     */
+    private static Date parseOccurrenceDate(final String occurrenceDate) {
+        final String[] values = occurrenceDate.split("/");
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(Integer.parseInt(values[2]), Integer.parseInt(values[0]) - 1,
+            Integer.parseInt(values[1]));
+        return calendar.getTime();
+    }
+
+    /**
+     * Format a date in the MM/DD/YYYY format used by parseRecurrenceXml.
+     *
+     * LBNL / BER
+     *
+     * @param date the date
+     * @return the formatted date
+     */
+    private static String formatOccurrenceDate(final Date date) {
+        return new SimpleDateFormat("MM/dd/yyyy").format(date);
     }
 
     /**
@@ -354,19 +354,18 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
      */
     @Override
     public void setLocationString(final List<RoomArrangement> roomArrangements) {
-        String buildingId = null;
-        String buildingName = null;
-        String siteName = null;
-
+        final LocationMetadataCache locationCache = LocationMetadataCache.getInstance();
+        // load the names of all buildings and rooms at once
+        locationCache.prefetch(roomArrangements);
+        // site names are not cached when VPA is enabled, so look them up once per building
+        final Map<String, String> siteNames = new HashMap<String, String>();
         for (final RoomArrangement roomArrangement : roomArrangements) {
-            // if the building id is different from the previous room arrangement, get the new names
-            if (buildingId == null || !buildingId.equals(roomArrangement.getBlId())) {
-                buildingId = roomArrangement.getBlId();
-                final Building building = this.getBuildingDetails(buildingId);
-                buildingName = getBuildingName(buildingId, building);
-                siteName = getSiteName(building);
+            final String buildingId = roomArrangement.getBlId();
+            if (!siteNames.containsKey(buildingId)) {
+                siteNames.put(buildingId, locationCache.getSiteName(buildingId));
             }
-            roomArrangement.setLocation(getLocationString(siteName, buildingName, roomArrangement));
+            roomArrangement.setLocation(getLocationString(siteNames.get(buildingId),
+                locationCache.getBuildingName(buildingId), roomArrangement));
         }
     }
 
@@ -383,15 +382,8 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
             location = ReservationsContextHelper.localizeMessage(REFERENCED_BY_PLUGIN,
                     ContextStore.get().getUser().getLocale(), MSG_CONFLICT_LOCATION);
         } else if (reservation.getConferenceId() == null) {
-            final RoomArrangement roomArrangement =
-                    reservation.getRoomAllocations().get(0).getRoomArrangement();
-            final Building building = this.getBuildingDetails(roomArrangement.getBlId());
-
-            final String buildingName = getBuildingName(roomArrangement.getBlId(), building);
-            final String siteName = getSiteName(building);
-
-            location = getLocationString(siteName, buildingName, roomArrangement);
-
+            location = getLocationString(
+                reservation.getRoomAllocations().get(0).getRoomArrangement());
         } else {
             location = ReservationsContextHelper.localizeMessage(REFERENCED_BY_PLUGIN,
                     ContextStore.get().getUser().getLocale(), MSG_CONF_CALL_MEETING_LOCATION);
@@ -404,12 +396,9 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
      */
     @Override
     public String getLocationString(final RoomArrangement roomArrangement) {
-        final Building building = this.getBuildingDetails(roomArrangement.getBlId());
-
-        final String buildingName = getBuildingName(roomArrangement.getBlId(), building);
-        final String siteName = getSiteName(building);
-
-        return getLocationString(siteName, buildingName, roomArrangement);
+        final LocationMetadataCache locationCache = LocationMetadataCache.getInstance();
+        return getLocationString(locationCache.getSiteName(roomArrangement.getBlId()),
+            locationCache.getBuildingName(roomArrangement.getBlId()), roomArrangement);
     }
 
     /**
@@ -421,23 +410,17 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
         if (!reservation.getRoomAllocations().isEmpty()) {
             final RoomArrangement roomArrangement =
                     reservation.getRoomAllocations().get(0).getRoomArrangement();
-            final Building building = this.getBuildingDetails(roomArrangement.getBlId());
-
-            final String buildingName = getBuildingName(roomArrangement.getBlId(), building);
-            final String siteName = getSiteName(building);
+            final LocationMetadataCache locationCache = LocationMetadataCache.getInstance();
 
-            model.put("siteName", siteName);
-            model.put("buildingName", buildingName);
+            model.put("siteName", locationCache.getSiteName(roomArrangement.getBlId()));
+            model.put("buildingName", locationCache.getBuildingName(roomArrangement.getBlId()));
             model.put("floorId", roomArrangement.getFlId());
             model.put("roomId", roomArrangement.getRmId());
             model.put("configId", roomArrangement.getConfigId());
             model.put("arrangeTypeId", roomArrangement.getArrangeTypeId());
 
-            final Room room = this.getRoomDetails(roomArrangement.getBlId(),
-                roomArrangement.getFlId(), roomArrangement.getRmId());
-            if (room != null) {
-                model.put("roomName", room.getName());
-            }
+            model.put("roomName", locationCache.getRoomName(roomArrangement.getBlId(),
+                roomArrangement.getFlId(), roomArrangement.getRmId()));
 
             // build the information URL
             final StringBuffer infoUrl = new StringBuffer(ReservationsContextHelper.getWebCentralUrl());
@@ -547,11 +530,11 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
 
         // room name
         if (StringUtil.isNullOrEmpty(roomArrangement.getName())) {
-            final Room room = this.getRoomDetails(roomArrangement.getBlId(),
-                roomArrangement.getFlId(), roomArrangement.getRmId());
-            if (room != null && StringUtil.notNullOrEmpty(room.getName())) {
+            final String roomName = LocationMetadataCache.getInstance().getRoomName(
+                roomArrangement.getBlId(), roomArrangement.getFlId(), roomArrangement.getRmId());
+            if (StringUtil.notNullOrEmpty(roomName)) {
                 location.append(DASH);
-                location.append(room.getName());
+                location.append(roomName);
             }
         } else {
             // do not query for the room name if it's already in the roomArrangement
@@ -568,41 +551,4 @@ public class SpaceService extends AdminServiceContainer implements ISpaceService
         return location.toString();
     }
 
-    /**
-     * Get the site name or ID if the name is not set.
-     *
-     * @param building the building for which to retrieve the site name
-     * @return the site name or id, or null if the building has no site defined
-     */
-    private String getSiteName(final Building building) {
-        String siteName = null;
-        if (building != null && StringUtil.notNullOrEmpty(building.getSiteId())) {
-            this.siteDataSource.setApplyVpaRestrictions(DataSourceUtils.isVpaEnabled());
-            final Site site = this.siteDataSource.get(building.getSiteId());
-            if (site == null || StringUtil.isNullOrEmpty(site.getName())) {
-                siteName = building.getSiteId();
-            } else {
-                siteName = site.getName();
-            }
-        }
-        return siteName;
-    }
-
-    /**
-     * Get the building name or ID if the name is not set.
-     *
-     * @param buildingId the building ID to return if the name is not set
-     * @param building the building details
-     * @return the building name or ID
-     */
-    private String getBuildingName(final String buildingId, final Building building) {
-        String buildingName;
-        if (building == null || StringUtil.isNullOrEmpty(building.getName())) {
-            buildingName = buildingId;
-        } else {
-            buildingName = building.getName();
-        }
-        return buildingName;
-    }
-
 }
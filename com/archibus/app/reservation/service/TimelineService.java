@@ -2,6 +2,7 @@ package com.archibus.app.reservation.service;
 
 import java.sql.Time;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
 import org.json.*;
@@ -43,12 +44,6 @@ public class TimelineService extends AdminServiceContainer {
     /** Records number. */
     private static final int RECORD_LIMIT = 100;
 
-    /** Location from where is called. */
-    private String calledFromLocation = "";
-
-    /** Global variable used to count number of resources */
-    private int resourceCounter = 0;
-
     /** The logger. */
     private final Logger logger = Logger.getLogger(this.getClass());
 
@@ -67,8 +62,8 @@ public class TimelineService extends AdminServiceContainer {
     /** The room configuration data source. */
     private RoomConfigurationDataSource roomConfigurationDataSource;
 
-    /** Actual maximum number of rooms to load per building. */
-    private int maxRoomsPerBuilding = RoomTimelineServiceHelper.DEFAULT_MAX_ROOMS;
+    /** Executor for searching the buildings concurrently, null to search one by one. */
+    private JobExecutor searchExecutor;
 
     /**
      * Load the room arrangement timeline.
@@ -99,13 +94,12 @@ public class TimelineService extends AdminServiceContainer {
         timeline.put(EVENTS, new JSONArray());
         timeline.put(RESOURCES, new JSONArray());
 
-        final Integer numberOfAttendees = extractNumberAttendees(searchFilter);
-        final boolean externalsMustBeAllowed = extractExternalAllowed(searchFilter);
-        final String timeZoneId = this.extractTimeZoneId(searchFilter);
         final String recurrenceRule = searchFilter.optString("recurrence_rule", null);
-        this.maxRoomsPerBuilding = RoomTimelineServiceHelper.getMaxRoomsPerBuilding();
-        this.calledFromLocation = searchFilter.optString(CALLED_FROM_KEY, "");
-        this.resourceCounter = 0;
+        final String timeZoneId = this.extractTimeZoneId(searchFilter);
+        final RoomSearchParameters parameters = new RoomSearchParameters(
+            extractNumberAttendees(searchFilter), extractExternalAllowed(searchFilter),
+            fixedResourceStandards, RoomTimelineServiceHelper.getMaxRoomsPerBuilding(),
+            CALLED_FROM_RESERVATION_CALENDAR.equals(searchFilter.optString(CALLED_FROM_KEY, "")));
 
         final List<String> buildingIds =
                 RoomTimelineServiceHelper.getBuildingsToSearch(searchFilter);
@@ -125,6 +119,8 @@ public class TimelineService extends AdminServiceContainer {
         // remember existing occurrences so we don not have to find them again for each building
         List<RoomReservation> existingOccurrences = null;
 
+        final List<BuildingTimeline> buildingTimelines =
+                new ArrayList<BuildingTimeline>(buildingIds.size());
         for (final String buildingId : buildingIds) {
             searchFilter.put(com.archibus.app.reservation.dao.datasource.Constants.BL_ID_FIELD_NAME,
                 buildingId);
@@ -143,18 +139,23 @@ public class TimelineService extends AdminServiceContainer {
                 if (existingOccurrences == null) {
                     existingOccurrences = getExistingOccurrences(roomReservation, timeZoneId);
                 }
-                loadRoomArrangementTimeLineEditRecurrence(timeline, roomReservation,
-                    numberOfAttendees, externalsMustBeAllowed, fixedResourceStandards, reservedRoom,
-                    existingOccurrences);
+                buildingTimelines.add(new BuildingTimeline(roomReservation, reservedRoom,
+                    existingOccurrences, parameters));
             } else {
                 if (StringUtil.notNullOrEmpty(recurrenceRule)) {
                     roomReservation.setRecurrence(
                         RecurrenceParser.parseRecurrence(startDate, endDate, recurrenceRule));
                 }
-                loadRoomArrangementTimeline(timeline, roomReservation, numberOfAttendees,
-                    externalsMustBeAllowed, fixedResourceStandards, reservedRoom);
+                buildingTimelines
+                    .add(new BuildingTimeline(roomReservation, reservedRoom, null, parameters));
             }
         }
+
+        // search the buildings concurrently, then add the results in the order of the buildings
+        for (final BuildingTimeline buildingTimeline : new ConcurrentSearchRunner(
+            this.searchExecutor).runAll(buildingTimelines)) {
+            buildingTimeline.addTo(timeline);
+        }
         return timeline;
     }
 
@@ -387,6 +388,16 @@ public class TimelineService extends AdminServiceContainer {
         this.attendeeTimelineServiceHelper = attendeeTimelineServiceHelper;
     }
 
+    /**
+     * Sets the executor for searching the buildings of a conference call concurrently. Each
+     * building is searched in a job with its own context.
+     *
+     * @param searchExecutor the executor, null to search the buildings one by one
+     */
+    public void setSearchExecutor(final JobExecutor searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     /**
      * Sets the room configuration data source.
      *
@@ -398,92 +409,30 @@ public class TimelineService extends AdminServiceContainer {
     }
 
     /**
-     * Load room arrangement timeline.
+     * Select the room arrangements to display on the time line: at most the maximum number of
+     * rooms per building, including the reserved room if it is available.
      *
-     * @param timeline time line JSON object
-     * @param reservation the room reservation
-     * @param numberOfAttendees the number of attendees
-     * @param externalsMustBeAllowed the externals must be allowed
-     * @param fixedResourceStandards the fixed resource standards
+     * @param roomArrangements the available room arrangements
      * @param reservedRoom the room already reserved, to include in the results if possible
+     * @param maxRoomsPerBuilding the maximum number of rooms to display
+     * @return the room arrangements to display
      */
-    private void loadRoomArrangementTimeline(final JSONObject timeline,
-            final RoomReservation reservation, final Integer numberOfAttendees,
-            final boolean externalsMustBeAllowed, final List<String> fixedResourceStandards,
-            final RoomArrangement reservedRoom) {
-
-        // Copy the start date because it is overwritten while looking for available rooms.
-        final Date startDate = reservation.getStartDate();
-        List<RoomArrangement> roomArrangements = null;
-
-        final Recurrence recurrence = reservation.getRecurrence();
-        if (recurrence == null) {
-            // search for available room arrangements
-            roomArrangements = this.reservationService.findAvailableRooms(reservation,
-                numberOfAttendees, externalsMustBeAllowed, fixedResourceStandards, false,
-                reservation.getRequestedTimeZone());
-        } else {
-            // search for available room arrangements for recurrence
-            roomArrangements = this.reservationService.findAvailableRoomsRecurrence(reservation,
-                numberOfAttendees, externalsMustBeAllowed, fixedResourceStandards, false,
-                recurrence, reservation.getRequestedTimeZone());
-        }
-
-        // build a map of room configurations to determine excluded configurations later on
-        final Map<RoomConfiguration, RoomConfiguration> configurations =
-                this.roomConfigurationDataSource.getRoomConfigurations(roomArrangements);
-        final String localTimeZoneId =
-                TimeZoneConverter.getTimeZoneIdForBuilding(reservation.determineBuildingId());
-
-        final JSONArray resources = timeline.getJSONArray(RESOURCES);
-        int rowIndex = resources.length();
+    private List<RoomArrangement> selectDisplayedRooms(
+            final List<RoomArrangement> roomArrangements, final RoomArrangement reservedRoom,
+            final int maxRoomsPerBuilding) {
+        final List<RoomArrangement> displayedRooms = new ArrayList<RoomArrangement>();
         boolean reservedRoomFound = reservedRoom == null;
-        if (CALLED_FROM_RESERVATION_CALENDAR.equals(this.calledFromLocation)) {
-            this.maxRoomsPerBuilding = roomArrangements.size();
-        }
-
-        // loop through available rooms to find allocations for this day
-        for (int i = 0; i < roomArrangements.size() && i < this.maxRoomsPerBuilding; ++i) {
-            final RoomArrangement roomArrangement;
-            if (i == this.maxRoomsPerBuilding - 1 && !reservedRoomFound) {
-                roomArrangement = this.findReservedRoom(reservedRoom,
-                    roomArrangements.subList(i, roomArrangements.size()));
+        for (int i = 0; i < roomArrangements.size() && i < maxRoomsPerBuilding; ++i) {
+            if (i == maxRoomsPerBuilding - 1 && !reservedRoomFound) {
+                displayedRooms.add(this.findReservedRoom(reservedRoom,
+                    roomArrangements.subList(i, roomArrangements.size())));
             } else {
-                roomArrangement = roomArrangements.get(i);
+                final RoomArrangement roomArrangement = roomArrangements.get(i);
                 reservedRoomFound = reservedRoomFound || roomArrangement.equals(reservedRoom);
+                displayedRooms.add(roomArrangement);
             }
-
-            final JSONObject resource = TimelineHelper.createRoomArrangementResource(timeline,
-                roomArrangement,
-                configurations.get(RoomConfiguration.getConfiguration(roomArrangement)), rowIndex);
-            resources.put(resource);
-
-            // create for the first occurrence
-            this.roomTimelineServiceHelper.createRoomAllocationEvents(startDate,
-                reservation.getReservationIdsInConference(), timeline, rowIndex, roomArrangement,
-                localTimeZoneId, reservation.getRequestedTimeZone());
-
-            // make a final variable
-            final int currentIndex = rowIndex;
-
-            if (recurrence instanceof AbstractIntervalPattern) {
-                final AbstractIntervalPattern pattern = (AbstractIntervalPattern) recurrence;
-                pattern.loopThroughRepeats(new AbstractIntervalPattern.OccurrenceAction() {
-                    // handle all occurrence events
-                    @Override
-                    public boolean handleOccurrence(final Date date) throws ReservationException {
-                        // this is a new recurrent reservation, so no reservation id
-                        TimelineService.this.roomTimelineServiceHelper.createRoomAllocationEvents(
-                            date, null, timeline, currentIndex, roomArrangement, localTimeZoneId,
-                            reservation.getRequestedTimeZone());
-
-                        return true;
-                    }
-                });
-            }
-            // next row
-            rowIndex++;
         }
+        return displayedRooms;
     }
 
     /**
@@ -510,65 +459,6 @@ public class TimelineService extends AdminServiceContainer {
         return result;
     }
 
-    /**
-     * Load the room arrangement timeline when editing a recurrent reservation.
-     *
-     * @param timeline the JSON time line object
-     * @param reservation the room reservation
-     * @param numberOfAttendees the number of attendees
-     * @param externalsMustBeAllowed the externals must be allowed
-     * @param fixedResourceStandards the fixed resource standards
-     * @param reservedRoom the room already reserved, to include in the results if possible
-     * @param existingOccurrences the existing occurrences for the recurring reservation
-     */
-    private void loadRoomArrangementTimeLineEditRecurrence(final JSONObject timeline,
-            final RoomReservation reservation, final Integer numberOfAttendees,
-            final boolean externalsMustBeAllowed, final List<String> fixedResourceStandards,
-            final RoomArrangement reservedRoom, final List<RoomReservation> existingOccurrences) {
-
-        this.assertRoomReservationFound(reservation);
-
-        final List<RoomArrangement> roomArrangements = this.reservationService.findAvailableRooms(
-            reservation, existingOccurrences, numberOfAttendees, externalsMustBeAllowed,
-            fixedResourceStandards, false, reservation.getRequestedTimeZone());
-        // build a map of room configurations to determine excluded configurations later on
-        final Map<RoomConfiguration, RoomConfiguration> configurations =
-                this.roomConfigurationDataSource.getRoomConfigurations(roomArrangements);
-        final String localTimeZoneId =
-                TimeZoneConverter.getTimeZoneIdForBuilding(reservation.determineBuildingId());
-
-        final JSONArray resources = timeline.getJSONArray(RESOURCES);
-        int rowIndex = resources.length();
-        boolean reservedRoomFound = reservedRoom == null;
-
-        for (int i = 0; i < roomArrangements.size() && i < this.maxRoomsPerBuilding; ++i) {
-            final RoomArrangement roomArrangement;
-            if (i == this.maxRoomsPerBuilding - 1 && !reservedRoomFound) {
-                roomArrangement = this.findReservedRoom(reservedRoom,
-                    roomArrangements.subList(i, roomArrangements.size()));
-            } else {
-                roomArrangement = roomArrangements.get(i);
-                reservedRoomFound = reservedRoomFound || roomArrangement.equals(reservedRoom);
-            }
-
-            final JSONObject resource = TimelineHelper.createRoomArrangementResource(timeline,
-                roomArrangement,
-                configurations.get(RoomConfiguration.getConfiguration(roomArrangement)), rowIndex);
-            resources.put(resource);
-
-            for (final RoomReservation existingReservation : existingOccurrences) {
-                // for existing reservations, add the reservation id to ignore
-                this.roomTimelineServiceHelper.createRoomAllocationEvents(
-                    existingReservation.getStartDate(),
-                    existingReservation.getReservationIdsInConference(), timeline, rowIndex,
-                    roomArrangement, localTimeZoneId, reservation.getRequestedTimeZone());
-            }
-
-            // next row
-            rowIndex++;
-        }
-    }
-
     /**
      * Get the existing occurrences for a recurring reservation starting from the given occurrence.
      *
@@ -608,4 +498,248 @@ public class TimelineService extends AdminServiceContainer {
         return reservation;
     }
 
+    /**
+     * The search parameters shared by the buildings of a room arrangement time line.
+     */
+    private static class RoomSearchParameters {
+
+        /** The number of attendees. */
+        private final Integer numberOfAttendees;
+
+        /** Whether the rooms must allow externals. */
+        private final boolean externalsMustBeAllowed;
+
+        /** The fixed resource standards. */
+        private final List<String> fixedResourceStandards;
+
+        /** Maximum number of rooms to display per building. */
+        private final int maxRoomsPerBuilding;
+
+        /** Whether all available rooms are displayed for a new reservation. */
+        private final boolean calledFromReservationCalendar;
+
+        /**
+         * Create the search parameters.
+         *
+         * @param numberOfAttendees the number of attendees
+         * @param externalsMustBeAllowed whether the rooms must allow externals
+         * @param fixedResourceStandards the fixed resource standards
+         * @param maxRoomsPerBuilding maximum number of rooms to display per building
+         * @param calledFromReservationCalendar true to display all available rooms for a new
+         *            reservation
+         */
+        RoomSearchParameters(final Integer numberOfAttendees,
+                final boolean externalsMustBeAllowed, final List<String> fixedResourceStandards,
+                final int maxRoomsPerBuilding, final boolean calledFromReservationCalendar) {
+            this.numberOfAttendees = numberOfAttendees;
+            this.externalsMustBeAllowed = externalsMustBeAllowed;
+            this.fixedResourceStandards = fixedResourceStandards;
+            this.maxRoomsPerBuilding = maxRoomsPerBuilding;
+            this.calledFromReservationCalendar = calledFromReservationCalendar;
+        }
+    }
+
+    /**
+     * The room arrangement time line of a single building. The available rooms and their
+     * allocations are loaded by call(), which can run on an executor thread. The time line rows
+     * are added afterwards by the calling thread, in the order of the buildings.
+     */
+    private class BuildingTimeline implements Callable<BuildingTimeline> {
+
+        /** The room reservation in this building. */
+        private final RoomReservation reservation;
+
+        /** The room already reserved, to include in the results if possible. */
+        private final RoomArrangement reservedRoom;
+
+        /** The existing occurrences when editing a recurring reservation, null otherwise. */
+        private final List<RoomReservation> existingOccurrences;
+
+        /** The search parameters. */
+        private final RoomSearchParameters parameters;
+
+        /** The start date of the reservation, before searching. */
+        private Date startDate;
+
+        /** The room configurations of the available rooms. */
+        private Map<RoomConfiguration, RoomConfiguration> configurations;
+
+        /** The time zone of the building. */
+        private String localTimeZoneId;
+
+        /** The rooms to display. */
+        private List<RoomArrangement> displayedRooms;
+
+        /** The dates of the other occurrences of a new recurring reservation. */
+        private final List<Date> occurrenceDates = new ArrayList<Date>();
+
+        /** The allocations of the displayed rooms, null if there are no dates. */
+        private RoomTimelineAllocations allocations;
+
+        /**
+         * Create the time line of a building.
+         *
+         * @param reservation the room reservation in this building
+         * @param reservedRoom the room already reserved, to include in the results if possible
+         * @param existingOccurrences the existing occurrences when editing a recurring
+         *            reservation, null otherwise
+         * @param parameters the search parameters
+         */
+        BuildingTimeline(final RoomReservation reservation, final RoomArrangement reservedRoom,
+                final List<RoomReservation> existingOccurrences,
+                final RoomSearchParameters parameters) {
+            this.reservation = reservation;
+            this.reservedRoom = reservedRoom;
+            this.existingOccurrences = existingOccurrences;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Load the available rooms and their allocations.
+         *
+         * @return this building time line
+         */
+        @Override
+        public BuildingTimeline call() {
+            // Copy the start date because it is overwritten while looking for available rooms.
+            this.startDate = this.reservation.getStartDate();
+            final List<RoomArrangement> roomArrangements;
+            final List<Date> dates;
+            int maxRoomsPerBuilding = this.parameters.maxRoomsPerBuilding;
+            if (this.existingOccurrences == null) {
+                roomArrangements = this.findAvailableRooms();
+                dates = new ArrayList<Date>(this.occurrenceDates);
+                dates.add(this.startDate);
+                if (this.parameters.calledFromReservationCalendar) {
+                    maxRoomsPerBuilding = roomArrangements.size();
+                }
+            } else {
+                TimelineService.this.assertRoomReservationFound(this.reservation);
+                roomArrangements = TimelineService.this.reservationService.findAvailableRooms(
+                    this.reservation, this.existingOccurrences,
+                    this.parameters.numberOfAttendees, this.parameters.externalsMustBeAllowed,
+                    this.parameters.fixedResourceStandards, false,
+                    this.reservation.getRequestedTimeZone());
+                dates = new ArrayList<Date>(this.existingOccurrences.size());
+                for (final RoomReservation existingReservation : this.existingOccurrences) {
+                    dates.add(existingReservation.getStartDate());
+                }
+            }
+
+            // build a map of room configurations to determine excluded configurations later on
+            this.configurations = TimelineService.this.roomConfigurationDataSource
+                .getRoomConfigurations(roomArrangements);
+            this.localTimeZoneId = TimeZoneConverter
+                .getTimeZoneIdForBuilding(this.reservation.determineBuildingId());
+            this.displayedRooms = TimelineService.this.selectDisplayedRooms(roomArrangements,
+                this.reservedRoom, maxRoomsPerBuilding);
+            if (!dates.isEmpty()) {
+                this.allocations = TimelineService.this.roomTimelineServiceHelper
+                    .loadRoomAllocations(this.displayedRooms, this.configurations, dates);
+            }
+            return this;
+        }
+
+        /**
+         * Search the available rooms for a new reservation and collect the dates of the other
+         * occurrences if it's recurring.
+         *
+         * @return the available room arrangements
+         */
+        private List<RoomArrangement> findAvailableRooms() {
+            final List<RoomArrangement> roomArrangements;
+            final Recurrence recurrence = this.reservation.getRecurrence();
+            if (recurrence == null) {
+                // search for available room arrangements
+                roomArrangements = TimelineService.this.reservationService.findAvailableRooms(
+                    this.reservation, this.parameters.numberOfAttendees,
+                    this.parameters.externalsMustBeAllowed,
+                    this.parameters.fixedResourceStandards, false,
+                    this.reservation.getRequestedTimeZone());
+            } else {
+                // search for available room arrangements for recurrence
+                roomArrangements = TimelineService.this.reservationService
+                    .findAvailableRoomsRecurrence(this.reservation,
+                        this.parameters.numberOfAttendees,
+                        this.parameters.externalsMustBeAllowed,
+                        this.parameters.fixedResourceStandards, false, recurrence,
+                        this.reservation.getRequestedTimeZone());
+            }
+
+            // collect the dates of the other occurrences once for all rooms
+            if (recurrence instanceof AbstractIntervalPattern) {
+                final AbstractIntervalPattern pattern = (AbstractIntervalPattern) recurrence;
+                pattern.loopThroughRepeats(new AbstractIntervalPattern.OccurrenceAction() {
+                    // handle all occurrence events
+                    @Override
+                    public boolean handleOccurrence(final Date date) throws ReservationException {
+                        BuildingTimeline.this.occurrenceDates.add(date);
+                        return true;
+                    }
+                });
+            }
+            return roomArrangements;
+        }
+
+        /**
+         * Add the rows and allocation events of this building to the time line.
+         *
+         * @param timeline the JSON time line object
+         */
+        void addTo(final JSONObject timeline) {
+            final JSONArray resources = timeline.getJSONArray(RESOURCES);
+            int rowIndex = resources.length();
+
+            // loop through available rooms to find allocations for each day
+            for (final RoomArrangement roomArrangement : this.displayedRooms) {
+                final JSONObject resource = TimelineHelper.createRoomArrangementResource(
+                    timeline, roomArrangement,
+                    this.configurations.get(RoomConfiguration.getConfiguration(roomArrangement)),
+                    rowIndex);
+                resources.put(resource);
+
+                if (this.existingOccurrences == null) {
+                    // create for the first occurrence
+                    this.createEvents(timeline, rowIndex, roomArrangement, this.startDate,
+                        this.reservation.getReservationIdsInConference());
+                    for (final Date date : this.occurrenceDates) {
+                        // this is a new recurrent reservation, so no reservation id
+                        this.createEvents(timeline, rowIndex, roomArrangement, date, null);
+                    }
+                } else {
+                    for (final RoomReservation existingReservation : this.existingOccurrences) {
+                        // for existing reservations, add the reservation id to ignore
+                        this.createEvents(timeline, rowIndex, roomArrangement,
+                            existingReservation.getStartDate(),
+                            existingReservation.getReservationIdsInConference());
+                    }
+                }
+                // next row
+                rowIndex++;
+            }
+            if (this.allocations != null) {
+                TimelineService.this.logger.debug("Loaded room time line events for "
+                        + this.displayedRooms.size() + " rooms using "
+                        + this.allocations.getQueryCount() + " queries");
+            }
+        }
+
+        /**
+         * Create the allocation events of a room on the given date.
+         *
+         * @param timeline the JSON time line object
+         * @param rowIndex the row index of the room
+         * @param roomArrangement the room arrangement
+         * @param date the date
+         * @param reservationIds the reservation ids to ignore, null for a new reservation
+         */
+        private void createEvents(final JSONObject timeline, final int rowIndex,
+                final RoomArrangement roomArrangement, final Date date,
+                final Integer[] reservationIds) {
+            TimelineService.this.roomTimelineServiceHelper.createRoomAllocationEvents(date,
+                reservationIds, timeline, rowIndex, roomArrangement, this.localTimeZoneId,
+                this.reservation.getRequestedTimeZone(), this.allocations);
+        }
+    }
+
 }
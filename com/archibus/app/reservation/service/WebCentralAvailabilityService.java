@@ -5,8 +5,7 @@ import java.util.*;
 import com.archibus.app.reservation.dao.datasource.Constants;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.TimeZoneConverter;
-import com.archibus.datasource.restriction.Restrictions;
-import com.archibus.model.view.datasource.ClauseDef.Operation;
+import com.archibus.model.view.datasource.ClauseDef.*;
 import com.archibus.model.view.datasource.ParsedRestrictionDef;
 import com.archibus.utility.*;
 
@@ -27,109 +26,194 @@ public class WebCentralAvailabilityService extends RoomReservationServiceBase
     /** Name of the table containing reservations. */
     private static final String RESERVE_TABLE = "reserve";
 
-    /** {@inheritDoc} */
+    /** Name of the field containing the attendee emails. */
+    private static final String ATTENDEES_FIELD = "attendees";
+
+    /** Name of the field containing the requestor email. */
+    private static final String EMAIL_FIELD = "email";
+
+    /** Separator between the attendee emails. */
+    private static final String ATTENDEE_SEPARATOR = ";";
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The reservations of all attendees are retrieved in a single query, then indexed per attendee.
+     * The room allocations of all reservations are retrieved in one batch for time zone
+     * conversion.
+     */
     @Override
     public Map<String, AttendeeAvailability> findAttendeeAvailability(
             final IReservation reservation, final Date startDate, final Date endDate,
             final TimeZone requestedTimeZone, final String userEmail,
             final List<String> attendeeEmails) throws ExceptionBase {
+        /*
+         * Query for all reservations on the requested dates +/- 1 day for time zone differences.
+         * Convert them to the requested time zone afterwards to check whether they occur on the
+         * requested date.
+         */
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(endDate);
+        calendar.add(Calendar.DATE, 1);
+        final Date filterEndDate = calendar.getTime();
+
+        final Map<String, List<RoomReservation>> reservationsByAttendee =
+                this.findReservationsByAttendee(startDate, filterEndDate, requestedTimeZone,
+                    attendeeEmails);
+
         final Map<String, AttendeeAvailability> availabilities =
                 new HashMap<String, AttendeeAvailability>();
         for (final String email : attendeeEmails) {
-            final List<ICalendarEvent> events =
-                    this.findAttendeeAvailability(startDate, endDate, requestedTimeZone, email);
+            final List<ICalendarEvent> events = new ArrayList<ICalendarEvent>();
+            final List<RoomReservation> reservations =
+                    reservationsByAttendee.get(normalizeEmail(email));
+            if (reservations != null) {
+                for (final RoomReservation foundReservation : reservations) {
+                    if (filterEndDate.before(foundReservation.getStartDateTime())
+                            || startDate.after(foundReservation.getEndDateTime())) {
+                        // skip reservations not occurring on the requested date in the given
+                        // time zone
+                        continue;
+                    }
+                    events.add(createCalendarEvent(foundReservation));
+                }
+            }
             availabilities.put(email, new AttendeeAvailability(email, events));
         }
         return availabilities;
     }
 
     /**
-     * Find the attendee availability. This routine returns the list of the calendar events for the
-     * attendee.
+     * Find the reservations of the given attendees and index them per attendee. The reservations
+     * are converted to the requested time zone.
      *
-     * @param startDate first date in the specified requestedTimeZone
-     * @param endDate last date in the specified requestedTimeZone
+     * @param startDate first date in the requested time zone
+     * @param filterEndDate last date in the requested time zone, plus one day
      * @param timeZone requested time zone
-     * @param email email of the attendee
-     * @return List of Calendar Events
+     * @param attendeeEmails emails of the attendees
+     * @return the reservations of each attendee, mapped by normalized email
      * @throws ExceptionBase translated exception
      */
-    private List<ICalendarEvent> findAttendeeAvailability(final Date startDate, final Date endDate,
-            final TimeZone timeZone, final String email) throws ExceptionBase {
-
-        final List<ICalendarEvent> events = new ArrayList<ICalendarEvent>();
-        if (!StringUtil.isNullOrEmpty(email)) {
-            this.reservationDataSource.clearRestrictions();
-            this.reservationDataSource.addRestriction(Restrictions.or(
-                Restrictions.like(RESERVE_TABLE, "attendees", PERCENT + email + PERCENT),
-                Restrictions.eq(RESERVE_TABLE, "email", email)));
-
-            /*
-             * Query for all reservations on the requested dates +/- 1 day for time zone
-             * differences. Convert them to the requested time zone afterwards to check whether they
-             * occur on the requested date.
-             */
-            final ParsedRestrictionDef restriction = new ParsedRestrictionDef();
-            final Calendar calendar = Calendar.getInstance();
-            calendar.setTime(startDate);
-            calendar.add(Calendar.DATE, -1);
-            restriction.addClause(RESERVE_TABLE, Constants.DATE_START_FIELD_NAME,
-                calendar.getTime(), Operation.GTE);
-            calendar.setTime(endDate);
-            calendar.add(Calendar.DATE, 1);
-            final Date filterEndDate = calendar.getTime();
-            restriction.addClause(RESERVE_TABLE, Constants.DATE_END_FIELD_NAME, filterEndDate,
-                Operation.LTE);
-
-            restriction.addClause(RESERVE_TABLE, Constants.STATUS,
-                Arrays.asList(
-                    new String[] { Constants.STATUS_AWAITING_APP, Constants.STATUS_CONFIRMED }),
-                Operation.IN);
-
-            final List<RoomReservation> foundReservations =
-                    this.reservationDataSource.find(restriction);
-
-            for (final RoomReservation foundReservation : foundReservations) {
-                // retrieve the reservation including the room to allow time zone conversion
-                final RoomReservation reservation = this.reservationDataSource
-                    .getActiveReservation(foundReservation.getReserveId());
-                reservation.setTimeZone(
-                    this.timeZoneCache.getBuildingTimeZone(reservation.determineBuildingId()));
-                TimeZoneConverter.convertToTimeZone(reservation, timeZone.getID());
-
-                if (filterEndDate.before(reservation.getStartDateTime())
-                        || startDate.after(reservation.getEndDateTime())) {
-                    // skip reservations not occurring on the requested date in the given time zone
-                    continue;
-                }
+    private Map<String, List<RoomReservation>> findReservationsByAttendee(final Date startDate,
+            final Date filterEndDate, final TimeZone timeZone, final List<String> attendeeEmails)
+            throws ExceptionBase {
+        final Map<String, List<RoomReservation>> reservationsByAttendee =
+                new HashMap<String, List<RoomReservation>>();
+        final List<String> emails = new ArrayList<String>();
+        for (final String email : attendeeEmails) {
+            if (!StringUtil.isNullOrEmpty(email)
+                    && !reservationsByAttendee.containsKey(normalizeEmail(email))) {
+                reservationsByAttendee.put(normalizeEmail(email), new ArrayList<RoomReservation>());
+                emails.add(email);
+            }
+        }
+        if (emails.isEmpty()) {
+            return reservationsByAttendee;
+        }
 
-                final ICalendarEvent calendarEvent = new CalendarEvent();
-                // Take the unique id, conference call id or reservation id as reference.
-                if (StringUtil.notNullOrEmpty(reservation.getUniqueId())) {
-                    calendarEvent.setEventId(reservation.getUniqueId());
-                } else if (reservation.getConferenceId() == null
-                        || reservation.getConferenceId() == 0) {
-                    calendarEvent.setEventId(Integer.toString(reservation.getReserveId()));
-                } else {
-                    calendarEvent.setEventId(Integer.toString(reservation.getConferenceId()));
-                }
-                calendarEvent.setSubject(reservation.getReservationName());
-                calendarEvent.setStartDate(reservation.getStartDate());
-                calendarEvent.setEndDate(reservation.getEndDate());
-                calendarEvent.setStartTime(reservation.getStartTime());
-                calendarEvent.setEndTime(reservation.getEndTime());
-
-                if (Constants.TYPE_RECURRING.equalsIgnoreCase(reservation.getReservationType())) {
-                    calendarEvent.setRecurrent(true);
-                } else {
-                    calendarEvent.setRecurrent(false);
+        final ParsedRestrictionDef restriction = new ParsedRestrictionDef();
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(startDate);
+        calendar.add(Calendar.DATE, -1);
+        restriction.addClause(RESERVE_TABLE, Constants.DATE_START_FIELD_NAME, calendar.getTime(),
+            Operation.GTE);
+        restriction.addClause(RESERVE_TABLE, Constants.DATE_END_FIELD_NAME, filterEndDate,
+            Operation.LTE);
+        restriction.addClause(RESERVE_TABLE, Constants.STATUS,
+            Arrays.asList(
+                new String[] { Constants.STATUS_AWAITING_APP, Constants.STATUS_CONFIRMED }),
+            Operation.IN);
+
+        // the reservation is found if any of the attendees is invited or requested it
+        RelativeOperation relativeOperation = RelativeOperation.AND_BRACKET;
+        for (final String email : emails) {
+            restriction.addClause(RESERVE_TABLE, ATTENDEES_FIELD, PERCENT + email + PERCENT,
+                Operation.LIKE, relativeOperation);
+            relativeOperation = RelativeOperation.OR;
+            restriction.addClause(RESERVE_TABLE, EMAIL_FIELD, email, Operation.EQUALS,
+                relativeOperation);
+        }
+
+        this.reservationDataSource.clearRestrictions();
+        final List<RoomReservation> foundReservations =
+                this.roomAllocationDataSource.addRoomAllocations(
+                    this.reservationDataSource.find(restriction));
+
+        for (final RoomReservation reservation : foundReservations) {
+            // convert using the building of the room
+            reservation.setTimeZone(
+                this.timeZoneCache.getBuildingTimeZone(reservation.determineBuildingId()));
+            TimeZoneConverter.convertToTimeZone(reservation, timeZone.getID());
+
+            for (final String email : getReservationEmails(reservation)) {
+                final List<RoomReservation> reservations = reservationsByAttendee.get(email);
+                if (reservations != null) {
+                    reservations.add(reservation);
                 }
+            }
+        }
+        return reservationsByAttendee;
+    }
 
-                events.add(calendarEvent);
+    /**
+     * Get the normalized emails of the attendees and requestor of a reservation.
+     *
+     * @param reservation the reservation
+     * @return the normalized emails
+     */
+    private static Set<String> getReservationEmails(final RoomReservation reservation) {
+        final Set<String> emails = new HashSet<String>();
+        if (StringUtil.notNullOrEmpty(reservation.getEmail())) {
+            emails.add(normalizeEmail(reservation.getEmail()));
+        }
+        if (StringUtil.notNullOrEmpty(reservation.getAttendees())) {
+            for (final String attendee : reservation.getAttendees().split(ATTENDEE_SEPARATOR)) {
+                if (StringUtil.notNullOrEmpty(attendee)) {
+                    emails.add(normalizeEmail(attendee));
+                }
             }
         }
+        return emails;
+    }
 
-        return events;
+    /**
+     * Normalize an email address for lookup in the attendee index.
+     *
+     * @param email the email address
+     * @return the trimmed lower case email address
+     */
+    private static String normalizeEmail(final String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Create a calendar event for a reservation.
+     *
+     * @param reservation the reservation, converted to the requested time zone
+     * @return the calendar event
+     */
+    private static ICalendarEvent createCalendarEvent(final RoomReservation reservation) {
+        final ICalendarEvent calendarEvent = new CalendarEvent();
+        // Take the unique id, conference call id or reservation id as reference.
+        if (StringUtil.notNullOrEmpty(reservation.getUniqueId())) {
+            calendarEvent.setEventId(reservation.getUniqueId());
+        } else if (reservation.getConferenceId() == null || reservation.getConferenceId() == 0) {
+            calendarEvent.setEventId(Integer.toString(reservation.getReserveId()));
+        } else {
+            calendarEvent.setEventId(Integer.toString(reservation.getConferenceId()));
+        }
+        calendarEvent.setSubject(reservation.getReservationName());
+        calendarEvent.setStartDate(reservation.getStartDate());
+        calendarEvent.setEndDate(reservation.getEndDate());
+        calendarEvent.setStartTime(reservation.getStartTime());
+        calendarEvent.setEndTime(reservation.getEndTime());
+
+        if (Constants.TYPE_RECURRING.equalsIgnoreCase(reservation.getReservationType())) {
+            calendarEvent.setRecurrent(true);
+        } else {
+            calendarEvent.setRecurrent(false);
+        }
+        return calendarEvent;
     }
 
 }
@@ -3,8 +3,10 @@ package com.archibus.app.reservation.service;
 import java.util.*;
 
 import org.json.JSONObject;
+import org.springframework.util.StringUtils;
 
 import com.archibus.app.reservation.domain.IReservation;
+import com.archibus.app.reservation.util.DataSourceUtils;
 import com.archibus.context.ContextStore;
 import com.archibus.datasource.*;
 import com.archibus.datasource.data.DataRecord;
@@ -45,6 +47,9 @@ public class WorkRequestService {
     /** The Constant RES_ID. */
     private static final String RES_ID = "res_id";
 
+    /** Statuses of work requests that are cancelled or stopped with the reservation. */
+    private static final String ACTIVE_STATUSES = "R,Rev,A,AA,I,HP,HA,HL";
+
     /**
      * Creates the work request.
      *
@@ -97,13 +102,41 @@ public class WorkRequestService {
         workRequestDataSource
             .addRestriction(Restrictions.eq(WR_TABLE, RES_ID, reservation.getReserveId()));
         workRequestDataSource
-            .addRestriction(Restrictions.in(WR_TABLE, STATUS, "R,Rev,A,AA,I,HP,HA,HL"));
+            .addRestriction(Restrictions.in(WR_TABLE, STATUS, ACTIVE_STATUSES));
 
         final List<DataRecord> records = workRequestDataSource.getRecords();
 
         cancelWorkRequests(workRequestDataSource, records);
     }
 
+    /**
+     * Cancel the work requests of all given reservations, querying them together instead of one
+     * reservation at a time.
+     *
+     * @param reservations the reservations
+     */
+    public void cancelWorkRequests(final List<? extends IReservation> reservations) {
+        final List<Integer> reserveIds = new ArrayList<Integer>(reservations.size());
+        for (final IReservation reservation : reservations) {
+            if (reservation.getReserveId() != null) {
+                reserveIds.add(reservation.getReserveId());
+            }
+        }
+
+        final String[] fields = { WR_ID, STATUS, RES_ID };
+        for (final List<Integer> chunk : DataSourceUtils.splitForInClause(reserveIds)) {
+            final DataSource workRequestDataSource =
+                    DataSourceFactory.createDataSourceForFields(WR_TABLE, fields);
+            workRequestDataSource.setApplyVpaRestrictions(false);
+            workRequestDataSource.addRestriction(Restrictions.in(WR_TABLE, RES_ID,
+                StringUtils.collectionToCommaDelimitedString(chunk)));
+            workRequestDataSource
+                .addRestriction(Restrictions.in(WR_TABLE, STATUS, ACTIVE_STATUSES));
+
+            cancelWorkRequests(workRequestDataSource, workRequestDataSource.getRecords());
+        }
+    }
+
     /**
      * Cancel / stop the given work requests using the given data source.
      *
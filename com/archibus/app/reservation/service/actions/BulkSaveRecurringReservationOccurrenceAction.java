@@ -0,0 +1,121 @@
+package com.archibus.app.reservation.service.actions;
+
+import java.util.*;
+
+import com.archibus.app.reservation.dao.*;
+import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.domain.*;
+
+/**
+ * Provides a method for saving all new occurrences of a recurring reservation at once.
+ * <p>
+ * Used by ReservationService to create a new recurring reservation via the Recurrence Pattern
+ * definition. While looping through the pattern, the occurrences are only created in memory. The
+ * availability of the master room is then checked for all occurrences with a fixed number of
+ * queries by calling saveOccurrences, before the occurrences are saved in order. The saved
+ * reservations and their conflict status are the same as with
+ * SaveRecurringReservationOccurrenceAction.
+ * <p>
+ * Each occurrence is still saved through the room reservation data source, one occurrence at a
+ * time. That save checks the availability again in its insert statement and saves the room and
+ * resource allocations, which the data source API can't do in batch statements.
+ *
+ * @since 24.3
+ */
+public class BulkSaveRecurringReservationOccurrenceAction
+        extends SaveRecurringReservationOccurrenceAction {
+
+    /** The occurrences created while looping through the pattern, to be saved. */
+    private final List<RoomReservation> pendingOccurrences = new ArrayList<RoomReservation>();
+
+    /**
+     * Constructor.
+     *
+     * @param savedReservations list to store the saved reservations
+     * @param roomReservationDataSource data source to use for saving reservations
+     * @param roomArrangementDataSource data source used for checking room availability
+     * @param firstReservation the reservation for the first occurrence, already booked
+     */
+    public BulkSaveRecurringReservationOccurrenceAction(
+            final List<RoomReservation> savedReservations,
+            final IRoomReservationDataSource roomReservationDataSource,
+            final IRoomArrangementDataSource roomArrangementDataSource,
+            final RoomReservation firstReservation) {
+        super(savedReservations, roomReservationDataSource, roomArrangementDataSource,
+            firstReservation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only creates the occurrence, it is saved by saveOccurrences.
+     */
+    @Override
+    protected RoomReservation handleActualOccurrence(final TimePeriod timePeriod,
+            final int currentIndex) {
+        final RoomReservation recurringReservation =
+                this.createOccurrence(timePeriod, currentIndex);
+        this.pendingOccurrences.add(recurringReservation);
+        return recurringReservation;
+    }
+
+    /**
+     * Check the availability of the master room for all occurrences created while looping
+     * through the pattern, then save them.
+     *
+     * @throws ReservationException when saving an occurrence fails
+     */
+    public void saveOccurrences() throws ReservationException {
+        final BitSet conflicts = this.findConflicts();
+        for (int index = 0; index < this.pendingOccurrences.size(); ++index) {
+            this.saveOccurrence(this.pendingOccurrences.get(index), !conflicts.get(index));
+        }
+        this.pendingOccurrences.clear();
+    }
+
+    /**
+     * Determine for which of the pending occurrences the master room is not available.
+     *
+     * @return the indexes of the occurrences the master room is not available for
+     */
+    private BitSet findConflicts() {
+        final RoomArrangement reservedRoom = this.getRoomAllocation().getRoomArrangement();
+        BitSet conflicts = new BitSet(this.pendingOccurrences.size());
+        if (this.pendingOccurrences.isEmpty()) {
+            return conflicts;
+        }
+
+        /*
+         * The batch check only verifies the restrictions that depend on the date. If the first
+         * occurrence is conflicted, the room might not meet the other criteria: check each
+         * occurrence like the regular action.
+         */
+        final RoomArrangement roomArrangement =
+                Constants.STATUS_ROOM_CONFLICT.equals(this.getReservation().getStatus()) ? null
+                        : this.getRoomArrangementDataSource().get(reservedRoom.getBlId(),
+                            reservedRoom.getFlId(), reservedRoom.getRmId(),
+                            reservedRoom.getConfigId(), reservedRoom.getArrangeTypeId());
+        if (roomArrangement == null) {
+            for (int index = 0; index < this.pendingOccurrences.size(); ++index) {
+                if (!this.isRoomAvailable(this.pendingOccurrences.get(index))) {
+                    conflicts.set(index);
+                }
+            }
+        } else {
+            final List<RoomReservation> occurrences = new ArrayList<RoomReservation>();
+            for (final RoomReservation occurrence : this.pendingOccurrences) {
+                final RoomReservation localOccurrence =
+                        new RoomReservation(new TimePeriod(occurrence.getTimePeriod()));
+                localOccurrence.setReservationIdsInConference(
+                    occurrence.getReservationIdsInConference());
+                occurrences.add(localOccurrence);
+            }
+            conflicts = this.getRoomArrangementDataSource()
+                .findConflictingOccurrences(Collections.singletonList(roomArrangement),
+                    occurrences, this.getLocalTimeZone(), ALL_DAY_EVENT)
+                .get(roomArrangement);
+        }
+        return conflicts;
+    }
+
+}
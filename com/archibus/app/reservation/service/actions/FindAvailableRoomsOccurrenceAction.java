@@ -10,7 +10,8 @@ import com.archibus.app.reservation.util.TimeZoneConverter;
 
 /**
  * Provides a method to find available rooms for all occurrences in an IntervalPattern, via
- * implementation of the OccurrenceAction interface.
+ * implementation of the OccurrenceAction interface. The occurrences are collected while looping
+ * through the pattern and checked together by calling checkOccurrences afterwards.
  *
  * @author Yorik Gerlo
  * @since 21.2
@@ -30,12 +31,6 @@ public class FindAvailableRoomsOccurrenceAction
     /** The room reservation used to look for available rooms. */
     private final RoomReservation reservation;
 
-    /** The minimum numberAttendees of the rooms to find. */
-    private final Integer numberAttendees;
-
-    /** The required fixed resource standards. */
-    private final List<String> fixedResourceStandards;
-
     /** The local time zone based on restrictions in the room reservation filter. */
     private final String localTimeZone;
 
@@ -54,27 +49,29 @@ public class FindAvailableRoomsOccurrenceAction
     /** Number of visited occurrences. */
     private int numberOfOccurrences;
 
+    /** The occurrences to check, in local time. */
+    private final List<RoomReservation> occurrences = new ArrayList<RoomReservation>();
+
+    /** The existing reservation for each occurrence to check, null for new occurrences. */
+    private final List<RoomReservation> occurrenceReservations = new ArrayList<RoomReservation>();
+
     /**
      * Constructor.
      *
      * @param firstReservation the reservation object representing the first occurrence of the
      *            interval pattern
-     * @param numberAttendees the number of attendees
-     * @param fixedResourceStandards the required fixed resource standards
      * @param allDayEvent whether we are looking for rooms that will be booked for an all day event
      * @param existingOccurrences the existing occurrences of the recurring reservation
-     * @param roomArrangements the available room arrangements
+     * @param roomArrangements the room arrangements available for the first occurrence, which
+     *            already match the number of attendees and fixed resource standards
      * @param roomArrangementDataSource the room arrangement data source to use for finding
      *            available rooms
      */
     public FindAvailableRoomsOccurrenceAction(final RoomReservation firstReservation,
-            final Integer numberAttendees, final List<String> fixedResourceStandards,
             final boolean allDayEvent, final Map<Date, RoomReservation> existingOccurrences,
             final List<RoomArrangement> roomArrangements,
             final IRoomArrangementDataSource roomArrangementDataSource) {
         this.reservation = firstReservation;
-        this.numberAttendees = numberAttendees;
-        this.fixedResourceStandards = fixedResourceStandards;
         this.allDayEvent = allDayEvent;
         this.roomArrangements = roomArrangements;
         this.roomArrangementDataSource = roomArrangementDataSource;
@@ -131,13 +128,13 @@ public class FindAvailableRoomsOccurrenceAction
 
     /**
      * Handle an occurrence that takes place on the date currently specified in the reservation.
+     * The occurrence is converted to local time and stored for checking its availability in
+     * checkOccurrences.
      *
      * @return whether to continue the loop
      * @throws ReservationException when a reservation exception occurs
      */
     private boolean handleActualOccurrence() throws ReservationException {
-        this.numberOfOccurrences++;
-
         final RoomReservation occurrence =
                 this.existingReservations.get(this.reservation.getStartDate());
         Integer reservationId = null;
@@ -153,36 +150,53 @@ public class FindAvailableRoomsOccurrenceAction
         this.reservation.setReservationIdsInConference(reservationIdsInConference);
         TimeZoneConverter.convertToLocalTime(this.reservation, this.localTimeZone);
 
-        // No need to pass timezone here, it would only be used for converting dayEnd and dayStart
-        // properties.
-        final List<RoomArrangement> rooms = this.roomArrangementDataSource.findAvailableRooms(
-            this.reservation, this.numberAttendees, false, this.fixedResourceStandards,
-            this.allDayEvent, false);
+        final RoomReservation localOccurrence =
+                new RoomReservation(new TimePeriod(this.reservation.getTimePeriod()));
+        localOccurrence.setReservationIdsInConference(reservationIdsInConference);
+        this.occurrences.add(localOccurrence);
+        this.occurrenceReservations.add(occurrence);
 
-        // Put the available rooms in a set for quick reference.
-        final Set<RoomArrangement> roomsForOccurrence = new HashSet<RoomArrangement>();
-        roomsForOccurrence.addAll(rooms);
+        return true;
+    }
 
-        /*
-         * When editing a recurring reservation, we don't allow new conflicts. Remove rooms not
-         * available for an existing non-conflicted occurrence from the results.
-         */
-        final Set<RoomArrangement> roomsToRemove = new HashSet<RoomArrangement>();
-        // add 1 for each room not available
-        for (final RoomArrangement room : this.roomArrangements) {
-            if (!roomsForOccurrence.contains(room)) {
-                room.setNumberOfConflicts(room.getNumberOfConflicts() + 1);
-                if ((occurrence == null && !this.allowConflicts) || (occurrence != null
-                        && !Constants.STATUS_ROOM_CONFLICT.equals(occurrence.getStatus()))) {
-                    roomsToRemove.add(room);
+    /**
+     * Check the availability of the room arrangements for all occurrences handled so far, with a
+     * fixed number of queries. Updates the number of conflicts of each room arrangement and
+     * removes the room arrangements that would cause new conflicts.
+     *
+     * @throws ReservationException when a reservation exception occurs
+     */
+    public void checkOccurrences() throws ReservationException {
+        final Map<RoomArrangement, BitSet> conflicts =
+                this.roomArrangementDataSource.findConflictingOccurrences(this.roomArrangements,
+                    this.occurrences, this.localTimeZone, this.allDayEvent);
+
+        for (int index = 0; index < this.occurrences.size()
+                && !this.roomArrangements.isEmpty(); ++index) {
+            this.numberOfOccurrences++;
+            final RoomReservation occurrence = this.occurrenceReservations.get(index);
+
+            /*
+             * When editing a recurring reservation, we don't allow new conflicts. Remove rooms not
+             * available for an existing non-conflicted occurrence from the results.
+             */
+            final Set<RoomArrangement> roomsToRemove = new HashSet<RoomArrangement>();
+            // add 1 for each room not available
+            for (final RoomArrangement room : this.roomArrangements) {
+                if (conflicts.get(room).get(index)) {
+                    room.setNumberOfConflicts(room.getNumberOfConflicts() + 1);
+                    if ((occurrence == null && !this.allowConflicts) || (occurrence != null
+                            && !Constants.STATUS_ROOM_CONFLICT.equals(occurrence.getStatus()))) {
+                        roomsToRemove.add(room);
+                    }
                 }
             }
-        }
 
-        // remove the rooms that would cause new conflicts
-        this.roomArrangements.removeAll(roomsToRemove);
-
-        return !this.roomArrangements.isEmpty();
+            // remove the rooms that would cause new conflicts
+            this.roomArrangements.removeAll(roomsToRemove);
+        }
+        this.occurrences.clear();
+        this.occurrenceReservations.clear();
     }
 
     /**
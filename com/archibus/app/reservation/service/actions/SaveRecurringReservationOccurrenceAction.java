@@ -26,6 +26,12 @@ import com.archibus.app.reservation.util.TimeZoneConverter;
 public class SaveRecurringReservationOccurrenceAction
         implements AbstractIntervalPattern.ModifiedOccurrenceAction {
 
+    /**
+     * Occurrences are saved as regular reservations: the master room must be available within its
+     * day start and end, also for occurrences created from an all day event.
+     */
+    protected static final boolean ALL_DAY_EVENT = false;
+
     /** The logger. */
     protected final Logger logger = Logger.getLogger(this.getClass());
 
@@ -158,7 +164,21 @@ public class SaveRecurringReservationOccurrenceAction
      */
     protected RoomReservation handleActualOccurrence(final TimePeriod timePeriod,
             final int currentIndex) {
+        final RoomReservation recurringReservation =
+                this.createOccurrence(timePeriod, currentIndex);
+        this.saveOccurrence(recurringReservation, this.isRoomAvailable(recurringReservation));
+        return recurringReservation;
+    }
 
+    /**
+     * Create a new occurrence in local time, without saving it.
+     *
+     * @param timePeriod the time period for this occurrence
+     * @param currentIndex the occurrence index for this occurrence
+     * @return the new occurrence
+     */
+    protected final RoomReservation createOccurrence(final TimePeriod timePeriod,
+            final int currentIndex) {
         // only to be used for new reservations
         final RoomReservation recurringReservation = new RoomReservation();
 
@@ -167,8 +187,19 @@ public class SaveRecurringReservationOccurrenceAction
         TimeZoneConverter.convertToLocalTime(recurringReservation, this.localTimeZone);
         // increment and assign the occurrence index
         recurringReservation.setOccurrenceIndex(currentIndex);
+        return recurringReservation;
+    }
 
-        if (this.isRoomAvailable(recurringReservation)) {
+    /**
+     * Book the master room and resources for a new occurrence if the room is available, or mark
+     * it conflicted if not. Then save the occurrence.
+     *
+     * @param recurringReservation the new occurrence in local time
+     * @param roomAvailable whether the master room is available for the occurrence
+     */
+    protected final void saveOccurrence(final RoomReservation recurringReservation,
+            final boolean roomAvailable) {
+        if (roomAvailable) {
             final RoomAllocation recurringRoomAllocation = new RoomAllocation();
             this.roomAllocation.copyTo(recurringRoomAllocation);
             // addRoomAllocation also links the allocation to the reservation
@@ -176,7 +207,8 @@ public class SaveRecurringReservationOccurrenceAction
             ReservationServiceHelper.copyResourceAllocations(this.reservation,
                 recurringReservation);
         } else {
-            this.logger.debug("The room is not available on " + timePeriod.getStartDate());
+            this.logger
+                .debug("The room is not available on " + recurringReservation.getStartDate());
             recurringReservation.setStatus(Constants.STATUS_ROOM_CONFLICT);
             recurringReservation.setBackupBuildingId(this.roomAllocation.getBlId());
         }
@@ -186,7 +218,6 @@ public class SaveRecurringReservationOccurrenceAction
 
         // set the local time zone again so it doesn't have to be looked up
         recurringReservation.setTimeZone(this.localTimeZone);
-        return recurringReservation;
     }
 
     /**
@@ -221,7 +252,17 @@ public class SaveRecurringReservationOccurrenceAction
         reservationForCheck.setReserveId(occurrence.getReserveId());
 
         return !this.roomArrangementDataSource
-            .findAvailableRooms(reservationForCheck, null, false, null, false, false).isEmpty();
+            .findAvailableRooms(reservationForCheck, null, false, null, ALL_DAY_EVENT, false)
+            .isEmpty();
+    }
+
+    /**
+     * Get the room arrangement data source used for checking room availability.
+     *
+     * @return the room arrangement data source
+     */
+    protected final IRoomArrangementDataSource getRoomArrangementDataSource() {
+        return this.roomArrangementDataSource;
     }
 
     /**
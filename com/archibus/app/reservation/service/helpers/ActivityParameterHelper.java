@@ -5,8 +5,7 @@ import java.util.*;
 
 import javax.jws.WebMethod;
 
-import com.archibus.app.common.util.SchemaUtils;
-import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.dao.datasource.*;
 import com.archibus.app.reservation.service.ReservationRemoteService;
 import com.archibus.app.reservation.util.*;
 import com.archibus.context.ContextStore;
@@ -69,8 +68,7 @@ public class ActivityParameterHelper {
         } else if (SUPPORTED_METHODS_PARAMETER.equals(identifier)) {
             final StringBuffer buffer = new StringBuffer();
             // only support edit recurring if the occurrence index field is defined in the schema
-            if (SchemaUtils.fieldExistsInSchema(Constants.RESERVE_TABLE_NAME,
-                Constants.OCCURRENCE_INDEX_FIELD)) {
+            if (ReservationSchemaCapabilities.get().hasOccurrenceIndex()) {
                 buffer.append(Constants.COMMA);
                 buffer.append(EDIT_RECURRING_RESERVATION);
             }
@@ -0,0 +1,130 @@
+package com.archibus.app.reservation.service.helpers;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.Logger;
+
+import com.archibus.app.reservation.domain.ReservationException;
+
+/**
+ * Runs independent searches, e.g. one per building of a conference call, concurrently on an
+ * executor and returns their results in the original order. The searches only read from the
+ * database. They must not modify objects shared with the other searches.
+ * <p>
+ * The calling thread runs the first search itself and waits for the others. Without an executor,
+ * or if the executor rejects a search, the searches run on the calling thread. The executor must
+ * run each search with its own ARCHIBUS context and database connection, e.g. JobExecutor.
+ *
+ * @since 24.3
+ */
+public class ConcurrentSearchRunner {
+
+    /** Error message when a concurrent search fails. */
+    // @translatable
+    private static final String SEARCH_FAILED = "Search for available rooms failed";
+
+    /** The logger. */
+    private final Logger logger = Logger.getLogger(this.getClass());
+
+    /** The executor for running the searches, null to run them on the calling thread. */
+    private final Executor executor;
+
+    /**
+     * Create a search runner.
+     *
+     * @param executor the executor for running the searches with a separate context for each
+     *            search, null to run them on the calling thread
+     */
+    public ConcurrentSearchRunner(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run the searches and return their results.
+     *
+     * @param searches the searches to run
+     * @param <T> the result type
+     * @return the results, in the order of the searches
+     */
+    public <T> List<T> runAll(final List<? extends Callable<T>> searches) {
+        final List<T> results = new ArrayList<T>(searches.size());
+        if (this.executor == null || searches.size() < 2) {
+            for (final Callable<T> search : searches) {
+                results.add(runSearch(search));
+            }
+        } else {
+            final List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(searches.size());
+            for (final Callable<T> search : searches.subList(1, searches.size())) {
+                final FutureTask<T> task = new FutureTask<T>(search);
+                tasks.add(task);
+                try {
+                    this.executor.execute(task);
+                } catch (final RejectedExecutionException exception) {
+                    this.logger.debug("Executor rejected search, running it directly.", exception);
+                    task.run();
+                }
+            }
+            try {
+                results.add(runSearch(searches.get(0)));
+                for (final FutureTask<T> task : tasks) {
+                    results.add(getResult(task));
+                }
+            } finally {
+                for (final FutureTask<T> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run a search on the calling thread.
+     *
+     * @param search the search to run
+     * @param <T> the result type
+     * @return the search result
+     */
+    private static <T> T runSearch(final Callable<T> search) {
+        try {
+            return search.call();
+        } catch (final RuntimeException exception) {
+            throw exception;
+            // CHECKSTYLE:OFF : Suppress IllegalCatch warning. Justification: Callable.call()
+            // throws a checked Exception, which needs to be wrapped in ExceptionBase.
+        } catch (final Exception exception) {
+            // CHECKSTYLE:ON
+            throw new ReservationException(SEARCH_FAILED, exception,
+                ConcurrentSearchRunner.class);
+        }
+    }
+
+    /**
+     * Wait for the result of a search running on the executor. Exceptions thrown by the search are
+     * rethrown on the calling thread.
+     *
+     * @param task the search task
+     * @param <T> the result type
+     * @return the search result
+     */
+    private static <T> T getResult(final FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new ReservationException(SEARCH_FAILED, exception,
+                ConcurrentSearchRunner.class);
+        } catch (final ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ReservationException(SEARCH_FAILED, exception,
+                ConcurrentSearchRunner.class);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.archibus.app.reservation.service.helpers;
 
 import java.sql.Time;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import com.archibus.app.common.space.domain.*;
 import com.archibus.app.reservation.dao.IResourceStandardDataSource;
@@ -9,6 +10,7 @@ import com.archibus.app.reservation.dao.datasource.Constants;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.domain.recurrence.Recurrence;
 import com.archibus.app.reservation.service.*;
+import com.archibus.app.reservation.util.JobExecutor;
 import com.archibus.utility.*;
 
 /**
@@ -28,6 +30,19 @@ public class LocationQueryHandler {
     /** The resource standards data source. */
     private IResourceStandardDataSource resourceStandardDataSource;
 
+    /** Executor for checking the rooms of a conference call concurrently, null for one by one. */
+    private JobExecutor searchExecutor;
+
+    /**
+     * Set the executor for checking the rooms of a conference call concurrently. Each room is
+     * checked in a job with its own context.
+     *
+     * @param searchExecutor the executor, null to check the rooms one by one
+     */
+    public void setSearchExecutor(final JobExecutor searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     /**
      * Set the resource standards data source.
      *
@@ -185,17 +200,30 @@ public class LocationQueryHandler {
             final Recurrence recurrence) {
         final ConferenceRoomsAvailability result = ConferenceRoomsAvailability.newInstance();
 
-        for (final RoomReservation reservation : reservations) {
-            final RoomAllocation allocation = reservation.getRoomAllocations().get(0);
-            Integer capacity = null;
-            // Only use the number of attendees as a filter if non-zero.
-            if (allocation.getAttendeesInRoom() > 0) {
-                capacity = allocation.getAttendeesInRoom();
+        if (recurrence == null) {
+            // the rooms are independent, so check them concurrently
+            final List<Callable<List<RoomArrangement>>> searches =
+                    new ArrayList<Callable<List<RoomArrangement>>>(reservations.size());
+            for (final RoomReservation reservation : reservations) {
+                searches.add(new Callable<List<RoomArrangement>>() {
+                    @Override
+                    public List<RoomArrangement> call() {
+                        return LocationQueryHandler.this.findAvailableRooms(reservation,
+                            getCapacity(reservation), allDayEvent, null, null);
+                    }
+                });
+            }
+            for (final List<RoomArrangement> rooms : new ConcurrentSearchRunner(
+                this.searchExecutor).runAll(searches)) {
+                result.getRoomArrangements().addAll(rooms);
+            }
+        } else {
+            // the recurrence is modified while searching, so check the rooms one by one
+            for (final RoomReservation reservation : reservations) {
+                // should yield 0 or 1 result since we're looking for a specific arrangement
+                result.getRoomArrangements().addAll(this.findAvailableRooms(reservation,
+                    getCapacity(reservation), allDayEvent, recurrence, null));
             }
-
-            // should yield 0 or 1 result since we're looking for a specific arrangement
-            result.getRoomArrangements().addAll(
-                this.findAvailableRooms(reservation, capacity, allDayEvent, recurrence, null));
         }
 
         if (allDayEvent) {
@@ -215,6 +243,22 @@ public class LocationQueryHandler {
         return result;
     }
 
+    /**
+     * Get the capacity to require for the room of a conference call reservation.
+     *
+     * @param reservation the room reservation
+     * @return the number of attendees in the room, or null if not specified
+     */
+    private static Integer getCapacity(final RoomReservation reservation) {
+        final RoomAllocation allocation = reservation.getRoomAllocations().get(0);
+        Integer capacity = null;
+        // Only use the number of attendees as a filter if non-zero.
+        if (allocation.getAttendeesInRoom() > 0) {
+            capacity = allocation.getAttendeesInRoom();
+        }
+        return capacity;
+    }
+
     /**
      * Add a time block to a given time.
      *
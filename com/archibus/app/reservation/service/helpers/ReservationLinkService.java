@@ -6,10 +6,8 @@ import com.archibus.app.common.notification.domain.Notification;
 import com.archibus.app.common.notification.message.NotificationDataModel;
 import com.archibus.app.common.space.dao.IRoomDao;
 import com.archibus.app.common.space.dao.datasource.BuildingDataSource;
-import com.archibus.app.common.space.domain.*;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.util.*;
-import com.archibus.utility.StringUtil;
 
 /**
  * Service class that can build messages related to the reservation link to insert in the meeting
@@ -44,28 +42,28 @@ public class ReservationLinkService extends ReservationMessagesService {
     /** Referenced_by value for the messages used for conference call reservations. */
     private static final String REFERENCED_BY_CONFCALL = "CONFCALL_WFR";
 
-    /** The building data source. */
-    private BuildingDataSource buildingDataSource;
-
-    /** The rooms data source. */
-    private IRoomDao roomDao;
-
     /**
      * Setter for Room Dao.
      *
      * @param roomDao room data source to set
+     * @deprecated room names are loaded via LocationMetadataCache, kept for the Spring
+     *             configuration
      */
+    @Deprecated
     public final void setRoomDao(final IRoomDao roomDao) {
-        this.roomDao = roomDao;
+        // room names are loaded via LocationMetadataCache
     }
 
     /**
      * Set the building data source.
      *
      * @param buildingDataSource the data source
+     * @deprecated building names are loaded via LocationMetadataCache, kept for the Spring
+     *             configuration
      */
+    @Deprecated
     public final void setBuildingDataSource(final BuildingDataSource buildingDataSource) {
-        this.buildingDataSource = buildingDataSource;
+        // building names are loaded via LocationMetadataCache
     }
 
     /**
@@ -138,9 +136,17 @@ public class ReservationLinkService extends ReservationMessagesService {
                 new ArrayList<Map<String, Object>>(reservationsByOccurrenceIndex.size());
         dataModel.getDataModel().put("occs", occurrences);
 
-        // Caches for the room name and building name
-        final Map<Room, Room> roomCache = new HashMap<Room, Room>();
-        final Map<String, Building> buildingCache = new HashMap<String, Building>();
+        // load the building and room names of all occurrences at once
+        final LocationMetadataCache locationCache = LocationMetadataCache.getInstance();
+        final List<RoomArrangement> roomArrangements =
+                new ArrayList<RoomArrangement>(reservations.size());
+        for (final RoomReservation reservation : reservations) {
+            if (!reservation.getRoomAllocations().isEmpty()) {
+                roomArrangements
+                    .add(reservation.getRoomAllocations().get(0).getRoomArrangement());
+            }
+        }
+        locationCache.prefetch(roomArrangements);
         final String singleView = com.archibus.service.Configuration.getActivityParameterString(
             ReservationsContextHelper.RESERVATIONS_ACTIVITY, SINGLE_RESERVATION_VIEW);
 
@@ -167,15 +173,12 @@ public class ReservationLinkService extends ReservationMessagesService {
                 reservationDataModel.put(URL, appUrl + singleView);
                 if (!reservation.getRoomAllocations().isEmpty()) {
                     final RoomAllocation alloc = reservation.getRoomAllocations().get(0);
-                    final Room pkey = new Room();
-                    pkey.setBuildingId(alloc.getBlId());
-                    pkey.setFloorId(alloc.getFlId());
-                    pkey.setId(alloc.getRmId());
-
-                    reservationDataModel.put("bl", getBuildingName(buildingCache, pkey));
-                    reservationDataModel.put("fl", pkey.getFloorId());
-                    reservationDataModel.put("rm", pkey.getId());
-                    reservationDataModel.put("name", getRoomName(roomCache, pkey));
+                    reservationDataModel.put("bl",
+                        locationCache.getBuildingName(alloc.getBlId()));
+                    reservationDataModel.put("fl", alloc.getFlId());
+                    reservationDataModel.put("rm", alloc.getRmId());
+                    reservationDataModel.put("name", locationCache.getRoomName(alloc.getBlId(),
+                        alloc.getFlId(), alloc.getRmId()));
                 }
             }
         }
@@ -184,44 +187,6 @@ public class ReservationLinkService extends ReservationMessagesService {
         return formatMessage(primary.getEmail(), notification, dataModel);
     }
 
-    /**
-     * Get the name of the building.
-     *
-     * @param buildingCache cache to use for avoiding access to the database
-     * @param pkey room primary key
-     * @return building name (or id if name is not set)
-     */
-    private String getBuildingName(final Map<String, Building> buildingCache, final Room pkey) {
-        Building building = buildingCache.get(pkey.getBuildingId());
-        if (building == null) {
-            building = this.buildingDataSource.get(pkey.getBuildingId());
-            buildingCache.put(pkey.getBuildingId(), building);
-        }
-        final String buildingName;
-        if (StringUtil.isNullOrEmpty(building.getName())) {
-            buildingName = pkey.getBuildingId();
-        } else {
-            buildingName = building.getName();
-        }
-        return buildingName;
-    }
-
-    /**
-     * Get the room name (can be null if not set).
-     *
-     * @param roomCache rooms cache to use
-     * @param pkey room primary key
-     * @return the room name
-     */
-    private String getRoomName(final Map<Room, Room> roomCache, final Room pkey) {
-        Room room = roomCache.get(pkey);
-        if (room == null) {
-            room = this.roomDao.getByPrimaryKey(pkey);
-            roomCache.put(pkey, room);
-        }
-        return room.getName();
-    }
-
     /**
      * Build the external URL for the Web Central application.
      *
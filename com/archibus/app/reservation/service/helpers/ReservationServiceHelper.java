@@ -185,12 +185,14 @@ public final class ReservationServiceHelper {
             savedReservations.add(roomReservation);
 
             SaveRecurringReservationOccurrenceAction action = null;
+            BulkSaveRecurringReservationOccurrenceAction bulkAction = null;
             if (existingReservations == null || existingReservations.isEmpty()) {
-                // loop through the pattern with the default save occurrence action
-                action =
-                        new SaveRecurringReservationOccurrenceAction(savedReservations,
+                // loop through the pattern creating the occurrences, then save them all at once
+                bulkAction =
+                        new BulkSaveRecurringReservationOccurrenceAction(savedReservations,
                             reservationDataSource, roomArrangementDataSource,
                             roomReservation);
+                action = bulkAction;
             } else {
                 roomReservation.setCreatedReservations(existingReservations.remove(roomReservation
                     .getOccurrenceIndex()));
@@ -202,6 +204,9 @@ public final class ReservationServiceHelper {
                             roomReservation, existingReservations);
             }
             pattern.loopThroughRepeats(action);
+            if (bulkAction != null) {
+                bulkAction.saveOccurrences();
+            }
 
             // get the saved copy of the first occurrence with the proper status etc. in local time
             final RoomReservation firstSavedReservation =
@@ -136,8 +136,7 @@ public class ResourceFinderServiceHelper extends AdminServiceContainer {
 
         if (StringUtil.notNullOrEmpty(recurrenceRule) && buildingId != null && endDate != null) {
             // get the local date
-            final Date localCurrentDate =
-                    LocalDateTimeUtil.currentLocalDate(null, null, null, buildingId);
+            final Date localCurrentDate = TimeZoneConverter.getCurrentLocalDate(buildingId);
             // calculate the difference in days between now and the last occurrence date
             final int daysDifference = (int) (endDate.getTime() - localCurrentDate.getTime())
                     / com.archibus.app.reservation.dao.datasource.Constants.ONE_DAY;
@@ -197,28 +196,35 @@ public class ResourceFinderServiceHelper extends AdminServiceContainer {
             final List<DataRecord> limitedResources) {
         // update the available quantities for limited resources when the time start and end are
         // defined
-        if (reservation.getStartTime() != null && reservation.getEndTime() != null) {
+        if (reservation.getStartTime() != null && reservation.getEndTime() != null
+                && !limitedResources.isEmpty()) {
+            // when recurring reservations check for availability on all occurrence dates
+            final List<TimePeriod> timePeriods = new ArrayList<TimePeriod>();
+            final List<Integer> reserveIds = new ArrayList<Integer>();
+            if (existingReservations == null) {
+                addTimePeriods(reservation, recurrenceRule, timePeriods, reserveIds);
+            } else {
+                for (final IReservation existingReservation : existingReservations) {
+                    addTimePeriod(reservation, existingReservation.getStartDate(),
+                        existingReservation.getEndDate(), existingReservation.getReserveId(),
+                        timePeriods, reserveIds);
+                }
+            }
+
+            final List<String> resourceIds = new ArrayList<String>(limitedResources.size());
+            for (final DataRecord record : limitedResources) {
+                resourceIds.add(record.getString(RESOURCES_RESOURCE_ID));
+            }
+            // get the reserved quantities for all resources and occurrences at once
+            final Map<String, int[]> reservedQuantities = this.resourceDataSource
+                .getPeakReservedResources(resourceIds, timePeriods, reserveIds, true);
+
             // update the available quantities
             for (final DataRecord record : limitedResources) {
-                // create a new time period
-                final TimePeriod timePeriod = new TimePeriod(reservation.getTimePeriod());
-                // when recurring reservations check for availability on all occurrence dates
                 int maxReserved = 0;
-                if (existingReservations == null) {
-                    maxReserved =
-                            getMaximumReserved(reservation, recurrenceRule, timePeriod, record);
-                } else {
-                    for (final IReservation existingReservation : existingReservations) {
-                        timePeriod.setStartDate(existingReservation.getStartDate());
-                        timePeriod.setEndDate(existingReservation.getEndDate());
-
-                        final int reserved = this.resourceDataSource.getNumberOfReservedResources(
-                            timePeriod, record.getString(RESOURCES_RESOURCE_ID),
-                            existingReservation.getReserveId(), true);
-
-                        maxReserved = Math.max(maxReserved, reserved);
-                    }
-
+                for (final int reserved : reservedQuantities
+                    .get(record.getString(RESOURCES_RESOURCE_ID))) {
+                    maxReserved = Math.max(maxReserved, reserved);
                 }
 
                 final int available = record.getInt(RESOURCES_QUANTITY) - maxReserved;
@@ -230,21 +236,20 @@ public class ResourceFinderServiceHelper extends AdminServiceContainer {
     }
 
     /**
-     * Gets the maximum reserved.
+     * Add the time periods to check for a new or edited reservation: one for each occurrence
+     * date if the reservation is recurring.
      *
      * @param reservation the reservation
      * @param recurrenceRule the recurrence rule
-     * @param timePeriod the time period
-     * @param record the record
-     * @return the maximum reserved
+     * @param timePeriods the list to add the time periods to
+     * @param reserveIds the list to add the reservation id to ignore for each time period
      */
-    private int getMaximumReserved(final IReservation reservation, final String recurrenceRule,
-            final TimePeriod timePeriod, final DataRecord record) {
-
-        int maxReserved = 0;
+    private static void addTimePeriods(final IReservation reservation,
+            final String recurrenceRule, final List<TimePeriod> timePeriods,
+            final List<Integer> reserveIds) {
         if (StringUtil.isNullOrEmpty(recurrenceRule)) {
-            maxReserved = this.resourceDataSource.getNumberOfReservedResources(timePeriod,
-                record.getString(RESOURCES_RESOURCE_ID), reservation.getReserveId(), true);
+            addTimePeriod(reservation, reservation.getStartDate(), reservation.getEndDate(),
+                reservation.getReserveId(), timePeriods, reserveIds);
         } else {
             // check for all occurrences
             final List<Date> dateList = RecurrenceService.getDateList(reservation.getStartDate(),
@@ -252,18 +257,33 @@ public class ResourceFinderServiceHelper extends AdminServiceContainer {
 
             if (dateList != null) {
                 for (final Date date : dateList) {
-                    timePeriod.setStartDate(date);
-                    timePeriod.setEndDate(date);
-
-                    final int reserved = this.resourceDataSource.getNumberOfReservedResources(
-                        timePeriod, record.getString(RESOURCES_RESOURCE_ID),
-                        reservation.getReserveId(), true);
-
-                    maxReserved = Math.max(maxReserved, reserved);
+                    addTimePeriod(reservation, date, date, reservation.getReserveId(),
+                        timePeriods, reserveIds);
                 }
             }
         }
-        return maxReserved;
+    }
+
+    /**
+     * Add the time period of the reservation on the given dates, if it is complete.
+     *
+     * @param reservation the reservation providing the times
+     * @param startDate the start date
+     * @param endDate the end date
+     * @param reserveId the reservation id to ignore
+     * @param timePeriods the list to add the time period to
+     * @param reserveIds the list to add the reservation id to
+     */
+    private static void addTimePeriod(final IReservation reservation, final Date startDate,
+            final Date endDate, final Integer reserveId, final List<TimePeriod> timePeriods,
+            final List<Integer> reserveIds) {
+        final TimePeriod timePeriod = new TimePeriod(reservation.getTimePeriod());
+        timePeriod.setStartDate(startDate);
+        timePeriod.setEndDate(endDate);
+        if (timePeriod.isComplete()) {
+            timePeriods.add(timePeriod);
+            reserveIds.add(reserveId);
+        }
     }
 
     /**
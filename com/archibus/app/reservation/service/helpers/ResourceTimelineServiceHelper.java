@@ -5,7 +5,6 @@ import java.util.*;
 
 import org.json.*;
 
-import com.archibus.app.common.util.SchemaUtils;
 import com.archibus.app.reservation.dao.datasource.*;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.app.reservation.service.RecurrenceService;
@@ -73,10 +72,15 @@ public class ResourceTimelineServiceHelper extends AdminServiceContainer {
         final DataRecord fullResourceRecord = this.resourceDataSource.getRecord();
         final Resource resource = this.resourceDataSource.convertRecordToObject(fullResourceRecord);
 
+        // the occurrence dates to check, with the reservation to ignore on each date
+        final List<Date> dates = new ArrayList<Date>();
+        final List<Integer> reserveIds = new ArrayList<Integer>();
+        addOccurrenceDates(timePeriod, reservationId, recurrenceRule, existingReservations, dates,
+            reserveIds);
+
         // get resource allocations for the selected reservation
         final List<ResourceAllocation> resourceAllocations =
-                getAllResourceAllocations(timePeriod.getStartDate(), timePeriod.getEndDate(),
-                    recurrenceRule, existingReservations, resource, reservationId);
+                getAllResourceAllocations(dates, reserveIds, resource);
 
         if (resource.getQuantity() > requestedQuantity) {
             // Loop through all allocations and build a set of times.
@@ -98,11 +102,12 @@ public class ResourceTimelineServiceHelper extends AdminServiceContainer {
                 allocationsByEnd.put(resourceAllocation.getEndTime(), resourceAllocation);
             }
             final List<TimePeriod> periods = buildTimePeriods(timePeriod.getStartDate(), times);
-            // Get the number of reserved resources for each time period.
-            for (final TimePeriod period : periods) {
-                final int reservedCount = this.getMaximumReserved(timePeriod.getStartDate(),
-                    timePeriod.getEndDate(), recurrenceRule, existingReservations, resourceId,
-                    reservationId, period);
+            // Get the number of reserved resources for each time period on all dates at once.
+            final int[] reservedCounts =
+                    this.getMaximumReserved(resourceId, periods, dates, reserveIds);
+            for (int index = 0; index < periods.size(); ++index) {
+                final TimePeriod period = periods.get(index);
+                final int reservedCount = reservedCounts[index];
 
                 if (fullResourceRecord.getInt(RESOURCES_QUANTITY)
                         - reservedCount < requestedQuantity) {
@@ -180,150 +185,148 @@ public class ResourceTimelineServiceHelper extends AdminServiceContainer {
     }
 
     /**
-     * Gets the all resource allocations.
+     * Add the dates to check for the resource, with the reservation to ignore on each date.
      *
-     * @param startDate the start date
-     * @param endDate the end date
+     * @param timePeriod the time period
+     * @param reservationId the reservation id
      * @param recurrenceRule the recurrence rule
      * @param existingReservations the existing reservations
-     * @param resource the resource
-     * @param reservationId the reservation id
-     * @return the all resource allocations
+     * @param dates the list to add the dates to
+     * @param reserveIds the list to add the reservation id to ignore for each date to
      */
-    private List<ResourceAllocation> getAllResourceAllocations(final Date startDate,
-            final Date endDate, final String recurrenceRule,
-            final List<RoomReservation> existingReservations, final Resource resource,
-            final Integer reservationId) {
-
-        final List<ResourceAllocation> resourceAllocations = new ArrayList<ResourceAllocation>();
-
-        // loop through all dates for getting all resource allocations when recurring
-
+    private static void addOccurrenceDates(final TimePeriod timePeriod,
+            final Integer reservationId, final String recurrenceRule,
+            final List<RoomReservation> existingReservations, final List<Date> dates,
+            final List<Integer> reserveIds) {
         if (existingReservations == null) {
             if (StringUtil.isNullOrEmpty(recurrenceRule)) {
                 // check only the first date, with the given reservation id
-                resourceAllocations
-                    .addAll(getResourceAllocations(startDate, reservationId, resource));
+                dates.add(timePeriod.getStartDate());
+                reserveIds.add(reservationId);
             } else {
                 // check all dates in the recurrence for a new recurring reservation
-                final List<Date> dateList =
-                        RecurrenceService.getDateList(startDate, endDate, recurrenceRule);
-                for (final Date date : dateList) {
-                    resourceAllocations.addAll(getResourceAllocations(date, null, resource));
+                for (final Date date : RecurrenceService.getDateList(timePeriod.getStartDate(),
+                    timePeriod.getEndDate(), recurrenceRule)) {
+                    dates.add(date);
+                    reserveIds.add(null);
                 }
             }
         } else {
             for (final RoomReservation existingReservation : existingReservations) {
-                // get the resource allocations for this occurrence
-                final List<ResourceAllocation> allocations =
-                        getResourceAllocations(existingReservation.getStartDate(),
-                            existingReservation.getReserveId(), resource);
-                // add them to the list
-                resourceAllocations.addAll(allocations);
+                dates.add(existingReservation.getStartDate());
+                reserveIds.add(existingReservation.getReserveId());
             }
         }
-
-        return resourceAllocations;
     }
 
     /**
-     * Gets the maximum reserved count of a resource for a recurring reservation.
+     * Gets the resource allocations on all dates. The allocations are loaded in a single query
+     * and an allocation is returned for each date it covers.
      *
-     * @param startDate the start date
-     * @param endDate the end date
-     * @param recurrenceRule the recurrence rule
-     * @param existingReservations the existing reservations
-     * @param resourceId the resource id
-     * @param reservationId the reservation id
-     * @param timePeriod the time period to check
-     * @return the maximum number of reserved resources
+     * @param dates the dates
+     * @param reserveIds the reservation id to ignore on each date (entries can be null)
+     * @param resource the resource
+     * @return the all resource allocations
      */
-    private int getMaximumReserved(final Date startDate, final Date endDate,
-            final String recurrenceRule, final List<RoomReservation> existingReservations,
-            final String resourceId, final Integer reservationId, final TimePeriod timePeriod) {
-
-        int maxReserved = 0;
+    private List<ResourceAllocation> getAllResourceAllocations(final List<Date> dates,
+            final List<Integer> reserveIds, final Resource resource) {
+        final List<ResourceAllocation> resourceAllocations = new ArrayList<ResourceAllocation>();
+        if (dates.isEmpty()) {
+            return resourceAllocations;
+        }
 
-        if (existingReservations == null) {
-            if (StringUtil.isNullOrEmpty(recurrenceRule)) {
-                // check only the first date, with the given reservation id
-                maxReserved = this.resourceDataSource.getNumberOfReservedResources(timePeriod,
-                    resourceId, reservationId, false);
-            } else {
-                // check all dates in the recurrence
-                final List<Date> dateList =
-                        RecurrenceService.getDateList(startDate, endDate, recurrenceRule);
-                for (final Date date : dateList) {
-                    timePeriod.setStartDate(date);
-                    timePeriod.setEndDate(date);
-                    // get the actual reserved count for this date, not editing an existing
-                    // reservation
-                    final int reservedCount = this.resourceDataSource
-                        .getNumberOfReservedResources(timePeriod, resourceId, null, false);
-                    maxReserved = Math.max(maxReserved, reservedCount);
-                }
+        Date firstDate = null;
+        Date lastDate = null;
+        for (final Date date : dates) {
+            if (firstDate == null || date.before(firstDate)) {
+                firstDate = date;
             }
-        } else {
-            for (final RoomReservation existingReservation : existingReservations) {
-                timePeriod.setStartDate(existingReservation.getStartDate());
-                timePeriod.setEndDate(existingReservation.getStartDate());
-                // get the maximum reserved count for this occurrence
-                final int reservedCount = this.resourceDataSource.getNumberOfReservedResources(
-                    timePeriod, resourceId, existingReservation.getReserveId(), false);
-                // compare against what we have so far
-                maxReserved = Math.max(maxReserved, reservedCount);
+            if (lastDate == null || date.after(lastDate)) {
+                lastDate = date;
             }
         }
 
-        return maxReserved;
-    }
-
-    /**
-     * Gets the resource allocations.
-     *
-     * @param startDate the start date
-     * @param reservationId the reservation id
-     * @param resource the resource
-     * @return the resource allocations
-     */
-    private List<ResourceAllocation> getResourceAllocations(final Date startDate,
-            final Integer reservationId, final Resource resource) {
-        // search for resource allocations for this day
+        // search for resource allocations in the date window
+        final boolean hasDateEnd =
+                ReservationSchemaCapabilities.get().hasContinuousResourceReservations();
         this.resourceAllocationDataSource.clearRestrictions();
         this.resourceAllocationDataSource.addRestriction(Restrictions
             .sql("(reserve_rs.status = 'Awaiting App.' or reserve_rs.status = 'Confirmed')"));
-
         this.resourceAllocationDataSource.addRestriction(
             Restrictions.eq(RESERVE_RS_TABLE, RESOURCE_ID, resource.getResourceId()));
-        if (SchemaUtils.fieldExistsInSchema(RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME)) {
-            this.resourceAllocationDataSource.addRestriction(
-                Restrictions.lte(RESERVE_RS_TABLE, Constants.DATE_START_FIELD_NAME, startDate));
-            this.resourceAllocationDataSource.addRestriction(
-                Restrictions.gte(RESERVE_RS_TABLE, Constants.DATE_END_FIELD_NAME, startDate));
-        } else {
-            this.resourceAllocationDataSource.addRestriction(
-                Restrictions.eq(RESERVE_RS_TABLE, Constants.DATE_START_FIELD_NAME, startDate));
+        this.resourceAllocationDataSource.addRestriction(
+            Restrictions.lte(RESERVE_RS_TABLE, Constants.DATE_START_FIELD_NAME, lastDate));
+        this.resourceAllocationDataSource.addRestriction(Restrictions.gte(RESERVE_RS_TABLE,
+            hasDateEnd ? Constants.DATE_END_FIELD_NAME : Constants.DATE_START_FIELD_NAME,
+            firstDate));
+        final List<DataRecord> records = this.resourceAllocationDataSource.getRecords();
+
+        final String prefix = RESERVE_RS_TABLE + Constants.DOT;
+        for (int index = 0; index < dates.size(); ++index) {
+            final Date date = TimePeriod.clearTime(dates.get(index));
+            final Integer reservationId = reserveIds.get(index);
+            for (final DataRecord record : records) {
+                final Date startDate = TimePeriod
+                    .clearTime(record.getDate(prefix + Constants.DATE_START_FIELD_NAME));
+                Date endDate = null;
+                if (hasDateEnd && record.getDate(prefix + Constants.DATE_END_FIELD_NAME) != null) {
+                    endDate = TimePeriod
+                        .clearTime(record.getDate(prefix + Constants.DATE_END_FIELD_NAME));
+                }
+                // don't include the active reservation
+                if (startDate.after(date) || (endDate == null ? startDate : endDate).before(date)
+                        || reservationId != null && reservationId > 0
+                                && reservationId == record.getInt(prefix + Constants.RES_ID)) {
+                    continue;
+                }
+                // convert for each date, so the allocations can be adjusted independently
+                final ResourceAllocation allocation =
+                        this.resourceAllocationDataSource.convertRecordToObject(record);
+                // change start and end times for allocations spanning multiple days
+                if (date.after(allocation.getStartDate())) {
+                    allocation.setStartTime(resource.getDayStart());
+                }
+                if (allocation.getEndDate() != null && date.before(allocation.getEndDate())) {
+                    allocation.setEndTime(resource.getDayEnd());
+                }
+                resourceAllocations.add(allocation);
+            }
         }
+        return resourceAllocations;
+    }
 
-        // don't include the active reservation
-        if (reservationId != null && reservationId > 0) {
-            this.resourceAllocationDataSource
-                .addRestriction(Restrictions.ne(RESERVE_RS_TABLE, "res_id", reservationId));
+    /**
+     * Gets the maximum reserved count of a resource in each time period over all dates. The
+     * reserved counts are calculated with a single query.
+     *
+     * @param resourceId the resource id
+     * @param periods the time periods to check, on any date
+     * @param dates the dates to check each time period on
+     * @param reserveIds the reservation id to ignore on each date (entries can be null)
+     * @return the maximum number of reserved resources for each time period
+     */
+    private int[] getMaximumReserved(final String resourceId, final List<TimePeriod> periods,
+            final List<Date> dates, final List<Integer> reserveIds) {
+        final List<TimePeriod> timePeriods = new ArrayList<TimePeriod>();
+        final List<Integer> timePeriodReserveIds = new ArrayList<Integer>();
+        for (final TimePeriod period : periods) {
+            for (int index = 0; index < dates.size(); ++index) {
+                timePeriods.add(new TimePeriod(dates.get(index), dates.get(index),
+                    period.getStartTime(), period.getEndTime()));
+                timePeriodReserveIds.add(reserveIds.get(index));
+            }
         }
 
-        // find all resource allocations except the selected one
-        final List<ResourceAllocation> allocations = this.resourceAllocationDataSource.findAll();
-        // change start and end times for allocations spanning multiple days
-        final Date date = TimePeriod.clearTime(startDate);
-        for (final ResourceAllocation alloc : allocations) {
-            if (date.after(alloc.getStartDate())) {
-                alloc.setStartTime(resource.getDayStart());
-            }
-            if (alloc.getEndDate() != null && date.before(alloc.getEndDate())) {
-                alloc.setEndTime(resource.getDayEnd());
-            }
+        final int[] reservedCounts = this.resourceDataSource
+            .getPeakReservedResources(Collections.singletonList(resourceId), timePeriods,
+                timePeriodReserveIds, false)
+            .get(resourceId);
+        final int[] maxReserved = new int[periods.size()];
+        for (int index = 0; index < reservedCounts.length; ++index) {
+            final int period = index / dates.size();
+            maxReserved[period] = Math.max(maxReserved[period], reservedCounts[index]);
         }
-        return allocations;
+        return maxReserved;
     }
 
 }
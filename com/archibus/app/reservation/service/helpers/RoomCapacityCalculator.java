@@ -0,0 +1,286 @@
+package com.archibus.app.reservation.service.helpers;
+
+import java.util.*;
+
+import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.domain.TimePeriod;
+import com.archibus.app.reservation.util.ConcurrencySweep;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.datasource.restriction.Restrictions;
+
+/**
+ * Calculates the available attendee capacity of a shared room arrangement for one or more
+ * occurrences of a reservation.
+ * <p>
+ * All confirmed room allocations of the arrangement that overlap the date window of the
+ * occurrences are loaded in a single query. For each occurrence, the peak number of concurrent
+ * attendees in the requested time window is found by sweeping the sorted start and end times of
+ * the overlapping allocations. Times are compared without their date, so an allocation spanning
+ * several days counts on each of its days in the same time window.
+ * <p>
+ * LBNL / BER
+ *
+ * @since 24.3
+ */
+public final class RoomCapacityCalculator {
+
+    /** Fields of reserve_rm to load. */
+    private static final String[] ALLOCATION_FIELDS = { Constants.RES_ID,
+            Constants.DATE_START_FIELD_NAME, Constants.DATE_END_FIELD_NAME,
+            Constants.TIME_START_FIELD_NAME, Constants.TIME_END_FIELD_NAME,
+            Constants.ATTENDEES_IN_ROOM_FIELD };
+
+    /** Building id of the arrangement. */
+    private final String blId;
+
+    /** Floor id of the arrangement. */
+    private final String flId;
+
+    /** Room id of the arrangement. */
+    private final String rmId;
+
+    /** Configuration id of the arrangement. */
+    private final String configId;
+
+    /** Arrangement type id of the arrangement. */
+    private final String arrangeTypeId;
+
+    /** Requested start time in minutes. */
+    private final int startMinutes;
+
+    /** Requested end time in minutes. */
+    private final int endMinutes;
+
+    /** Start date of each occurrence as yyyymmdd. */
+    private final List<Integer> startDays = new ArrayList<Integer>();
+
+    /** End date of each occurrence as yyyymmdd. */
+    private final List<Integer> endDays = new ArrayList<Integer>();
+
+    /** Reservation to ignore for each occurrence, null entries to ignore none. */
+    private final List<Integer> excludedReservationIds = new ArrayList<Integer>();
+
+    /** Earliest date of all occurrences. */
+    private Date firstDate;
+
+    /** Latest date of all occurrences. */
+    private Date lastDate;
+
+    /** Maximum capacity of the arrangement, loaded by calculate. */
+    private int maxCapacity;
+
+    /**
+     * Create a calculator for the given room arrangement and time window.
+     *
+     * @param blId the building id
+     * @param flId the floor id
+     * @param rmId the room id
+     * @param configId the configuration id
+     * @param arrangeTypeId the arrangement type id
+     * @param startTime the requested start time
+     * @param endTime the requested end time
+     */
+    public RoomCapacityCalculator(final String blId, final String flId, final String rmId,
+            final String configId, final String arrangeTypeId, final Date startTime,
+            final Date endTime) {
+        this.blId = blId;
+        this.flId = flId;
+        this.rmId = rmId;
+        this.configId = configId;
+        this.arrangeTypeId = arrangeTypeId;
+        this.startMinutes = TimePeriod.toMinutes(startTime);
+        this.endMinutes = TimePeriod.toMinutes(endTime);
+    }
+
+    /**
+     * Add an occurrence to calculate the available capacity for. Occurrences must not overlap.
+     *
+     * @param startDate the start date of the occurrence
+     * @param endDate the end date of the occurrence
+     * @param excludedReservationId reservation to ignore for this occurrence (can be null)
+     */
+    public void addOccurrence(final Date startDate, final Date endDate,
+            final Integer excludedReservationId) {
+        this.startDays.add(TimePeriod.toDayNumber(startDate));
+        this.endDays.add(TimePeriod.toDayNumber(endDate));
+        this.excludedReservationIds.add(excludedReservationId);
+        if (this.firstDate == null || startDate.before(this.firstDate)) {
+            this.firstDate = startDate;
+        }
+        if (this.lastDate == null || endDate.after(this.lastDate)) {
+            this.lastDate = endDate;
+        }
+    }
+
+    /**
+     * Calculate the available capacity of each occurrence: the maximum capacity of the
+     * arrangement minus the peak number of concurrent attendees in the requested time window.
+     *
+     * @return the available capacity of each occurrence, in the order they were added
+     */
+    public int[] calculate() {
+        this.maxCapacity = this.loadMaxCapacity();
+        final int occurrenceCount = this.startDays.size();
+        final int[] availableCapacities = new int[occurrenceCount];
+        if (occurrenceCount == 0) {
+            return availableCapacities;
+        }
+
+        // occurrence indexes sorted on date, to find the occurrences of each allocation quickly
+        final Integer[] sortedOccurrences = new Integer[occurrenceCount];
+        for (int index = 0; index < occurrenceCount; ++index) {
+            sortedOccurrences[index] = index;
+        }
+        Arrays.sort(sortedOccurrences, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer first, final Integer second) {
+                return RoomCapacityCalculator.this.startDays.get(first)
+                    .compareTo(RoomCapacityCalculator.this.startDays.get(second));
+            }
+        });
+        final int[] sortedEndDays = new int[occurrenceCount];
+        for (int index = 0; index < occurrenceCount; ++index) {
+            sortedEndDays[index] = this.endDays.get(sortedOccurrences[index]);
+        }
+
+        final ConcurrencySweep[] sweeps = new ConcurrencySweep[occurrenceCount];
+        for (int index = 0; index < occurrenceCount; ++index) {
+            sweeps[index] = new ConcurrencySweep();
+        }
+        final String prefix = Constants.RESERVE_RM_TABLE + Constants.DOT;
+        for (final DataRecord record : this.loadAllocations()) {
+            final int start = Math.max(this.startMinutes,
+                TimePeriod.toMinutes(record.getDate(prefix + Constants.TIME_START_FIELD_NAME)));
+            final int end = Math.min(this.endMinutes,
+                TimePeriod.toMinutes(record.getDate(prefix + Constants.TIME_END_FIELD_NAME)));
+            if (start >= end) {
+                // touching allocations don't overlap
+                continue;
+            }
+            final int reservationId = record.getInt(prefix + Constants.RES_ID);
+            final int attendees = record.getInt(prefix + Constants.ATTENDEES_IN_ROOM_FIELD);
+            final Date startDate = record.getDate(prefix + Constants.DATE_START_FIELD_NAME);
+            final Date endDate = record.getDate(prefix + Constants.DATE_END_FIELD_NAME);
+            final int startDay = TimePeriod.toDayNumber(startDate);
+            final int endDay = endDate == null ? startDay : TimePeriod.toDayNumber(endDate);
+
+            for (int position = findFirstEndingOnOrAfter(sortedEndDays, startDay);
+                    position < occurrenceCount
+                            && this.startDays.get(sortedOccurrences[position]) <= endDay;
+                    ++position) {
+                final int occurrence = sortedOccurrences[position];
+                final Integer excludedId = this.excludedReservationIds.get(occurrence);
+                if (excludedId == null || excludedId != reservationId) {
+                    sweeps[occurrence].addInterval(start, end, attendees);
+                }
+            }
+        }
+
+        for (int occurrence = 0; occurrence < occurrenceCount; ++occurrence) {
+            availableCapacities[occurrence] =
+                    this.maxCapacity - sweeps[occurrence].getPeak();
+        }
+        return availableCapacities;
+    }
+
+    /**
+     * Get the maximum capacity of the arrangement, as loaded by the last calculation.
+     *
+     * @return the maximum capacity
+     */
+    public int getMaxCapacity() {
+        return this.maxCapacity;
+    }
+
+    /**
+     * Get the minimum of the given available capacities.
+     *
+     * @param availableCapacities the available capacity of each occurrence, as calculated by this
+     *            calculator
+     * @return the minimum available capacity, the maximum capacity of the arrangement if there are
+     *         no occurrences
+     */
+    public int getMinimum(final int[] availableCapacities) {
+        int minimum = this.maxCapacity;
+        for (final int availableCapacity : availableCapacities) {
+            minimum = Math.min(minimum, availableCapacity);
+        }
+        return minimum;
+    }
+
+    /**
+     * Load the maximum capacity of the arrangement.
+     *
+     * @return the maximum capacity, 0 if the arrangement doesn't exist
+     */
+    private int loadMaxCapacity() {
+        final DataSource dataSource = DataSourceFactory.createDataSourceForFields(
+            Constants.RM_ARRANGE_TABLE, new String[] { Constants.MAX_CAPACITY_FIELD_NAME });
+        this.addArrangementRestriction(dataSource, Constants.RM_ARRANGE_TABLE);
+        final DataRecord record = dataSource.getRecord();
+        return record == null ? 0
+                : record.getInt(Constants.RM_ARRANGE_TABLE + Constants.DOT
+                        + Constants.MAX_CAPACITY_FIELD_NAME);
+    }
+
+    /**
+     * Load the confirmed allocations of the arrangement that overlap the date window of all
+     * occurrences.
+     *
+     * @return the reserve_rm records
+     */
+    private List<DataRecord> loadAllocations() {
+        final DataSource dataSource = DataSourceFactory
+            .createDataSourceForFields(Constants.RESERVE_RM_TABLE, ALLOCATION_FIELDS);
+        this.addArrangementRestriction(dataSource, Constants.RESERVE_RM_TABLE);
+        dataSource.addRestriction(Restrictions.eq(Constants.RESERVE_RM_TABLE, Constants.STATUS,
+            Constants.STATUS_CONFIRMED));
+        dataSource.addRestriction(Restrictions.lte(Constants.RESERVE_RM_TABLE,
+            Constants.DATE_START_FIELD_NAME, this.lastDate));
+        dataSource.addRestriction(Restrictions.gte(Constants.RESERVE_RM_TABLE,
+            Constants.DATE_END_FIELD_NAME, this.firstDate));
+        return dataSource.getRecords();
+    }
+
+    /**
+     * Restrict the data source to the arrangement.
+     *
+     * @param dataSource the data source
+     * @param tableName the main table of the data source
+     */
+    private void addArrangementRestriction(final DataSource dataSource, final String tableName) {
+        dataSource
+            .addRestriction(Restrictions.eq(tableName, Constants.BL_ID_FIELD_NAME, this.blId));
+        dataSource
+            .addRestriction(Restrictions.eq(tableName, Constants.FL_ID_FIELD_NAME, this.flId));
+        dataSource
+            .addRestriction(Restrictions.eq(tableName, Constants.RM_ID_FIELD_NAME, this.rmId));
+        dataSource.addRestriction(
+            Restrictions.eq(tableName, Constants.CONFIG_ID_FIELD_NAME, this.configId));
+        dataSource.addRestriction(Restrictions.eq(tableName,
+            Constants.RM_ARRANGE_TYPE_ID_FIELD_NAME, this.arrangeTypeId));
+    }
+
+    /**
+     * Find the first position in the sorted end days that is on or after the given day.
+     *
+     * @param sortedEndDays end days of the occurrences sorted on date
+     * @param day the day number
+     * @return the first matching position, or the length if there is none
+     */
+    private static int findFirstEndingOnOrAfter(final int[] sortedEndDays, final int day) {
+        int low = 0;
+        int high = sortedEndDays.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (sortedEndDays[mid] < day) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
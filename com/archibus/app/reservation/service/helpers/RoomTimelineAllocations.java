@@ -0,0 +1,156 @@
+package com.archibus.app.reservation.service.helpers;
+
+import java.util.*;
+
+import com.archibus.app.reservation.dao.datasource.RoomOccupancyLoader;
+import com.archibus.app.reservation.domain.*;
+
+/**
+ * Room allocations and allocated arrangements preloaded for all rooms displayed on a room time
+ * line. Created by RoomTimelineServiceHelper for a single time line request, so the events of each
+ * row and date can be created without querying the database again.
+ *
+ * @since 24.3
+ */
+public final class RoomTimelineAllocations {
+
+    /** Quote used around configuration ids in excluded configurations. */
+    private static final String QUOTE = "'";
+
+    /** Active room allocations mapped by room key. */
+    private final Map<String, List<RoomAllocation>> allocationsByRoom =
+            new HashMap<String, List<RoomAllocation>>();
+
+    /** The allocated room arrangements mapped by primary key. */
+    private final Map<RoomArrangement, RoomArrangement> arrangements;
+
+    /** All configurations of the displayed rooms, to check for excluded configurations. */
+    private final Map<RoomConfiguration, RoomConfiguration> configurations;
+
+    /** Number of database queries executed for this time line. */
+    private int queryCount;
+
+    /**
+     * Create the preloaded allocations.
+     *
+     * @param allocations active room allocations in the displayed rooms
+     * @param arrangements the allocated room arrangements mapped by primary key
+     * @param configurations all configurations of the displayed rooms
+     * @param queryCount number of queries executed to load the allocations and arrangements
+     */
+    RoomTimelineAllocations(final List<RoomAllocation> allocations,
+            final Map<RoomArrangement, RoomArrangement> arrangements,
+            final Map<RoomConfiguration, RoomConfiguration> configurations, final int queryCount) {
+        this.arrangements = arrangements;
+        this.configurations = configurations;
+        this.queryCount = queryCount;
+        for (final RoomAllocation allocation : allocations) {
+            final String roomKey = RoomOccupancyLoader.createKey(allocation.getBlId(),
+                allocation.getFlId(), allocation.getRmId());
+            List<RoomAllocation> roomAllocations = this.allocationsByRoom.get(roomKey);
+            if (roomAllocations == null) {
+                roomAllocations = new ArrayList<RoomAllocation>();
+                this.allocationsByRoom.put(roomKey, roomAllocations);
+            }
+            roomAllocations.add(allocation);
+        }
+    }
+
+    /**
+     * Get the allocations on the given date that block the given room arrangement: allocations
+     * of the same configuration or of a configuration that excludes it. Returns copies, so the
+     * caller can modify the allocations.
+     *
+     * @param date the date
+     * @param roomArrangement the room arrangement
+     * @param reservationIds the reservation ids to ignore (can be null)
+     * @return list of allocated rooms
+     */
+    public List<RoomAllocation> getAllocatedRooms(final Date date,
+            final RoomArrangement roomArrangement, final Integer[] reservationIds) {
+        final List<RoomAllocation> allocatedRooms = new ArrayList<RoomAllocation>();
+        final List<RoomAllocation> roomAllocations =
+                this.allocationsByRoom.get(RoomOccupancyLoader.createKey(roomArrangement.getBlId(),
+                    roomArrangement.getFlId(), roomArrangement.getRmId()));
+        if (roomAllocations == null) {
+            return allocatedRooms;
+        }
+
+        final Date day = TimePeriod.clearTime(date);
+        final Set<Integer> ignoredIds = new HashSet<Integer>();
+        if (reservationIds != null) {
+            ignoredIds.addAll(Arrays.asList(reservationIds));
+        }
+        for (final RoomAllocation allocation : roomAllocations) {
+            final Date startDate = TimePeriod.clearTime(allocation.getStartDate());
+            final Date endDate = allocation.getEndDate() == null ? startDate
+                    : TimePeriod.clearTime(allocation.getEndDate());
+            if (!startDate.after(day) && !endDate.before(day)
+                    && !ignoredIds.contains(allocation.getReserveId())
+                    && this.blocksConfiguration(allocation, roomArrangement.getConfigId())) {
+                allocatedRooms.add(copy(allocation));
+            }
+        }
+        return allocatedRooms;
+    }
+
+    /**
+     * Get the allocated room arrangement of an allocation.
+     *
+     * @param allocation the room allocation
+     * @return the room arrangement, or null if it was not preloaded
+     */
+    public RoomArrangement getArrangement(final RoomAllocation allocation) {
+        return this.arrangements.get(allocation.getRoomArrangement());
+    }
+
+    /**
+     * Register an additional query executed while building the time line.
+     */
+    public void countQuery() {
+        ++this.queryCount;
+    }
+
+    /**
+     * Get the number of database queries executed for the time line events.
+     *
+     * @return the number of queries
+     */
+    public int getQueryCount() {
+        return this.queryCount;
+    }
+
+    /**
+     * Check whether an allocation blocks the given configuration of the same room.
+     *
+     * @param allocation the room allocation
+     * @param configId the configuration id
+     * @return true if the allocation is for the configuration or one that excludes it
+     */
+    private boolean blocksConfiguration(final RoomAllocation allocation, final String configId) {
+        boolean blocks = configId.equals(allocation.getConfigId());
+        if (!blocks) {
+            final RoomConfiguration configuration =
+                    this.configurations.get(RoomConfiguration.getConfiguration(
+                        allocation.getRoomArrangement()));
+            blocks = configuration != null && configuration.getExcludedConfigs() != null
+                    && configuration.getExcludedConfigs().contains(QUOTE + configId + QUOTE);
+        }
+        return blocks;
+    }
+
+    /**
+     * Copy a room allocation.
+     *
+     * @param allocation the room allocation
+     * @return the copy
+     */
+    private static RoomAllocation copy(final RoomAllocation allocation) {
+        final RoomAllocation copy = new RoomAllocation();
+        allocation.copyTo(copy);
+        copy.setId(allocation.getId());
+        copy.setReserveId(allocation.getReserveId());
+        return copy;
+    }
+
+}
@@ -64,6 +64,42 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
         return buildingIds;
     }
 
+    /**
+     * Load the room allocations for all rooms to display on the time line using a single query,
+     * and the room arrangements they refer to using another one.
+     *
+     * @param roomArrangements the room arrangements to display
+     * @param configurations all configurations of the rooms to display
+     * @param dates the dates to display events for
+     * @return the preloaded allocations
+     */
+    public RoomTimelineAllocations loadRoomAllocations(
+            final List<RoomArrangement> roomArrangements,
+            final Map<RoomConfiguration, RoomConfiguration> configurations,
+            final List<Date> dates) {
+        final Date firstDate = Collections.min(dates);
+        final Date lastDate = Collections.max(dates);
+
+        // include the previous and next day for time zone offsets
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(firstDate);
+        calendar.add(Calendar.DATE, -1);
+        final Date startDate = calendar.getTime();
+        calendar.setTime(lastDate);
+        calendar.add(Calendar.DATE, 1);
+        final Date endDate = calendar.getTime();
+
+        final List<RoomAllocation> allocations = this.roomAllocationDataSource
+            .getAllocatedRooms(startDate, endDate, roomArrangements);
+        final Set<RoomArrangement> allocatedArrangements = new HashSet<RoomArrangement>();
+        for (final RoomAllocation allocation : allocations) {
+            allocatedArrangements.add(allocation.getRoomArrangement());
+        }
+        return new RoomTimelineAllocations(allocations,
+            this.roomArrangementDataSource.getRoomArrangements(allocatedArrangements),
+            configurations, 2);
+    }
+
     /**
      * Create Room Allocation events in a specific time zone.
      *
@@ -78,12 +114,32 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
     public void createRoomAllocationEvents(final Date startDate, final Integer[] reservationIds,
             final JSONObject timeline, final int rowIndex, final RoomArrangement roomArrangement,
             final String localTimeZoneId, final String timeZoneId) {
+        this.createRoomAllocationEvents(startDate, reservationIds, timeline, rowIndex,
+            roomArrangement, localTimeZoneId, timeZoneId, null);
+    }
+
+    /**
+     * Create Room Allocation events in a specific time zone.
+     *
+     * @param startDate the start date
+     * @param reservationIds the reservation ids to ignore
+     * @param timeline the time line
+     * @param rowIndex the row index
+     * @param roomArrangement the room arrangement
+     * @param localTimeZoneId the local time zone id (null to use local time)
+     * @param timeZoneId the time zone id (null to use local time)
+     * @param allocations the preloaded allocations (null to query the database)
+     */
+    public void createRoomAllocationEvents(final Date startDate, final Integer[] reservationIds,
+            final JSONObject timeline, final int rowIndex, final RoomArrangement roomArrangement,
+            final String localTimeZoneId, final String timeZoneId,
+            final RoomTimelineAllocations allocations) {
         if (timeZoneId == null) {
             this.createRoomAllocationEventsInLocalTime(startDate, reservationIds, timeline,
-                rowIndex, roomArrangement);
+                rowIndex, roomArrangement, allocations);
         } else {
             this.createRoomAllocationEventsWithTimeZone(startDate, reservationIds, timeline,
-                rowIndex, roomArrangement, localTimeZoneId, timeZoneId);
+                rowIndex, roomArrangement, localTimeZoneId, timeZoneId, allocations);
         }
     }
 
@@ -95,19 +151,19 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
      * @param timeline the time line
      * @param rowIndex the row index
      * @param roomArrangement the room arrangement
+     * @param allocations the preloaded allocations (null to query the database)
      */
     private void createRoomAllocationEventsInLocalTime(final Date startDate,
             final Integer[] reservationIds, final JSONObject timeline, final int rowIndex,
-            final RoomArrangement roomArrangement) {
+            final RoomArrangement roomArrangement, final RoomTimelineAllocations allocations) {
 
         final JSONArray events = timeline.getJSONArray(EVENTS);
-        final List<RoomAllocation> roomAllocations = this.roomAllocationDataSource
-            .getAllocatedRooms(startDate, roomArrangement, reservationIds);
+        final List<RoomAllocation> roomAllocations =
+                this.getAllocatedRooms(startDate, roomArrangement, reservationIds, allocations);
 
         for (final RoomAllocation roomAllocation : roomAllocations) {
-            final RoomArrangement allocatedArrangement = this.roomArrangementDataSource.get(
-                roomAllocation.getBlId(), roomAllocation.getFlId(), roomAllocation.getRmId(),
-                roomAllocation.getConfigId(), roomAllocation.getArrangeTypeId());
+            final RoomArrangement allocatedArrangement =
+                    this.getAllocatedArrangement(roomAllocation, allocations);
 
             if (roomAllocation.getStartDate().before(startDate)) {
                 roomAllocation.setStartTime(allocatedArrangement.getDayStart());
@@ -131,15 +187,16 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
      * @param roomArrangement the room arrangement
      * @param localTimeZoneId the local time zone id for this room
      * @param timeZoneId the time zone id
+     * @param allocations the preloaded allocations (null to query the database)
      */
     private void createRoomAllocationEventsWithTimeZone(final Date startDate,
             final Integer[] reservationIds, final JSONObject timeline, final int rowIndex,
             final RoomArrangement roomArrangement, final String localTimeZoneId,
-            final String timeZoneId) {
+            final String timeZoneId, final RoomTimelineAllocations allocations) {
 
         final JSONArray events = timeline.getJSONArray(EVENTS);
         final List<RoomAllocation> visibleRoomAllocations = getVisibleRoomAllocations(startDate,
-            reservationIds, timeline, roomArrangement, localTimeZoneId, timeZoneId);
+            reservationIds, timeline, roomArrangement, localTimeZoneId, timeZoneId, allocations);
 
         for (final RoomAllocation roomAllocation : visibleRoomAllocations) {
             // The allocated arrangement could be different from the one we're asking about.
@@ -148,9 +205,7 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
                 allocatedArrangement = roomArrangement;
             } else {
                 // no time zone conversion, we only need to get the correct pre- and postblock
-                allocatedArrangement = this.roomArrangementDataSource.get(roomAllocation.getBlId(),
-                    roomAllocation.getFlId(), roomAllocation.getRmId(),
-                    roomAllocation.getConfigId(), roomAllocation.getArrangeTypeId());
+                allocatedArrangement = this.getAllocatedArrangement(roomAllocation, allocations);
             }
             final JSONObject event = TimelineHelper.createRoomReservationEventWithOffset(timeline,
                 allocatedArrangement, roomAllocation, rowIndex);
@@ -160,6 +215,52 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
         }
     }
 
+    /**
+     * Get the allocated rooms for a date, from the preloaded allocations if available.
+     *
+     * @param date the date
+     * @param roomArrangement the room arrangement
+     * @param reservationIds the reservation ids to ignore
+     * @param allocations the preloaded allocations (null to query the database)
+     * @return list of allocated rooms
+     */
+    private List<RoomAllocation> getAllocatedRooms(final Date date,
+            final RoomArrangement roomArrangement, final Integer[] reservationIds,
+            final RoomTimelineAllocations allocations) {
+        List<RoomAllocation> allocatedRooms = null;
+        if (allocations == null) {
+            allocatedRooms = this.roomAllocationDataSource.getAllocatedRooms(date,
+                roomArrangement, reservationIds);
+        } else {
+            allocatedRooms = allocations.getAllocatedRooms(date, roomArrangement, reservationIds);
+        }
+        return allocatedRooms;
+    }
+
+    /**
+     * Get the room arrangement of an allocation, from the preloaded allocations if available.
+     *
+     * @param roomAllocation the room allocation
+     * @param allocations the preloaded allocations (null to query the database)
+     * @return the allocated room arrangement
+     */
+    private RoomArrangement getAllocatedArrangement(final RoomAllocation roomAllocation,
+            final RoomTimelineAllocations allocations) {
+        RoomArrangement allocatedArrangement = null;
+        if (allocations != null) {
+            allocatedArrangement = allocations.getArrangement(roomAllocation);
+        }
+        if (allocatedArrangement == null) {
+            allocatedArrangement = this.roomArrangementDataSource.get(roomAllocation.getBlId(),
+                roomAllocation.getFlId(), roomAllocation.getRmId(), roomAllocation.getConfigId(),
+                roomAllocation.getArrangeTypeId());
+            if (allocations != null) {
+                allocations.countQuery();
+            }
+        }
+        return allocatedArrangement;
+    }
+
     /**
      * Get the visible room allocations for the time line.
      *
@@ -169,19 +270,20 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
      * @param roomArrangement the room arrangement to get allocations for
      * @param localTimeZoneId the local time zone id for the room arrangement
      * @param timeZoneId the time zone id to display on the time line
+     * @param allocations the preloaded allocations (null to query the database)
      * @return visible room allocations
      */
     private List<RoomAllocation> getVisibleRoomAllocations(final Date startDate,
             final Integer[] reservationIds, final JSONObject timeline,
             final RoomArrangement roomArrangement, final String localTimeZoneId,
-            final String timeZoneId) {
+            final String timeZoneId, final RoomTimelineAllocations allocations) {
         final int timeZoneOffset = TimeZoneConverter.getCombinedOffset(startDate,
             roomArrangement.getDayStart(), localTimeZoneId, timeZoneId);
 
         List<RoomAllocation> visibleRoomAllocations = null;
         if (timeZoneOffset == 0) {
-            visibleRoomAllocations = this.roomAllocationDataSource.getAllocatedRooms(startDate,
-                roomArrangement, reservationIds);
+            visibleRoomAllocations =
+                    this.getAllocatedRooms(startDate, roomArrangement, reservationIds, allocations);
         } else {
             // determine time line start date/time and start date for the current timezone offset
             final Calendar calendar = Calendar.getInstance();
@@ -200,7 +302,7 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
 
             // get the room allocation which could be in range of the time line
             final List<RoomAllocation> roomAllocations = getRoomAllocationsInRange(startDate,
-                reservationIds, roomArrangement, timelineStartDate, timelineEndDate);
+                reservationIds, roomArrangement, timelineStartDate, timelineEndDate, allocations);
 
             visibleRoomAllocations = new ArrayList<RoomAllocation>(roomAllocations.size());
             /*
@@ -244,20 +346,22 @@ public class RoomTimelineServiceHelper extends RoomReservationServiceBase {
      * @param roomArrangement the room arrangement to get allocations for
      * @param timelineStartDate date for the time line start (in the current room's time zone)
      * @param timelineEndDate date for the time line end (in the current room's time zone)
+     * @param allocations the preloaded allocations (null to query the database)
      * @return room allocations in range of the given dates
      */
     private List<RoomAllocation> getRoomAllocationsInRange(final Date startDate,
             final Integer[] reservationIds, final RoomArrangement roomArrangement,
-            final Date timelineStartDate, final Date timelineEndDate) {
-        final List<RoomAllocation> roomAllocations = this.roomAllocationDataSource
-            .getAllocatedRooms(startDate, roomArrangement, reservationIds);
+            final Date timelineStartDate, final Date timelineEndDate,
+            final RoomTimelineAllocations allocations) {
+        final List<RoomAllocation> roomAllocations =
+                this.getAllocatedRooms(startDate, roomArrangement, reservationIds, allocations);
         // query for events from next / previous day if required
         if (timelineStartDate != null && timelineStartDate.before(startDate)) {
-            roomAllocations.addAll(this.roomAllocationDataSource
-                .getAllocatedRooms(timelineStartDate, roomArrangement, reservationIds));
+            roomAllocations.addAll(this.getAllocatedRooms(timelineStartDate, roomArrangement,
+                reservationIds, allocations));
         } else if (timelineEndDate != null && timelineEndDate.after(startDate)) {
-            roomAllocations.addAll(this.roomAllocationDataSource.getAllocatedRooms(timelineEndDate,
-                roomArrangement, reservationIds));
+            roomAllocations.addAll(this.getAllocatedRooms(timelineEndDate, roomArrangement,
+                reservationIds, allocations));
         }
         return roomAllocations;
     }
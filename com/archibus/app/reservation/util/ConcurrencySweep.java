@@ -0,0 +1,78 @@
+package com.archibus.app.reservation.util;
+
+import java.util.*;
+
+/**
+ * Finds the peak concurrent usage of a set of intervals by sweeping their sorted start and end
+ * points. Each interval contributes an amount (attendees, quantity) while it is active.
+ * <p>
+ * Events are encoded as longs so they can be sorted as primitives: ends sort before starts at the
+ * same time, so intervals that only touch do not overlap.
+ *
+ * @since 24.3
+ */
+public final class ConcurrencySweep {
+
+    /** Number of bits used for the amount in an event. */
+    private static final int EVENT_SHIFT = 32;
+
+    /** Mask to extract the amount from an event. */
+    private static final long AMOUNT_MASK = 0xFFFFFFFFL;
+
+    /** Start and end events added to the sweep. */
+    private final List<Long> events = new ArrayList<Long>();
+
+    /**
+     * Add an interval to the sweep. Empty intervals are ignored.
+     *
+     * @param start start of the interval
+     * @param end end of the interval
+     * @param amount the amount used during the interval
+     */
+    public void addInterval(final int start, final int end, final int amount) {
+        if (start < end) {
+            this.events.add(createEvent(start, true, amount));
+            this.events.add(createEvent(end, false, amount));
+        }
+    }
+
+    /**
+     * Get the peak amount used concurrently by the intervals added so far.
+     *
+     * @return the peak amount, 0 if there are no intervals
+     */
+    public int getPeak() {
+        final long[] sortedEvents = new long[this.events.size()];
+        for (int index = 0; index < sortedEvents.length; ++index) {
+            sortedEvents[index] = this.events.get(index);
+        }
+        Arrays.sort(sortedEvents);
+
+        int amount = 0;
+        int peakAmount = 0;
+        for (final long event : sortedEvents) {
+            final int eventAmount = (int) (event & AMOUNT_MASK);
+            if (((event >>> EVENT_SHIFT) & 1) == 1) {
+                amount += eventAmount;
+                peakAmount = Math.max(peakAmount, amount);
+            } else {
+                amount -= eventAmount;
+            }
+        }
+        return peakAmount;
+    }
+
+    /**
+     * Encode an event so events sort on time with ends before starts.
+     *
+     * @param time time of the event, must not be negative
+     * @param isStart true for a start event, false for an end event
+     * @param amount the amount of the interval
+     * @return the encoded event
+     */
+    private static long createEvent(final int time, final boolean isStart, final int amount) {
+        final long timeKey = time * 2L + (isStart ? 1 : 0);
+        return (timeKey << EVENT_SHIFT) | (Math.max(amount, 0) & AMOUNT_MASK);
+    }
+
+}
@@ -2,6 +2,8 @@ package com.archibus.app.reservation.util;
 
 import java.util.*;
 
+import org.springframework.util.StringUtils;
+
 import com.archibus.app.reservation.dao.datasource.Constants;
 import com.archibus.app.reservation.domain.*;
 import com.archibus.datasource.*;
@@ -19,6 +21,18 @@ public final class DataSourceUtils {
     /** One hundred. */
     private static final int HUNDRED = 100;
 
+    /** Maximum number of values in a single IN clause. */
+    private static final int MAX_IN_VALUES = 500;
+
+    /** Parameter name for the cost of a cancelled record. */
+    private static final String COST_PARAMETER = "cost";
+
+    /** Parameter name for the employee who cancelled the record. */
+    private static final String LAST_MODIFIED_BY_PARAMETER = "lastModifiedBy";
+
+    /** Parameter name for the current date. */
+    private static final String CURRENT_DATE_PARAMETER = "currentDate";
+
     /**
      * Private default constructor: utility class is non-instantiable.
      *
@@ -180,4 +194,74 @@ public final class DataSourceUtils {
             "ApplyVpaRestrictions", 1) == 1;
     }
 
+    /**
+     * Execute an update statement for the records with the given primary keys. The records are
+     * updated in chunks, so the IN clause stays within the database limits. The SET clause can
+     * refer to the parameters defined in the provided data source.
+     * <p>
+     * Suppress PMD warning "AvoidUsingSql" in this method.
+     * <p>
+     * Justification: Case #2.2: Statement with UPDATE ... WHERE pattern.
+     *
+     * @param dataSource the data source that defines the parameters
+     * @param tableName the table to update
+     * @param setClause the SET clause of the update statement, without the SET keyword
+     * @param idFieldName the primary key field of the table
+     * @param ids the primary keys of the records to update
+     */
+    @SuppressWarnings("PMD.AvoidUsingSql")
+    public static void executeUpdateForIds(final DataSource dataSource, final String tableName,
+            final String setClause, final String idFieldName, final List<Integer> ids) {
+        for (final List<Integer> chunk : splitForInClause(ids)) {
+            final String sql = "UPDATE " + tableName + " SET " + setClause + " WHERE "
+                    + idFieldName + " IN (" + StringUtils.collectionToCommaDelimitedString(chunk)
+                    + ")";
+            SqlUtils.executeUpdate(tableName, dataSource.addQuery(sql).formatSqlQuery(null, true));
+        }
+    }
+
+    /**
+     * Add the parameters for cancelling records to the data source and build the matching SET
+     * clause for executeUpdateForIds. The clause sets the status to cancelled, the cost, the
+     * employee who modified the record and the cancelled and last modified dates.
+     *
+     * @param dataSource the data source to add the parameters to
+     * @param costFieldName the cost field of the table
+     * @param cost the cost of the cancelled records
+     * @param employeeId the employee cancelling the records
+     * @param currentDate the cancellation date
+     * @return the SET clause, without the SET keyword
+     */
+    public static String prepareCancelUpdate(final DataSource dataSource,
+            final String costFieldName, final Double cost, final String employeeId,
+            final Date currentDate) {
+        dataSource.addParameter(Constants.STATUS, Constants.STATUS_CANCELLED,
+            DataSource.DATA_TYPE_TEXT);
+        dataSource.addParameter(COST_PARAMETER, cost, DataSource.DATA_TYPE_NUMBER);
+        dataSource.addParameter(LAST_MODIFIED_BY_PARAMETER, employeeId, DataSource.DATA_TYPE_TEXT);
+        dataSource.addParameter(CURRENT_DATE_PARAMETER, currentDate, DataSource.DATA_TYPE_DATE);
+        return Constants.STATUS + " = ${parameters['" + Constants.STATUS + "']}, " + costFieldName
+                + " = ${parameters['" + COST_PARAMETER + "']}, "
+                + "user_last_modified_by = ${parameters['" + LAST_MODIFIED_BY_PARAMETER + "']}, "
+                + "date_cancelled = ${parameters['" + CURRENT_DATE_PARAMETER + "']}, "
+                + "date_last_modified = ${parameters['" + CURRENT_DATE_PARAMETER + "']}";
+    }
+
+    /**
+     * Split values in chunks for separate IN clauses, so each IN clause stays within the database
+     * limits.
+     *
+     * @param values the values
+     * @param <T> the type of the values
+     * @return the chunks, in the order of the values; empty if there are no values
+     */
+    public static <T> List<List<T>> splitForInClause(final Collection<T> values) {
+        final List<T> allValues = new ArrayList<T>(values);
+        final List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int index = 0; index < allValues.size(); index += MAX_IN_VALUES) {
+            chunks.add(allValues.subList(index, Math.min(index + MAX_IN_VALUES, allValues.size())));
+        }
+        return chunks;
+    }
+
 }
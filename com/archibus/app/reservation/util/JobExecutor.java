@@ -0,0 +1,94 @@
+package com.archibus.app.reservation.util;
+
+import java.util.concurrent.*;
+
+import com.archibus.context.ContextStore;
+import com.archibus.jobmanager.JobBase;
+
+/**
+ * Executor that runs each task as an ARCHIBUS job. The job manager runs the job on its own thread
+ * with its own context, so each task uses its own database connection and transaction and can
+ * change the user of its context without affecting the submitting thread.
+ * <p>
+ * The number of running tasks is limited, since each one holds a database connection. Tasks
+ * submitted while the limit is reached or without an ARCHIBUS context on the submitting thread are
+ * rejected, so the caller can run them itself.
+ * <p>
+ * Managed by Spring, has singleton scope.
+ *
+ * @since 24.3
+ */
+public class JobExecutor implements Executor {
+
+    /** Default maximum number of tasks running at the same time. */
+    private static final int DEFAULT_MAX_RUNNING_TASKS = 4;
+
+    /** Limits the number of running tasks. */
+    private volatile Semaphore runningTasks = new Semaphore(DEFAULT_MAX_RUNNING_TASKS);
+
+    /**
+     * Set the maximum number of tasks running at the same time.
+     *
+     * @param maxRunningTasks the maximum number of running tasks
+     */
+    public void setMaxRunningTasks(final int maxRunningTasks) {
+        this.runningTasks = new Semaphore(Math.max(maxRunningTasks, 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Start a job running the task.
+     *
+     * @throws RejectedExecutionException when the maximum number of tasks is running or the job
+     *             could not be started
+     */
+    @Override
+    public void execute(final Runnable task) {
+        final Semaphore permits = this.runningTasks;
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Maximum number of running jobs reached.");
+        }
+        try {
+            ContextStore.get().getJobManager().startJob(new TaskJob(task, permits));
+        } catch (final RuntimeException exception) {
+            permits.release();
+            throw new RejectedExecutionException("Could not start job.", exception);
+        }
+    }
+
+    /**
+     * Job running a single task.
+     */
+    private static class TaskJob extends JobBase {
+
+        /** The task to run. */
+        private final Runnable task;
+
+        /** The permits to release when the task is done. */
+        private final Semaphore permits;
+
+        /**
+         * Create a job for running a task.
+         *
+         * @param task the task to run
+         * @param permits the permits to release when the task is done
+         */
+        TaskJob(final Runnable task, final Semaphore permits) {
+            super();
+            this.task = task;
+            this.permits = permits;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                this.permits.release();
+            }
+        }
+    }
+
+}
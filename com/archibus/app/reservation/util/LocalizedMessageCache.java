@@ -0,0 +1,109 @@
+package com.archibus.app.reservation.util;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of localized message bundles, shared by all requests. A bundle contains all messages of
+ * an activity referenced by the same value, in a single locale. Bundles expire after a fixed
+ * time, so changes to the messages table are picked up without restarting.
+ * <p>
+ * Used by ReservationsContextHelper.
+ *
+ * @since 24.3
+ */
+final class LocalizedMessageCache {
+
+    /** Separator used in cache keys. */
+    private static final String KEY_SEPARATOR = "|";
+
+    /** The bundles by key. */
+    private final Map<String, Bundle> bundles = new ConcurrentHashMap<String, Bundle>();
+
+    /** Time in millis after which a bundle is loaded again. */
+    private final long timeToLive;
+
+    /**
+     * Create a cache.
+     *
+     * @param timeToLive time in millis after which a bundle is loaded again
+     */
+    LocalizedMessageCache(final long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Get the cached bundle of localized messages.
+     *
+     * @param activityId the activity id
+     * @param referencedBy the messages referenced by value
+     * @param locale the locale (can be null)
+     * @return the localized messages by message id, or null if not cached or expired
+     */
+    Map<String, String> get(final String activityId, final String referencedBy,
+            final String locale) {
+        final Bundle bundle = this.bundles.get(createKey(activityId, referencedBy, locale));
+        Map<String, String> messages = null;
+        if (bundle != null && System.currentTimeMillis() - bundle.loadTime < this.timeToLive) {
+            messages = bundle.messages;
+        }
+        return messages;
+    }
+
+    /**
+     * Store a bundle of localized messages.
+     *
+     * @param activityId the activity id
+     * @param referencedBy the messages referenced by value
+     * @param locale the locale (can be null)
+     * @param messages all localized messages referenced by the value, by message id
+     */
+    void put(final String activityId, final String referencedBy, final String locale,
+            final Map<String, String> messages) {
+        this.bundles.put(createKey(activityId, referencedBy, locale), new Bundle(
+            Collections.unmodifiableMap(new HashMap<String, String>(messages))));
+    }
+
+    /**
+     * Remove all bundles, so the messages are loaded again on next use.
+     */
+    void clear() {
+        this.bundles.clear();
+    }
+
+    /**
+     * Create the cache key.
+     *
+     * @param activityId the activity id
+     * @param referencedBy the messages referenced by value
+     * @param locale the locale (can be null)
+     * @return the key
+     */
+    private static String createKey(final String activityId, final String referencedBy,
+            final String locale) {
+        return activityId + KEY_SEPARATOR + referencedBy + KEY_SEPARATOR
+                + (locale == null ? "" : locale);
+    }
+
+    /**
+     * A bundle of localized messages with the time it was loaded.
+     */
+    private static final class Bundle {
+
+        /** The localized messages by message id. */
+        private final Map<String, String> messages;
+
+        /** Time in millis when the bundle was loaded. */
+        private final long loadTime = System.currentTimeMillis();
+
+        /**
+         * Create a bundle.
+         *
+         * @param messages the localized messages by message id
+         */
+        Bundle(final Map<String, String> messages) {
+            this.messages = messages;
+        }
+    }
+
+}
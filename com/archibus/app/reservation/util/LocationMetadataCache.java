@@ -0,0 +1,435 @@
+package com.archibus.app.reservation.util;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.springframework.util.StringUtils;
+
+import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.domain.RoomArrangement;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.datasource.restriction.Restrictions;
+import com.archibus.utility.StringUtil;
+
+/**
+ * Bounded cache of the building, site and room names used in location strings, shared by all
+ * requests. Used by SpaceService and ReservationLinkService, which build a location for every
+ * occurrence of a recurring reservation.
+ * <p>
+ * Names are keyed by primary key and expire after a fixed time, so changes to the space tables
+ * are picked up without restarting. Site names are only cached when VPA is disabled, because the
+ * sites are loaded with VPA restrictions. All methods are thread-safe.
+ *
+ * @since 24.3
+ */
+public final class LocationMetadataCache {
+
+    /**
+     * Maximum number of buildings, sites and rooms to keep each. A single prefetch loads at most
+     * this number of buildings and rooms, so it doesn't evict its own entries.
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    /** Time in millis after which a name is loaded again: 10 minutes. */
+    private static final long TIME_TO_LIVE = 10 * 60 * 1000L;
+
+    /** Cache load factor. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Separator used in room keys. */
+    private static final String KEY_SEPARATOR = "|";
+
+    /** Site table name. */
+    private static final String SITE_TABLE = "site";
+
+    /** Fields to load from the building table. */
+    private static final String[] BUILDING_FIELDS = { Constants.BL_ID_FIELD_NAME,
+            Constants.NAME_FIELD_NAME, Constants.SITE_ID_FIELD_NAME };
+
+    /** Fields to load from the site table. */
+    private static final String[] SITE_FIELDS =
+            { Constants.SITE_ID_FIELD_NAME, Constants.NAME_FIELD_NAME };
+
+    /** Fields to load from the room table. */
+    private static final String[] ROOM_FIELDS = { Constants.BL_ID_FIELD_NAME,
+            Constants.FL_ID_FIELD_NAME, Constants.RM_ID_FIELD_NAME, Constants.NAME_FIELD_NAME };
+
+    /** The cache shared by all requests. */
+    private static final LocationMetadataCache INSTANCE = new LocationMetadataCache();
+
+    /** The buildings by building id. */
+    private final Map<String, Metadata> buildings = createMap();
+
+    /** The sites by site id. */
+    private final Map<String, Metadata> sites = createMap();
+
+    /** The rooms by building, floor and room id. */
+    private final Map<String, Metadata> rooms = createMap();
+
+    /**
+     * Private constructor: use getInstance.
+     */
+    private LocationMetadataCache() {
+    }
+
+    /**
+     * Get the cache.
+     *
+     * @return the cache shared by all requests
+     */
+    public static LocationMetadataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Load the building and room names for the given room arrangements in bulk, if they are not
+     * cached yet. Beyond the cache size, the names are loaded when requested.
+     *
+     * @param roomArrangements the room arrangements
+     */
+    public void prefetch(final Collection<RoomArrangement> roomArrangements) {
+        final Set<String> buildingIds = new HashSet<String>();
+        final Set<String> roomKeys = new HashSet<String>();
+        final Set<String> roomIds = new HashSet<String>();
+        for (final RoomArrangement roomArrangement : roomArrangements) {
+            final String buildingId = roomArrangement.getBlId();
+            if (buildingIds.size() < MAX_ENTRIES && get(this.buildings, buildingId) == null) {
+                buildingIds.add(buildingId);
+            }
+            final String roomKey = createKey(buildingId, roomArrangement.getFlId(),
+                roomArrangement.getRmId());
+            if (roomKeys.size() < MAX_ENTRIES && get(this.rooms, roomKey) == null) {
+                roomKeys.add(roomKey);
+                roomIds.add(roomArrangement.getRmId());
+            }
+        }
+        this.loadBuildings(buildingIds);
+
+        final Set<String> roomBuildingIds = new HashSet<String>();
+        for (final RoomArrangement roomArrangement : roomArrangements) {
+            roomBuildingIds.add(roomArrangement.getBlId());
+        }
+        this.loadRooms(roomBuildingIds, roomIds, roomKeys);
+    }
+
+    /**
+     * Get the building name.
+     *
+     * @param buildingId the building id
+     * @return the building name, or the id if the name is not set
+     */
+    public String getBuildingName(final String buildingId) {
+        final Metadata building = this.getBuilding(buildingId);
+        return StringUtil.isNullOrEmpty(building.name) ? buildingId : building.name;
+    }
+
+    /**
+     * Get the name of the site the building belongs to.
+     *
+     * @param buildingId the building id
+     * @return the site name or id if the name is not set, or null if the building has no site
+     */
+    public String getSiteName(final String buildingId) {
+        final String siteId = this.getBuilding(buildingId).parentId;
+        String siteName = null;
+        if (StringUtil.notNullOrEmpty(siteId)) {
+            Metadata site = get(this.sites, siteId);
+            if (site == null) {
+                final boolean applyVpaRestrictions = DataSourceUtils.isVpaEnabled();
+                site = loadSite(siteId, applyVpaRestrictions);
+                if (!applyVpaRestrictions) {
+                    put(this.sites, siteId, site);
+                }
+            }
+            siteName = StringUtil.isNullOrEmpty(site.name) ? siteId : site.name;
+        }
+        return siteName;
+    }
+
+    /**
+     * Get the room name.
+     *
+     * @param buildingId the building id
+     * @param floorId the floor id
+     * @param roomId the room id
+     * @return the room name, or null if not set
+     */
+    public String getRoomName(final String buildingId, final String floorId,
+            final String roomId) {
+        final String roomKey = createKey(buildingId, floorId, roomId);
+        Metadata room = get(this.rooms, roomKey);
+        if (room == null) {
+            room = this.loadRooms(Collections.singleton(buildingId),
+                Collections.singleton(roomId), Collections.singleton(roomKey)).get(roomKey);
+        }
+        return room.name;
+    }
+
+    /**
+     * Remove the building from the cache, so its name and site are loaded again on next use.
+     *
+     * @param buildingId the building id
+     */
+    public void invalidateBuilding(final String buildingId) {
+        remove(this.buildings, buildingId);
+    }
+
+    /**
+     * Remove the site from the cache, so its name is loaded again on next use.
+     *
+     * @param siteId the site id
+     */
+    public void invalidateSite(final String siteId) {
+        remove(this.sites, siteId);
+    }
+
+    /**
+     * Remove the room from the cache, so its name is loaded again on next use.
+     *
+     * @param buildingId the building id
+     * @param floorId the floor id
+     * @param roomId the room id
+     */
+    public void invalidateRoom(final String buildingId, final String floorId,
+            final String roomId) {
+        remove(this.rooms, createKey(buildingId, floorId, roomId));
+    }
+
+    /**
+     * Remove all buildings, sites and rooms from the cache.
+     */
+    public void clear() {
+        synchronized (this.buildings) {
+            this.buildings.clear();
+        }
+        synchronized (this.sites) {
+            this.sites.clear();
+        }
+        synchronized (this.rooms) {
+            this.rooms.clear();
+        }
+    }
+
+    /**
+     * Get the building, loading it if it is not cached.
+     *
+     * @param buildingId the building id
+     * @return the building name and site id
+     */
+    private Metadata getBuilding(final String buildingId) {
+        Metadata building = get(this.buildings, buildingId);
+        if (building == null) {
+            building = this.loadBuildings(Collections.singleton(buildingId)).get(buildingId);
+        }
+        return building;
+    }
+
+    /**
+     * Load the buildings with the given ids and store them in the cache, using one query per 500
+     * buildings. Buildings that don't exist are stored without name.
+     *
+     * @param buildingIds the building ids
+     * @return the loaded buildings by building id
+     */
+    private Map<String, Metadata> loadBuildings(final Set<String> buildingIds) {
+        final Map<String, Metadata> loaded = new HashMap<String, Metadata>();
+        if (buildingIds.isEmpty()) {
+            return loaded;
+        }
+        for (final String buildingId : buildingIds) {
+            loaded.put(buildingId, new Metadata(null, null));
+        }
+        final String prefix = Constants.BUILDING_TABLE + Constants.DOT;
+        for (final List<String> chunk : DataSourceUtils.splitForInClause(buildingIds)) {
+            final DataSource dataSource = DataSourceFactory
+                .createDataSourceForFields(Constants.BUILDING_TABLE, BUILDING_FIELDS);
+            dataSource.setApplyVpaRestrictions(false);
+            dataSource.setMaxRecords(0);
+            dataSource.addRestriction(Restrictions.in(Constants.BUILDING_TABLE,
+                Constants.BL_ID_FIELD_NAME, StringUtils.collectionToCommaDelimitedString(chunk)));
+
+            for (final DataRecord record : dataSource.getRecords()) {
+                loaded.put(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                    new Metadata(record.getString(prefix + Constants.NAME_FIELD_NAME),
+                        record.getString(prefix + Constants.SITE_ID_FIELD_NAME)));
+            }
+        }
+        for (final Entry<String, Metadata> entry : loaded.entrySet()) {
+            put(this.buildings, entry.getKey(), entry.getValue());
+        }
+        return loaded;
+    }
+
+    /**
+     * Load the rooms and store the requested ones in the cache, using one query per 500 buildings
+     * and 500 room ids. Rooms that don't exist are stored without name.
+     *
+     * @param buildingIds the building ids of the rooms to load
+     * @param roomIds the room ids of the rooms to load
+     * @param roomKeys the keys of the rooms to store
+     * @return the loaded rooms by key
+     */
+    private Map<String, Metadata> loadRooms(final Set<String> buildingIds,
+            final Set<String> roomIds, final Set<String> roomKeys) {
+        final Map<String, Metadata> loaded = new HashMap<String, Metadata>();
+        if (roomKeys.isEmpty()) {
+            return loaded;
+        }
+        for (final String roomKey : roomKeys) {
+            loaded.put(roomKey, new Metadata(null, null));
+        }
+        final String prefix = Constants.ROOM_TABLE + Constants.DOT;
+        for (final List<String> buildingChunk : DataSourceUtils.splitForInClause(buildingIds)) {
+            for (final List<String> roomChunk : DataSourceUtils.splitForInClause(roomIds)) {
+                final DataSource dataSource = DataSourceFactory
+                    .createDataSourceForFields(Constants.ROOM_TABLE, ROOM_FIELDS);
+                dataSource.setApplyVpaRestrictions(false);
+                dataSource.setMaxRecords(0);
+                // restrict on building and room ids, then keep only the requested rooms
+                dataSource.addRestriction(Restrictions.in(Constants.ROOM_TABLE,
+                    Constants.BL_ID_FIELD_NAME,
+                    StringUtils.collectionToCommaDelimitedString(buildingChunk)));
+                dataSource.addRestriction(Restrictions.in(Constants.ROOM_TABLE,
+                    Constants.RM_ID_FIELD_NAME,
+                    StringUtils.collectionToCommaDelimitedString(roomChunk)));
+
+                for (final DataRecord record : dataSource.getRecords()) {
+                    final String roomKey =
+                            createKey(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                                record.getString(prefix + Constants.FL_ID_FIELD_NAME),
+                                record.getString(prefix + Constants.RM_ID_FIELD_NAME));
+                    if (roomKeys.contains(roomKey)) {
+                        loaded.put(roomKey, new Metadata(
+                            record.getString(prefix + Constants.NAME_FIELD_NAME), null));
+                    }
+                }
+            }
+        }
+        for (final Entry<String, Metadata> entry : loaded.entrySet()) {
+            put(this.rooms, entry.getKey(), entry.getValue());
+        }
+        return loaded;
+    }
+
+    /**
+     * Load the site with the given id.
+     *
+     * @param siteId the site id
+     * @param applyVpaRestrictions whether to apply VPA restrictions
+     * @return the site name, without name if the site doesn't exist or is not visible
+     */
+    private static Metadata loadSite(final String siteId, final boolean applyVpaRestrictions) {
+        final DataSource dataSource =
+                DataSourceFactory.createDataSourceForFields(SITE_TABLE, SITE_FIELDS);
+        dataSource.setApplyVpaRestrictions(applyVpaRestrictions);
+        dataSource.addRestriction(
+            Restrictions.eq(SITE_TABLE, Constants.SITE_ID_FIELD_NAME, siteId));
+        final DataRecord record = dataSource.getRecord();
+        return new Metadata(record == null ? null
+                : record.getString(SITE_TABLE + Constants.DOT + Constants.NAME_FIELD_NAME), null);
+    }
+
+    /**
+     * Get a cached entry that is not expired.
+     *
+     * @param map the map to look in
+     * @param key the key
+     * @return the entry, or null if not cached or expired
+     */
+    private static Metadata get(final Map<String, Metadata> map, final String key) {
+        final Metadata metadata;
+        synchronized (map) {
+            metadata = map.get(key);
+        }
+        Metadata result = null;
+        if (metadata != null && System.currentTimeMillis() - metadata.loadTime < TIME_TO_LIVE) {
+            result = metadata;
+        }
+        return result;
+    }
+
+    /**
+     * Store an entry.
+     *
+     * @param map the map to store in
+     * @param key the key
+     * @param metadata the entry
+     */
+    private static void put(final Map<String, Metadata> map, final String key,
+            final Metadata metadata) {
+        synchronized (map) {
+            map.put(key, metadata);
+        }
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param map the map to remove from
+     * @param key the key
+     */
+    private static void remove(final Map<String, Metadata> map, final String key) {
+        synchronized (map) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Create a bounded map which removes the least recently used entry when full.
+     *
+     * @return the map
+     */
+    private static Map<String, Metadata> createMap() {
+        return new LinkedHashMap<String, Metadata>(MAX_ENTRIES, LOAD_FACTOR, true) {
+
+            /** Generated serial version id. */
+            private static final long serialVersionUID = -2386071635432091157L;
+
+            @Override
+            protected boolean removeEldestEntry(final Entry<String, Metadata> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Create the cache key for a room.
+     *
+     * @param buildingId the building id
+     * @param floorId the floor id
+     * @param roomId the room id
+     * @return the key
+     */
+    private static String createKey(final String buildingId, final String floorId,
+            final String roomId) {
+        return buildingId + KEY_SEPARATOR + floorId + KEY_SEPARATOR + roomId;
+    }
+
+    /**
+     * The cached name of a building, site or room.
+     */
+    private static final class Metadata {
+
+        /** The name, null if not set. */
+        private final String name;
+
+        /** The site id of a building, null for sites and rooms. */
+        private final String parentId;
+
+        /** Time in millis when the entry was loaded. */
+        private final long loadTime = System.currentTimeMillis();
+
+        /**
+         * Create an entry.
+         *
+         * @param name the name
+         * @param parentId the site id of a building
+         */
+        Metadata(final String name, final String parentId) {
+            this.name = name;
+            this.parentId = parentId;
+        }
+    }
+
+}
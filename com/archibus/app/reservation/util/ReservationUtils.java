@@ -289,8 +289,8 @@ public final class ReservationUtils {
         if (StringUtil.isNullOrEmpty(building)) {
             currentDate = TimePeriod.clearTime(Utility.currentDate());
         } else {
-            currentDate = TimePeriod
-                .clearTime(LocalDateTimeUtil.currentLocalDate(null, null, null, building));
+            currentDate =
+                    TimePeriod.clearTime(TimeZoneConverter.getCurrentLocalDate(building));
         }
         return currentDate;
     }
@@ -308,7 +308,7 @@ public final class ReservationUtils {
         if (StringUtil.isNullOrEmpty(building)) {
             currentTime = Utility.currentTime();
         } else {
-            currentTime = LocalDateTimeUtil.currentLocalTime(null, null, null, building);
+            currentTime = TimeZoneConverter.getCurrentLocalTime(building);
         }
         return currentTime;
     }
@@ -3,7 +3,6 @@ package com.archibus.app.reservation.util;
 import java.text.MessageFormat;
 import java.util.*;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.archibus.app.reservation.dao.datasource.Constants;
@@ -58,6 +57,13 @@ public final class ReservationsContextHelper {
     /** Trailing slash to include in Web Central URL. */
     private static final String SLASH = "/";
 
+    /** Time in millis after which cached localized messages are loaded again (10 minutes). */
+    private static final long MESSAGE_CACHE_TTL = 10 * 60 * 1000L;
+
+    /** Cache of localized messages, shared by all requests. */
+    private static final LocalizedMessageCache MESSAGE_CACHE =
+            new LocalizedMessageCache(MESSAGE_CACHE_TTL);
+
     /**
      * Private default constructor: utility class is non-instantiable.
      */
@@ -208,7 +214,8 @@ public final class ReservationsContextHelper {
     }
 
     /**
-     * Lookup the localized messages to use.
+     * Lookup the localized messages to use. All messages referenced by the same value are loaded
+     * at once and cached per locale.
      *
      * @param referencedBy the messages referenced by value
      * @param locale the locale to get the messages for
@@ -217,9 +224,40 @@ public final class ReservationsContextHelper {
      */
     public static Map<String, String> localizeMessages(final String referencedBy,
             final String locale, final String... messageIds) {
+        Map<String, String> bundle =
+                MESSAGE_CACHE.get(RESERVATIONS_ACTIVITY, referencedBy, locale);
+        if (bundle == null) {
+            bundle = loadMessages(referencedBy, locale);
+            MESSAGE_CACHE.put(RESERVATIONS_ACTIVITY, referencedBy, locale, bundle);
+        }
+
+        final Map<String, String> messages = new HashMap<String, String>();
+        for (final String messageId : messageIds) {
+            final String messageText = bundle.get(messageId);
+            if (messageText != null) {
+                messages.put(messageId, messageText);
+            }
+        }
+        return messages;
+    }
 
-        final String inMessageIds = StringUtils.join(messageIds, ',');
+    /**
+     * Clear the cached localized messages, so they are loaded again on next use. Call after
+     * modifying the messages table.
+     */
+    public static void clearMessageCache() {
+        MESSAGE_CACHE.clear();
+    }
 
+    /**
+     * Load all localized messages referenced by the given value.
+     *
+     * @param referencedBy the messages referenced by value
+     * @param locale the locale to get the messages for
+     * @return the localized messages by message id
+     */
+    private static Map<String, String> loadMessages(final String referencedBy,
+            final String locale) {
         final StringBuilder localeField = new StringBuilder(MESSAGE_TEXT);
         if (StringUtil.notNullOrEmpty(locale)) {
             final String dbExtension = Utility.getDbExtension(locale);
@@ -234,7 +272,6 @@ public final class ReservationsContextHelper {
         datasource
             .addRestriction(Restrictions.eq(MESSAGES_TABLE, "activity_id", RESERVATIONS_ACTIVITY));
         datasource.addRestriction(Restrictions.eq(MESSAGES_TABLE, "referenced_by", referencedBy));
-        datasource.addRestriction(Restrictions.in(MESSAGES_TABLE, MESSAGE_ID, inMessageIds));
 
         final List<DataRecord> records = datasource.getAllRecords();
 
@@ -1,6 +1,12 @@
 package com.archibus.app.reservation.util;
 
 import java.util.*;
+import java.util.concurrent.*;
+
+import com.archibus.app.reservation.dao.datasource.*;
+import com.archibus.datasource.*;
+import com.archibus.datasource.data.DataRecord;
+import com.archibus.utility.*;
 
 /**
  * Represents a cache of time zone information.
@@ -8,14 +14,41 @@ import java.util.*;
  * Used by the Reservations Application to avoid repetitive querying to the database for determining
  * the time zone of a building. Managed by Spring, has prototype scope. Configured in
  * reservation-context.xml file.
+ * <p>
+ * All instances share the same building time zones, which are loaded for all buildings in a single
+ * query on first use. Buildings without a time zone or added afterwards are resolved once via
+ * LocalDateTimeUtil. The building time zones expire after a fixed time, so changes to the
+ * buildings are picked up without restarting. The resolved java.util.TimeZone objects are cached
+ * as well; these must not be modified. This implementation is thread-safe and only locks while
+ * loading the building time zones.
  *
  * @author Yorik Gerlo
  * @since 22.1
  */
 public class TimeZoneCache {
 
-    /** Maps building codes to time zones. */
-    private final Map<String, String> buildingTimeZones = new HashMap<String, String>();
+    /** Time zone ID field name. */
+    private static final String TIMEZONE_ID = "timezone_id";
+
+    /** Value stored for buildings without a time zone, since the map doesn't allow null. */
+    private static final String NO_TIME_ZONE = "";
+
+    /** Time in millis after which the building time zones are loaded again: 10 minutes. */
+    private static final long TIME_TO_LIVE = 10 * 60 * 1000L;
+
+    /** Maps time zone ids to time zones. */
+    private static final ConcurrentMap<String, TimeZone> TIME_ZONES =
+            new ConcurrentHashMap<String, TimeZone>();
+
+    /** Lock for loading the building time zones. */
+    private static final Object PRELOAD_LOCK = new Object();
+
+    /** Maps building codes to time zone ids, replaced when loaded again. */
+    private static volatile ConcurrentMap<String, String> buildingTimeZones =
+            new ConcurrentHashMap<String, String>();
+
+    /** Time in millis when the time zones of all buildings were loaded, 0 if not loaded. */
+    private static volatile long loadedTime;
 
     /**
      * Get the time zone id for the given building.
@@ -24,17 +57,89 @@ public class TimeZoneCache {
      * @return the time zone id
      */
     public String getBuildingTimeZone(final String buildingId) {
-        String timeZoneId;
-        synchronized (this.buildingTimeZones) {
-            timeZoneId = this.buildingTimeZones.get(buildingId);
+        return TimeZoneConverter.getTimeZoneIdForBuilding(buildingId);
+    }
+
+    /**
+     * Get the time zone id defined for the given building.
+     *
+     * @param buildingId the building id
+     * @return the time zone id, or null if the building has no time zone
+     */
+    public static String getTimeZoneIdForBuilding(final String buildingId) {
+        if (isExpired()) {
+            preload();
         }
+        final ConcurrentMap<String, String> timeZoneIds = buildingTimeZones;
+        String timeZoneId = timeZoneIds.get(buildingId);
         if (timeZoneId == null) {
-            timeZoneId = TimeZoneConverter.getTimeZoneIdForBuilding(buildingId);
-            synchronized (this.buildingTimeZones) {
-                this.buildingTimeZones.put(buildingId, timeZoneId);
+            timeZoneId = LocalDateTimeUtil.getLocationTimeZone(null, null, null, buildingId);
+            timeZoneIds.put(buildingId, timeZoneId == null ? NO_TIME_ZONE : timeZoneId);
+        }
+        return NO_TIME_ZONE.equals(timeZoneId) ? null : timeZoneId;
+    }
+
+    /**
+     * Get the time zone with the given id. The returned time zone is shared and must not be
+     * modified.
+     *
+     * @param timeZoneId the time zone id
+     * @return the time zone, or GMT if the id is not recognized
+     */
+    public static TimeZone getTimeZone(final String timeZoneId) {
+        TimeZone timeZone = TIME_ZONES.get(timeZoneId);
+        if (timeZone == null) {
+            timeZone = TimeZone.getTimeZone(timeZoneId);
+            final TimeZone existing = TIME_ZONES.putIfAbsent(timeZoneId, timeZone);
+            if (existing != null) {
+                timeZone = existing;
+            }
+        }
+        return timeZone;
+    }
+
+    /**
+     * Load the time zones of all buildings in a single query, if not loaded yet or expired.
+     * Buildings without a time zone are not stored, they are resolved via LocalDateTimeUtil when
+     * requested.
+     */
+    public static void preload() {
+        synchronized (PRELOAD_LOCK) {
+            if (!isExpired()) {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            final ConcurrentMap<String, String> timeZoneIds =
+                    new ConcurrentHashMap<String, String>();
+            if (ReservationSchemaCapabilities.get().hasField(Constants.BUILDING_TABLE,
+                TIMEZONE_ID)) {
+                final DataSource dataSource =
+                        DataSourceFactory.createDataSourceForFields(Constants.BUILDING_TABLE,
+                            new String[] { Constants.BL_ID_FIELD_NAME, TIMEZONE_ID });
+                dataSource.setApplyVpaRestrictions(false);
+
+                final String prefix = Constants.BUILDING_TABLE + Constants.DOT;
+                for (final DataRecord record : dataSource.getRecords()) {
+                    final String timeZoneId = record.getString(prefix + TIMEZONE_ID);
+                    if (StringUtil.notNullOrEmpty(timeZoneId)) {
+                        timeZoneIds.put(record.getString(prefix + Constants.BL_ID_FIELD_NAME),
+                            timeZoneId);
+                    }
+                }
             }
+            buildingTimeZones = timeZoneIds;
+            loadedTime = start;
         }
-        return timeZoneId;
+    }
+
+    /**
+     * Check whether the building time zones must be loaded again.
+     *
+     * @return true if not loaded or older than the time to live
+     */
+    private static boolean isExpired() {
+        final long loaded = loadedTime;
+        return loaded == 0 || System.currentTimeMillis() - loaded > TIME_TO_LIVE;
     }
 
 }
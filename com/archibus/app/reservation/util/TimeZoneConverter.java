@@ -50,7 +50,7 @@ public final class TimeZoneConverter {
             Logger.getLogger(TimeZoneConverter.class)
                 .debug("No building ID specified, using default timezone.");
         } else {
-            timeZoneId = LocalDateTimeUtil.getLocationTimeZone(null, null, null, buildingId);
+            timeZoneId = TimeZoneCache.getTimeZoneIdForBuilding(buildingId);
             if (timeZoneId == null) {
                 timeZoneId = TimeZone.getDefault().getID();
                 Logger.getLogger(TimeZoneConverter.class).debug(
@@ -87,10 +87,9 @@ public final class TimeZoneConverter {
 
         for (final String buildingId : uniqueBuildingIds) {
             final JSONObject buildingDateTime = new JSONObject();
-            buildingDateTime.put("date",
-                LocalDateTimeUtil.currentLocalDate(null, null, null, buildingId).toString());
-            buildingDateTime.put("time",
-                LocalDateTimeUtil.currentLocalTime(null, null, null, buildingId).toString());
+            buildingDateTime.put("date", new java.sql.Date(
+                TimePeriod.clearTime(getCurrentLocalDate(buildingId)).getTime()).toString());
+            buildingDateTime.put("time", getCurrentLocalTime(buildingId).toString());
 
             localDateTimes.put(buildingId, buildingDateTime);
         }
@@ -98,6 +97,27 @@ public final class TimeZoneConverter {
         return localDateTimes;
     }
 
+    /**
+     * Get the current local date in the given building, using the cached building time zone.
+     *
+     * @param buildingId the building id
+     * @return the current date in the building's time zone
+     */
+    public static Date getCurrentLocalDate(final String buildingId) {
+        return LocalDateTimeUtil.currentLocalDateForTimeZone(getTimeZoneIdForBuilding(buildingId));
+    }
+
+    /**
+     * Get the current local time in the given building, using the cached building time zone.
+     *
+     * @param buildingId the building id
+     * @return the current time in the building's time zone
+     */
+    public static Time getCurrentLocalTime(final String buildingId) {
+        return new Time(LocalDateTimeUtil
+            .currentLocalTimeForTimeZone(getTimeZoneIdForBuilding(buildingId)).getTime());
+    }
+
     /**
      * Change the time zone of the reservations to the time zone of the requestor. The dates and
      * times in the current reservation objects are modified to reflect the same absolute time as
@@ -129,11 +149,10 @@ public final class TimeZoneConverter {
     public static void convertToTimeZone(final List<RoomReservation> reservations,
             final String timeZone) {
         if (reservations != null && StringUtil.notNullOrEmpty(timeZone)) {
-            final TimeZoneCache timeZoneCache = new TimeZoneCache();
             for (final RoomReservation reservation : reservations) {
                 if (StringUtil.isNullOrEmpty(reservation.getTimeZone())) {
                     reservation.setTimeZone(
-                        timeZoneCache.getBuildingTimeZone(reservation.determineBuildingId()));
+                        getTimeZoneIdForBuilding(reservation.determineBuildingId()));
                 }
                 convertToTimeZone(reservation, timeZone);
             }
@@ -203,7 +222,7 @@ public final class TimeZoneConverter {
         TimeZone targetTimeZone = null;
 
         if (StringUtil.notNullOrEmpty(targetTimeZoneId)) {
-            targetTimeZone = TimeZone.getTimeZone(targetTimeZoneId);
+            targetTimeZone = TimeZoneCache.getTimeZone(targetTimeZoneId);
         } else {
             // if the time zone is not defined for the building, we assume the time zone of the
             // server.
@@ -216,7 +235,7 @@ public final class TimeZoneConverter {
         TimeZone sourceTimeZone = null;
 
         if (StringUtil.notNullOrEmpty(sourceTimeZoneId)) {
-            sourceTimeZone = TimeZone.getTimeZone(sourceTimeZoneId);
+            sourceTimeZone = TimeZoneCache.getTimeZone(sourceTimeZoneId);
         } else {
             sourceTimeZone = TimeZone.getDefault();
         }
@@ -243,8 +262,8 @@ public final class TimeZoneConverter {
      */
     public static int getCombinedOffset(final Date date, final Time time,
             final String sourceTimeZoneId, final String targetTimeZoneId) {
-        final TimeZone sourceTimeZone = TimeZone.getTimeZone(sourceTimeZoneId);
-        final TimeZone targetTimeZone = TimeZone.getTimeZone(targetTimeZoneId);
+        final TimeZone sourceTimeZone = TimeZoneCache.getTimeZone(sourceTimeZoneId);
+        final TimeZone targetTimeZone = TimeZoneCache.getTimeZone(targetTimeZoneId);
         final Date dateTime = Utility.toDatetime(date, time);
 
         return targetTimeZone.getOffset(dateTime.getTime())
@@ -7,8 +7,7 @@ import java.util.*;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
-import com.archibus.app.common.util.SchemaUtils;
-import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.dao.datasource.*;
 import com.archibus.app.reservation.util.*;
 import com.archibus.context.ContextStore;
 import com.archibus.datasource.*;
@@ -17,7 +16,6 @@ import com.archibus.datasource.restriction.Restrictions;
 import com.archibus.datasource.restriction.Restrictions.Restriction;
 import com.archibus.eventhandler.EventHandlerBase;
 import com.archibus.jobmanager.EventHandlerContext;
-import com.archibus.schema.TableDef;
 import com.archibus.service.Configuration;
 import com.archibus.utility.*;
 
@@ -105,6 +103,15 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
      */
     private static final int DEFAULT_MAX_DAYS_AHEAD = 365;
 
+    /** Number of reservation ids to archive in a single batch. */
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+
+    /** Number of milliseconds in a second. */
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    /** Prefix of the historical reservation tables. */
+    private static final String HISTORY_PREFIX = "h";
+
     // ---------------------------------------------------------------------------------------------
     // BEGIN notifyRequestedBy wfr
     // ---------------------------------------------------------------------------------------------
@@ -1083,6 +1090,10 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
      * The data from tables reserve, reserve_rm, reserve_rs and wr will be moved to the historical
      * data tables hreserve, hreserve_rm, hreserve_rs and hwr if the current date is X days after
      * the meeting date. Inputs: context context (EventHandlerContext); Outputs:
+     * <p>
+     * The reservations are moved in batches of reservation ids, committing after each batch. Each
+     * batch starts from the lowest reservation id still to archive, so an interrupted run resumes
+     * where it stopped the next time it runs.
      *
      * @param context Event handler context.
      */
@@ -1094,43 +1105,147 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
                 ReservationsContextHelper.RESERVATIONS_ACTIVITY, "DaysBeforeArchiving", 0);
 
         if (daysBeforeArchiving > 0) {
-            // BEGIN: Move to HRESERVE_RM historical table
-            SqlUtils.executeUpdate("hreserve_rm", buildSqlToArchiveReserveRm(daysBeforeArchiving));
-            setArchiveStatus("hreserve_rm");
-            // Remove the inserted reservations into the historical table from
-            // the original table
-            SqlUtils.executeUpdate("reserve_rm",
-                    "DELETE FROM reserve_rm WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                            + SqlUtils.formatValueForSql(daysBeforeArchiving));
-            // END: Move to HRESERVE_RM historical table
-
-            // BEGIN: Move to HRESERVE_RS historical table
-            SqlUtils.executeUpdate("hreserve_rs", buildSqlToArchiveReserveRs(daysBeforeArchiving));
-            setArchiveStatus("hreserve_rs");
-            SqlUtils.executeUpdate("reserve_rs",
-                    "DELETE FROM reserve_rs WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                            + SqlUtils.formatValueForSql(daysBeforeArchiving));
-            // END: Move to HRESERVE_RS historical table
-
-            // BEGIN: Move to HRESERVE historical table
-            SqlUtils.executeUpdate("hreserve", buildSqlToArchiveReserve(daysBeforeArchiving));
-            setArchiveStatus("hreserve");
-            SqlUtils.executeUpdate(Constants.RESERVE_TABLE_NAME,
-                    "DELETE FROM reserve WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                            + SqlUtils.formatValueForSql(daysBeforeArchiving));
-            // END: Move to HRESERVE historical table
+            final long startTime = System.currentTimeMillis();
+            int archivedRows = 0;
+            Integer batchStart = getFirstReservationToArchive(daysBeforeArchiving, null);
+            while (batchStart != null) {
+                final int batchEnd = batchStart + ARCHIVE_BATCH_SIZE;
+                final String batchRestriction = " AND res_id >= " + batchStart
+                        + " AND res_id < " + batchEnd;
+
+                // BEGIN: Move to HRESERVE_RM historical table
+                archivedRows += archiveTable("reserve_rm", "rmres_id",
+                    buildSqlToArchiveReserveRm(daysBeforeArchiving, batchRestriction),
+                    daysBeforeArchiving, batchRestriction);
+                // END: Move to HRESERVE_RM historical table
+
+                // BEGIN: Move to HRESERVE_RS historical table
+                archivedRows += archiveTable("reserve_rs", "rsres_id",
+                    buildSqlToArchiveReserveRs(daysBeforeArchiving, batchRestriction),
+                    daysBeforeArchiving, batchRestriction);
+                // END: Move to HRESERVE_RS historical table
+
+                // BEGIN: Move to HRESERVE historical table
+                archivedRows += archiveTable(Constants.RESERVE_TABLE_NAME, Constants.RES_ID,
+                    buildSqlToArchiveReserve(daysBeforeArchiving, batchRestriction),
+                    daysBeforeArchiving, batchRestriction);
+                // END: Move to HRESERVE historical table
+
+                // commit each batch, so the next run continues from here if interrupted
+                SqlUtils.commit();
+                this.logger.debug("Archived reservations up to res_id " + (batchEnd - 1));
+                batchStart = getFirstReservationToArchive(daysBeforeArchiving, batchEnd);
+            }
+
+            final long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+            this.logger.info("Archived " + archivedRows + " reservation records in " + duration
+                    + " ms (" + archivedRows * MILLIS_PER_SECOND / duration + " rows per second)");
+        }
+    }
+
+    /**
+     * Get the lowest reservation id with records to archive in reserve, reserve_rm or reserve_rs.
+     *
+     * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @param minimumId the minimum reservation id to consider (null for no minimum)
+     * @return the lowest reservation id to archive, or null if there are none
+     */
+    private static Integer getFirstReservationToArchive(final int daysBeforeArchiving,
+            final Integer minimumId) {
+        Integer firstId = null;
+        for (final String tableName : new String[] { "reserve_rm", "reserve_rs",
+                Constants.RESERVE_TABLE_NAME }) {
+            String sql = "SELECT MIN(res_id) ${sql.as} res_id FROM " + tableName + " WHERE "
+                    + buildArchiveRestriction(daysBeforeArchiving);
+            if (minimumId != null) {
+                sql += " AND res_id >= " + minimumId;
+            }
+            final List<DataRecord> records = SqlUtils.executeQuery(tableName,
+                new String[] { Constants.RES_ID }, sql);
+            if (!records.isEmpty()) {
+                final Object value =
+                        records.get(0).getValue(tableName + Constants.DOT + Constants.RES_ID);
+                if (value != null) {
+                    final int reservationId = ((Number) value).intValue();
+                    if (firstId == null || reservationId < firstId) {
+                        firstId = reservationId;
+                    }
+                }
+            }
+        }
+        return firstId;
+    }
+
+    /**
+     * Move the records of a batch from a reservation table to its historical table. Records that
+     * were already copied by an interrupted run are not copied again. Only the status of the
+     * records moved in this batch is set to Closed.
+     *
+     * @param tableName the reservation table
+     * @param keyField the primary key field of the table
+     * @param insertSql the statement to copy the records of the batch to the historical table
+     * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @param batchRestriction the restriction on reservation id for the batch
+     * @return the number of records moved
+     */
+    private static int archiveTable(final String tableName, final String keyField,
+            final String insertSql, final int daysBeforeArchiving,
+            final String batchRestriction) {
+        final String historyTableName = HISTORY_PREFIX + tableName;
+        final String selectKeys = "SELECT " + keyField + " FROM " + tableName + " WHERE "
+                + buildArchiveRestriction(daysBeforeArchiving) + batchRestriction;
+
+        final List<DataRecord> records = SqlUtils.executeQuery(tableName,
+            new String[] { Constants.RES_ID },
+            "SELECT COUNT(*) ${sql.as} res_id FROM " + tableName + " WHERE "
+                    + buildArchiveRestriction(daysBeforeArchiving) + batchRestriction);
+        final int count = records.isEmpty() ? 0
+                : records.get(0).getInt(tableName + Constants.DOT + Constants.RES_ID);
+
+        if (count > 0) {
+            SqlUtils.executeUpdate(historyTableName, insertSql);
+            setArchiveStatus(historyTableName, keyField + " IN (" + selectKeys + ")");
+            // Remove the inserted reservations into the historical table from the original table
+            SqlUtils.executeUpdate(tableName, "DELETE FROM " + tableName + " WHERE "
+                    + buildArchiveRestriction(daysBeforeArchiving) + batchRestriction);
         }
+        return count;
+    }
+
+    /**
+     * Build the restriction for reservation records old enough to archive.
+     *
+     * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @return SQL restriction
+     */
+    private static String buildArchiveRestriction(final int daysBeforeArchiving) {
+        return "${sql.daysBeforeCurrentDate('date_start')} >= "
+                + SqlUtils.formatValueForSql(daysBeforeArchiving);
+    }
+
+    /**
+     * Build the restriction to skip records already copied to the historical table.
+     *
+     * @param tableName the reservation table
+     * @param keyField the primary key field of the table
+     * @return SQL restriction
+     */
+    private static String buildNotArchivedRestriction(final String tableName,
+            final String keyField) {
+        return " AND NOT EXISTS (SELECT 1 FROM " + HISTORY_PREFIX + tableName + " WHERE "
+                + HISTORY_PREFIX + tableName + Constants.DOT + keyField + " = " + tableName
+                + Constants.DOT + keyField + ")";
     }
 
     /**
      * Build SQL statement to archive the reserve table.
      *
      * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @param batchRestriction additional restriction on the reservations to archive
      * @return SQL statement
      */
-    static String buildSqlToArchiveReserve(final int daysBeforeArchiving) {
-        final TableDef.ThreadSafe reserveTable =
-                ContextStore.get().getProject().loadTableDef(Constants.RESERVE_TABLE_NAME);
+    static String buildSqlToArchiveReserve(final int daysBeforeArchiving,
+            final String batchRestriction) {
         final String[] newFieldNames =
                 new String[] { "outlook_unique_id", "occurrence_index", "res_conference" };
 
@@ -1141,14 +1256,15 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
                         + " user_last_modified_by, cost_res, date_created, date_last_modified, date_cancelled,"
                         + " dv_id, dp_id, ac_id, phone, email, reservation_name, comments, date_start, date_end,"
                         + " time_start, time_end, contact, doc_event," + " recurring_rule, status ";
-        sql += addNewFieldsToArchive(reserveTable, newFieldNames);
+        sql += addNewFieldsToArchive(Constants.RESERVE_TABLE_NAME, newFieldNames);
         sql += ") SELECT res_id, user_created_by, user_requested_by, user_requested_for,"
                 + " user_last_modified_by, cost_res, date_created, date_last_modified, date_cancelled,"
                 + " dv_id, dp_id, ac_id, phone, email, reservation_name, comments, date_start, date_end,"
                 + " time_start, time_end, contact, doc_event, recurring_rule, status ";
-        sql += addNewFieldsToArchive(reserveTable, newFieldNames);
-        sql += " FROM reserve WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                + SqlUtils.formatValueForSql(daysBeforeArchiving);
+        sql += addNewFieldsToArchive(Constants.RESERVE_TABLE_NAME, newFieldNames);
+        sql += " FROM reserve WHERE " + buildArchiveRestriction(daysBeforeArchiving)
+                + batchRestriction
+                + buildNotArchivedRestriction(Constants.RESERVE_TABLE_NAME, Constants.RES_ID);
         return sql;
     }
 
@@ -1156,11 +1272,11 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
      * Build SQL statement to archive the reserve_rm table.
      *
      * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @param batchRestriction additional restriction on the reservations to archive
      * @return SQL statement
      */
-    static String buildSqlToArchiveReserveRm(final int daysBeforeArchiving) {
-        final TableDef.ThreadSafe reserveRmTable =
-                ContextStore.get().getProject().loadTableDef("reserve_rm");
+    static String buildSqlToArchiveReserveRm(final int daysBeforeArchiving,
+            final String batchRestriction) {
         final String[] newFieldNames = new String[] { "verified", "attendees_in_room", "date_end" };
         // Insert the room reservations that meet the criteria into the
         // historical table
@@ -1168,14 +1284,14 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
                 + "cost_rmres, user_last_modified_by, date_last_modified, date_created, "
                 + "date_cancelled, date_rejected, bl_id, fl_id, rm_id, config_id, "
                 + "rm_arrange_type_id, recurring_order, comments, status, guests_internal, guests_external ";
-        sql += addNewFieldsToArchive(reserveRmTable, newFieldNames);
+        sql += addNewFieldsToArchive(Constants.RESERVE_RM_TABLE, newFieldNames);
         sql += ") SELECT res_id, rmres_id, date_start, time_start, time_end, cost_rmres,"
                 + " user_last_modified_by, date_last_modified, date_created, date_cancelled,"
                 + " date_rejected, bl_id, fl_id, rm_id, config_id, rm_arrange_type_id,"
                 + " recurring_order, comments, status, guests_internal, guests_external ";
-        sql += addNewFieldsToArchive(reserveRmTable, newFieldNames);
-        sql += " FROM reserve_rm WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                + SqlUtils.formatValueForSql(daysBeforeArchiving);
+        sql += addNewFieldsToArchive(Constants.RESERVE_RM_TABLE, newFieldNames);
+        sql += " FROM reserve_rm WHERE " + buildArchiveRestriction(daysBeforeArchiving)
+                + batchRestriction + buildNotArchivedRestriction("reserve_rm", "rmres_id");
         return sql;
     }
 
@@ -1183,11 +1299,11 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
      * Build SQL statement to archive the reserve_rs table.
      *
      * @param daysBeforeArchiving the number of days old a reservation must be before archiving
+     * @param batchRestriction additional restriction on the reservations to archive
      * @return SQL statement
      */
-    static String buildSqlToArchiveReserveRs(final int daysBeforeArchiving) {
-        final TableDef.ThreadSafe reserveRsTable =
-                ContextStore.get().getProject().loadTableDef("reserve_rs");
+    static String buildSqlToArchiveReserveRs(final int daysBeforeArchiving,
+            final String batchRestriction) {
         final String[] newFieldNames = new String[] { "date_end" };
         // Insert the resource reservations that meet the criteria into the
         // historical table
@@ -1195,14 +1311,14 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
                 + " cost_rsres, user_last_modified_by, date_last_modified, date_created,"
                 + " date_cancelled, date_rejected, bl_id, fl_id, rm_id, resource_id,"
                 + " quantity, recurring_order, comments, status ";
-        sql += addNewFieldsToArchive(reserveRsTable, newFieldNames);
+        sql += addNewFieldsToArchive(Constants.RESERVE_RS_TABLE, newFieldNames);
         sql += ") SELECT res_id, rsres_id, date_start, time_start, time_end, cost_rsres,"
                 + " user_last_modified_by, date_last_modified, date_created, date_cancelled,"
                 + " date_rejected, bl_id, fl_id, rm_id, resource_id, quantity,"
                 + " recurring_order, comments, status ";
-        sql += addNewFieldsToArchive(reserveRsTable, newFieldNames);
-        sql += " FROM reserve_rs WHERE ${sql.daysBeforeCurrentDate('date_start')} >= "
-                + SqlUtils.formatValueForSql(daysBeforeArchiving);
+        sql += addNewFieldsToArchive(Constants.RESERVE_RS_TABLE, newFieldNames);
+        sql += " FROM reserve_rs WHERE " + buildArchiveRestriction(daysBeforeArchiving)
+                + batchRestriction + buildNotArchivedRestriction("reserve_rs", "rsres_id");
 
         return sql;
     }
@@ -1210,16 +1326,17 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
     /**
      * Add new fields to the archive statement depending on whether they exist in the schema.
      *
-     * @param tableDef the table definition
+     * @param tableName the table name
      * @param fieldNames field names to check
      * @return comma-separated list of fieldNames that exist in the given table
      */
-    private static String addNewFieldsToArchive(final TableDef.ThreadSafe tableDef,
+    private static String addNewFieldsToArchive(final String tableName,
                                                 final String[] fieldNames) {
 
+        final ReservationSchemaCapabilities capabilities = ReservationSchemaCapabilities.get();
         String sql = "";
         for (final String fieldName : fieldNames) {
-            if (tableDef.findFieldDef(fieldName) != null) {
+            if (capabilities.hasField(tableName, fieldName)) {
                 sql += ", " + fieldName;
             }
         }
@@ -1227,19 +1344,37 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
     }
 
     /**
-     * Set the status value of all Awaiting App. and Confirmed records in the given table to Closed.
+     * Set the status value of the Awaiting App. and Confirmed records in the given table to Closed.
      * KB#3030979
      *
      * @param tableName table to update
+     * @param restriction restriction on the records to update
      */
-    private void setArchiveStatus(final String tableName) {
+    private static void setArchiveStatus(final String tableName, final String restriction) {
         SqlUtils.executeUpdate(tableName, "UPDATE " + tableName
-                + " SET status = 'Closed' WHERE status = 'Awaiting App.' OR status = 'Confirmed'");
+                + " SET status = 'Closed' WHERE (status = 'Awaiting App.' OR status = 'Confirmed')"
+                + " AND " + restriction);
     }
     // ---------------------------------------------------------------------------------------------
     // END closeReservations wfr
     // ---------------------------------------------------------------------------------------------
 
+    // ---------------------------------------------------------------------------------------------
+    // BEGIN reloadSchemaCapabilities wfr
+    // ---------------------------------------------------------------------------------------------
+    /**
+     * Resolve the optional fields of the reservation tables again and discard the restriction
+     * templates built for the previous schema. Run after modifying the schema of the reservation
+     * tables, such as adding reserve_rm.date_end, so no restart is needed.
+     */
+    public void reloadSchemaCapabilities() {
+        ReservationSchemaCapabilities.reload();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // END reloadSchemaCapabilities wfr
+    // ---------------------------------------------------------------------------------------------
+
     // ---------------------------------------------------------------------------------------------
     // BEGIN getTimelineLimits
     // ---------------------------------------------------------------------------------------------
@@ -1517,10 +1652,8 @@ public class ReservationsCommonHandler extends ReservationsEventHandlerBase {
                                   final Map<String, String> messages) {
         String endDateLine = "";
         if (RES_TYPE_ROOM.equals(resType)
-                && SchemaUtils.fieldExistsInSchema(Constants.RESERVE_RM_TABLE,
-                Constants.DATE_END_FIELD_NAME)
-                || SchemaUtils.fieldExistsInSchema(Constants.RESERVE_RS_TABLE,
-                Constants.DATE_END_FIELD_NAME)) {
+                && ReservationSchemaCapabilities.get().hasContinuousRoomReservations()
+                || ReservationSchemaCapabilities.get().hasContinuousResourceReservations()) {
             endDateLine += messages.get("BODY18") + SPACE
                     + valuesToMail.get(Constants.DATE_END_FIELD_NAME) + NEWLINE;
         }
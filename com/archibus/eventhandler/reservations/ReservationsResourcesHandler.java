@@ -4,8 +4,7 @@ import java.util.*;
 
 import org.json.JSONObject;
 
-import com.archibus.app.common.util.SchemaUtils;
-import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.dao.datasource.*;
 import com.archibus.app.reservation.service.WorkRequestService;
 import com.archibus.app.reservation.util.ReservationsContextHelper;
 import com.archibus.context.ContextStore;
@@ -277,7 +276,7 @@ public class ReservationsResourcesHandler extends ReservationsEventHandlerBase {
                 + " AND reserve_rs.resource_id=resources.resource_id "
                 + " AND reserve_rs.bl_id = bl.bl_id ";
 
-        if (!SchemaUtils.fieldExistsInSchema("reserve_rs", "date_end")) {
+        if (!ReservationSchemaCapabilities.get().hasContinuousResourceReservations()) {
             querySql = querySql.replace("reserve_rs.date_end", "reserve_rs.date_start");
         }
 
@@ -2,8 +2,7 @@ package com.archibus.eventhandler.reservations;
 
 import java.util.*;
 
-import com.archibus.app.common.util.SchemaUtils;
-import com.archibus.app.reservation.dao.datasource.Constants;
+import com.archibus.app.reservation.dao.datasource.*;
 import com.archibus.app.reservation.service.WorkRequestService;
 import com.archibus.app.reservation.util.ReservationsContextHelper;
 import com.archibus.context.ContextStore;
@@ -271,7 +270,7 @@ public class ReservationsRoomHandler extends ReservationsEventHandlerBase {
                         + " AND reserve_rm.rm_arrange_type_id=rm_arrange.rm_arrange_type_id "
                         + " AND reserve_rm.bl_id=bl.bl_id ";
 
-        if (!SchemaUtils.fieldExistsInSchema("reserve_rm", "date_end")) {
+        if (!ReservationSchemaCapabilities.get().hasContinuousRoomReservations()) {
             querySql = querySql.replace("reserve_rm.date_end", "reserve_rm.date_start");
         }
 